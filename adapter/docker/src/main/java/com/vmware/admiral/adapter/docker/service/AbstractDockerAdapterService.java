@@ -13,7 +13,6 @@ package com.vmware.admiral.adapter.docker.service;
 
 import java.net.URI;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.BiConsumer;
 import java.util.logging.Level;
 
@@ -21,12 +20,13 @@ import com.vmware.admiral.adapter.common.AdapterRequest;
 import com.vmware.admiral.common.DeploymentProfileConfig;
 import com.vmware.admiral.common.util.PropertyUtils;
 import com.vmware.admiral.common.util.ServerX509TrustManager;
-import com.vmware.admiral.common.util.ServiceDocumentQuery;
 import com.vmware.admiral.compute.ComputeConstants;
 import com.vmware.admiral.compute.container.ContainerDescriptionService.ContainerDescription;
+import com.vmware.admiral.service.common.DocumentCacheService;
 import com.vmware.admiral.service.common.ServiceTaskCallback.ServiceTaskCallbackResponse;
 import com.vmware.photon.controller.model.resources.ComputeService.ComputeState;
 import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.ServiceHost.ServiceNotFoundException;
 import com.vmware.xenon.common.StatelessService;
 import com.vmware.xenon.common.TaskState.TaskStage;
 import com.vmware.xenon.common.UriUtils;
@@ -139,33 +139,22 @@ public abstract class AbstractDockerAdapterService extends StatelessService {
             return;
         }
 
-        final AtomicBoolean credentialsFound = new AtomicBoolean();
-
-        new ServiceDocumentQuery<>(getHost(),
-                AuthCredentialsServiceState.class)
-                .queryDocument(credentialsLink, (r) -> {
-                    if (r.hasException()) {
-                        fail(request, r.getException());
-                        if (op != null) {
-                            op.fail(r.getException());
-                        }
-                    } else if (r.hasResult()) {
-                        commandInput.withCredentials(r.getResult());
-
-                        credentialsFound.set(true);
-
-                        callbackFunction.accept(hostComputeState, commandInput);
-                    } else {
-                        if (!credentialsFound.get()) {
-                            Throwable t = new IllegalArgumentException(
-                                    "AuthCredentialsState not found with link: "
-                                            + credentialsLink + request.getRequestTrackingLog());
-                            if (op != null) {
-                                op.fail(t);
-                            }
-                            fail(request, t);
-                        }
+        DocumentCacheService.getDocumentState(this, credentialsLink,
+                AuthCredentialsServiceState.class, (credentials) -> {
+                    commandInput.withCredentials(credentials);
+
+                    callbackFunction.accept(hostComputeState, commandInput);
+                }, (e) -> {
+                    Throwable t = e;
+                    if (e instanceof ServiceNotFoundException) {
+                        t = new IllegalArgumentException(
+                                "AuthCredentialsState not found with link: "
+                                        + credentialsLink + request.getRequestTrackingLog());
+                    }
+                    if (op != null) {
+                        op.fail(t);
                     }
+                    fail(request, t);
                 });
 
         getHost().log(Level.FINE, "Fetching AuthCredentials: %s %s", credentialsLink,
@@ -255,7 +255,9 @@ public class ConfigureHostOverSshTaskService extends
             return;
         }
 
-        String command = getInstallCommand(state, credentials);
+        // the installer restarts the docker daemon and must complete even if the session is
+        // closed meanwhile, e.g. on timeout
+        String command = SshServiceUtil.nohup(getInstallCommand(state, credentials));
 
         getSshServiceUtil().exec(state.address, credentials, command,
                 (op, failure) -> {
@@ -344,7 +346,7 @@ public class ConfigureHostOverSshTaskService extends
 
     private SshServiceUtil getSshServiceUtil() {
         if (sshServiceUtil == null) {
-            sshServiceUtil = new SshServiceUtil(getHost());
+            sshServiceUtil = SshServiceUtil.getInstance(getHost());
         }
 
         return sshServiceUtil;
@@ -11,6 +11,8 @@
 
 package com.vmware.admiral.adapter.docker.service;
 
+import com.vmware.admiral.adapter.docker.util.DockerEventsStream;
+import com.vmware.admiral.adapter.docker.util.DockerStreamDecoder;
 import com.vmware.xenon.common.Operation;
 import com.vmware.xenon.common.Operation.CompletionHandler;
 
@@ -157,6 +159,9 @@ public interface DockerAdapterCommandExecutor {
     String DOCKER_IMAGE_NAME_PROP_NAME = "imageName";
     String DOCKER_IMAGE_DATA_PROP_NAME = "imageData";
     String DOCKER_IMAGE_REGISTRY_AUTH = "X-Registry-Auth";
+    String DOCKER_IMAGE_ID_PROP_NAME = "Id";
+    String DOCKER_IMAGE_REPO_TAGS_PROP_NAME = "RepoTags";
+    String DOCKER_IMAGE_SIZE_PROP_NAME = "Size";
 
     String DOCKER_VOLUME_NAME_PROP_NAME = "Name";
     String DOCKER_VOLUME_DRIVER_PROP_NAME = "Driver";
@@ -203,8 +208,21 @@ public interface DockerAdapterCommandExecutor {
 
     void inspectContainer(CommandInput input, CompletionHandler completionHandler);
 
+    /**
+     * Executes a command in a container and completes with the whole output of the command as
+     * body. The output is limited in size, see {@link #execContainer(CommandInput,
+     * DockerStreamDecoder.FrameListener, CompletionHandler)} for commands with large output.
+     */
     void execContainer(CommandInput input, CompletionHandler completionHandler);
 
+    /**
+     * Executes a command in a container and passes its stdout and stderr output to
+     * <code>outputListener</code> while the command is running. <code>completionHandler</code>
+     * is called once the output ends, the operation it is called with has no body.
+     */
+    void execContainer(CommandInput input, DockerStreamDecoder.FrameListener outputListener,
+            CompletionHandler completionHandler);
+
     void fetchContainerStats(CommandInput input, CompletionHandler completionHandler);
 
     void removeContainer(CommandInput input, CompletionHandler completionHandler);
@@ -220,6 +238,8 @@ public interface DockerAdapterCommandExecutor {
 
     void listContainers(CommandInput input, CompletionHandler completionHandler);
 
+    void listImages(CommandInput input, CompletionHandler completionHandler);
+
     // Network operations:
     void createNetwork(CommandInput input, CompletionHandler completionHandler);
 
@@ -243,5 +263,13 @@ public interface DockerAdapterCommandExecutor {
 
     void removeVolume(CommandInput input, CompletionHandler completionHandler);
 
+    // Event operations:
+    /**
+     * Opens a long lived connection to the docker events endpoint. The optional
+     * {@link #SINCE} property of <code>input</code> replays the events since the given time
+     * (seconds since epoch). The returned stream is already started and can be closed at any time.
+     */
+    DockerEventsStream streamEvents(CommandInput input, DockerEventsStream.Listener listener);
+
     void handleMaintenance(Operation post);
 }
\ No newline at end of file
@@ -71,6 +71,7 @@ import java.io.File;
 import java.io.IOException;
 import java.net.ProtocolException;
 import java.net.URI;
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Base64;
@@ -97,6 +98,7 @@ import com.vmware.admiral.common.AuthCredentialsType;
 import com.vmware.admiral.common.ManagementUriParts;
 import com.vmware.admiral.common.security.EncryptionUtils;
 import com.vmware.admiral.common.util.AssertUtil;
+import com.vmware.admiral.common.util.DockerLogUtil;
 import com.vmware.admiral.common.util.QueryUtil;
 import com.vmware.admiral.common.util.ServiceDocumentQuery;
 import com.vmware.admiral.common.util.ServiceUtils;
@@ -145,6 +147,8 @@ public class DockerAdapterService extends AbstractDockerAdapterService {
 
     private SystemImageRetrievalManager imageRetrievalManager;
 
+    private ImagePullManager imagePullManager;
+
     /**
      * Properties in an inspect response that we want to filter out
      *
@@ -193,6 +197,7 @@ public class DockerAdapterService extends AbstractDockerAdapterService {
     @Override
     public void handleStart(Operation startPost) {
         imageRetrievalManager = new SystemImageRetrievalManager(getHost());
+        imagePullManager = new ImagePullManager();
         super.handleStart(startPost);
     }
 
@@ -317,13 +322,24 @@ public class DockerAdapterService extends AbstractDockerAdapterService {
     }
 
     private void processFetchContainerLog(RequestContext context) {
+        processFetchContainerLog(context, true);
+    }
+
+    /**
+     * Fetches the log of the container, only the lines after the last stored one when
+     * <code>incremental</code> and the stored log has a timestamp.
+     */
+    private void processFetchContainerLog(RequestContext context, boolean incremental) {
         CommandInput fetchLogCommandInput = constructFetchLogCommandInput(context.request,
                 context.commandInput, context.containerState);
+        // the timestamp of the last log line already stored, only the lines after it are fetched
+        Instant lastTimestamp = incremental
+                ? getLastLogTimestamp(context.request, fetchLogCommandInput) : null;
 
         // currently VIC does not support container logs
         if (ContainerHostUtil.isVicHost(context.computeState)) {
             byte[] log = "--".getBytes();
-            processContainerLogResponse(context, log);
+            processContainerLogResponse(context, log, null);
             return;
         }
 
@@ -350,7 +366,9 @@ public class DockerAdapterService extends AbstractDockerAdapterService {
                                 }
                             }
 
-                            if (log == null) {
+                            if (lastTimestamp != null) {
+                                log = DockerLogUtil.entriesAfter(log, lastTimestamp);
+                            } else if (log == null) {
                                 log = "--".getBytes();
                                 // log a warning
                                 String containerId = Service
@@ -358,7 +376,7 @@ public class DockerAdapterService extends AbstractDockerAdapterService {
                                 logWarning("Found empty logs for container %s", containerId);
                             }
 
-                            processContainerLogResponse(context, log);
+                            processContainerLogResponse(context, log, lastTimestamp);
                         });
                     }
                 });
@@ -396,27 +414,76 @@ public class DockerAdapterService extends AbstractDockerAdapterService {
         return fetchLogCommandInput;
     }
 
-    private void processContainerLogResponse(RequestContext context, byte[] log) {
+    /**
+     * Returns the timestamp of the last stored log line when the logs can be fetched
+     * incrementally and sets the since parameter of the fetch accordingly.
+     */
+    private Instant getLastLogTimestamp(ContainerInstanceRequest request,
+            CommandInput fetchLogCommandInput) {
+        if (request.customProperties == null
+                || !Boolean.TRUE.equals(fetchLogCommandInput.getProperties().get(TIMESTAMPS))) {
+            return null;
+        }
+
+        Instant lastTimestamp = DockerLogUtil.parseTimestamp(request.customProperties
+                .get(LogService.LogServiceState.FIELD_NAME_LAST_TIMESTAMP));
+        if (lastTimestamp != null) {
+            // docker accepts the since parameter in seconds, the lines logged in the same second
+            // as the last stored one are fetched again and filtered out later
+            long since = (long) fetchLogCommandInput.getProperties().get(SINCE);
+            fetchLogCommandInput.withProperty(SINCE,
+                    Math.max(since, lastTimestamp.getEpochSecond()));
+        }
+        return lastTimestamp;
+    }
+
+    private void processContainerLogResponse(RequestContext context, byte[] log,
+            Instant lastTimestamp) {
         LogService.LogServiceState logServiceState = new LogService.LogServiceState();
         logServiceState.documentSelfLink = Service.getId(context.containerState.documentSelfLink);
         logServiceState.logs = log;
+        logServiceState.lastTimestamp = DockerLogUtil.lastTimestamp(log);
         logServiceState.tenantLinks = context.containerState.tenantLinks;
 
-        sendRequest(Operation.createPost(this, LogService.FACTORY_LINK)
+        if (lastTimestamp != null && (log == null || log.length == 0)) {
+            // nothing logged since the last fetch
+            completeFetchContainerLog(context);
+            return;
+        }
+
+        Operation op;
+        if (lastTimestamp != null) {
+            // append only the new lines to the stored log
+            op = Operation.createPatch(this, UriUtils.buildUriPath(LogService.FACTORY_LINK,
+                    logServiceState.documentSelfLink));
+        } else {
+            op = Operation.createPost(this, LogService.FACTORY_LINK);
+        }
+
+        sendRequest(op
                 .setBody(logServiceState)
                 .setContextId(context.request.getRequestId())
                 .setCompletion((o, ex) -> {
-                    if (ex != null) {
+                    if (ex != null && lastTimestamp != null
+                            && o.getStatusCode() == Operation.STATUS_CODE_NOT_FOUND) {
+                        // the stored log has expired in the meantime, create it again from the
+                        // whole log of the container
+                        processFetchContainerLog(context, false);
+                    } else if (ex != null) {
                         fail(context.request, ex);
                     } else {
-                        if (context.request.serviceTaskCallback.isEmpty()) {
-                            /* avoid logging warnings */
-                            patchTaskStage(context.request, TaskStage.FINISHED, null);
-                        }
+                        completeFetchContainerLog(context);
                     }
                 }));
     }
 
+    private void completeFetchContainerLog(RequestContext context) {
+        if (context.request.serviceTaskCallback.isEmpty()) {
+            /* avoid logging warnings */
+            patchTaskStage(context.request, TaskStage.FINISHED, null);
+        }
+    }
+
     private void processCreateImage(RequestContext context) {
         sendRequest(Operation.createGet(this, context.containerState.descriptionLink)
                 .setContextId(context.request.getRequestId())
@@ -519,17 +586,7 @@ public class DockerAdapterService extends AbstractDockerAdapterService {
                     context.operation,
                     () -> processCreateContainer(context, 0));
         } else if (imageReference == null) {
-            // canonicalize the image name (add latest tag if needed)
-            String fullImageName = DockerImage.fromImageName(context.containerDescription.image)
-                    .toString();
-
-            // use 'fromImage' - this will perform a docker pull
-            createImageCommandInput.withProperty(DOCKER_IMAGE_FROM_PROP_NAME,
-                    fullImageName);
-
-            getHost().log(Level.INFO, "Pulling image: %s %s", fullImageName,
-                    context.request.getRequestTrackingLog());
-            processPullImageFromRegistry(context, createImageCommandInput, imageCompletionHandler);
+            processPullImageAndCreateContainer(context, 0);
         } else {
             // fetch the image first, then execute a image load command
             getHost().log(Level.INFO, "Downloading image from: %s %s", imageReference,
@@ -639,13 +696,65 @@ public class DockerAdapterService extends AbstractDockerAdapterService {
         context.executor.loadImage(loadCommandInput, imageCompletionHandler);
     }
 
+    private boolean isPulledFromRegistry(RequestContext context) {
+        return context.containerDescription.imageReference == null
+                && !SystemContainerDescriptions.getAgentImageNameAndVersion()
+                        .equals(context.containerDescription.image)
+                && !shouldTryCreateFromLocalImage(context.containerDescription);
+    }
+
+    private void processPullImageAndCreateContainer(RequestContext context, int retriesCount) {
+        String fullImageName = getFullImageName(context);
+
+        // use 'fromImage' - this will perform a docker pull
+        CommandInput createImageCommandInput = new CommandInput(context.commandInput)
+                .withProperty(DOCKER_IMAGE_FROM_PROP_NAME, fullImageName);
+
+        getHost().log(Level.INFO, "Pulling image: %s %s", fullImageName,
+                context.request.getRequestTrackingLog());
+        processPullImageFromRegistry(context, createImageCommandInput, (o, ex) -> {
+            if (ex != null) {
+                fail(context.request, o, ex);
+            } else {
+                handleExceptions(
+                        context.request,
+                        context.operation,
+                        () -> processCreateContainer(context, retriesCount));
+            }
+        });
+    }
+
+    /**
+     * Returns the canonical name of the image of the container (with the latest tag if needed),
+     * the name the image is pulled and created with.
+     */
+    private static String getFullImageName(RequestContext context) {
+        return DockerImage.fromImageName(context.containerDescription.image).toString();
+    }
+
     private void processPullImageFromRegistry(RequestContext context,
             CommandInput createImageCommandInput, CompletionHandler imageCompletionHandler) {
 
-        ensurePropertyExists((retryCountProperty) -> {
-            processPullImageFromRegistryWithRetry(context, createImageCommandInput,
-                    imageCompletionHandler, 0, retryCountProperty);
-        });
+        // concurrent creates of containers with the same image on the same host share one pull
+        String fullImageName = (String) createImageCommandInput.getProperties()
+                .get(DOCKER_IMAGE_FROM_PROP_NAME);
+        String registryAuth = (String) createImageCommandInput.getProperties()
+                .get(DOCKER_IMAGE_REGISTRY_AUTH);
+
+        imagePullManager.pullImage(context.computeState.documentSelfLink, fullImageName,
+                registryAuth, (pullCompletionHandler) -> {
+                    ensurePropertyExists((retryCountProperty) -> {
+                        processPullImageFromRegistryWithRetry(context, createImageCommandInput,
+                                pullCompletionHandler, 0, retryCountProperty);
+                    });
+                }, (o, ex) -> {
+                    if (o == null && ex == null) {
+                        logFine("Image %s was pulled recently on %s, skipping pull %s",
+                                fullImageName, context.computeState.documentSelfLink,
+                                context.request.getRequestTrackingLog());
+                    }
+                    imageCompletionHandler.handle(o, ex);
+                });
     }
 
     private void processPullImageFromRegistryWithRetry(RequestContext context,
@@ -655,8 +764,7 @@ public class DockerAdapterService extends AbstractDockerAdapterService {
         context.executor.createImage(createImageCommandInput, (op, ex) -> {
             if (ex != null && RETRIABLE_HTTP_STATUSES.contains(op.getStatusCode())
                         && retryCount.getAndIncrement() < maxRetryCount) {
-                String fullImageName = DockerImage.fromImageName(context.containerDescription.image)
-                        .toString();
+                String fullImageName = getFullImageName(context);
                 logWarning("Pulling image %s failed with %s. Retries left %d",
                         fullImageName, Utils.toString(ex),
                         maxRetryCount - retryCount.get());
@@ -672,8 +780,7 @@ public class DockerAdapterService extends AbstractDockerAdapterService {
     private void processCreateContainer(RequestContext context, int retriesCount) {
         AssertUtil.assertNotEmpty(context.containerState.names, "containerState.names");
 
-        String fullImageName = DockerImage.fromImageName(context.containerDescription.image)
-                .toString();
+        String fullImageName = getFullImageName(context);
 
         CommandInput createCommandInput = new CommandInput(context.commandInput)
                 .withProperty(DOCKER_CONTAINER_IMAGE_PROP_NAME,
@@ -803,7 +910,15 @@ public class DockerAdapterService extends AbstractDockerAdapterService {
                         logWarning("Provisioning for container %s failed with %s. Retries left %d",
                                 context.containerState.names.get(0), Utils.toString(ex),
                                 retryCountProperty - retryCount.get());
-                        processCreateContainer(context, retryCount.get());
+                        if (o.getStatusCode() == HttpStatus.SC_NOT_FOUND
+                                && isPulledFromRegistry(context)) {
+                            // the image may have been removed since it was last pulled
+                            imagePullManager.invalidate(context.computeState.documentSelfLink,
+                                    fullImageName);
+                            processPullImageAndCreateContainer(context, retryCount.get());
+                        } else {
+                            processCreateContainer(context, retryCount.get());
+                        }
                     } else {
                         fail(context.request, o, ex);
                     }
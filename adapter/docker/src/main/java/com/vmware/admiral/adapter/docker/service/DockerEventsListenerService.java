@@ -0,0 +1,475 @@
+/*
+ * Copyright (c) 2016 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.adapter.docker.service;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.vmware.admiral.adapter.common.AdapterRequest;
+import com.vmware.admiral.adapter.common.ContainerOperationType;
+import com.vmware.admiral.adapter.docker.util.DockerEventsStream;
+import com.vmware.admiral.common.DeploymentProfileConfig;
+import com.vmware.admiral.common.ManagementUriParts;
+import com.vmware.admiral.common.util.QueryUtil;
+import com.vmware.admiral.common.util.ServiceDocumentQuery;
+import com.vmware.admiral.compute.ComputeConstants;
+import com.vmware.admiral.compute.ContainerHostService;
+import com.vmware.admiral.compute.container.ContainerService.ContainerState;
+import com.vmware.admiral.compute.container.HostContainerListDataCollection.ContainerListCallback;
+import com.vmware.admiral.compute.container.HostContainerListDataCollection.HostContainerListDataCollectionFactoryService;
+import com.vmware.admiral.service.common.ServiceTaskCallback;
+import com.vmware.photon.controller.model.resources.ComputeService.ComputeState;
+import com.vmware.photon.controller.model.resources.ComputeService.PowerState;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.UriUtils;
+import com.vmware.xenon.common.Utils;
+import com.vmware.xenon.services.common.NodeSelectorService.SelectOwnerResponse;
+import com.vmware.xenon.services.common.QueryTask;
+import com.vmware.xenon.services.common.QueryTask.QuerySpecification;
+import com.vmware.xenon.services.common.ServiceUriPaths;
+
+/**
+ * Keeps one long lived docker events stream per container host and turns the received container
+ * events into targeted container inspections. Container creation and removal events, as well as
+ * every (re)connect of a stream, trigger a list data collection for the host only. While a stream
+ * is connected the host is marked with
+ * {@link ContainerHostService#DOCKER_HOST_EVENTS_STREAM_PROP_NAME} so that the periodic full
+ * list data collection can run less often.
+ *
+ * Only hosts owned by the current node are streamed, so every host has a single stream in a
+ * cluster of nodes.
+ */
+public class DockerEventsListenerService extends AbstractDockerAdapterService {
+    public static final String SELF_LINK = ManagementUriParts.ADAPTER_DOCKER_EVENTS;
+
+    private static final long RECONNECT_MIN_DELAY_MILLIS = Long.getLong(
+            "adapter.docker.events.reconnect.min.delay.millis", 1000);
+    private static final long RECONNECT_MAX_DELAY_MILLIS = Long.getLong(
+            "adapter.docker.events.reconnect.max.delay.millis", TimeUnit.MINUTES.toMillis(1));
+    private static final long EVENTS_COALESCE_DELAY_MILLIS = Long.getLong(
+            "adapter.docker.events.coalesce.delay.millis", 500);
+
+    static final String EVENT_TYPE = "Type";
+    static final String EVENT_ACTION = "Action";
+    static final String EVENT_STATUS = "status";
+    static final String EVENT_ID = "id";
+    static final String EVENT_ACTOR = "Actor";
+    static final String EVENT_ACTOR_ID = "ID";
+    static final String EVENT_TIME = "time";
+    static final String CONTAINER_EVENT_TYPE = "container";
+
+    /** Events which do not change the state of the container. */
+    private static final Set<String> IGNORED_ACTIONS = new HashSet<>(Arrays.asList(
+            "exec_create", "exec_start", "exec_detach", "attach", "detach", "resize", "top",
+            "copy", "export", "commit", "archive-path", "extract-to-dir"));
+
+    /** Events which add, remove or rename containers and require a container list. */
+    private static final Set<String> RESYNC_ACTIONS = new HashSet<>(Arrays.asList(
+            "create", "destroy", "rename"));
+
+    public static class EventsListenerRequest {
+        /** The link of the container host to start or stop listening for events. */
+        public String containerHostLink;
+
+        /** Stop listening for events of the given host. */
+        public boolean unsubscribe;
+    }
+
+    public static class EventsListenerState {
+        /** The connected host links with the time of the last received event in seconds. */
+        public Map<String, Long> connectedHosts;
+
+        /** The host links with a stream, connected or waiting for reconnect. */
+        public Set<String> hosts;
+    }
+
+    private final Map<String, HostEventsStream> streams = new ConcurrentHashMap<>();
+
+    private class HostEventsStream implements DockerEventsStream.Listener {
+        private final String hostLink;
+        private final Set<String> pendingInspections = ConcurrentHashMap.newKeySet();
+        private final AtomicBoolean pendingResync = new AtomicBoolean();
+
+        private volatile DockerEventsStream stream;
+        private volatile boolean stopped;
+        private volatile boolean connected;
+        private volatile long lastEventTimeSeconds;
+        private volatile int failedAttempts;
+        private volatile Boolean markedConnected;
+
+        private HostEventsStream(String hostLink) {
+            this.hostLink = hostLink;
+        }
+
+        @Override
+        public void onConnected() {
+            connected = true;
+            failedAttempts = 0;
+            logInfo("Events stream for host %s connected", hostLink);
+            markHost(this, true);
+            // events might have been missed while the stream was not connected
+            requestResync(this);
+        }
+
+        @Override
+        public void onEvent(Map<String, Object> event) {
+            handleEvent(this, event);
+        }
+
+        @Override
+        public void onClosed(Throwable failure) {
+            connected = false;
+            if (stopped) {
+                markHost(this, false);
+                return;
+            }
+
+            if (failure != null) {
+                failedAttempts++;
+                logWarning("Events stream for host %s failed: %s", hostLink,
+                        failure.getMessage());
+            } else {
+                logInfo("Events stream for host %s closed by the remote side", hostLink);
+            }
+            markHost(this, false);
+            scheduleReconnect(this);
+        }
+
+        private void stop() {
+            stopped = true;
+            DockerEventsStream s = stream;
+            if (s != null) {
+                s.close();
+            } else {
+                markHost(this, false);
+            }
+        }
+    }
+
+    @Override
+    public void handleGet(Operation get) {
+        EventsListenerState state = new EventsListenerState();
+        state.connectedHosts = new HashMap<>();
+        state.hosts = new HashSet<>(streams.keySet());
+        for (HostEventsStream hostStream : streams.values()) {
+            if (hostStream.connected) {
+                state.connectedHosts.put(hostStream.hostLink, hostStream.lastEventTimeSeconds);
+            }
+        }
+        get.setBody(state).complete();
+    }
+
+    @Override
+    public void handlePatch(Operation op) {
+        EventsListenerRequest request = op.getBody(EventsListenerRequest.class);
+        if (request.containerHostLink == null || request.containerHostLink.isEmpty()) {
+            op.fail(new IllegalArgumentException("'containerHostLink' is required"));
+            return;
+        }
+
+        if (request.unsubscribe) {
+            unsubscribe(request.containerHostLink);
+        } else {
+            subscribe(request.containerHostLink);
+        }
+        op.complete();
+    }
+
+    @Override
+    public void handleStop(Operation delete) {
+        for (String hostLink : streams.keySet()) {
+            unsubscribe(hostLink);
+        }
+        super.handleStop(delete);
+    }
+
+    @Override
+    public void handleMaintenance(Operation post) {
+        if (getProcessingStage() != ProcessingStage.AVAILABLE) {
+            logFine("Skipping maintenance since service is not available: %s ", getUri());
+            post.complete();
+            return;
+        }
+
+        if (DeploymentProfileConfig.getInstance().isTest()) {
+            logFine("Skipping scheduled maintenance in test mode: %s", getUri());
+            post.complete();
+            return;
+        }
+
+        syncHosts(post);
+    }
+
+    /**
+     * Opens streams for the powered on container hosts owned by this node and closes the streams
+     * of hosts that were removed, powered off or moved to another node.
+     */
+    private void syncHosts(Operation post) {
+        QueryTask q = QueryUtil.buildPropertyQuery(ComputeState.class,
+                QuerySpecification.buildCompositeFieldName(
+                        ComputeState.FIELD_NAME_CUSTOM_PROPERTIES,
+                        ComputeConstants.COMPUTE_CONTAINER_HOST_PROP_NAME), "true",
+                ComputeState.FIELD_NAME_POWER_STATE, PowerState.ON.toString());
+        q.querySpec.resultLimit = ServiceDocumentQuery.DEFAULT_QUERY_RESULT_LIMIT;
+
+        Set<String> activeHostLinks = new HashSet<>();
+        new ServiceDocumentQuery<>(getHost(), ComputeState.class).query(q, (r) -> {
+            if (r.hasException()) {
+                logWarning("Failed to retrieve container hosts for events streams: %s",
+                        Utils.toString(r.getException()));
+                post.complete();
+            } else if (r.hasResult()) {
+                activeHostLinks.add(r.getDocumentSelfLink());
+            } else {
+                for (String hostLink : streams.keySet()) {
+                    if (!activeHostLinks.contains(hostLink)) {
+                        unsubscribe(hostLink);
+                    }
+                }
+                for (String hostLink : activeHostLinks) {
+                    subscribeIfOwner(hostLink);
+                }
+                post.complete();
+            }
+        });
+    }
+
+    private void subscribeIfOwner(String hostLink) {
+        getHost().selectOwner(ServiceUriPaths.DEFAULT_NODE_SELECTOR, hostLink,
+                Operation.createPost(null).setCompletion((o, e) -> {
+                    if (e != null) {
+                        logWarning("Failed to select owner for %s: %s", hostLink,
+                                Utils.toString(e));
+                        return;
+                    }
+                    SelectOwnerResponse rsp = o.getBody(SelectOwnerResponse.class);
+                    if (rsp.isLocalHostOwner) {
+                        subscribe(hostLink);
+                    } else {
+                        unsubscribe(hostLink);
+                    }
+                }));
+    }
+
+    private void subscribe(String hostLink) {
+        HostEventsStream hostStream = new HostEventsStream(hostLink);
+        if (streams.putIfAbsent(hostLink, hostStream) == null) {
+            connect(hostStream);
+        }
+    }
+
+    private void unsubscribe(String hostLink) {
+        HostEventsStream hostStream = streams.remove(hostLink);
+        if (hostStream != null) {
+            logInfo("Closing events stream for host %s", hostLink);
+            hostStream.stop();
+        }
+    }
+
+    private void connect(HostEventsStream hostStream) {
+        if (hostStream.stopped) {
+            return;
+        }
+
+        AdapterRequest request = new AdapterRequest();
+        request.resourceReference = UriUtils.buildUri(getHost(), hostStream.hostLink);
+        request.serviceTaskCallback = ServiceTaskCallback.createEmpty();
+
+        Operation connectOp = Operation.createGet(null).setCompletion((o, e) -> {
+            if (e != null) {
+                hostStream.failedAttempts++;
+                scheduleReconnect(hostStream);
+            }
+        });
+
+        getContainerHost(request, connectOp, request.resourceReference,
+                (computeState, commandInput) -> {
+                    if (hostStream.stopped) {
+                        return;
+                    }
+                    if (hostStream.lastEventTimeSeconds > 0) {
+                        // replay the events missed while reconnecting
+                        commandInput.withProperty(DockerAdapterCommandExecutor.SINCE,
+                                hostStream.lastEventTimeSeconds);
+                    }
+                    hostStream.stream = getCommandExecutor().streamEvents(commandInput,
+                            hostStream);
+                });
+    }
+
+    private void scheduleReconnect(HostEventsStream hostStream) {
+        if (hostStream.stopped || getHost().isStopping()) {
+            return;
+        }
+
+        long delay = Math.min(RECONNECT_MAX_DELAY_MILLIS,
+                RECONNECT_MIN_DELAY_MILLIS << Math.min(hostStream.failedAttempts, 16));
+        logFine("Reconnecting events stream for host %s in %s ms", hostStream.hostLink, delay);
+        getHost().schedule(() -> connect(hostStream), delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void handleEvent(HostEventsStream hostStream, Map<String, Object> event) {
+        Object time = event.get(EVENT_TIME);
+        if (time instanceof Number) {
+            hostStream.lastEventTimeSeconds = Math.max(hostStream.lastEventTimeSeconds,
+                    ((Number) time).longValue());
+        }
+
+        String type = (String) event.get(EVENT_TYPE);
+        if (type != null && !CONTAINER_EVENT_TYPE.equals(type)) {
+            return;
+        }
+
+        String containerId = getContainerId(event);
+        String action = getAction(event);
+        if (containerId == null || action == null || IGNORED_ACTIONS.contains(action)) {
+            return;
+        }
+
+        logFine("Docker event [%s] for container %s on host %s", action, containerId,
+                hostStream.hostLink);
+
+        if (RESYNC_ACTIONS.contains(action)) {
+            requestResync(hostStream);
+        } else {
+            requestInspection(hostStream, containerId);
+        }
+    }
+
+    static String getContainerId(Map<String, Object> event) {
+        Object id = event.get(EVENT_ID);
+        if (id == null && event.get(EVENT_ACTOR) instanceof Map) {
+            id = ((Map<?, ?>) event.get(EVENT_ACTOR)).get(EVENT_ACTOR_ID);
+        }
+        return id != null ? id.toString() : null;
+    }
+
+    static String getAction(Map<String, Object> event) {
+        Object action = event.get(EVENT_ACTION);
+        if (action == null) {
+            action = event.get(EVENT_STATUS);
+        }
+        if (action == null) {
+            return null;
+        }
+        // e.g. "health_status: healthy"
+        String value = action.toString();
+        int idx = value.indexOf(':');
+        return idx == -1 ? value : value.substring(0, idx);
+    }
+
+    /**
+     * Inspect the container after a short delay so that a burst of events for the same container
+     * (e.g. kill, die, stop) results in a single inspection.
+     */
+    private void requestInspection(HostEventsStream hostStream, String containerId) {
+        if (!hostStream.pendingInspections.add(containerId)) {
+            return;
+        }
+        getHost().schedule(() -> {
+            hostStream.pendingInspections.remove(containerId);
+            inspectContainer(hostStream, containerId);
+        }, EVENTS_COALESCE_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private void inspectContainer(HostEventsStream hostStream, String containerId) {
+        QueryTask q = QueryUtil.buildPropertyQuery(ContainerState.class,
+                ContainerState.FIELD_NAME_ID, containerId,
+                ContainerState.FIELD_NAME_PARENT_LINK, hostStream.hostLink);
+        QueryUtil.addExpandOption(q);
+
+        AtomicBoolean found = new AtomicBoolean();
+        new ServiceDocumentQuery<>(getHost(), ContainerState.class).query(q, (r) -> {
+            if (r.hasException()) {
+                logWarning("Failed to retrieve container %s on host %s: %s", containerId,
+                        hostStream.hostLink, Utils.toString(r.getException()));
+            } else if (r.hasResult()) {
+                found.set(true);
+                requestContainerInspection(r.getResult());
+            } else if (!found.get()) {
+                // not known yet, it will be discovered by the list data collection
+                requestResync(hostStream);
+            }
+        });
+    }
+
+    private void requestContainerInspection(ContainerState containerState) {
+        if (containerState.adapterManagementReference == null
+                || containerState.powerState == null
+                || containerState.powerState.isUnmanaged()) {
+            return;
+        }
+
+        AdapterRequest request = new AdapterRequest();
+        request.resourceReference = UriUtils.buildPublicUri(getHost(),
+                containerState.documentSelfLink);
+        request.operationTypeId = ContainerOperationType.INSPECT.id;
+        request.serviceTaskCallback = ServiceTaskCallback.createEmpty();
+        sendRequest(Operation
+                .createPatch(this, containerState.adapterManagementReference.toString())
+                .setBody(request)
+                .setCompletion((o, ex) -> {
+                    if (ex != null) {
+                        logWarning("Exception while inspect request for container: %s. Error: %s",
+                                containerState.documentSelfLink, Utils.toString(ex));
+                    }
+                }));
+    }
+
+    private void requestResync(HostEventsStream hostStream) {
+        if (!hostStream.pendingResync.compareAndSet(false, true)) {
+            return;
+        }
+        getHost().schedule(() -> {
+            hostStream.pendingResync.set(false);
+
+            ContainerListCallback body = new ContainerListCallback();
+            body.containerHostLink = hostStream.hostLink;
+            sendRequest(Operation
+                    .createPatch(this, HostContainerListDataCollectionFactoryService
+                            .DEFAULT_HOST_CONTAINER_LIST_DATA_COLLECTION_LINK)
+                    .setBody(body)
+                    .setCompletion((o, ex) -> {
+                        if (ex != null) {
+                            logWarning("Failed to request container list for host %s: %s",
+                                    hostStream.hostLink, Utils.toString(ex));
+                        }
+                    }));
+        }, EVENTS_COALESCE_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private void markHost(HostEventsStream hostStream, boolean connected) {
+        if (Boolean.valueOf(connected).equals(hostStream.markedConnected)) {
+            return;
+        }
+        hostStream.markedConnected = connected;
+
+        ComputeState patch = new ComputeState();
+        patch.customProperties = new HashMap<>();
+        patch.customProperties.put(ContainerHostService.DOCKER_HOST_EVENTS_STREAM_PROP_NAME,
+                Boolean.toString(connected));
+        sendRequest(Operation.createPatch(this, hostStream.hostLink)
+                .setBody(patch)
+                .setCompletion((o, ex) -> {
+                    if (ex != null) {
+                        logFine("Failed to mark events stream state of host %s: %s",
+                                hostStream.hostLink, Utils.toString(ex));
+                    }
+                }));
+    }
+}
@@ -16,6 +16,9 @@ import static com.vmware.admiral.adapter.docker.service.DockerAdapterCommandExec
 import static com.vmware.admiral.adapter.docker.service.DockerAdapterCommandExecutor.DOCKER_CONTAINER_NAMES_PROP_NAME;
 import static com.vmware.admiral.adapter.docker.service.DockerAdapterCommandExecutor.DOCKER_CONTAINER_NETWORK_ID_PROP_NAME;
 import static com.vmware.admiral.adapter.docker.service.DockerAdapterCommandExecutor.DOCKER_CONTAINER_NETWORK_NAME_PROP_NAME;
+import static com.vmware.admiral.adapter.docker.service.DockerAdapterCommandExecutor.DOCKER_IMAGE_ID_PROP_NAME;
+import static com.vmware.admiral.adapter.docker.service.DockerAdapterCommandExecutor.DOCKER_IMAGE_REPO_TAGS_PROP_NAME;
+import static com.vmware.admiral.adapter.docker.service.DockerAdapterCommandExecutor.DOCKER_IMAGE_SIZE_PROP_NAME;
 import static com.vmware.admiral.adapter.docker.service.DockerNetworkAdapterService.DOCKER_PREDEFINED_NETWORKS;
 import static com.vmware.admiral.compute.ContainerHostService.SSL_TRUST_ALIAS_PROP_NAME;
 import static com.vmware.admiral.compute.ContainerHostService.SSL_TRUST_CERT_PROP_NAME;
@@ -33,6 +36,8 @@ import com.vmware.admiral.common.ManagementUriParts;
 import com.vmware.admiral.compute.ContainerHostService;
 import com.vmware.admiral.compute.container.ContainerDescriptionService.ContainerDescription;
 import com.vmware.admiral.compute.container.HostContainerListDataCollection.ContainerListCallback;
+import com.vmware.admiral.compute.container.HostImageInventoryService;
+import com.vmware.admiral.compute.container.HostImageInventoryService.HostImageInventoryState;
 import com.vmware.admiral.compute.container.HostNetworkListDataCollection.NetworkListCallback;
 import com.vmware.admiral.compute.container.ShellContainerExecutorService;
 import com.vmware.photon.controller.model.resources.ComputeService;
@@ -77,6 +82,11 @@ public class DockerHostAdapterService extends AbstractDockerAdapterService {
             getContainerHost(request, op, request.resourceReference,
                     (computeState, commandInput) ->
                     directListNetworks(request, op, computeState, commandInput));
+        } else if (ContainerHostOperationType.LIST_IMAGES == request.getOperationType()
+                && request.serviceTaskCallback.isEmpty()) {
+            getContainerHost(request, op, request.resourceReference,
+                    (computeState, commandInput) ->
+                    directListImages(request, op, computeState, commandInput));
         } else {
             getContainerHost(request, op, request.resourceReference,
                     (computeState, commandInput) ->
@@ -103,6 +113,9 @@ public class DockerHostAdapterService extends AbstractDockerAdapterService {
         case LIST_NETWORKS:
             doListNetworks(request, computeState, commandInput);
             break;
+        case LIST_IMAGES:
+            doListImages(request, computeState, commandInput);
+            break;
         case STATS:
             doStats(request, computeState);
             break;
@@ -343,6 +356,83 @@ public class DockerHostAdapterService extends AbstractDockerAdapterService {
         return callbackResponse;
     }
 
+    private void doListImages(ContainerHostRequest request, ComputeState computeState,
+            CommandInput commandInput) {
+        updateSslTrust(request, commandInput);
+
+        listAndStoreImages(computeState, commandInput, (o, ex) -> {
+            if (ex != null) {
+                fail(request, o, ex);
+            } else {
+                patchTaskStage(request, TaskStage.FINISHED, null);
+            }
+        });
+    }
+
+    // get images within the current operation without using callback
+    private void directListImages(ContainerHostRequest request, Operation op,
+            ComputeState computeState, CommandInput commandInput) {
+        updateSslTrust(request, commandInput);
+
+        listAndStoreImages(computeState, commandInput, (o, ex) -> {
+            if (ex != null) {
+                op.fail(ex);
+            } else {
+                op.setBody(o.getBodyRaw());
+                op.complete();
+            }
+        });
+    }
+
+    /**
+     * List the images of the host and store them as the image inventory of the host. The
+     * inventory is completed as body of the operation passed to the callback.
+     */
+    private void listAndStoreImages(ComputeState computeState, CommandInput commandInput,
+            CompletionHandler callback) {
+        getCommandExecutor().listImages(commandInput, (o, ex) -> {
+            if (ex != null) {
+                callback.handle(o, ex);
+                return;
+            }
+
+            HostImageInventoryState inventory = createImageInventory(computeState, o);
+            logFine("Collection returned %d images for host %s",
+                    inventory.images == null ? 0 : inventory.images.size(),
+                    computeState.documentSelfLink);
+
+            sendRequest(Operation
+                    .createPost(this, HostImageInventoryService.FACTORY_LINK)
+                    .setBody(inventory)
+                    .setCompletion((o1, ex1) -> {
+                        if (ex1 != null) {
+                            callback.handle(o1, ex1);
+                        } else {
+                            callback.handle(o1.setBody(inventory), null);
+                        }
+                    }));
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private HostImageInventoryState createImageInventory(ComputeState computeState,
+            Operation o) {
+        List<Map<String, Object>> imageList = o.getBody(List.class);
+
+        HostImageInventoryState inventory = new HostImageInventoryState();
+        inventory.documentSelfLink = HostImageInventoryService
+                .getInventoryLink(computeState.documentSelfLink);
+        inventory.hostLink = computeState.documentSelfLink;
+
+        for (Map<String, Object> imageData : imageList) {
+            Object size = imageData.get(DOCKER_IMAGE_SIZE_PROP_NAME);
+            inventory.addImage((String) imageData.get(DOCKER_IMAGE_ID_PROP_NAME),
+                    (List<String>) imageData.get(DOCKER_IMAGE_REPO_TAGS_PROP_NAME),
+                    size instanceof Number ? ((Number) size).longValue() : null);
+        }
+        return inventory;
+    }
+
     private void patchHostState(ContainerHostRequest request, Map<String, Object> properties,
             CompletionHandler callback) {
         ComputeState computeState = new ComputeState();
@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2016 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.adapter.docker.service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.Operation.CompletionHandler;
+import com.vmware.xenon.common.Utils;
+
+/**
+ * Coalesces concurrent pulls of the same image on the same docker host. The first request starts
+ * the pull and the requests that arrive while it is in progress wait for it and share its result.
+ * An image pulled successfully is considered present on the host for a short period of time,
+ * during which new requests for it complete without contacting the docker host at all.
+ */
+public class ImagePullManager {
+
+    public static final long IMAGE_PRESENT_TTL_MICROS = Long.getLong(
+            "adapter.docker.image.pull.present.ttl.micros", TimeUnit.SECONDS.toMicros(60));
+
+    private static final int MAX_PRESENT_IMAGES = 1024;
+
+    private final Object PULL_LOCK = new Object();
+
+    private final Map<String, List<CompletionHandler>> pendingHandlersByKey = new HashMap<>();
+
+    private final Map<String, Long> pulledTimeByKey = new HashMap<>();
+
+    private final long presentTtlMicros;
+
+    public ImagePullManager() {
+        this(IMAGE_PRESENT_TTL_MICROS);
+    }
+
+    public ImagePullManager(long presentTtlMicros) {
+        this.presentTtlMicros = presentTtlMicros;
+    }
+
+    /**
+     * Pulls the given image on the given host unless a pull for it is already in progress or it
+     * has been pulled recently.
+     *
+     * @param hostLink
+     *            the link of the docker host the image is pulled on
+     * @param imageName
+     *            the canonical name of the image
+     * @param registryAuth
+     *            the registry credentials used for the pull, pulls with different credentials are
+     *            never shared. Only a digest of the credentials is kept.
+     * @param pullFunction
+     *            performs the actual pull and completes the given handler
+     * @param completionHandler
+     *            called with the result of the pull. The operation is <code>null</code> when the
+     *            pull was skipped because the image is known to be present.
+     */
+    public void pullImage(String hostLink, String imageName, String registryAuth,
+            Consumer<CompletionHandler> pullFunction, CompletionHandler completionHandler) {
+        String key = buildKey(hostLink, imageName, registryAuth);
+
+        synchronized (PULL_LOCK) {
+            if (!isPresent(key)) {
+                List<CompletionHandler> pendingHandlers = pendingHandlersByKey.get(key);
+                if (pendingHandlers != null) {
+                    // someone already triggered the pull.
+                    pendingHandlers.add(completionHandler);
+                    return;
+                }
+
+                pendingHandlers = new ArrayList<>();
+                pendingHandlers.add(completionHandler);
+                pendingHandlersByKey.put(key, pendingHandlers);
+                completionHandler = null;
+            }
+        }
+
+        if (completionHandler != null) {
+            // the image was pulled recently, no need to pull it again
+            completionHandler.handle(null, null);
+            return;
+        }
+
+        try {
+            pullFunction.accept((o, ex) -> notifyHandlers(key, o, ex));
+        } catch (Throwable e) {
+            notifyHandlers(key, null, e);
+        }
+    }
+
+    /**
+     * Forgets that the image was pulled on the host, e.g. after a container create failed because
+     * the image is missing.
+     */
+    public void invalidate(String hostLink, String imageName) {
+        String keyPrefix = buildKey(hostLink, imageName, null);
+        synchronized (PULL_LOCK) {
+            pulledTimeByKey.keySet().removeIf((key) -> key.startsWith(keyPrefix));
+        }
+    }
+
+    private void notifyHandlers(String key, Operation o, Throwable ex) {
+        List<CompletionHandler> pendingHandlers;
+        synchronized (PULL_LOCK) {
+            pendingHandlers = pendingHandlersByKey.remove(key);
+            if (ex == null) {
+                if (pulledTimeByKey.size() >= MAX_PRESENT_IMAGES) {
+                    removeExpired();
+                }
+                pulledTimeByKey.put(key, Utils.getNowMicrosUtc());
+            }
+        }
+
+        if (pendingHandlers != null) {
+            for (CompletionHandler handler : pendingHandlers) {
+                handler.handle(o, ex);
+            }
+        }
+    }
+
+    private boolean isPresent(String key) {
+        Long pulledTime = pulledTimeByKey.get(key);
+        if (pulledTime == null) {
+            return false;
+        }
+        if (Utils.getNowMicrosUtc() - pulledTime > presentTtlMicros) {
+            pulledTimeByKey.remove(key);
+            return false;
+        }
+        return true;
+    }
+
+    private void removeExpired() {
+        long now = Utils.getNowMicrosUtc();
+        Iterator<Long> it = pulledTimeByKey.values().iterator();
+        while (it.hasNext()) {
+            if (now - it.next() > presentTtlMicros) {
+                it.remove();
+            }
+        }
+        if (pulledTimeByKey.size() >= MAX_PRESENT_IMAGES) {
+            pulledTimeByKey.clear();
+        }
+    }
+
+    private static String buildKey(String hostLink, String imageName, String registryAuth) {
+        return hostLink + "|" + imageName + "|" + (registryAuth == null ? "" : digest(registryAuth));
+    }
+
+    private static String digest(String value) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            return Base64.getEncoder().encodeToString(
+                    md.digest(value.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
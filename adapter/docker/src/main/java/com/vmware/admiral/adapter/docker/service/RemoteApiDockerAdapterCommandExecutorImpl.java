@@ -14,23 +14,39 @@ package com.vmware.admiral.adapter.docker.service;
 import static com.vmware.admiral.compute.ContainerHostService.SSL_TRUST_ALIAS_PROP_NAME;
 import static com.vmware.admiral.compute.ContainerHostService.SSL_TRUST_CERT_PROP_NAME;
 
+import java.io.Closeable;
+import java.io.IOException;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Base64;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import javax.net.ssl.SSLContext;
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.X509ExtendedKeyManager;
 import javax.net.ssl.X509TrustManager;
 
 import org.yaml.snakeyaml.util.UriEncoder;
 
-import com.vmware.admiral.adapter.docker.util.DockerStreamUtil;
+import com.vmware.admiral.adapter.docker.util.BoundedOutputCollector;
+import com.vmware.admiral.adapter.docker.util.DockerEventsStream;
+import com.vmware.admiral.adapter.docker.util.DockerExecStream;
+import com.vmware.admiral.adapter.docker.util.DockerStreamDecoder;
 import com.vmware.admiral.common.security.EncryptionUtils;
 import com.vmware.admiral.common.util.AssertUtil;
 import com.vmware.admiral.common.util.CertificateUtil;
@@ -61,6 +77,22 @@ public class RemoteApiDockerAdapterCommandExecutorImpl implements
     private static final long SSL_TRUST_RETRIES_WAIT = Long.getLong(
             "com.vmware.admiral.adapter.ssltrust.delegate.retries.wait.millis", 500);
 
+    private static final int KEY_MANAGER_CACHE_SIZE = Integer.getInteger(
+            "adapter.docker.api.client.key_manager_cache_size", 1000);
+    private static final int SSL_SESSION_CACHE_SIZE = Integer.getInteger(
+            "adapter.docker.api.client.ssl_session_cache_size", 1000);
+
+    /*
+     * Each open stream holds a thread, the events stream of every host among them. The streams
+     * over the limit wait in the queue for a thread to be released, the streams over the queue
+     * size fail.
+     */
+    private static final int STREAM_THREADS = Integer.getInteger(
+            "adapter.docker.api.client.stream_threads", 256);
+    private static final int STREAM_QUEUE_SIZE = Integer.getInteger(
+            "adapter.docker.api.client.stream_queue_size", 10000);
+    private static final int STREAM_THREAD_KEEPALIVE_SECONDS = 60;
+
     public static final String MEDIA_TYPE_APPLICATION_TAR = "application/tar";
 
     private static RemoteApiDockerAdapterCommandExecutorImpl INSTANCE;
@@ -68,12 +100,17 @@ public class RemoteApiDockerAdapterCommandExecutorImpl implements
     private static final Pattern ERROR_PATTERN = Pattern.compile("\"error\":\"(.*)\"");
     private final ServiceHost host;
     private final ServiceClient serviceClient;
-    // Used for commands like exec start
-    private final ServiceClient attachServiceClient;
     // Used for commands like load image from tar
     private final ServiceClient largeDataClient;
-    private final DelegatingX509KeyManager keyManager = new DelegatingX509KeyManager();
+    private final DelegatingX509KeyManager keyManager = new DelegatingX509KeyManager(
+            KEY_MANAGER_CACHE_SIZE);
+    // digest of the credentials each cached KeyManager was created from, by alias
+    private final Map<String, String> keyManagerCredentials = new ConcurrentHashMap<>();
     private ServerX509TrustManager trustManager;
+    // Used for the events and exec streams, each stream holds one thread while open
+    private final SSLContext streamsSslContext;
+    private final ThreadPoolExecutor streamsExecutor;
+    private final Set<Closeable> openStreams = ConcurrentHashMap.newKeySet();
 
     private final int DOCKER_REQUEST_PAYLOAD_SIZE_LIMIT = Integer.getInteger(
             "adapter.docker.api.client.request_payload_limit", 1024 * 1024 * 256);
@@ -84,20 +121,33 @@ public class RemoteApiDockerAdapterCommandExecutorImpl implements
     private final int DOCKER_IMAGE_REQUEST_TIMEOUT_SECONDS = Integer.getInteger(
             "adapter.docker.api.client.image_request_timeout_seconds", 60 * 10);
 
+    private final int DOCKER_EXEC_OUTPUT_LIMIT_BYTES = Integer.getInteger(
+            "adapter.docker.api.client.exec_output_limit_bytes", 1024 * 1024 * 16);
+
     private enum ClientMode {
         DEFAULT,
-        ATTACH,
         LARGE_DATA
     }
 
     protected RemoteApiDockerAdapterCommandExecutorImpl(ServiceHost host,
             final TrustManager trustManager) {
         this.host = host;
-        this.serviceClient = ServiceClientFactory.createServiceClient(trustManager, keyManager);
-        this.attachServiceClient = ServiceClientFactory.createServiceClient(trustManager,
-                keyManager);
-        this.largeDataClient = ServiceClientFactory.createServiceClient(
-                trustManager, keyManager, DOCKER_REQUEST_PAYLOAD_SIZE_LIMIT);
+        this.keyManager.setEvictionHandler((alias, km) -> keyManagerCredentials.remove(alias));
+        // a single context for all clients, reconnects to a docker host resume the TLS session
+        SSLContext sslContext = CertificateUtil.createSSLContext(trustManager, keyManager,
+                SSL_SESSION_CACHE_SIZE);
+        this.serviceClient = ServiceClientFactory.createServiceClient(sslContext);
+        this.largeDataClient = ServiceClientFactory.createServiceClient(sslContext,
+                DOCKER_REQUEST_PAYLOAD_SIZE_LIMIT);
+        this.streamsSslContext = sslContext;
+        this.streamsExecutor = new ThreadPoolExecutor(STREAM_THREADS, STREAM_THREADS,
+                STREAM_THREAD_KEEPALIVE_SECONDS, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(STREAM_QUEUE_SIZE), r -> {
+                    Thread t = new Thread(r, "docker-stream");
+                    t.setDaemon(true);
+                    return t;
+                }, new ThreadPoolExecutor.AbortPolicy());
+        this.streamsExecutor.allowCoreThreadTimeOut(true);
 
         if (trustManager instanceof ServerX509TrustManager) {
             this.trustManager = (ServerX509TrustManager) trustManager;
@@ -282,8 +332,28 @@ public class RemoteApiDockerAdapterCommandExecutorImpl implements
 
     @Override
     public void execContainer(CommandInput input, CompletionHandler completionHandler) {
+        BoundedOutputCollector collector = new BoundedOutputCollector(
+                DOCKER_EXEC_OUTPUT_LIMIT_BYTES);
+        execContainer(input, collector, (o, e) -> {
+            if (e != null) {
+                completionHandler.handle(o, e);
+                return;
+            }
+            if (collector.isTruncated()) {
+                logger.warning(String.format("Output of exec %s truncated to %s bytes, %s bytes"
+                        + " dropped", o.getUri(), collector.getSize(),
+                        collector.getDroppedBytes()));
+            }
+            o.setBody(collector.toString());
+            completionHandler.handle(o, null);
+        });
+    }
+
+    @Override
+    public void execContainer(CommandInput input, DockerStreamDecoder.FrameListener outputListener,
+            CompletionHandler completionHandler) {
         createOrUpdateTargetSsl(input);
-        createExec(input, completionHandler);
+        createExec(input, outputListener, completionHandler);
     }
 
     @Override
@@ -369,6 +439,13 @@ public class RemoteApiDockerAdapterCommandExecutorImpl implements
         sendGet(uri, null, completionHandler);
     }
 
+    @Override
+    public void listImages(CommandInput input, CompletionHandler completionHandler) {
+        createOrUpdateTargetSsl(input);
+        URI uri = UriUtils.extendUri(input.getDockerUri(), "/images/json");
+        sendGet(uri, null, completionHandler);
+    }
+
     /**
      * https://docs.docker.com/engine/reference/api/docker_remote_api_v1.24/#create-a-network
      * Mandatory properties for <code>input</code>:
@@ -441,11 +518,56 @@ public class RemoteApiDockerAdapterCommandExecutorImpl implements
                 ClientMode.DEFAULT, completionHandler);
     }
 
+    @Override
+    public DockerEventsStream streamEvents(CommandInput input,
+            DockerEventsStream.Listener listener) {
+        createOrUpdateTargetSsl(input);
+
+        Object since = input.getProperties().get(SINCE);
+        URI uri = DockerEventsStream.buildEventsUri(input.getDockerUri(),
+                since != null ? Long.parseLong(since.toString()) : 0);
+
+        logger.info("Opening events stream: " + uri);
+
+        DockerEventsStream stream = new DockerEventsStream(uri, streamsSslContext, listener);
+        runStream(stream, listener::onClosed);
+        return stream;
+    }
+
+    /**
+     * Runs the stream on a stream thread, the failure handler is called if the stream can't be
+     * run.
+     */
+    private <T extends Runnable & Closeable> void runStream(T stream,
+            Consumer<Throwable> failureHandler) {
+        openStreams.add(stream);
+        try {
+            streamsExecutor.execute(() -> {
+                try {
+                    stream.run();
+                } finally {
+                    openStreams.remove(stream);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            openStreams.remove(stream);
+            logger.warning("Too many docker streams, rejected stream: " + e.getMessage());
+            failureHandler.accept(e);
+        }
+    }
+
     @Override
     public void stop() {
-        if (attachServiceClient != null) {
-            attachServiceClient.stop();
+        for (Closeable stream : openStreams) {
+            try {
+                stream.close();
+            } catch (IOException e) {
+                logger.fine("Error closing stream: " + e.getMessage());
+            }
         }
+        openStreams.clear();
+        streamsExecutor.shutdownNow();
+
         if (this.serviceClient != null) {
             this.serviceClient.stop();
         }
@@ -458,9 +580,6 @@ public class RemoteApiDockerAdapterCommandExecutorImpl implements
 
     @Override
     public void handleMaintenance(Operation post) {
-        if (attachServiceClient != null) {
-            attachServiceClient.handleMaintenance(post);
-        }
         if (serviceClient != null) {
             serviceClient.handleMaintenance(post);
         }
@@ -469,7 +588,8 @@ public class RemoteApiDockerAdapterCommandExecutorImpl implements
         }
     }
 
-    private void createExec(CommandInput input, CompletionHandler completionHandler) {
+    private void createExec(CommandInput input, DockerStreamDecoder.FrameListener outputListener,
+            CompletionHandler completionHandler) {
         String containerId = (String) input.getProperties().remove(DOCKER_CONTAINER_ID_PROP_NAME);
         if (containerId == null || containerId.isEmpty()) {
             completionHandler.handle(null,
@@ -503,12 +623,14 @@ public class RemoteApiDockerAdapterCommandExecutorImpl implements
                 @SuppressWarnings("unchecked")
                 Map<String, String> result = o.getBody(Map.class);
                 String execId = result.get(DOCKER_EXEC_ID_PROP_NAME);
-                startExec(input, execId, completionHandler);
+                startExec(input, execId, outputListener, completionHandler);
             }
         });
     }
 
-    private void startExec(CommandInput input, String execId, CompletionHandler completionHandler) {
+    private void startExec(CommandInput input, String execId,
+            DockerStreamDecoder.FrameListener outputListener,
+            CompletionHandler completionHandler) {
         Map<String, Object> startBody = new HashMap<>();
         startBody.put(DOCKER_EXEC_TTY_PROP_NAME, false);
         startBody.put(DOCKER_EXEC_DETACH_PROP_NAME, false);
@@ -516,36 +638,22 @@ public class RemoteApiDockerAdapterCommandExecutorImpl implements
         URI startUri = UriUtils.extendUri(input.getDockerUri(),
                 String.format("/exec/%s/start", execId));
 
-        sendPostAttach(startUri, startBody, (op, ex) -> {
-            if (ex != null) {
-                completionHandler.handle(null, ex);
+        logger.finest(() -> String.format("Sending POST for exec start to %s", startUri));
+
+        // the output is read while the command is running, unlike the rest of the requests
+        // which are sent with the xenon client and buffered in whole
+        Consumer<Throwable> closeHandler = (failure) -> {
+            if (failure != null) {
+                logger.severe(String.format("Exec %s failed: %s", startUri,
+                        Utils.toString(failure)));
+                completionHandler.handle(null, failure);
             } else {
-                if (op.hasBody()) {
-                    String body;
-
-                    Object rawBody = op.getBodyRaw();
-                    /* when the shell command does not return anything */
-                    if (startBody.equals(rawBody)) {
-                        body = "";
-                    } else if (rawBody instanceof byte[]) {
-                        try {
-                            body = DockerStreamUtil.decodeFullRawResponce((byte[]) rawBody);
-                        } catch (Exception decodeEx) {
-                            logger.severe(decodeEx.getMessage());
-                            completionHandler.handle(null, decodeEx);
-                            return;
-                        }
-                    } else {
-                        String err = "Unexpected response body of docker exec: " + rawBody;
-                        logger.severe(err);
-                        completionHandler.handle(null, new RuntimeException(err));
-                        return;
-                    }
-                    op.setBody(body);
-                }
-                completionHandler.handle(op, null);
+                completionHandler.handle(Operation.createPost(startUri), null);
             }
-        });
+        };
+        runStream(new DockerExecStream(startUri, streamsSslContext, startBody,
+                (int) TimeUnit.SECONDS.toMillis(DOCKER_REQUEST_TIMEOUT_SECONDS), outputListener,
+                closeHandler), closeHandler);
     }
 
     /**
@@ -574,17 +682,24 @@ public class RemoteApiDockerAdapterCommandExecutorImpl implements
             return;
         }
 
-        String clientKey = EncryptionUtils.decrypt(input.getCredentials().privateKey);
+        String encryptedClientKey = input.getCredentials().privateKey;
         String clientCert = input.getCredentials().publicKey;
         String alias = input.getDockerUri().toString().toLowerCase();
 
-        // TODO use an LRU cache to limit the number of stored
-        // KeyManagers while minimizing time wasted repeatedly
-        // recreating them
-        if (clientKey != null && !clientKey.isEmpty()) {
-            X509ExtendedKeyManager delegateKeyManager = (X509ExtendedKeyManager) CertificateUtil
-                    .getKeyManagers(alias, clientKey, clientCert)[0];
-            keyManager.putDelegate(alias, delegateKeyManager);
+        // the KeyManagers are kept in a LRU cache and recreated only when the credentials change
+        if (encryptedClientKey != null && !encryptedClientKey.isEmpty()) {
+            String credentialsDigest = digest(encryptedClientKey, clientCert);
+            if (keyManager.getDelegate(alias) == null
+                    || !credentialsDigest.equals(keyManagerCredentials.get(alias))) {
+                String clientKey = EncryptionUtils.decrypt(encryptedClientKey);
+                if (clientKey != null && !clientKey.isEmpty()) {
+                    X509ExtendedKeyManager delegateKeyManager =
+                            (X509ExtendedKeyManager) CertificateUtil
+                                    .getKeyManagers(alias, clientKey, clientCert)[0];
+                    keyManager.putDelegate(alias, delegateKeyManager);
+                    keyManagerCredentials.put(alias, credentialsDigest);
+                }
+            }
         }
 
         String sslTrust = (String) input.getProperties().get(SSL_TRUST_CERT_PROP_NAME);
@@ -596,6 +711,21 @@ public class RemoteApiDockerAdapterCommandExecutorImpl implements
         }
     }
 
+    private static String digest(String... values) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            for (String value : values) {
+                if (value != null) {
+                    md.update(value.getBytes(StandardCharsets.UTF_8));
+                }
+                md.update((byte) 0);
+            }
+            return Base64.getEncoder().encodeToString(md.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
     private boolean isSecure(URI dockerUri) {
         AssertUtil.assertNotNull(dockerUri, "dockerUri");
 
@@ -643,14 +773,6 @@ public class RemoteApiDockerAdapterCommandExecutorImpl implements
         sendRequest(Service.Action.POST, uri, body, completionHandler, mode);
     }
 
-    private void sendPostAttach(URI uri, Object body, CompletionHandler completionHandler) {
-        logger.finest(() -> String
-                .format(
-                        "Sending POST for attach to %s with body (possibly truncated):\n---\n%1.1024s\n---\n",
-                        uri, Utils.toJsonHtml(body)));
-        sendRequest(Service.Action.POST, uri, body, completionHandler, ClientMode.ATTACH);
-    }
-
     private void sendDelete(URI uri, CompletionHandler completionHandler) {
         sendRequest(Service.Action.DELETE, uri, null, completionHandler, ClientMode.DEFAULT);
     }
@@ -667,8 +789,6 @@ public class RemoteApiDockerAdapterCommandExecutorImpl implements
 
         if (ClientMode.LARGE_DATA.equals(mode)) {
             largeDataClient.send(op);
-        } else if (ClientMode.ATTACH.equals(mode)) {
-            attachServiceClient.send(op);
         } else {
             serviceClient.send(op);
         }
@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2016 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.adapter.docker.util;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Collects the decoded stdout and stderr output of a docker stream, for the callers that need the
+ * whole output at once. At most <code>limit</code> bytes are kept, the rest of the output is
+ * counted and dropped.
+ */
+public class BoundedOutputCollector implements DockerStreamDecoder.FrameListener {
+
+    private final int limit;
+    private final ByteArrayOutputStream output;
+    private long droppedBytes;
+
+    public BoundedOutputCollector(int limit) {
+        this.limit = limit;
+        this.output = new ByteArrayOutputStream(Math.min(limit, 8 * 1024));
+    }
+
+    @Override
+    public synchronized boolean onOutput(int streamType, byte[] buffer, int offset,
+            int length) {
+        if (streamType == DockerStreamDecoder.STREAM_TYPE_STDIN) {
+            return true;
+        }
+
+        int n = Math.min(length, limit - output.size());
+        if (n > 0) {
+            output.write(buffer, offset, n);
+        }
+        droppedBytes += length - n;
+        // keep reading to the end so the command is not interrupted
+        return true;
+    }
+
+    public synchronized int getSize() {
+        return output.size();
+    }
+
+    public synchronized boolean isTruncated() {
+        return droppedBytes > 0;
+    }
+
+    public synchronized long getDroppedBytes() {
+        return droppedBytes;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return new String(output.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2016 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.adapter.docker.util;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.UriUtils;
+import com.vmware.xenon.common.Utils;
+
+/**
+ * Long lived reader of the docker <code>/events</code> endpoint. The xenon service client buffers
+ * the whole response before completing an operation, so the events stream is read with a plain
+ * {@link HttpURLConnection} on a dedicated thread. Docker writes one JSON object per line, each
+ * line is decoded and passed to the {@link Listener} as soon as it arrives.
+ */
+public class DockerEventsStream implements Runnable, Closeable {
+    private static final Logger logger = Logger.getLogger(DockerEventsStream.class.getName());
+
+    private static final int CONNECT_TIMEOUT_MILLIS = (int) TimeUnit.SECONDS.toMillis(
+            Integer.getInteger("adapter.docker.api.client.events.connect_timeout_seconds", 10));
+
+    /**
+     * Callbacks for the lifecycle of an events stream. All methods are invoked from the stream
+     * reader thread.
+     */
+    public interface Listener {
+        void onConnected();
+
+        void onEvent(Map<String, Object> event);
+
+        /**
+         * Called exactly once when the stream ends. <code>failure</code> is <code>null</code> when
+         * the remote side closed the stream or the stream was closed locally.
+         */
+        void onClosed(Throwable failure);
+    }
+
+    private final URI uri;
+    private final SSLContext sslContext;
+    private final Listener listener;
+
+    private volatile boolean closed;
+    private volatile HttpURLConnection connection;
+
+    public DockerEventsStream(URI uri, SSLContext sslContext, Listener listener) {
+        this.uri = uri;
+        this.sslContext = sslContext;
+        this.listener = listener;
+    }
+
+    public URI getUri() {
+        return uri;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public void run() {
+        Throwable failure = null;
+        try {
+            connection = openConnection();
+            int statusCode = connection.getResponseCode();
+            if (statusCode != Operation.STATUS_CODE_OK) {
+                throw new IOException(String.format("Unexpected status code %s from %s",
+                        statusCode, uri));
+            }
+
+            listener.onConnected();
+
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    connection.getInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while (!closed && (line = reader.readLine()) != null) {
+                    if (line.trim().isEmpty()) {
+                        continue;
+                    }
+                    dispatch(line);
+                }
+            }
+        } catch (Throwable e) {
+            if (!closed) {
+                failure = e;
+            }
+        } finally {
+            disconnect();
+        }
+
+        logger.fine(() -> String.format("Events stream %s closed", uri));
+        listener.onClosed(failure);
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        disconnect();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void dispatch(String line) {
+        Map<String, Object> event;
+        try {
+            event = Utils.fromJson(line, Map.class);
+        } catch (Throwable e) {
+            logger.warning(String.format("Unable to decode docker event from %s: %s", uri,
+                    line));
+            return;
+        }
+
+        try {
+            listener.onEvent(event);
+        } catch (Throwable e) {
+            logger.log(Level.WARNING, "Failure while processing docker event from " + uri, e);
+        }
+    }
+
+    private HttpURLConnection openConnection() throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) uri.toURL().openConnection();
+        if (conn instanceof HttpsURLConnection && sslContext != null) {
+            HttpsURLConnection httpsConn = (HttpsURLConnection) conn;
+            httpsConn.setSSLSocketFactory(sslContext.getSocketFactory());
+            // the server identity is established by the trust manager with the certificate
+            // accepted for the host, same as for the rest of the docker client requests
+            httpsConn.setHostnameVerifier((hostname, session) -> true);
+        }
+        conn.setRequestMethod("GET");
+        conn.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+        // the stream is expected to stay silent for long periods of time
+        conn.setReadTimeout(0);
+        conn.setUseCaches(false);
+        conn.setRequestProperty(Operation.ACCEPT_HEADER, Operation.MEDIA_TYPE_APPLICATION_JSON);
+        return conn;
+    }
+
+    private void disconnect() {
+        HttpURLConnection conn = connection;
+        if (conn != null) {
+            try {
+                conn.disconnect();
+            } catch (Throwable e) {
+                logger.fine(() -> String.format("Error closing events stream %s: %s", uri,
+                        Utils.toString(e)));
+            }
+        }
+    }
+
+    public static URI buildEventsUri(URI dockerUri, long sinceSeconds) {
+        URI eventsUri = UriUtils.extendUri(dockerUri, "/events");
+        if (sinceSeconds > 0) {
+            eventsUri = UriUtils.extendUriWithQuery(eventsUri, "since",
+                    Long.toString(sinceSeconds));
+        }
+        return eventsUri;
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2016 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.adapter.docker.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.Utils;
+
+/**
+ * Starts an exec instance created on a docker host and reads its output while the command is
+ * running. Like {@link DockerEventsStream} the request is sent with a plain
+ * {@link HttpURLConnection} since the xenon service client buffers the whole response. The
+ * multiplexed output is decoded with a {@link DockerStreamDecoder} and passed to the listener
+ * chunk by chunk, the reading waits for the listener so the memory used does not depend on the
+ * size of the output.
+ */
+public class DockerExecStream implements Runnable, Closeable {
+    private static final Logger logger = Logger.getLogger(DockerExecStream.class.getName());
+
+    private static final int CONNECT_TIMEOUT_MILLIS = (int) TimeUnit.SECONDS.toMillis(
+            Integer.getInteger("adapter.docker.api.client.exec.connect_timeout_seconds", 10));
+
+    private final URI uri;
+    private final SSLContext sslContext;
+    private final Object body;
+    private final int readTimeoutMillis;
+    private final DockerStreamDecoder.FrameListener listener;
+    private final Consumer<Throwable> closeHandler;
+
+    private volatile boolean closed;
+    private volatile HttpURLConnection connection;
+
+    /**
+     * @param closeHandler
+     *            called exactly once when the output ends, with the failure if any
+     */
+    public DockerExecStream(URI uri, SSLContext sslContext, Object body, int readTimeoutMillis,
+            DockerStreamDecoder.FrameListener listener, Consumer<Throwable> closeHandler) {
+        this.uri = uri;
+        this.sslContext = sslContext;
+        this.body = body;
+        this.readTimeoutMillis = readTimeoutMillis;
+        this.listener = listener;
+        this.closeHandler = closeHandler;
+    }
+
+    public URI getUri() {
+        return uri;
+    }
+
+    @Override
+    public void run() {
+        Throwable failure = null;
+        try {
+            connection = openConnection();
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(Utils.toJson(body).getBytes(StandardCharsets.UTF_8));
+            }
+
+            int statusCode = connection.getResponseCode();
+            if (statusCode != Operation.STATUS_CODE_OK) {
+                throw new IOException(String.format("Unexpected status code %s from %s",
+                        statusCode, uri));
+            }
+
+            try (InputStream in = connection.getInputStream()) {
+                new DockerStreamDecoder(listener).decode(in);
+            }
+        } catch (Throwable e) {
+            failure = closed ? new IOException("Exec stream closed: " + uri) : e;
+        } finally {
+            disconnect();
+        }
+
+        logger.fine(() -> String.format("Exec stream %s closed", uri));
+        closeHandler.accept(failure);
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        disconnect();
+    }
+
+    private HttpURLConnection openConnection() throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) uri.toURL().openConnection();
+        if (conn instanceof HttpsURLConnection && sslContext != null) {
+            HttpsURLConnection httpsConn = (HttpsURLConnection) conn;
+            httpsConn.setSSLSocketFactory(sslContext.getSocketFactory());
+            // same as for the events stream, the server identity is established by the trust
+            // manager with the certificate accepted for the host
+            httpsConn.setHostnameVerifier((hostname, session) -> true);
+        }
+        conn.setRequestMethod("POST");
+        conn.setDoOutput(true);
+        conn.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+        // the timeout applies between two reads, a command producing output is never timed out
+        conn.setReadTimeout(readTimeoutMillis);
+        conn.setUseCaches(false);
+        conn.setRequestProperty(Operation.CONTENT_TYPE_HEADER,
+                Operation.MEDIA_TYPE_APPLICATION_JSON);
+        return conn;
+    }
+
+    private void disconnect() {
+        HttpURLConnection conn = connection;
+        if (conn != null) {
+            try {
+                conn.disconnect();
+            } catch (Throwable e) {
+                logger.fine(() -> String.format("Error closing exec stream %s: %s", uri,
+                        Utils.toString(e)));
+            }
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2016 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.adapter.docker.util;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Incremental decoder of the multiplexed stream docker returns when attaching to a container or
+ * executing a command without a TTY, as described in
+ * https://docs.docker.com/engine/reference/api/docker_remote_api_v1.21/#attach-to-a-container.
+ * Each frame starts with an 8 bytes header holding the stream type and the size of the frame.
+ * <p>
+ * The decoder keeps only the current header, the payload of the frames is passed to the
+ * {@link FrameListener} as soon as it is read, so a frame is never buffered in whole.
+ */
+public class DockerStreamDecoder {
+
+    public static final int STREAM_TYPE_STDIN = 0;
+    public static final int STREAM_TYPE_STDOUT = 1;
+    public static final int STREAM_TYPE_STDERR = 2;
+
+    private static final int HEADER_SIZE = 8;
+    private static final int FRAME_SIZE_OFFSET = 4;
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Receives the decoded output. The listener is called synchronously from the thread reading
+     * the stream and the next chunk is not read before it returns, so a slow listener slows down
+     * the reading instead of piling up output in memory.
+     */
+    public interface FrameListener {
+        /**
+         * Called with the next chunk of a frame. The buffer is reused once the method returns.
+         *
+         * @return <code>false</code> to stop the decoding
+         */
+        boolean onOutput(int streamType, byte[] buffer, int offset, int length)
+                throws IOException;
+    }
+
+    private final FrameListener listener;
+    private final byte[] header = new byte[HEADER_SIZE];
+    private int headerBytesRead;
+    private int streamType;
+    private long frameBytesRemaining;
+    private boolean stopped;
+
+    public DockerStreamDecoder(FrameListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Decodes the next chunk of the stream. A chunk doesn't have to be aligned to the frames.
+     *
+     * @return <code>false</code> if the listener stopped the decoding
+     */
+    public boolean decode(byte[] buffer, int offset, int length) throws IOException {
+        int end = offset + length;
+        while (offset < end && !stopped) {
+            if (frameBytesRemaining == 0) {
+                int n = Math.min(HEADER_SIZE - headerBytesRead, end - offset);
+                System.arraycopy(buffer, offset, header, headerBytesRead, n);
+                headerBytesRead += n;
+                offset += n;
+
+                if (headerBytesRead == HEADER_SIZE) {
+                    streamType = header[0];
+                    frameBytesRemaining = ByteBuffer.wrap(header, FRAME_SIZE_OFFSET,
+                            HEADER_SIZE - FRAME_SIZE_OFFSET).getInt() & 0xFFFFFFFFL;
+                    headerBytesRead = 0;
+                }
+            } else {
+                int n = (int) Math.min(frameBytesRemaining, end - offset);
+                frameBytesRemaining -= n;
+                stopped = !listener.onOutput(streamType, buffer, offset, n);
+                offset += n;
+            }
+        }
+        return !stopped;
+    }
+
+    /**
+     * Decodes the given stream until its end or until the listener stops the decoding.
+     */
+    public void decode(InputStream in) throws IOException {
+        byte[] buffer = new byte[READ_BUFFER_SIZE];
+        int n;
+        while (!stopped && (n = in.read(buffer)) != -1) {
+            decode(buffer, 0, n);
+        }
+        if (!stopped) {
+            finish();
+        }
+    }
+
+    /**
+     * Verifies the stream didn't end in the middle of a frame.
+     */
+    public void finish() throws EOFException {
+        if (headerBytesRead > 0) {
+            throw new EOFException("Cannot read header of size " + HEADER_SIZE);
+        }
+        if (frameBytesRemaining > 0) {
+            throw new EOFException("Cannot read frame, missing " + frameBytesRemaining
+                    + " bytes");
+        }
+    }
+}
@@ -15,6 +15,7 @@ import java.net.URI;
 import java.util.logging.Level;
 
 import com.vmware.admiral.adapter.docker.service.DockerAdapterService;
+import com.vmware.admiral.adapter.docker.service.DockerEventsListenerService;
 import com.vmware.admiral.adapter.docker.service.DockerHostAdapterImageService;
 import com.vmware.admiral.adapter.docker.service.DockerHostAdapterService;
 import com.vmware.admiral.adapter.docker.service.DockerNetworkAdapterService;
@@ -78,6 +79,9 @@ public class HostInitAdapterServiceConfig {
             host.startService(
                     Operation.createPost(UriUtils.buildUri(host, DockerHostAdapterImageService.class)),
                     new DockerHostAdapterImageService());
+            host.startService(
+                    Operation.createPost(UriUtils.buildUri(host, DockerEventsListenerService.class)),
+                    new DockerEventsListenerService());
             host.log(Level.INFO, "Docker instance reference: %s", instanceReference);
         }
     }
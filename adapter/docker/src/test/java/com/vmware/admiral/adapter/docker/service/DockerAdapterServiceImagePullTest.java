@@ -0,0 +1,240 @@
+/*
+ * Copyright (c) 2016 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.adapter.docker.service;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vmware.admiral.adapter.common.ContainerOperationType;
+import com.vmware.admiral.adapter.docker.mock.BaseMockDockerTestCase;
+import com.vmware.admiral.compute.ContainerHostService;
+import com.vmware.admiral.compute.container.ContainerDescriptionService;
+import com.vmware.admiral.compute.container.ContainerDescriptionService.ContainerDescription;
+import com.vmware.admiral.compute.container.ContainerFactoryService;
+import com.vmware.admiral.compute.container.ContainerService.ContainerState;
+import com.vmware.admiral.compute.container.ContainerService.ContainerState.PowerState;
+import com.vmware.admiral.service.common.ServiceTaskCallback;
+import com.vmware.photon.controller.model.resources.ComputeDescriptionService;
+import com.vmware.photon.controller.model.resources.ComputeDescriptionService.ComputeDescription;
+import com.vmware.photon.controller.model.resources.ComputeService;
+import com.vmware.photon.controller.model.resources.ComputeService.ComputeState;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.UriUtils;
+import com.vmware.xenon.common.Utils;
+import com.vmware.xenon.common.test.TestContext;
+
+/**
+ * Test the image pulls of container creates against a stub docker server counting the pulls
+ */
+public class DockerAdapterServiceImagePullTest extends BaseMockDockerTestCase {
+    private static final String TEST_ADAPTER_LINK = "/test-image-pull-docker-adapter";
+    private static final String TEST_IMAGE = "busybox:latest";
+    private static final int CONTAINER_COUNT = 10;
+
+    private HttpServer stubDocker;
+    private final AtomicInteger pullCount = new AtomicInteger();
+    private final AtomicInteger createCount = new AtomicInteger();
+    private final AtomicInteger missingImageCreates = new AtomicInteger();
+
+    private String hostLink;
+    private String containerDescriptionLink;
+
+    @Before
+    public void setUp() throws Throwable {
+        stubDocker = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        stubDocker.createContext("/", this::handleDockerRequest);
+        stubDocker.start();
+
+        host.startService(Operation.createPost(UriUtils.buildUri(host, TEST_ADAPTER_LINK)),
+                new DockerAdapterService());
+        waitForServiceAvailability(TEST_ADAPTER_LINK);
+
+        createHostAndDescription();
+    }
+
+    @After
+    public void tearDown() {
+        if (stubDocker != null) {
+            stubDocker.stop(0);
+        }
+    }
+
+    @Test
+    public void testConcurrentCreatesPullImageOnce() throws Throwable {
+        List<String> containerLinks = new ArrayList<>();
+        for (int i = 0; i < CONTAINER_COUNT; i++) {
+            containerLinks.add(createContainerState("container-" + i));
+        }
+
+        // all the creates are sent at once
+        TestContext ctx = testCreate(CONTAINER_COUNT);
+        for (String containerLink : containerLinks) {
+            sendCreateRequest(containerLink, ctx);
+        }
+        ctx.await();
+
+        for (String containerLink : containerLinks) {
+            waitForContainerRunning(containerLink);
+        }
+        assertEquals(1, pullCount.get());
+        assertEquals(CONTAINER_COUNT, createCount.get());
+    }
+
+    @Test
+    public void testCreateWithMissingImagePullsAgain() throws Throwable {
+        String firstLink = createContainerState("first");
+        createContainer(firstLink);
+        waitForContainerRunning(firstLink);
+        assertEquals(1, pullCount.get());
+
+        // the image is removed from the host, the recently pulled image is not trusted anymore
+        missingImageCreates.set(1);
+        String secondLink = createContainerState("second");
+        createContainer(secondLink);
+        waitForContainerRunning(secondLink);
+
+        assertEquals(2, pullCount.get());
+        assertEquals(0, missingImageCreates.get());
+        // the first container, the missing image and the retry after the pull
+        assertEquals(3, createCount.get());
+    }
+
+    private void createContainer(String containerLink) throws Throwable {
+        TestContext ctx = testCreate(1);
+        sendCreateRequest(containerLink, ctx);
+        ctx.await();
+    }
+
+    private void sendCreateRequest(String containerLink, TestContext ctx) {
+        ContainerInstanceRequest request = new ContainerInstanceRequest();
+        request.resourceReference = UriUtils.buildUri(host, containerLink);
+        request.operationTypeId = ContainerOperationType.CREATE.id;
+        request.serviceTaskCallback = ServiceTaskCallback.createEmpty();
+
+        host.send(Operation.createPatch(host, TEST_ADAPTER_LINK)
+                .setBody(request)
+                .setReferer(host.getUri())
+                .setCompletion(ctx.getCompletion()));
+    }
+
+    private void waitForContainerRunning(String containerLink) throws Throwable {
+        waitFor(() -> {
+            ContainerState container = getDocument(ContainerState.class, containerLink);
+            return container.id != null && container.powerState == PowerState.RUNNING;
+        });
+    }
+
+    private void handleDockerRequest(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        if (path.endsWith("/images/create")) {
+            pullCount.incrementAndGet();
+            try {
+                // long enough for the concurrent creates to find the pull in progress
+                Thread.sleep(500);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            respond(exchange, 200, "{\"status\":\"Status: Image is up to date for busybox\"}");
+        } else if (path.endsWith("/containers/create")) {
+            createCount.incrementAndGet();
+            if (missingImageCreates.getAndUpdate((c) -> Math.max(0, c - 1)) > 0) {
+                respond(exchange, 404, "{\"message\":\"No such image: " + TEST_IMAGE + "\"}");
+            } else {
+                respond(exchange, 201, Utils.toJson(Collections.singletonMap("Id",
+                        UUID.randomUUID().toString())));
+            }
+        } else if (path.endsWith("/start")) {
+            respond(exchange, 204, null);
+        } else if (path.endsWith("/json")) {
+            String id = path.substring("/containers/".length(),
+                    path.length() - "/json".length());
+            Map<String, Object> inspect = new HashMap<>();
+            inspect.put("Id", id);
+            inspect.put("Name", "/" + id);
+            inspect.put("State", Collections.singletonMap("Running", true));
+            inspect.put("Config", Collections.singletonMap("Image", TEST_IMAGE));
+            respond(exchange, 200, Utils.toJson(inspect));
+        } else {
+            respond(exchange, 404, null);
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body)
+            throws IOException {
+        if (body == null) {
+            exchange.sendResponseHeaders(status, -1);
+            exchange.close();
+            return;
+        }
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private String createContainerState(String name) throws Throwable {
+        ContainerState container = new ContainerState();
+        container.parentLink = hostLink;
+        container.descriptionLink = containerDescriptionLink;
+        container.names = new ArrayList<>(Collections.singletonList(name));
+        container.adapterManagementReference = URI.create(TEST_ADAPTER_LINK);
+        return doPost(container, ContainerFactoryService.SELF_LINK).documentSelfLink;
+    }
+
+    private void createHostAndDescription() throws Throwable {
+        waitForServiceAvailability(ComputeService.FACTORY_LINK);
+
+        ComputeDescription computeDescription = new ComputeDescription();
+        computeDescription.customProperties = new HashMap<>();
+        computeDescription.id = UUID.randomUUID().toString();
+        String computeDescriptionLink = doPost(computeDescription,
+                ComputeDescriptionService.FACTORY_LINK).documentSelfLink;
+
+        ComputeState computeState = new ComputeState();
+        computeState.id = UUID.randomUUID().toString();
+        computeState.descriptionLink = computeDescriptionLink;
+        computeState.customProperties = new HashMap<>();
+        computeState.customProperties.put(
+                ContainerHostService.HOST_DOCKER_ADAPTER_TYPE_PROP_NAME,
+                ContainerHostService.DockerAdapterType.API.name());
+        computeState.address = "http://127.0.0.1:" + stubDocker.getAddress().getPort();
+        hostLink = doPost(computeState, ComputeService.FACTORY_LINK).documentSelfLink;
+
+        ContainerDescription containerDescription = new ContainerDescription();
+        containerDescription.image = TEST_IMAGE;
+        containerDescription.command = new String[] { "cat" };
+        containerDescriptionLink = doPost(containerDescription,
+                ContainerDescriptionService.FACTORY_LINK).documentSelfLink;
+
+        waitForServiceAvailability(ContainerFactoryService.SELF_LINK);
+    }
+}
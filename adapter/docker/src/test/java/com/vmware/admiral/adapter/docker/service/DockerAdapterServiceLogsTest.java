@@ -0,0 +1,264 @@
+/*
+ * Copyright (c) 2016 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.adapter.docker.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vmware.admiral.adapter.common.ContainerOperationType;
+import com.vmware.admiral.adapter.docker.mock.BaseMockDockerTestCase;
+import com.vmware.admiral.common.util.DockerLogUtil;
+import com.vmware.admiral.compute.ContainerHostService;
+import com.vmware.admiral.compute.container.ContainerFactoryService;
+import com.vmware.admiral.compute.container.ContainerService.ContainerState;
+import com.vmware.admiral.compute.container.ContainerService.ContainerState.PowerState;
+import com.vmware.admiral.service.common.LogService;
+import com.vmware.admiral.service.common.LogService.LogServiceState;
+import com.vmware.admiral.service.common.ServiceTaskCallback;
+import com.vmware.photon.controller.model.resources.ComputeDescriptionService;
+import com.vmware.photon.controller.model.resources.ComputeDescriptionService.ComputeDescription;
+import com.vmware.photon.controller.model.resources.ComputeService;
+import com.vmware.photon.controller.model.resources.ComputeService.ComputeState;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.Service;
+import com.vmware.xenon.common.UriUtils;
+import com.vmware.xenon.common.test.TestContext;
+
+/**
+ * Test the incremental fetching of container logs against a stub docker server with a growing
+ * log
+ */
+public class DockerAdapterServiceLogsTest extends BaseMockDockerTestCase {
+    private static final String TEST_ADAPTER_LINK = "/test-logs-docker-adapter";
+
+    private HttpServer stubDocker;
+    private final List<String> logLines = new CopyOnWriteArrayList<>();
+    private final List<String> logsQueries = new CopyOnWriteArrayList<>();
+
+    private ContainerState containerState;
+    private String logLink;
+
+    @Before
+    public void setUp() throws Throwable {
+        stubDocker = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        stubDocker.createContext("/", this::handleDockerRequest);
+        stubDocker.start();
+
+        host.startService(Operation.createPost(UriUtils.buildUri(host, TEST_ADAPTER_LINK)),
+                new DockerAdapterService());
+        waitForServiceAvailability(TEST_ADAPTER_LINK);
+        waitForServiceAvailability(LogService.FACTORY_LINK);
+
+        createHostAndContainer();
+        logLink = UriUtils.buildUriPath(LogService.FACTORY_LINK,
+                Service.getId(containerState.documentSelfLink));
+    }
+
+    @After
+    public void tearDown() {
+        if (stubDocker != null) {
+            stubDocker.stop(0);
+        }
+    }
+
+    @Test
+    public void testOnlyNewLogLinesAreFetchedAndAppended() throws Throwable {
+        long now = Instant.now().getEpochSecond();
+        logLines.add(line(now - 10, 1, "first"));
+        logLines.add(line(now - 5, 1, "second"));
+
+        fetchLogs(null);
+        waitFor(() -> readLogs(null).contains("second"));
+
+        LogServiceState logState = getDocument(LogServiceState.class, logLink);
+        String lastTimestamp = logState.lastTimestamp;
+        assertEquals(timestamp(now - 5, 1), lastTimestamp);
+        long firstEndOffset = logState.endOffset;
+
+        // the log grows, including a line in the same second as the last fetched one
+        logLines.add(line(now - 5, 2, "third"));
+        logLines.add(line(now - 1, 1, "fourth"));
+
+        fetchLogs(lastTimestamp);
+        waitFor(() -> readLogs(null).contains("fourth"));
+
+        // docker is asked only for the lines since the last stored one
+        String lastQuery = logsQueries.get(logsQueries.size() - 1);
+        assertTrue(lastQuery, lastQuery.contains("since=" + (now - 5)));
+
+        // each line is stored exactly once
+        String logs = readLogs(null);
+        for (String text : new String[] { "first", "second", "third", "fourth" }) {
+            assertEquals(logs, logs.indexOf(text), logs.lastIndexOf(text));
+        }
+        assertTrue(logs.indexOf("second") < logs.indexOf("third"));
+
+        // read only what was appended by the second fetch
+        String appended = readLogs(firstEndOffset);
+        assertTrue(appended, appended.contains("third") && appended.contains("fourth"));
+        assertTrue(appended, !appended.contains("second"));
+
+        logState = getDocument(LogServiceState.class, logLink);
+        assertEquals(timestamp(now - 1, 1), logState.lastTimestamp);
+
+        // nothing new is logged, the stored log is not updated
+        long version = logState.documentVersion;
+        fetchLogs(logState.lastTimestamp);
+        waitFor(() -> logsQueries.size() == 3);
+        Thread.sleep(500);
+        assertEquals(version, getDocument(LogServiceState.class, logLink).documentVersion);
+    }
+
+    @Test
+    public void testWholeLogFetchedWhenStoredLogExpired() throws Throwable {
+        long now = Instant.now().getEpochSecond();
+        logLines.add(line(now - 10, 1, "first"));
+        logLines.add(line(now - 5, 1, "second"));
+        logLines.add(line(now - 1, 1, "third"));
+
+        // the log stored up to the second line has expired
+        fetchLogs(timestamp(now - 5, 1));
+        waitFor(() -> readLogs(null).contains("third"));
+
+        String logs = readLogs(null);
+        assertTrue(logs, logs.contains("first") && logs.contains("second"));
+        assertEquals(timestamp(now - 1, 1),
+                getDocument(LogServiceState.class, logLink).lastTimestamp);
+    }
+
+    private void fetchLogs(String lastTimestamp) throws Throwable {
+        ContainerInstanceRequest request = new ContainerInstanceRequest();
+        request.resourceReference = UriUtils.buildUri(host, containerState.documentSelfLink);
+        request.operationTypeId = ContainerOperationType.FETCH_LOGS.id;
+        request.serviceTaskCallback = ServiceTaskCallback.createEmpty();
+        request.customProperties = new HashMap<>();
+        if (lastTimestamp != null) {
+            request.customProperties.put(LogServiceState.FIELD_NAME_LAST_TIMESTAMP,
+                    lastTimestamp);
+        }
+
+        TestContext ctx = testCreate(1);
+        host.send(Operation.createPatch(host, TEST_ADAPTER_LINK)
+                .setBody(request)
+                .setReferer(host.getUri())
+                .setCompletion(ctx.getCompletion()));
+        ctx.await();
+    }
+
+    private String readLogs(Long offset) throws Throwable {
+        LogServiceState logState;
+        if (offset == null) {
+            // the log may not be created yet
+            logState = getDocumentNoWait(LogServiceState.class, logLink);
+        } else {
+            logState = getDocument(LogServiceState.class, logLink,
+                    LogService.OFFSET_QUERY_PARAM, String.valueOf(offset));
+        }
+        return logState == null || logState.logs == null ? ""
+                : new String(logState.logs, StandardCharsets.UTF_8);
+    }
+
+    private void handleDockerRequest(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        if (!path.endsWith("/logs")) {
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+            return;
+        }
+
+        String query = String.valueOf(exchange.getRequestURI().getQuery());
+        logsQueries.add(query);
+
+        long since = 0;
+        for (String param : query.split("&")) {
+            if (param.startsWith("since=")) {
+                since = Long.parseLong(param.substring("since=".length()));
+            }
+        }
+
+        // like docker, return the lines logged since the given second as multiplexed frames
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        for (String line : logLines) {
+            Instant time = DockerLogUtil.parseTimestamp(line.substring(0, line.indexOf(' ')));
+            if (time.getEpochSecond() >= since) {
+                byte[] payload = line.getBytes(StandardCharsets.UTF_8);
+                body.write(ByteBuffer.allocate(8).put((byte) 1).putInt(4, payload.length)
+                        .array());
+                body.write(payload);
+            }
+        }
+
+        exchange.getResponseHeaders().add("Content-Type", "application/octet-stream");
+        byte[] bytes = body.toByteArray();
+        exchange.sendResponseHeaders(200, bytes.length == 0 ? -1 : bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static String line(long epochSecond, int nanos, String text) {
+        return timestamp(epochSecond, nanos) + " " + text + "\n";
+    }
+
+    private static String timestamp(long epochSecond, int nanos) {
+        // docker uses a fixed number of digits for the nanoseconds
+        String time = Instant.ofEpochSecond(epochSecond).toString();
+        return time.substring(0, time.length() - 1) + String.format(".%09dZ", nanos);
+    }
+
+    private void createHostAndContainer() throws Throwable {
+        waitForServiceAvailability(ComputeService.FACTORY_LINK);
+
+        ComputeDescription computeDescription = new ComputeDescription();
+        computeDescription.customProperties = new HashMap<>();
+        computeDescription.id = UUID.randomUUID().toString();
+        String computeDescriptionLink = doPost(computeDescription,
+                ComputeDescriptionService.FACTORY_LINK).documentSelfLink;
+
+        ComputeState computeState = new ComputeState();
+        computeState.id = UUID.randomUUID().toString();
+        computeState.descriptionLink = computeDescriptionLink;
+        computeState.customProperties = new HashMap<>();
+        computeState.customProperties.put(
+                ContainerHostService.HOST_DOCKER_ADAPTER_TYPE_PROP_NAME,
+                ContainerHostService.DockerAdapterType.API.name());
+        computeState.address = "http://127.0.0.1:" + stubDocker.getAddress().getPort();
+        ComputeState hostState = doPost(computeState, ComputeService.FACTORY_LINK);
+
+        waitForServiceAvailability(ContainerFactoryService.SELF_LINK);
+        ContainerState container = new ContainerState();
+        container.id = UUID.randomUUID().toString();
+        container.parentLink = hostState.documentSelfLink;
+        container.powerState = PowerState.RUNNING;
+        container.adapterManagementReference = URI.create(TEST_ADAPTER_LINK);
+        containerState = doPost(container, ContainerFactoryService.SELF_LINK);
+    }
+}
@@ -0,0 +1,293 @@
+/*
+ * Copyright (c) 2016 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.adapter.docker.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vmware.admiral.adapter.common.AdapterRequest;
+import com.vmware.admiral.adapter.common.ContainerHostOperationType;
+import com.vmware.admiral.adapter.common.ContainerOperationType;
+import com.vmware.admiral.adapter.docker.mock.BaseMockDockerTestCase;
+import com.vmware.admiral.adapter.docker.service.DockerEventsListenerService.EventsListenerRequest;
+import com.vmware.admiral.adapter.docker.service.DockerEventsListenerService.EventsListenerState;
+import com.vmware.admiral.common.ManagementUriParts;
+import com.vmware.admiral.compute.ContainerHostService;
+import com.vmware.admiral.compute.container.ContainerFactoryService;
+import com.vmware.admiral.compute.container.ContainerService.ContainerState;
+import com.vmware.admiral.compute.container.ContainerService.ContainerState.PowerState;
+import com.vmware.photon.controller.model.resources.ComputeDescriptionService;
+import com.vmware.photon.controller.model.resources.ComputeDescriptionService.ComputeDescription;
+import com.vmware.photon.controller.model.resources.ComputeService;
+import com.vmware.photon.controller.model.resources.ComputeService.ComputeState;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.StatelessService;
+import com.vmware.xenon.common.UriUtils;
+import com.vmware.xenon.common.test.TestContext;
+
+/**
+ * Test the docker events stream handling against a stub docker server streaming scripted events
+ */
+public class DockerEventsListenerServiceTest extends BaseMockDockerTestCase {
+    private static final String TEST_ADAPTER_LINK = "/test-events-inspect-adapter";
+
+    private HttpServer stubDocker;
+    private volatile boolean stubStopped;
+    private final List<String> eventsQueries = new CopyOnWriteArrayList<>();
+    private final BlockingQueue<List<String>> scriptedStreams = new LinkedBlockingQueue<>();
+    private final AtomicInteger eventsConnections = new AtomicInteger();
+
+    private final Map<String, AtomicInteger> inspections = new ConcurrentHashMap<>();
+    private final List<String> listRequests = new CopyOnWriteArrayList<>();
+
+    private ComputeState hostState;
+    private ContainerState containerState;
+
+    @Before
+    public void setUp() throws Throwable {
+        stubDocker = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        stubDocker.createContext("/events", this::streamEvents);
+        // each events stream holds a thread while open
+        stubDocker.setExecutor(Executors.newCachedThreadPool());
+        stubDocker.start();
+
+        host.startService(Operation.createPost(UriUtils.buildUri(host, TEST_ADAPTER_LINK)),
+                new StatelessService() {
+                    @Override
+                    public void handlePatch(Operation op) {
+                        AdapterRequest request = op.getBody(AdapterRequest.class);
+                        if (ContainerOperationType.INSPECT.id.equals(request.operationTypeId)) {
+                            inspections.computeIfAbsent(request.resourceReference.getPath(),
+                                    (k) -> new AtomicInteger()).incrementAndGet();
+                        }
+                        op.complete();
+                    }
+                });
+
+        // records the list requests of the host container list data collection
+        host.startService(Operation.createPost(UriUtils.buildUri(host,
+                ManagementUriParts.ADAPTER_DOCKER_HOST)), new StatelessService() {
+                    @Override
+                    public void handlePatch(Operation op) {
+                        AdapterRequest request = op.getBody(AdapterRequest.class);
+                        if (ContainerHostOperationType.LIST_CONTAINERS.id
+                                .equals(request.operationTypeId)) {
+                            listRequests.add(request.resourceReference.getPath());
+                        }
+                        op.fail(new IllegalStateException("not supported in test"));
+                    }
+                });
+
+        host.startService(Operation.createPost(UriUtils.buildUri(host,
+                DockerEventsListenerService.class)), new DockerEventsListenerService());
+        waitForServiceAvailability(DockerEventsListenerService.SELF_LINK);
+
+        createHostAndContainer();
+    }
+
+    @After
+    public void tearDown() throws Throwable {
+        unsubscribe();
+        scriptedStreams.clear();
+        stubStopped = true;
+        if (stubDocker != null) {
+            stubDocker.stop(0);
+        }
+    }
+
+    @Test
+    public void testEventsTriggerTargetedInspections() throws Throwable {
+        scriptedStreams.add(events(
+                event("kill", containerState.id, 1),
+                event("die", containerState.id, 2),
+                event("stop", containerState.id, 3),
+                event("exec_start: sh -c ls", containerState.id, 4)));
+
+        subscribe();
+
+        waitFor(() -> inspections.containsKey(containerState.documentSelfLink));
+        // the burst of events for the same container is coalesced to a single inspection
+        Thread.sleep(TimeUnit.SECONDS.toMillis(1));
+        assertEquals(1, inspections.get(containerState.documentSelfLink).get());
+
+        // the initial connect resyncs the container list of the host
+        waitFor(() -> listRequests.contains(hostState.documentSelfLink));
+
+        waitFor(() -> Boolean.parseBoolean(getDocument(ComputeState.class,
+                hostState.documentSelfLink).customProperties
+                        .get(ContainerHostService.DOCKER_HOST_EVENTS_STREAM_PROP_NAME)));
+
+        EventsListenerState state = getDocument(EventsListenerState.class,
+                DockerEventsListenerService.SELF_LINK);
+        assertEquals(Long.valueOf(4), state.connectedHosts.get(hostState.documentSelfLink));
+    }
+
+    @Test
+    public void testUnknownContainerIsListedInsteadOfInspected() throws Throwable {
+        scriptedStreams.add(events(event("start", "unknown-container-id", 1),
+                event("create", "another-unknown-container-id", 2)));
+
+        subscribe();
+
+        waitFor(() -> listRequests.size() >= 1);
+        Thread.sleep(TimeUnit.SECONDS.toMillis(1));
+        assertTrue(inspections.isEmpty());
+    }
+
+    @Test
+    public void testReconnectAndResyncAfterStreamFailure() throws Throwable {
+        // first stream ends right after the event, the second one stays open
+        scriptedStreams.add(events(event("start", containerState.id, 10), null));
+        scriptedStreams.add(events(event("stop", containerState.id, 20)));
+
+        subscribe();
+
+        waitFor(() -> eventsConnections.get() >= 2);
+        waitFor(() -> inspections.containsKey(containerState.documentSelfLink)
+                && inspections.get(containerState.documentSelfLink).get() >= 2);
+        // each (re)connect resyncs the container list
+        waitFor(() -> listRequests.size() >= 2);
+        // the reconnect replays the events since the last received one
+        assertEquals("since=10", eventsQueries.get(1));
+    }
+
+    private void streamEvents(HttpExchange exchange) throws IOException {
+        eventsConnections.incrementAndGet();
+        List<String> script;
+        try {
+            script = scriptedStreams.poll(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+
+        eventsQueries.add(String.valueOf(exchange.getRequestURI().getQuery()));
+
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, 0);
+        try (OutputStream out = exchange.getResponseBody()) {
+            boolean keepOpen = true;
+            if (script != null) {
+                for (String line : script) {
+                    if (line == null) {
+                        keepOpen = false;
+                        break;
+                    }
+                    out.write(line.getBytes(StandardCharsets.UTF_8));
+                    out.flush();
+                }
+            }
+            while (keepOpen && !stubStopped) {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            // the client closed the stream
+        }
+    }
+
+    private static List<String> events(String... lines) {
+        List<String> result = new ArrayList<>();
+        for (String line : lines) {
+            result.add(line);
+        }
+        return result;
+    }
+
+    private static String event(String action, String id, long time) {
+        return String.format("{\"status\":\"%s\",\"id\":\"%s\",\"from\":\"busybox\","
+                + "\"Type\":\"container\",\"Action\":\"%s\",\"Actor\":{\"ID\":\"%s\"},"
+                + "\"time\":%s,\"timeNano\":%s000000000}\n",
+                action, id, action, id, time, time);
+    }
+
+    private void createHostAndContainer() throws Throwable {
+        waitForServiceAvailability(ComputeService.FACTORY_LINK);
+
+        ComputeDescription computeDescription = new ComputeDescription();
+        computeDescription.customProperties = new HashMap<>();
+        computeDescription.id = UUID.randomUUID().toString();
+        String computeDescriptionLink = doPost(computeDescription,
+                ComputeDescriptionService.FACTORY_LINK).documentSelfLink;
+
+        ComputeState computeState = new ComputeState();
+        computeState.id = UUID.randomUUID().toString();
+        computeState.descriptionLink = computeDescriptionLink;
+        computeState.customProperties = new HashMap<>();
+        computeState.customProperties.put(
+                ContainerHostService.HOST_DOCKER_ADAPTER_TYPE_PROP_NAME,
+                ContainerHostService.DockerAdapterType.API.name());
+        computeState.address = "http://127.0.0.1:" + stubDocker.getAddress().getPort();
+        hostState = doPost(computeState, ComputeService.FACTORY_LINK);
+
+        waitForServiceAvailability(ContainerFactoryService.SELF_LINK);
+        ContainerState container = new ContainerState();
+        container.id = UUID.randomUUID().toString();
+        container.parentLink = hostState.documentSelfLink;
+        container.powerState = PowerState.RUNNING;
+        container.adapterManagementReference = URI.create(TEST_ADAPTER_LINK);
+        containerState = doPost(container, ContainerFactoryService.SELF_LINK);
+    }
+
+    private void subscribe() throws Throwable {
+        EventsListenerRequest request = new EventsListenerRequest();
+        request.containerHostLink = hostState.documentSelfLink;
+        sendListenerRequest(request);
+    }
+
+    private void unsubscribe() throws Throwable {
+        if (hostState == null) {
+            return;
+        }
+        EventsListenerRequest request = new EventsListenerRequest();
+        request.containerHostLink = hostState.documentSelfLink;
+        request.unsubscribe = true;
+        sendListenerRequest(request);
+    }
+
+    private void sendListenerRequest(EventsListenerRequest request) throws Throwable {
+        TestContext ctx = testCreate(1);
+        host.send(Operation.createPatch(host, DockerEventsListenerService.SELF_LINK)
+                .setBody(request)
+                .setReferer(host.getReferer())
+                .setCompletion(ctx.getCompletion()));
+        ctx.await();
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2016 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.adapter.docker.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vmware.admiral.common.test.BaseTestCase;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.Operation.CompletionHandler;
+import com.vmware.xenon.common.StatelessService;
+import com.vmware.xenon.common.UriUtils;
+import com.vmware.xenon.common.test.TestContext;
+
+public class ImagePullManagerTest extends BaseTestCase {
+
+    private static final String STUB_DOCKER_LINK = "/test-stub-docker/images/create";
+    private static final String TEST_HOST_LINK = "/resources/compute/test-host";
+    private static final String TEST_IMAGE = "registry.hub.docker.com/library/busybox:latest";
+
+    private ImagePullManager pullManager;
+    private ExecutorService threadPool;
+
+    private final AtomicInteger pullCount = new AtomicInteger();
+    private volatile boolean failPulls;
+
+    @Before
+    public void setUp() throws Throwable {
+        pullManager = new ImagePullManager();
+        threadPool = Executors.newFixedThreadPool(8);
+
+        // stub docker endpoint which counts the pulls and takes some time to complete each one
+        host.startService(Operation.createPost(UriUtils.buildUri(host, STUB_DOCKER_LINK)),
+                new StatelessService() {
+                    @Override
+                    public void handlePost(Operation op) {
+                        pullCount.incrementAndGet();
+                        getHost().schedule(() -> {
+                            if (failPulls) {
+                                op.fail(new IllegalStateException("pull failed"));
+                            } else {
+                                op.setBody("{\"status\":\"Download complete\"}").complete();
+                            }
+                        }, 500, TimeUnit.MILLISECONDS);
+                    }
+                });
+        waitForServiceAvailability(STUB_DOCKER_LINK);
+    }
+
+    @After
+    public void tearDown() {
+        threadPool.shutdownNow();
+    }
+
+    @Test
+    public void testConcurrentPullsAreCoalesced() throws Throwable {
+        int numberOfRequests = 20;
+        List<Throwable> failures = pullConcurrently(TEST_HOST_LINK, numberOfRequests);
+
+        assertEquals(numberOfRequests, failures.size());
+        for (Throwable failure : failures) {
+            assertNull(failure);
+        }
+        assertEquals(1, pullCount.get());
+
+        // the image was pulled recently so it is not pulled again
+        failures = pullConcurrently(TEST_HOST_LINK, numberOfRequests);
+        assertEquals(numberOfRequests, failures.size());
+        assertEquals(1, pullCount.get());
+    }
+
+    @Test
+    public void testPullFailureIsSharedAndNotRemembered() throws Throwable {
+        failPulls = true;
+        int numberOfRequests = 20;
+        List<Throwable> failures = pullConcurrently(TEST_HOST_LINK, numberOfRequests);
+
+        assertEquals(numberOfRequests, failures.size());
+        for (Throwable failure : failures) {
+            assertTrue(failure != null);
+        }
+        assertEquals(1, pullCount.get());
+
+        // a failed pull is retried by the next request
+        failPulls = false;
+        pullConcurrently(TEST_HOST_LINK, 1);
+        assertEquals(2, pullCount.get());
+    }
+
+    @Test
+    public void testPullsOnDifferentHostsAreNotShared() throws Throwable {
+        pullConcurrently(TEST_HOST_LINK, 5);
+        pullConcurrently(TEST_HOST_LINK + "-2", 5);
+
+        assertEquals(2, pullCount.get());
+    }
+
+    @Test
+    public void testPullsWithDifferentCredentialsAreNotShared() throws Throwable {
+        pullConcurrently(TEST_HOST_LINK, "auth-1", 5);
+        pullConcurrently(TEST_HOST_LINK, "auth-1", 5);
+        pullConcurrently(TEST_HOST_LINK, "auth-2", 5);
+
+        assertEquals(2, pullCount.get());
+
+        // the pulls with any credentials are forgotten
+        pullManager.invalidate(TEST_HOST_LINK, TEST_IMAGE);
+        pullConcurrently(TEST_HOST_LINK, "auth-1", 5);
+        assertEquals(3, pullCount.get());
+    }
+
+    @Test
+    public void testPullAgainAfterInvalidateOrExpiration() throws Throwable {
+        pullConcurrently(TEST_HOST_LINK, 1);
+        pullManager.invalidate(TEST_HOST_LINK, TEST_IMAGE);
+        pullConcurrently(TEST_HOST_LINK, 1);
+        assertEquals(2, pullCount.get());
+
+        pullManager = new ImagePullManager(TimeUnit.MILLISECONDS.toMicros(1));
+        pullConcurrently(TEST_HOST_LINK, 1);
+        Thread.sleep(10);
+        pullConcurrently(TEST_HOST_LINK, 1);
+        assertEquals(4, pullCount.get());
+    }
+
+    private List<Throwable> pullConcurrently(String hostLink, int numberOfRequests)
+            throws Throwable {
+        return pullConcurrently(hostLink, null, numberOfRequests);
+    }
+
+    private List<Throwable> pullConcurrently(String hostLink, String registryAuth,
+            int numberOfRequests) throws Throwable {
+        List<Throwable> failures = new CopyOnWriteArrayList<>();
+        TestContext ctx = testCreate(numberOfRequests);
+
+        List<Callable<Void>> callables = new ArrayList<>();
+        for (int i = 0; i < numberOfRequests; i++) {
+            callables.add(() -> {
+                pullManager.pullImage(hostLink, TEST_IMAGE, registryAuth, this::pull, (o, ex) -> {
+                    failures.add(ex);
+                    ctx.completeIteration();
+                });
+                return null;
+            });
+        }
+
+        threadPool.invokeAll(callables);
+        ctx.await();
+
+        return failures;
+    }
+
+    private void pull(CompletionHandler completionHandler) {
+        host.send(Operation.createPost(UriUtils.buildUri(host, STUB_DOCKER_LINK))
+                .setBody("")
+                .setReferer(host.getUri())
+                .setCompletion(completionHandler));
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) 2016 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.adapter.docker.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test the exec output streaming against a stub docker server writing a large framed output
+ */
+public class DockerExecStreamTest {
+    private static final String START_PATH = "/exec/test-exec/start";
+    private static final int FRAME_SIZE = 1024 * 1024;
+    private static final int FRAME_COUNT = 100;
+    private static final long TOTAL_OUTPUT_SIZE = (long) FRAME_SIZE * FRAME_COUNT;
+    private static final int WRITE_SIZE = 16 * 1024;
+
+    private HttpServer stubDocker;
+    private URI startUri;
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private volatile String requestBody;
+
+    @Before
+    public void setUp() throws Throwable {
+        stubDocker = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        stubDocker.createContext(START_PATH, this::writeOutput);
+        stubDocker.start();
+        startUri = URI.create(String.format("http://127.0.0.1:%s%s",
+                stubDocker.getAddress().getPort(), START_PATH));
+    }
+
+    @After
+    public void tearDown() {
+        if (stubDocker != null) {
+            stubDocker.stop(0);
+        }
+    }
+
+    @Test
+    public void testLargeOutputIsStreamedInChunks() throws Throwable {
+        AtomicLong stdoutBytes = new AtomicLong();
+        AtomicLong stderrBytes = new AtomicLong();
+        AtomicInteger maxChunkSize = new AtomicInteger();
+
+        Throwable failure = exec((type, buf, off, len) -> {
+            (type == DockerStreamDecoder.STREAM_TYPE_STDERR ? stderrBytes : stdoutBytes)
+                    .addAndGet(len);
+            maxChunkSize.accumulateAndGet(len, Math::max);
+            return true;
+        });
+
+        assertNull(failure);
+        assertEquals(TOTAL_OUTPUT_SIZE, stdoutBytes.get() + stderrBytes.get());
+        assertEquals(FRAME_SIZE, stderrBytes.get());
+        // the frames are never buffered in whole
+        assertTrue("chunk of " + maxChunkSize.get(), maxChunkSize.get() < FRAME_SIZE);
+        assertTrue(requestBody.contains("\"Detach\":false"));
+    }
+
+    @Test
+    public void testCollectedOutputIsBounded() throws Throwable {
+        int limit = 1024 * 1024;
+        BoundedOutputCollector collector = new BoundedOutputCollector(limit);
+
+        Throwable failure = exec(collector);
+
+        assertNull(failure);
+        assertEquals(limit, collector.getSize());
+        assertTrue(collector.isTruncated());
+        assertEquals(TOTAL_OUTPUT_SIZE - limit, collector.getDroppedBytes());
+    }
+
+    @Test
+    public void testSlowListenerSlowsDownTheServer() throws Throwable {
+        long[] writtenWhileBlocked = new long[] { -1 };
+
+        Throwable failure = exec((type, buf, off, len) -> {
+            if (writtenWhileBlocked[0] < 0) {
+                try {
+                    Thread.sleep(TimeUnit.SECONDS.toMillis(1));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                writtenWhileBlocked[0] = bytesWritten.get();
+            }
+            return true;
+        });
+
+        assertNull(failure);
+        // only the socket buffers are filled while the listener is blocked
+        assertTrue("written " + writtenWhileBlocked[0],
+                writtenWhileBlocked[0] < TOTAL_OUTPUT_SIZE / 4);
+        assertEquals(TOTAL_OUTPUT_SIZE, bytesWritten.get());
+    }
+
+    @Test
+    public void testListenerStopsTheStream() throws Throwable {
+        AtomicLong received = new AtomicLong();
+
+        Throwable failure = exec((type, buf, off, len) -> {
+            return received.addAndGet(len) < FRAME_SIZE;
+        });
+
+        assertNull(failure);
+        assertTrue(received.get() < TOTAL_OUTPUT_SIZE);
+    }
+
+    private Throwable exec(DockerStreamDecoder.FrameListener listener) throws Throwable {
+        Map<String, Object> body = new HashMap<>();
+        body.put("Tty", false);
+        body.put("Detach", false);
+
+        CompletableFuture<Throwable> result = new CompletableFuture<>();
+        DockerExecStream stream = new DockerExecStream(startUri, null, body,
+                (int) TimeUnit.SECONDS.toMillis(10), listener, (e) -> result.complete(e));
+        Thread reader = new Thread(stream, "test-exec-stream");
+        reader.start();
+
+        return result.get(60, TimeUnit.SECONDS);
+    }
+
+    private void writeOutput(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            requestBody = new String(readAll(in), StandardCharsets.UTF_8);
+        }
+
+        exchange.getResponseHeaders().add("Content-Type", "application/vnd.docker.raw-stream");
+        exchange.sendResponseHeaders(200, 0);
+
+        byte[] payload = new byte[WRITE_SIZE];
+        Arrays.fill(payload, (byte) 'x');
+        try (OutputStream out = exchange.getResponseBody()) {
+            for (int i = 0; i < FRAME_COUNT; i++) {
+                // the last frame is written to stderr
+                int streamType = i == FRAME_COUNT - 1 ? DockerStreamDecoder.STREAM_TYPE_STDERR
+                        : DockerStreamDecoder.STREAM_TYPE_STDOUT;
+                out.write(ByteBuffer.allocate(8).put((byte) streamType).putInt(4, FRAME_SIZE)
+                        .array());
+                for (int written = 0; written < FRAME_SIZE; written += WRITE_SIZE) {
+                    out.write(payload);
+                    bytesWritten.addAndGet(WRITE_SIZE);
+                }
+            }
+        } catch (IOException e) {
+            // the client stopped reading
+        }
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        byte[] buffer = new byte[1024];
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+}
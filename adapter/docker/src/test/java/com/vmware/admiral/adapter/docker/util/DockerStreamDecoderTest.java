@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2016 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.adapter.docker.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class DockerStreamDecoderTest {
+
+    @Test
+    public void testDecodeChunksNotAlignedToFrames() throws IOException {
+        byte[] raw = concat(frame(1, "hello "), frame(2, "error"), frame(1, ""),
+                frame(1, "world"));
+
+        StringBuilder stdout = new StringBuilder();
+        StringBuilder stderr = new StringBuilder();
+        DockerStreamDecoder decoder = new DockerStreamDecoder((type, buf, off, len) -> {
+            String s = new String(buf, off, len, StandardCharsets.UTF_8);
+            (type == DockerStreamDecoder.STREAM_TYPE_STDERR ? stderr : stdout).append(s);
+            return true;
+        });
+
+        // feed the stream one byte at a time to split both headers and payloads
+        for (int i = 0; i < raw.length; i++) {
+            assertTrue(decoder.decode(raw, i, 1));
+        }
+        decoder.finish();
+
+        assertEquals("hello world", stdout.toString());
+        assertEquals("error", stderr.toString());
+    }
+
+    @Test
+    public void testListenerStopsDecoding() throws IOException {
+        byte[] raw = concat(frame(1, "first"), frame(1, "second"));
+
+        List<String> chunks = new ArrayList<>();
+        DockerStreamDecoder decoder = new DockerStreamDecoder((type, buf, off, len) -> {
+            chunks.add(new String(buf, off, len, StandardCharsets.UTF_8));
+            return false;
+        });
+
+        decoder.decode(new ByteArrayInputStream(raw));
+
+        assertEquals(1, chunks.size());
+        assertEquals("first", chunks.get(0));
+        assertFalse(decoder.decode(raw, 0, raw.length));
+    }
+
+    @Test(expected = EOFException.class)
+    public void testStreamEndingInTheMiddleOfFrame() throws IOException {
+        byte[] raw = frame(1, "truncated");
+
+        new DockerStreamDecoder((type, buf, off, len) -> true).decode(
+                new ByteArrayInputStream(raw, 0, raw.length - 1));
+    }
+
+    @Test
+    public void testBoundedOutputCollector() throws IOException {
+        byte[] raw = concat(frame(1, "0123456789"), frame(2, "abcdef"));
+
+        BoundedOutputCollector collector = new BoundedOutputCollector(12);
+        new DockerStreamDecoder(collector).decode(new ByteArrayInputStream(raw));
+
+        assertEquals("0123456789ab", collector.toString());
+        assertEquals(12, collector.getSize());
+        assertTrue(collector.isTruncated());
+        assertEquals(4, collector.getDroppedBytes());
+    }
+
+    private static byte[] frame(int streamType, String payload) {
+        byte[] bytes = payload.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocate(8 + bytes.length);
+        buffer.put((byte) streamType);
+        buffer.position(4);
+        buffer.putInt(bytes.length);
+        buffer.put(bytes);
+        return buffer.array();
+    }
+
+    private static byte[] concat(byte[]... frames) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] frame : frames) {
+            out.write(frame, 0, frame.length);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2016 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.common.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.cert.X509v3CertificateBuilder;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vmware.admiral.common.test.BaseTestCase;
+import com.vmware.admiral.service.common.ConfigurationService.ConfigurationFactoryService;
+import com.vmware.admiral.service.common.SslTrustCertificateFactoryService;
+import com.vmware.admiral.service.common.SslTrustCertificateService.SslTrustCertificateState;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.ServiceHost;
+import com.vmware.xenon.common.UriUtils;
+
+/**
+ * Test the periodic reloads of the certificates of {@link ServerX509TrustManager}
+ */
+public class ServerX509TrustManagerReloadTest extends BaseTestCase {
+    private static final String AUTH_TYPE = "ECDHE_ECDSA";
+
+    private CountingTrustManager trustManager;
+
+    @Before
+    public void setUp() throws Throwable {
+        host.startService(Operation.createPost(UriUtils.buildUri(host,
+                ConfigurationFactoryService.class)), new ConfigurationFactoryService());
+        host.startService(Operation.createPost(UriUtils.buildUri(host,
+                SslTrustCertificateFactoryService.class)),
+                new SslTrustCertificateFactoryService());
+        waitForServiceAvailability(ConfigurationFactoryService.SELF_LINK);
+        waitForServiceAvailability(SslTrustCertificateFactoryService.SELF_LINK);
+
+        // no periodic reload while the test runs, the test triggers the reloads
+        trustManager = new CountingTrustManager(host, TimeUnit.MINUTES.toMicros(10));
+    }
+
+    @After
+    public void tearDown() {
+        if (trustManager != null) {
+            trustManager.close();
+        }
+    }
+
+    @Test
+    public void testCertificateAddedAfterLastReloadIsLoaded() throws Throwable {
+        X509Certificate[] first = createCertificate("first");
+        String firstAlias = addCertificate(first);
+        trustManager.start();
+        waitFor(() -> isTrusted(first));
+
+        // only the reload can find the new certificate
+        trustManager.close();
+        X509Certificate[] second = createCertificate("second");
+        String secondAlias = addCertificate(second);
+        Thread.sleep(500);
+        assertFalse(isTrusted(second));
+
+        trustManager.reloadCertificates(false);
+        waitFor(() -> isTrusted(second));
+
+        assertEquals(1, trustManager.getLoadCount(firstAlias));
+        assertEquals(1, trustManager.getLoadCount(secondAlias));
+    }
+
+    @Test
+    public void testCertificateRemovedIsDroppedOnFullReload() throws Throwable {
+        X509Certificate[] certificate = createCertificate("removed");
+        String alias = addCertificate(certificate);
+        trustManager.start();
+        waitFor(() -> isTrusted(certificate));
+
+        // the removal is not notified, the certificate is still trusted
+        trustManager.close();
+        doDelete(UriUtils.buildUri(host, UriUtils.buildUriPath(
+                SslTrustCertificateFactoryService.SELF_LINK, alias)), false);
+        Thread.sleep(500);
+        assertTrue(isTrusted(certificate));
+
+        trustManager.reloadCertificates(true);
+        waitFor(() -> !isTrusted(certificate));
+    }
+
+    @Test
+    public void testUnchangedCertificateIsNotLoadedAgain() throws Throwable {
+        X509Certificate[] certificate = createCertificate("unchanged");
+        String alias = addCertificate(certificate);
+        trustManager.start();
+        waitFor(() -> isTrusted(certificate));
+        assertEquals(1, trustManager.getLoadCount(alias));
+
+        // each reload finds a new certificate, the unchanged one is found too
+        trustManager.close();
+        X509Certificate[] marker = createCertificate("full-reload-marker");
+        String markerAlias = addCertificate(marker);
+        trustManager.reloadCertificates(true);
+        waitFor(() -> trustManager.getLoadCount(markerAlias) == 1);
+
+        X509Certificate[] nextMarker = createCertificate("reload-marker");
+        String nextMarkerAlias = addCertificate(nextMarker);
+        trustManager.reloadCertificates(false);
+        waitFor(() -> trustManager.getLoadCount(nextMarkerAlias) == 1);
+
+        Thread.sleep(500);
+        assertEquals(1, trustManager.getLoadCount(alias));
+        assertTrue(isTrusted(certificate));
+    }
+
+    private String addCertificate(X509Certificate[] certificate) throws Throwable {
+        SslTrustCertificateState state = new SslTrustCertificateState();
+        state.certificate = CertificateUtil.toPEMformat(certificate);
+        return doPost(state, SslTrustCertificateFactoryService.SELF_LINK).getAlias();
+    }
+
+    private boolean isTrusted(X509Certificate[] certificate) {
+        try {
+            trustManager.checkServerTrusted(certificate, AUTH_TYPE);
+            return true;
+        } catch (CertificateException e) {
+            return false;
+        }
+    }
+
+    private static X509Certificate[] createCertificate(String name) throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(256);
+        KeyPair keyPair = generator.generateKeyPair();
+
+        X500Name subject = new X500Name("CN=" + name);
+        Date notBefore = new Date(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(1));
+        Date notAfter = new Date(System.currentTimeMillis() + TimeUnit.DAYS.toMillis(1));
+        X509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(subject,
+                BigInteger.valueOf(System.nanoTime()), notBefore, notAfter, subject,
+                keyPair.getPublic());
+
+        return new X509Certificate[] { new JcaX509CertificateConverter().getCertificate(
+                builder.build(new JcaContentSignerBuilder("SHA256withECDSA")
+                        .build(keyPair.getPrivate()))) };
+    }
+
+    private static class CountingTrustManager extends TestServerX509TrustManager {
+        private final Map<String, AtomicInteger> loadCounts = new ConcurrentHashMap<>();
+
+        CountingTrustManager(ServiceHost host, long updateInterval) {
+            super(host, updateInterval);
+        }
+
+        @Override
+        public void putDelegate(String alias, String certificate) {
+            super.putDelegate(alias, certificate);
+            loadCounts.computeIfAbsent(alias, (a) -> new AtomicInteger()).incrementAndGet();
+        }
+
+        int getLoadCount(String alias) {
+            AtomicInteger count = loadCounts.get(alias);
+            return count == null ? 0 : count.get();
+        }
+    }
+}
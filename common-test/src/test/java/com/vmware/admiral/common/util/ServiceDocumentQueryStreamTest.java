@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) 2016 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.common.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vmware.admiral.common.test.BaseTestCase;
+import com.vmware.admiral.common.util.ServiceDocumentQuery.QueryHandle;
+import com.vmware.admiral.service.common.ConfigurationService.ConfigurationFactoryService;
+import com.vmware.admiral.service.common.ConfigurationService.ConfigurationState;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.UriUtils;
+import com.vmware.xenon.common.test.TestContext;
+import com.vmware.xenon.services.common.QueryTask;
+
+/**
+ * Test the streaming of the results of a large query with {@link ServiceDocumentQuery}
+ */
+public class ServiceDocumentQueryStreamTest extends BaseTestCase {
+    private static final int DOCUMENT_COUNT = 100_000;
+    private static final int CREATE_BATCH_SIZE = 1000;
+
+    @Before
+    public void setUp() throws Throwable {
+        host.startService(Operation.createPost(UriUtils.buildUri(host,
+                ConfigurationFactoryService.class)), new ConfigurationFactoryService());
+        waitForServiceAvailability(ConfigurationFactoryService.SELF_LINK);
+        ServiceDocumentQuery.clearPageStats();
+    }
+
+    @Test
+    public void testStreamLargeResultSet() throws Throwable {
+        createDocuments(DOCUMENT_COUNT);
+
+        // all the documents are delivered exactly once
+        Set<String> links = ConcurrentHashMap.newKeySet();
+        AtomicLong firstPageSize = new AtomicLong();
+        Throwable failure = stream(new ServiceDocumentQuery<>(host, ConfigurationState.class),
+                (r, handle) -> {
+                    assertTrue(r.getDocumentSelfLink(), links.add(r.getDocumentSelfLink()));
+                    firstPageSize.compareAndSet(0, r.getCount());
+                });
+        assertNull(failure);
+        assertEquals(DOCUMENT_COUNT, links.size());
+
+        // small documents delivered quickly, the next walk uses bigger pages
+        AtomicLong fastPageSize = new AtomicLong();
+        AtomicInteger delivered = new AtomicInteger();
+        failure = stream(new ServiceDocumentQuery<>(host, ConfigurationState.class),
+                (r, handle) -> {
+                    fastPageSize.compareAndSet(0, r.getCount());
+                    delivered.incrementAndGet();
+                });
+        assertNull(failure);
+        assertEquals(DOCUMENT_COUNT, delivered.get());
+        assertTrue(fastPageSize.get() + " > " + firstPageSize.get(),
+                fastPageSize.get() > firstPageSize.get());
+        assertTrue(fastPageSize.get() <= ServiceDocumentQuery.STREAM_MAX_PAGE_SIZE);
+
+        // a slow callback, the walk is cancelled early and the next walk uses smaller pages
+        int cancelAfter = 300;
+        AtomicInteger slowDelivered = new AtomicInteger();
+        failure = stream(new ServiceDocumentQuery<>(host, ConfigurationState.class),
+                (r, handle) -> {
+                    Thread.sleep(1);
+                    if (slowDelivered.incrementAndGet() == cancelAfter) {
+                        handle.cancel();
+                    }
+                });
+        assertNull(failure);
+        assertEquals(cancelAfter, slowDelivered.get());
+
+        AtomicLong slowPageSize = new AtomicLong();
+        failure = stream(new ServiceDocumentQuery<>(host, ConfigurationState.class),
+                (r, handle) -> {
+                    slowPageSize.set(r.getCount());
+                    handle.cancel();
+                });
+        assertNull(failure);
+        assertTrue(slowPageSize.get() + " < " + fastPageSize.get(),
+                slowPageSize.get() < fastPageSize.get());
+        assertTrue(slowPageSize.get() >= ServiceDocumentQuery.STREAM_MIN_PAGE_SIZE);
+
+        // the configured bounds are respected
+        AtomicLong maxPageSize = new AtomicLong();
+        AtomicInteger boundedDelivered = new AtomicInteger();
+        failure = stream(new ServiceDocumentQuery<>(host, ConfigurationState.class)
+                .setPageSizeBounds(5, 10), (r, handle) -> {
+                    maxPageSize.accumulateAndGet(r.getCount(), Math::max);
+                    if (boundedDelivered.incrementAndGet() == 100) {
+                        handle.cancel();
+                    }
+                });
+        assertNull(failure);
+        assertEquals(100, boundedDelivered.get());
+        assertTrue(maxPageSize.get() + " <= 10", maxPageSize.get() <= 10);
+    }
+
+    @Test
+    public void testStreamFewPages() throws Throwable {
+        createDocuments(25);
+
+        // three pages, the first one is delivered as soon as it is retrieved
+        Set<String> links = ConcurrentHashMap.newKeySet();
+        Throwable failure = stream(new ServiceDocumentQuery<>(host, ConfigurationState.class)
+                .setPageSizeBounds(10, 10), (r, handle) -> {
+                    assertTrue(r.getDocumentSelfLink(), links.add(r.getDocumentSelfLink()));
+                });
+        assertNull(failure);
+        assertEquals(25, links.size());
+
+        // a single page
+        AtomicInteger delivered = new AtomicInteger();
+        failure = stream(new ServiceDocumentQuery<>(host, ConfigurationState.class)
+                .setPageSizeBounds(50, 50), (r, handle) -> delivered.incrementAndGet());
+        assertNull(failure);
+        assertEquals(25, delivered.get());
+    }
+
+    @FunctionalInterface
+    private interface ResultHandler {
+        void accept(ServiceDocumentQuery.ServiceDocumentQueryElementResult<ConfigurationState> r,
+                QueryHandle handle) throws Throwable;
+    }
+
+    private Throwable stream(ServiceDocumentQuery<ConfigurationState> query,
+            ResultHandler resultHandler) throws Throwable {
+        QueryTask q = QueryUtil.buildQuery(ConfigurationState.class, true);
+        QueryUtil.addExpandOption(q);
+
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        QueryHandle handle = new QueryHandle();
+        AtomicInteger completions = new AtomicInteger();
+        TestContext ctx = testCreate(1);
+        query.stream(q, handle, (r) -> {
+            if (r.hasException()) {
+                failure.set(r.getException());
+                completions.incrementAndGet();
+                ctx.completeIteration();
+                return;
+            }
+            if (!r.hasResult()) {
+                completions.incrementAndGet();
+                ctx.completeIteration();
+                return;
+            }
+            try {
+                resultHandler.accept(r, handle);
+            } catch (Throwable e) {
+                failure.set(e);
+                handle.cancel();
+            }
+        });
+        ctx.await();
+
+        // nothing is delivered after the end of the walk
+        Thread.sleep(100);
+        assertEquals(1, completions.get());
+        return failure.get();
+    }
+
+    private void createDocuments(int count) throws Throwable {
+        for (int batch = 0; batch < count; batch += CREATE_BATCH_SIZE) {
+            int batchEnd = Math.min(batch + CREATE_BATCH_SIZE, count);
+            TestContext ctx = testCreate(batchEnd - batch);
+            for (int i = batch; i < batchEnd; i++) {
+                ConfigurationState state = new ConfigurationState();
+                state.key = "stream-key-" + i;
+                state.value = "stream-value-" + i;
+                state.documentSelfLink = state.key;
+                host.send(Operation.createPost(UriUtils.buildUri(host,
+                        ConfigurationFactoryService.SELF_LINK))
+                        .setBody(state)
+                        .setReferer(host.getUri())
+                        .setCompletion(ctx.getCompletion()));
+            }
+            ctx.await();
+        }
+    }
+}
@@ -0,0 +1,346 @@
+/*
+ * Copyright (c) 2016 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.common.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import org.apache.sshd.common.NamedFactory;
+import org.apache.sshd.common.file.virtualfs.VirtualFileSystemFactory;
+import org.apache.sshd.server.Command;
+import org.apache.sshd.server.Environment;
+import org.apache.sshd.server.ExitCallback;
+import org.apache.sshd.server.SshServer;
+import org.apache.sshd.server.keyprovider.SimpleGeneratorHostKeyProvider;
+import org.apache.sshd.server.subsystem.sftp.SftpSubsystemFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vmware.admiral.common.test.BaseTestCase;
+import com.vmware.admiral.common.util.SshServiceUtil.ScpResult;
+import com.vmware.xenon.common.test.TestContext;
+import com.vmware.xenon.services.common.AuthCredentialsService.AuthCredentialsServiceState;
+
+/**
+ * Test the pooled ssh connections of {@link SshServiceUtil} against an in-process ssh server.
+ */
+public class SshServiceUtilTest extends BaseTestCase {
+    private static final int MAX_SESSIONS_PER_CONNECTION = 4;
+    private static final int MAX_CONNECTIONS_PER_HOST = 2;
+    private static final int EXEC_COUNT = 40;
+
+    private SshServer sshd;
+    private Path rootDir;
+    private SshConnectionPool pool;
+    private SshServiceUtil sshServiceUtil;
+
+    private final AtomicInteger runningCommands = new AtomicInteger();
+    private final AtomicInteger maxRunningCommands = new AtomicInteger();
+
+    @Before
+    public void setUp() throws Exception {
+        rootDir = Files.createTempDirectory("sshd-root");
+
+        sshd = SshServer.setUpDefaultServer();
+        sshd.setHost("localhost");
+        sshd.setPort(0);
+        sshd.setKeyPairProvider(new SimpleGeneratorHostKeyProvider());
+        sshd.setPasswordAuthenticator((user, password, session) -> "password".equals(password));
+        sshd.setCommandFactory((command) -> new StubCommand(command));
+        sshd.setSubsystemFactories(Collections.<NamedFactory<Command>> singletonList(
+                new SftpSubsystemFactory()));
+        sshd.setFileSystemFactory(new VirtualFileSystemFactory(rootDir));
+        sshd.start();
+
+        pool = new SshConnectionPool(MAX_SESSIONS_PER_CONNECTION, MAX_CONNECTIONS_PER_HOST,
+                1, TimeUnit.SECONDS);
+        sshServiceUtil = new SshServiceUtil(host, pool);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        sshServiceUtil.stop();
+        sshd.stop(true);
+        try (Stream<Path> paths = Files.walk(rootDir)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @Test
+    public void testConcurrentExecsShareConnections() throws Throwable {
+        Map<Integer, String> outputs = new ConcurrentHashMap<>();
+        TestContext ctx = testCreate(EXEC_COUNT);
+        for (int i = 0; i < EXEC_COUNT; i++) {
+            int index = i;
+            sshServiceUtil.exec(getHostname(), getCredentials(), "sleep 200 echo " + i,
+                    (op, failure) -> {
+                        if (failure != null) {
+                            ctx.failIteration(failure);
+                            return;
+                        }
+                        outputs.put(index, op.getBody(String.class));
+                        ctx.completeIteration();
+                    }, SshServiceUtil.SSH_OPERATION_TIMEOUT_LONG, TimeUnit.SECONDS);
+        }
+        ctx.await();
+
+        for (int i = 0; i < EXEC_COUNT; i++) {
+            assertEquals(i + "\n", outputs.get(i));
+        }
+
+        // the commands ran in parallel, on the allowed connections and channels only
+        assertTrue("max running " + maxRunningCommands.get(), maxRunningCommands.get() > 1);
+        assertTrue("max running " + maxRunningCommands.get(), maxRunningCommands.get()
+                <= MAX_SESSIONS_PER_CONNECTION * MAX_CONNECTIONS_PER_HOST);
+        assertTrue(pool.getConnectionCount() <= MAX_CONNECTIONS_PER_HOST);
+        assertEquals(pool.getConnectionCount(), sshd.getActiveSessions().size());
+        assertEquals(0, pool.getSessionCount());
+    }
+
+    @Test
+    public void testSaturatedHostDoesNotDelayOtherHosts() throws Throwable {
+        // more queued commands to a host than threads to run them
+        int count = SshServiceUtil.SSH_MAX_THREADS + EXEC_COUNT;
+        TestContext ctx = testCreate(count);
+        for (int i = 0; i < count; i++) {
+            sshServiceUtil.exec(getHostname(), getCredentials(), "sleep 500 echo " + i,
+                    (op, failure) -> {
+                        if (failure != null) {
+                            ctx.failIteration(failure);
+                            return;
+                        }
+                        ctx.completeIteration();
+                    }, SshServiceUtil.SSH_OPERATION_TIMEOUT_LONG, TimeUnit.SECONDS);
+        }
+
+        // the waiting commands hold no thread, a command to another host runs right away
+        AuthCredentialsServiceState otherCredentials = getCredentials();
+        otherCredentials.userEmail = "other";
+        long start = System.currentTimeMillis();
+        Throwable[] result = new Throwable[1];
+        TestContext otherCtx = testCreate(1);
+        sshServiceUtil.exec(getHostname(), otherCredentials, "echo other", (op, failure) -> {
+            result[0] = failure;
+            otherCtx.completeIteration();
+        }, SshServiceUtil.SSH_OPERATION_TIMEOUT_SHORT, TimeUnit.SECONDS);
+        otherCtx.await();
+        assertNull(result[0]);
+        long elapsed = System.currentTimeMillis() - start;
+        assertTrue("elapsed " + elapsed, elapsed < TimeUnit.SECONDS.toMillis(2));
+
+        ctx.await();
+        assertEquals(0, pool.getSessionCount());
+    }
+
+    @Test
+    public void testFailingHandlerCalledOnce() throws Throwable {
+        AtomicInteger calls = new AtomicInteger();
+        sshServiceUtil.exec(getHostname(), getCredentials(), "echo hello", (op, failure) -> {
+            calls.incrementAndGet();
+            throw new IllegalStateException("handler failure");
+        }, SshServiceUtil.SSH_OPERATION_TIMEOUT_SHORT, TimeUnit.SECONDS);
+        sshServiceUtil.upload(getHostname(), getCredentials(),
+                "Hello".getBytes(StandardCharsets.UTF_8), "uploaded.txt", (op, failure) -> {
+                    calls.incrementAndGet();
+                    throw new IllegalStateException("handler failure");
+                });
+
+        waitFor(() -> calls.get() == 2);
+        Thread.sleep(500);
+        assertEquals(2, calls.get());
+        assertEquals(0, pool.getSessionCount());
+    }
+
+    @Test
+    public void testExitCodeAndTimeout() throws Throwable {
+        Throwable failure = execAndWaitFailure("exit 3",
+                SshServiceUtil.SSH_OPERATION_TIMEOUT_SHORT);
+        assertTrue(failure.getMessage(), failure.getMessage().contains("STATUS: 3"));
+
+        failure = execAndWaitFailure("sleep 10000 echo late", 1);
+        assertTrue(failure.toString(), failure instanceof TimeoutException);
+
+        // the connection is still usable
+        assertNull(execAndWaitFailure("echo done", SshServiceUtil.SSH_OPERATION_TIMEOUT_SHORT));
+        assertEquals(1, pool.getConnectionCount());
+    }
+
+    @Test
+    public void testIdleConnectionsEvicted() throws Throwable {
+        assertNull(execAndWaitFailure("echo hello", SshServiceUtil.SSH_OPERATION_TIMEOUT_SHORT));
+        assertEquals(1, pool.getConnectionCount());
+
+        // not idle yet
+        pool.evictIdle();
+        assertEquals(1, pool.getConnectionCount());
+
+        Thread.sleep(TimeUnit.SECONDS.toMillis(1) + 100);
+        pool.evictIdle();
+        assertEquals(0, pool.getConnectionCount());
+        waitFor(() -> sshd.getActiveSessions().isEmpty());
+    }
+
+    @Test
+    public void testStop() throws Throwable {
+        assertNull(execAndWaitFailure("echo hello", SshServiceUtil.SSH_OPERATION_TIMEOUT_SHORT));
+        assertEquals(1, pool.getConnectionCount());
+
+        sshServiceUtil.stop();
+        assertEquals(0, pool.getConnectionCount());
+        Throwable failure = execAndWaitFailure("echo hello",
+                SshServiceUtil.SSH_OPERATION_TIMEOUT_SHORT);
+        assertTrue(failure.toString(), failure instanceof IllegalStateException);
+    }
+
+    @Test
+    public void testUpload() throws Throwable {
+        byte[] data = "Hello".getBytes(StandardCharsets.UTF_8);
+        ScpResult[] result = new ScpResult[1];
+        TestContext ctx = testCreate(1);
+        sshServiceUtil.upload(getHostname(), getCredentials(), data, "uploaded.txt",
+                (op, failure) -> {
+                    if (failure != null) {
+                        ctx.failIteration(failure);
+                        return;
+                    }
+                    result[0] = op.getBody(ScpResult.class);
+                    ctx.completeIteration();
+                });
+        ctx.await();
+
+        assertEquals("uploaded.txt", result[0].target);
+        assertArrayEquals(data, Files.readAllBytes(rootDir.resolve("uploaded.txt")));
+        assertEquals(1, pool.getConnectionCount());
+    }
+
+    private Throwable execAndWaitFailure(String command, int timeoutSeconds) {
+        Throwable[] result = new Throwable[1];
+        TestContext ctx = testCreate(1);
+        sshServiceUtil.exec(getHostname(), getCredentials(), command, (op, failure) -> {
+            result[0] = failure;
+            ctx.completeIteration();
+        }, timeoutSeconds, TimeUnit.SECONDS);
+        ctx.await();
+        return result[0];
+    }
+
+    private String getHostname() {
+        return "localhost:" + sshd.getPort();
+    }
+
+    private AuthCredentialsServiceState getCredentials() {
+        AuthCredentialsServiceState creds = new AuthCredentialsServiceState();
+        creds.userEmail = "user";
+        creds.type = "Password";
+        creds.privateKey = "password";
+        return creds;
+    }
+
+    /**
+     * Command supporting "echo &lt;text&gt;", "exit &lt;code&gt;" and
+     * "sleep &lt;millis&gt; &lt;command&gt;".
+     */
+    private class StubCommand implements Command, Runnable {
+        private final String command;
+        private OutputStream out;
+        private OutputStream err;
+        private ExitCallback exitCallback;
+
+        StubCommand(String command) {
+            this.command = command;
+        }
+
+        @Override
+        public void setInputStream(InputStream in) {
+        }
+
+        @Override
+        public void setOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void setErrorStream(OutputStream err) {
+            this.err = err;
+        }
+
+        @Override
+        public void setExitCallback(ExitCallback exitCallback) {
+            this.exitCallback = exitCallback;
+        }
+
+        @Override
+        public void start(Environment env) throws IOException {
+            Thread t = new Thread(this, "stub-command");
+            t.setDaemon(true);
+            t.start();
+        }
+
+        @Override
+        public void run() {
+            maxRunningCommands.accumulateAndGet(runningCommands.incrementAndGet(), Math::max);
+            int exitCode;
+            try {
+                exitCode = run(command);
+            } catch (Exception e) {
+                exitCode = 1;
+            } finally {
+                runningCommands.decrementAndGet();
+            }
+            exitCallback.onExit(exitCode);
+        }
+
+        private int run(String command) throws Exception {
+            String[] parts = command.split(" ", 2);
+            switch (parts[0]) {
+            case "echo":
+                out.write((parts[1] + "\n").getBytes(StandardCharsets.UTF_8));
+                out.flush();
+                return 0;
+            case "exit":
+                return Integer.parseInt(parts[1]);
+            case "sleep":
+                String[] args = parts[1].split(" ", 2);
+                Thread.sleep(Long.parseLong(args[0]));
+                return run(args[1]);
+            default:
+                err.write(("unknown command: " + command + "\n")
+                        .getBytes(StandardCharsets.UTF_8));
+                err.flush();
+                return 127;
+            }
+        }
+
+        @Override
+        public void destroy() {
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2016 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.common.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vmware.admiral.common.test.BaseTestCase;
+import com.vmware.admiral.service.common.ConfigurationService.ConfigurationFactoryService;
+import com.vmware.admiral.service.common.ConfigurationService.ConfigurationState;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.ServiceHost;
+import com.vmware.xenon.common.ServiceSubscriptionState;
+import com.vmware.xenon.common.UriUtils;
+import com.vmware.xenon.common.test.TestContext;
+
+/**
+ * Test the sharing of a subscription by many {@link SubscriptionManager} instances through the
+ * {@link SubscriptionHub}.
+ */
+public class SubscriptionHubTest extends BaseTestCase {
+    private static final int LISTENER_COUNT = 1000;
+    private static final int DOCUMENT_COUNT = 5;
+
+    @Before
+    public void setUp() throws Throwable {
+        host.startService(Operation.createPost(UriUtils.buildUri(host,
+                ConfigurationFactoryService.class)), new ConfigurationFactoryService());
+        waitForServiceAvailability(ConfigurationFactoryService.SELF_LINK);
+    }
+
+    @Test
+    public void testManyListenersShareOneSubscription() throws Throwable {
+        String factoryLink = ConfigurationFactoryService.SELF_LINK;
+        SubscriptionHub hub = SubscriptionHub.getInstance(host);
+
+        List<SubscriptionManager<ConfigurationState>> managers = new ArrayList<>();
+        List<Set<String>> received = new ArrayList<>();
+        TestContext ctx = testCreate(LISTENER_COUNT);
+        for (int i = 0; i < LISTENER_COUNT; i++) {
+            Set<String> keys = ConcurrentHashMap.newKeySet();
+            received.add(keys);
+            SubscriptionManager<ConfigurationState> manager = new SubscriptionManager<>(host,
+                    host.getId(), factoryLink, ConfigurationState.class);
+            manager.setCompletionHandler(completionHandler(ctx));
+            managers.add(manager);
+            manager.start((n) -> {
+                assertTrue(n.isUpdate());
+                keys.add(n.getResult().key);
+            });
+        }
+        ctx.await();
+
+        // a single backing subscription for all the listeners
+        assertNotNull(hub.getSubscriptionLink(factoryLink));
+        assertEquals(LISTENER_COUNT, hub.getListenerCount(factoryLink));
+        assertEquals(1, getSubscriberCount(factoryLink));
+
+        for (int i = 0; i < DOCUMENT_COUNT; i++) {
+            ConfigurationState state = new ConfigurationState();
+            state.key = "hub-key-" + i;
+            state.value = "hub-value-" + i;
+            doPost(state, factoryLink);
+        }
+
+        // every listener receives every notification
+        waitFor(() -> received.stream().allMatch((keys) -> keys.size() == DOCUMENT_COUNT));
+        for (Set<String> keys : received) {
+            for (int i = 0; i < DOCUMENT_COUNT; i++) {
+                assertTrue(keys.contains("hub-key-" + i));
+            }
+        }
+
+        // the subscription is kept while used
+        close(managers.subList(1, LISTENER_COUNT));
+        assertEquals(1, hub.getListenerCount(factoryLink));
+        assertEquals(1, getSubscriberCount(factoryLink));
+        assertNotNull(managers.get(0).getSubscriptionLink());
+
+        // and removed with its last listener
+        close(managers.subList(0, 1));
+        assertNull(hub.getSubscriptionLink(factoryLink));
+        assertEquals(0, hub.getListenerCount(factoryLink));
+        assertEquals(0, getSubscriberCount(factoryLink));
+
+        // the hub is kept while the host runs
+        assertSame(hub, SubscriptionHub.getInstance(host));
+    }
+
+    private void close(List<SubscriptionManager<ConfigurationState>> managers) {
+        TestContext ctx = testCreate(managers.size());
+        for (SubscriptionManager<ConfigurationState> manager : managers) {
+            manager.setCompletionHandler(completionHandler(ctx));
+            manager.close();
+        }
+        ctx.await();
+    }
+
+    private static Consumer<Throwable> completionHandler(TestContext ctx) {
+        return (e) -> {
+            if (e != null) {
+                ctx.failIteration(e);
+                return;
+            }
+            ctx.completeIteration();
+        };
+    }
+
+    private int getSubscriberCount(String serviceLink) throws Throwable {
+        ServiceSubscriptionState subscriptions = getDocument(ServiceSubscriptionState.class,
+                UriUtils.buildUriPath(serviceLink,
+                        ServiceHost.SERVICE_URI_SUFFIX_SUBSCRIPTIONS));
+        return subscriptions.subscribers == null ? 0 : subscriptions.subscribers.size();
+    }
+}
@@ -0,0 +1,296 @@
+/*
+ * Copyright (c) 2016 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.service.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vmware.admiral.common.test.BaseTestCase;
+import com.vmware.admiral.host.HostInitServiceHelper;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.Service.ServiceOption;
+import com.vmware.xenon.common.ServiceConfiguration;
+import com.vmware.xenon.common.TaskState.TaskStage;
+import com.vmware.xenon.common.UriUtils;
+import com.vmware.xenon.common.test.TestContext;
+import com.vmware.xenon.common.test.VerificationHost;
+
+public class AbstractTaskStatefulServiceTest extends BaseTestCase {
+    private static final int NODE_COUNT = 3;
+
+    // the nodes on which the child tasks don't complete
+    private static final Set<String> holdingNodeIds = ConcurrentHashMap.newKeySet();
+
+    private List<VerificationHost> nodes;
+    private long checkIntervalMicros;
+
+    @Before
+    public void setUp() throws Throwable {
+        holdingNodeIds.clear();
+        checkIntervalMicros = AbstractTaskStatefulService.EPHEMERAL_SUB_TASK_CHECK_INTERVAL_MICROS;
+        setFinalStatic(AbstractTaskStatefulService.class
+                .getDeclaredField("EPHEMERAL_SUB_TASK_CHECK_INTERVAL_MICROS"),
+                TimeUnit.SECONDS.toMicros(1));
+
+        host.setUpPeerHosts(NODE_COUNT);
+        host.joinNodesAndVerifyConvergence(NODE_COUNT);
+        nodes = new ArrayList<>(host.getInProcessHostMap().values());
+        for (VerificationHost h : nodes) {
+            HostInitServiceHelper.startServiceFactories(h, ParentTaskService.class,
+                    EphemeralChildTaskService.class);
+        }
+        for (VerificationHost h : nodes) {
+            waitForServiceAvailability(h, EphemeralChildTaskService.FACTORY_LINK);
+            h.waitForReplicatedFactoryServiceAvailable(UriUtils.buildUri(h,
+                    ParentTaskService.FACTORY_LINK));
+        }
+    }
+
+    @After
+    public void tearDown() throws Throwable {
+        setFinalStatic(AbstractTaskStatefulService.class
+                .getDeclaredField("EPHEMERAL_SUB_TASK_CHECK_INTERVAL_MICROS"),
+                checkIntervalMicros);
+    }
+
+    @Test
+    public void testEphemeralSubTaskCreatedAgainWhenNodeStopped() throws Throwable {
+        nodes.forEach((h) -> holdingNodeIds.add(h.getId()));
+
+        String parentLink = createParent(nodes.get(0));
+        waitFor(() -> {
+            ParentTaskState state = getParent(parentLink);
+            return state != null && state.taskSubStage == ParentTaskState.SubStage.WAITING;
+        });
+
+        // the child runs on the owner of the parent, stopping it loses both the child and the
+        // owner of the parent
+        String childLink = UriUtils.buildUriPath(EphemeralChildTaskService.FACTORY_LINK,
+                UriUtils.getLastPathSegment(parentLink));
+        waitFor(() -> getChildNode(childLink) != null);
+        VerificationHost childNode = getChildNode(childLink);
+        String childNodeId = childNode.getId();
+        assertEquals(childNodeId, getParent(parentLink).documentOwner);
+
+        host.log("Stopping node %s running the child task", childNodeId);
+        nodes.remove(childNode);
+        host.stopHost(childNode);
+        holdingNodeIds.clear();
+        for (VerificationHost h : nodes) {
+            h.waitForReplicatedFactoryServiceAvailable(UriUtils.buildUri(h,
+                    ParentTaskService.FACTORY_LINK));
+        }
+
+        // the new owner of the parent creates the child again
+        waitFor(() -> {
+            ParentTaskState state = getParent(parentLink);
+            return state != null && state.taskInfo.stage == TaskStage.FINISHED;
+        });
+        ParentTaskState state = getParent(parentLink);
+        assertEquals(ParentTaskState.SubStage.COMPLETED, state.taskSubStage);
+        assertNotEquals(childNodeId, state.documentOwner);
+    }
+
+    @Test
+    public void testSubTaskCheckStoppedWhenTaskCompleted() throws Throwable {
+        String parentLink = createParent(nodes.get(0));
+        waitFor(() -> {
+            ParentTaskState state = getParent(parentLink);
+            return state != null && state.taskInfo.stage == TaskStage.FINISHED;
+        });
+
+        // the completed task is no longer maintained on its owner
+        String ownerId = getParent(parentLink).documentOwner;
+        VerificationHost owner = nodes.stream().filter((h) -> h.getId().equals(ownerId))
+                .findFirst().get();
+        ServiceConfiguration[] config = new ServiceConfiguration[1];
+        TestContext ctx = testCreate(1);
+        owner.send(Operation.createGet(UriUtils.buildConfigUri(
+                UriUtils.buildUri(owner, parentLink)))
+                .setReferer(host.getUri())
+                .setCompletion((o, e) -> {
+                    if (e != null) {
+                        ctx.failIteration(e);
+                        return;
+                    }
+                    config[0] = o.getBody(ServiceConfiguration.class);
+                    ctx.completeIteration();
+                }));
+        ctx.await();
+        assertFalse(config[0].options.contains(ServiceOption.PERIODIC_MAINTENANCE));
+    }
+
+    private String createParent(VerificationHost h) throws Throwable {
+        ParentTaskState[] result = new ParentTaskState[1];
+        TestContext ctx = testCreate(1);
+        h.send(Operation.createPost(UriUtils.buildUri(h, ParentTaskService.FACTORY_LINK))
+                .setBody(new ParentTaskState())
+                .setReferer(host.getUri())
+                .setCompletion((o, e) -> {
+                    if (e != null) {
+                        ctx.failIteration(e);
+                        return;
+                    }
+                    result[0] = o.getBody(ParentTaskState.class);
+                    ctx.completeIteration();
+                }));
+        ctx.await();
+        return result[0].documentSelfLink;
+    }
+
+    /**
+     * Returns the state of the parent task, or null while it can't be retrieved, e.g. while the
+     * owner changes.
+     */
+    private ParentTaskState getParent(String parentLink) throws Throwable {
+        VerificationHost h = nodes.get(0);
+        ParentTaskState[] result = new ParentTaskState[1];
+        TestContext ctx = testCreate(1);
+        h.send(Operation.createGet(UriUtils.buildUri(h, parentLink))
+                .setReferer(host.getUri())
+                .setCompletion((o, e) -> {
+                    if (e == null) {
+                        result[0] = o.getBody(ParentTaskState.class);
+                    }
+                    ctx.completeIteration();
+                }));
+        ctx.await();
+        return result[0];
+    }
+
+    private VerificationHost getChildNode(String childLink) throws Throwable {
+        for (VerificationHost h : nodes) {
+            if (childExists(h, childLink)) {
+                return h;
+            }
+        }
+        return null;
+    }
+
+    private boolean childExists(VerificationHost h, String childLink) throws Throwable {
+        boolean[] result = new boolean[1];
+        TestContext ctx = testCreate(1);
+        h.send(Operation.createGet(UriUtils.buildUri(h, childLink))
+                .setReferer(host.getUri())
+                .setCompletion((o, e) -> {
+                    result[0] = e == null;
+                    ctx.completeIteration();
+                }));
+        ctx.await();
+        return result[0];
+    }
+
+    public static class ParentTaskState extends TaskServiceDocument<ParentTaskState.SubStage> {
+        public static enum SubStage {
+            CREATED, WAITING, CHILD_COMPLETED, COMPLETED, ERROR
+        }
+    }
+
+    /**
+     * Waits for an ephemeral child task created in the WAITING sub stage.
+     */
+    public static class ParentTaskService
+            extends AbstractTaskStatefulService<ParentTaskState, ParentTaskState.SubStage> {
+        public static final String FACTORY_LINK = "/test/ephemeral-parent-tasks";
+
+        public ParentTaskService() {
+            super(ParentTaskState.class, ParentTaskState.SubStage.class, "Parent");
+            super.toggleOption(ServiceOption.PERSISTENCE, true);
+            super.toggleOption(ServiceOption.REPLICATION, true);
+            super.toggleOption(ServiceOption.OWNER_SELECTION, true);
+            super.setEphemeralSubTasksCheck(true);
+        }
+
+        @Override
+        protected void handleStartedStagePatch(ParentTaskState state) {
+            switch (state.taskSubStage) {
+            case CREATED:
+                proceedTo(ParentTaskState.SubStage.WAITING);
+                break;
+            case WAITING:
+                createChild();
+                break;
+            case CHILD_COMPLETED:
+                complete();
+                break;
+            case ERROR:
+                completeWithError();
+                break;
+            default:
+                break;
+            }
+        }
+
+        @Override
+        protected String getEphemeralSubTaskLink(ParentTaskState state) {
+            if (state.taskSubStage == ParentTaskState.SubStage.WAITING) {
+                return UriUtils.buildUriPath(EphemeralChildTaskService.FACTORY_LINK, getSelfId());
+            }
+            return null;
+        }
+
+        private void createChild() {
+            EphemeralChildTaskState child = new EphemeralChildTaskState();
+            child.documentSelfLink = getSelfId();
+            child.serviceTaskCallback = ServiceTaskCallback.create(getSelfLink(),
+                    TaskStage.STARTED, ParentTaskState.SubStage.CHILD_COMPLETED,
+                    TaskStage.STARTED, ParentTaskState.SubStage.ERROR);
+            sendRequest(Operation.createPost(this, EphemeralChildTaskService.FACTORY_LINK)
+                    .setBody(child)
+                    .setCompletion((o, e) -> {
+                        if (e != null) {
+                            failTask("Failure creating child task", e);
+                        }
+                    }));
+        }
+    }
+
+    public static class EphemeralChildTaskState extends TaskServiceDocument<DefaultSubStage> {
+    }
+
+    /**
+     * Completes unless its node is holding the child tasks.
+     */
+    public static class EphemeralChildTaskService
+            extends AbstractTaskStatefulService<EphemeralChildTaskState, DefaultSubStage> {
+        public static final String FACTORY_LINK = "/test/ephemeral-child-tasks";
+
+        public EphemeralChildTaskService() {
+            super(EphemeralChildTaskState.class, DefaultSubStage.class, "Child");
+            setEphemeral(true);
+        }
+
+        @Override
+        protected void handleStartedStagePatch(EphemeralChildTaskState state) {
+            switch (state.taskSubStage) {
+            case CREATED:
+                if (!holdingNodeIds.contains(getHost().getId())) {
+                    complete();
+                }
+                break;
+            default:
+                break;
+            }
+        }
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright (c) 2016 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.service.common;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vmware.admiral.common.test.BaseTestCase;
+import com.vmware.admiral.host.HostInitServiceHelper;
+import com.vmware.admiral.service.common.CounterSubTaskService.CounterSubTaskState;
+import com.vmware.admiral.service.common.ServiceTaskCallback.ServiceTaskCallbackResponse;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.StatelessService;
+import com.vmware.xenon.common.TaskState;
+import com.vmware.xenon.common.TaskState.TaskStage;
+import com.vmware.xenon.common.UriUtils;
+import com.vmware.xenon.common.test.TestContext;
+import com.vmware.xenon.common.test.VerificationHost;
+
+public class CounterSubTaskServiceTest extends BaseTestCase {
+    private static final int NODE_COUNT = 3;
+    private static final int CHILD_COUNT = 1000;
+
+    private static final List<ServiceTaskCallbackResponse> callbacks =
+            new CopyOnWriteArrayList<>();
+
+    private List<VerificationHost> nodes;
+
+    @Before
+    public void setUp() throws Throwable {
+        callbacks.clear();
+        nodes = new ArrayList<>();
+        nodes.add(host);
+        startServices(host);
+    }
+
+    @Test
+    public void testCompletionsOnPeerNodes() throws Throwable {
+        setUpPeerNodes();
+
+        String counterLink = createCounter(nodes.get(0), CHILD_COUNT);
+        sendCompletions(counterLink, 0, CHILD_COUNT);
+
+        waitFor(() -> callbacks.size() == 1);
+        assertEquals(TaskStage.FINISHED, callbacks.get(0).taskInfo.stage);
+
+        CounterSubTaskState state = getCounter(nodes.get(1), counterLink);
+        assertEquals(0, state.completionsRemaining);
+        assertEquals(CHILD_COUNT, state.finishedCount);
+
+        // the parent is notified only once
+        Thread.sleep(2000);
+        assertEquals(1, callbacks.size());
+    }
+
+    @Test
+    public void testOwnerFailover() throws Throwable {
+        setUpPeerNodes();
+
+        // the completions are persisted before they are acknowledged
+        int childCount = 200;
+        String counterLink = createCounter(nodes.get(0), childCount);
+        sendCompletions(counterLink, 0, childCount / 2);
+
+        CounterSubTaskState state = getCounter(nodes.get(0), counterLink);
+        assertEquals(childCount / 2, state.finishedCount);
+        VerificationHost owner = nodes.stream()
+                .filter((h) -> h.getId().equals(state.documentOwner))
+                .findFirst().get();
+        host.log("Stopping counter owner %s", owner.getId());
+        nodes.remove(owner);
+        host.stopHost(owner);
+        for (VerificationHost h : nodes) {
+            h.waitForReplicatedFactoryServiceAvailable(UriUtils.buildUri(h,
+                    CounterSubTaskService.FACTORY_LINK));
+        }
+
+        // every acknowledged completion is counted once by the new owner
+        sendCompletions(counterLink, childCount / 2, childCount);
+
+        waitFor(() -> callbacks.size() == 1);
+        assertEquals(TaskStage.FINISHED, callbacks.get(0).taskInfo.stage);
+        CounterSubTaskState completed = getCounter(nodes.get(0), counterLink);
+        assertEquals(0, completed.completionsRemaining);
+        assertEquals(childCount, completed.finishedCount);
+
+        Thread.sleep(2000);
+        assertEquals(1, callbacks.size());
+    }
+
+    private void setUpPeerNodes() throws Throwable {
+        host.setUpPeerHosts(NODE_COUNT);
+        host.joinNodesAndVerifyConvergence(NODE_COUNT);
+        nodes = new ArrayList<>(host.getInProcessHostMap().values());
+
+        for (VerificationHost h : nodes) {
+            startServices(h);
+        }
+        for (VerificationHost h : nodes) {
+            h.waitForReplicatedFactoryServiceAvailable(UriUtils.buildUri(h,
+                    CounterSubTaskService.FACTORY_LINK));
+        }
+    }
+
+    private void startServices(VerificationHost h) throws Throwable {
+        HostInitServiceHelper.startServiceFactories(h, CounterSubTaskService.class);
+        h.startService(Operation.createPost(UriUtils.buildUri(h,
+                ParentTaskService.SELF_LINK)), new ParentTaskService());
+        waitForServiceAvailability(h, CounterSubTaskService.FACTORY_LINK);
+        waitForServiceAvailability(h, ParentTaskService.SELF_LINK);
+    }
+
+    private String createCounter(VerificationHost h, long count) throws Throwable {
+        CounterSubTaskState counter = new CounterSubTaskState();
+        counter.completionsRemaining = count;
+        counter.serviceTaskCallback = ServiceTaskCallback.create(ParentTaskService.SELF_LINK);
+
+        CounterSubTaskState[] result = new CounterSubTaskState[1];
+        TestContext ctx = testCreate(1);
+        h.send(Operation.createPost(UriUtils.buildUri(h, CounterSubTaskService.FACTORY_LINK))
+                .setBody(counter)
+                .setReferer(host.getUri())
+                .setCompletion((o, e) -> {
+                    if (e != null) {
+                        ctx.failIteration(e);
+                        return;
+                    }
+                    result[0] = o.getBody(CounterSubTaskState.class);
+                    ctx.completeIteration();
+                }));
+        ctx.await();
+        return result[0].documentSelfLink;
+    }
+
+    /**
+     * Sends the completions of the children in the given range, spread over the nodes. Failed
+     * completions, e.g. while the owner changes, are sent again.
+     */
+    private void sendCompletions(String counterLink, int from, int to) throws Throwable {
+        TestContext ctx = testCreate(to - from);
+        for (int i = from; i < to; i++) {
+            sendCompletion(nodes.get(i % nodes.size()), counterLink, ctx, 10);
+        }
+        ctx.await();
+    }
+
+    private void sendCompletion(VerificationHost h, String counterLink, TestContext ctx,
+            int retries) {
+        CounterSubTaskState body = new CounterSubTaskState();
+        body.taskInfo = new TaskState();
+        body.taskInfo.stage = TaskStage.FINISHED;
+
+        h.send(Operation.createPatch(UriUtils.buildUri(h, counterLink))
+                .setBody(body)
+                .setReferer(host.getUri())
+                .setCompletion((o, e) -> {
+                    if (e == null) {
+                        ctx.completeIteration();
+                    } else if (retries > 0) {
+                        h.schedule(() -> sendCompletion(h, counterLink, ctx, retries - 1),
+                                100, TimeUnit.MILLISECONDS);
+                    } else {
+                        ctx.failIteration(e);
+                    }
+                }));
+    }
+
+    private CounterSubTaskState getCounter(VerificationHost h, String counterLink)
+            throws Throwable {
+        CounterSubTaskState[] result = new CounterSubTaskState[1];
+        TestContext ctx = testCreate(1);
+        h.send(Operation.createGet(UriUtils.buildUri(h, counterLink))
+                .setReferer(host.getUri())
+                .setCompletion((o, e) -> {
+                    if (e != null) {
+                        ctx.failIteration(e);
+                        return;
+                    }
+                    result[0] = o.getBody(CounterSubTaskState.class);
+                    ctx.completeIteration();
+                }));
+        ctx.await();
+        return result[0];
+    }
+
+    /**
+     * Records the callbacks of the counter sub tasks.
+     */
+    public static class ParentTaskService extends StatelessService {
+        public static final String SELF_LINK = "/test/counter-parent-task";
+
+        @Override
+        public void handlePatch(Operation patch) {
+            callbacks.add(patch.getBody(ServiceTaskCallbackResponse.class));
+            patch.complete();
+        }
+    }
+}
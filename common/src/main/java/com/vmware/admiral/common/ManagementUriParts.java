@@ -28,6 +28,8 @@ public interface ManagementUriParts {
 
     String CERT_DISTRIBUTION_ADD_REGISTRY = CONFIG + "/cert-dist-add-reg";
     String CERT_DISTRIBUTION_ADD_HOST = CONFIG + "/certs-dist-add-host";
+    String CERT_DISTRIBUTION_TASKS = CONFIG + "/cert-distribution-tasks";
+    String DOCUMENT_CACHE = CONFIG + "/document-cache";
     String ENDPOINTS = CONFIG + "/endpoints";
 
     // Resources:
@@ -38,6 +40,7 @@ public interface ManagementUriParts {
     String RESOURCES = "/resources";
     String RESOURCE_GROUP_PLACEMENTS = RESOURCES + "/group-placements";
     String RESOURCE_NAME_PREFIXES = RESOURCES + "/name-prefixes";
+    String RESOURCE_NAME_PREFIX_LEASES = RESOURCES + "/name-prefix-leases";
     String DEPLOYMENT_POLICIES = RESOURCES + "/deployment-policies";
     String ELASTIC_PLACEMENT_ZONES = RESOURCES + "/elastic-placement-zones";
     String ELASTIC_PLACEMENT_ZONE_CONFIGURATION = ELASTIC_PLACEMENT_ZONES + "-config";
@@ -65,6 +68,7 @@ public interface ManagementUriParts {
     String CONTAINER_HOST_DATA_COLLECTION = RESOURCES + "/hosts-data-collections";
     String HOST_CONTAINER_LIST_DATA_COLLECTION = RESOURCES + "/host-container-list-data-collection";
     String HOST_NETWORK_LIST_DATA_COLLECTION = RESOURCES + "/host-network-list-data-collection";
+    String HOST_IMAGE_INVENTORIES = RESOURCES + "/host-image-inventories";
 
     String EVENT_LOG = RESOURCES + "/event-logs";
     String NOTIFICATIONS = RESOURCES + "/notifications";
@@ -79,7 +83,9 @@ public interface ManagementUriParts {
     String REQUEST = "/request";
 
     String REQUESTS = "/requests";
+    String REQUESTS_BULK = REQUESTS + "-bulk";
     String REQUEST_STATUS = "/request-status";
+    String REQUEST_ADMISSION = REQUEST + "/admission";
     String REQUEST_RESOURCE_OPERATIONS = REQUEST + "/resource-operations";
     String REQUEST_REMOVAL_OPERATIONS = REQUEST + "/resource-removal-operations";
     String REQUEST_ALLOCATION_TASKS = REQUEST + "/allocation-tasks";
@@ -125,6 +131,8 @@ public interface ManagementUriParts {
 
     String COUNTER_SUB_TASKS = "/counter-subtasks";
 
+    String METRICS = "/metrics";
+
     // Continuous delivery:
     String CONTINUOUS_DELIVERY = "/continous-delivery";
     String SELF_PROVISIONING = CONTINUOUS_DELIVERY + "/self-provisioning";
@@ -134,6 +142,7 @@ public interface ManagementUriParts {
     String IMAGE_TAGS = IMAGES + "/tags";
     String TEMPLATES = "/templates";
     String LOGS = "/logs";
+    String LOG_CHUNKS = "/log-chunks";
     String POPULAR_IMAGES = "/popular-images";
 
     // Adapters:
@@ -145,6 +154,7 @@ public interface ManagementUriParts {
     String ADAPTER_REGISTRY = ADAPTERS + "/registry-service";
     String ADAPTER_DOCKER_VOLUME = ADAPTERS + "/volume-docker-service";
     String ADAPTER_DOCKER_NETWORK = ADAPTERS + "/network-docker-service";
+    String ADAPTER_DOCKER_EVENTS = ADAPTERS + "/events-docker-service";
 
     String ADAPTER_ETCD_KV = "/v2/keys";
     String ADAPTER_ETCD_MEMBERS = "/v2/members";
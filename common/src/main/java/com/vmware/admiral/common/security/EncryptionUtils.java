@@ -13,16 +13,21 @@ package com.vmware.admiral.common.security;
 
 import java.io.File;
 import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Simple encryption utility class that provides methods to encrypt and decrypt strings based on the
  * {@link EncryptorService} and the encryption key file provided via a system property. If no
- * encryption key is configured then the encryption/decryption methods do nothing.
+ * encryption key is configured then the encryption/decryption methods do nothing. The decrypted
+ * strings can be cached for a short time by setting a cache size via a system property, the cache
+ * is cleared when the encryption key is re-initialized.
  */
 public class EncryptionUtils {
 
     public static final String ENCRYPTION_PREFIX = "s2enc~";
 
+    private static final long DEFAULT_DECRYPTION_CACHE_TTL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
     private static EncryptorService encryptionService;
 
     static {
@@ -34,6 +39,12 @@ public class EncryptionUtils {
      * encryption key file.
      */
     public static void initEncryptionService() {
+        // the values decrypted with the previous key are not kept
+        EncryptorService previousService = encryptionService;
+        if (previousService != null) {
+            previousService.clearDecryptionCache();
+        }
+
         File encryptionKey = getEncryptionFile();
         if (encryptionKey == null) {
             encryptionService = null;
@@ -44,11 +55,20 @@ public class EncryptionUtils {
             } catch (Exception e) {
                 throw new IllegalStateException("Error validating the encryption key!", e);
             }
+            encryptionService.setDecryptionCache(Integer.getInteger(DECRYPTION_CACHE_SIZE, 0),
+                    Long.getLong(DECRYPTION_CACHE_TTL_MILLIS, DEFAULT_DECRYPTION_CACHE_TTL_MILLIS));
         }
     }
 
     public static final String ENCRYPTION_KEY = "encryption.key.file";
     public static final String INIT_KEY_IF_MISSING = "init.encryption.key.file";
+    public static final String DECRYPTION_CACHE_SIZE = "encryption.decryption.cache.size";
+    public static final String DECRYPTION_CACHE_TTL_MILLIS =
+            "encryption.decryption.cache.ttl.millis";
+
+    static EncryptorService getEncryptionService() {
+        return encryptionService;
+    }
 
     private static File getEncryptionFile() {
 
@@ -23,6 +23,10 @@ import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.util.Arrays;
 import java.util.Base64;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import org.bouncycastle.crypto.BufferedBlockCipher;
 import org.bouncycastle.crypto.engines.AESEngine;
@@ -39,8 +43,22 @@ import org.bouncycastle.crypto.params.ParametersWithIV;
  */
 public final class EncryptorService {
 
+    /**
+     * The maximum time a decrypted string is cached for, see
+     * {@link #setDecryptionCache(int, long)}.
+     */
+    public static final long MAX_DECRYPTION_CACHE_TTL_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
     private final byte[] keyBytes;
 
+    // the initialized ciphers are reused by the thread, they are reset after each operation
+    private final ThreadLocal<BufferedBlockCipher> encryptionCipher = new ThreadLocal<>();
+    private final ThreadLocal<BufferedBlockCipher> decryptionCipher = new ThreadLocal<>();
+
+    // the decrypted strings by encrypted string, i.e. plain text secrets on the heap, disabled
+    // unless a size is set
+    private volatile DecryptionCache decryptionCache;
+
     /**
      * Creates a new {@link EncryptorService} instance from the provided encryption key.
      *
@@ -95,8 +113,9 @@ public final class EncryptorService {
             return input;
         }
 
+        BufferedBlockCipher cipher = null;
         try {
-            BufferedBlockCipher cipher = getCipher(true);
+            cipher = getCipher(true);
             byte[] output = new byte[cipher.getOutputSize(input.length)];
 
             int length = cipher.processBytes(input, 0, input.length, output, 0);
@@ -105,6 +124,10 @@ public final class EncryptorService {
             return Base64.getEncoder().encode(Arrays.copyOfRange(output, 0, length));
         } catch (Exception e) {
             throw new IllegalStateException("Encryption error!", e);
+        } finally {
+            if (cipher != null) {
+                cipher.reset();
+            }
         }
     }
 
@@ -120,9 +143,60 @@ public final class EncryptorService {
             return input;
         }
 
+        DecryptionCache cache = decryptionCache;
+        if (cache != null) {
+            String output = cache.get(input);
+            if (output != null) {
+                return output;
+            }
+        }
+
         byte[] inputBytes = input.getBytes(UTF_8);
         byte[] outputBytes = decrypt(inputBytes);
-        return new String(outputBytes, UTF_8);
+        String output = new String(outputBytes, UTF_8);
+        if (cache != null) {
+            cache.put(input, output);
+        }
+        return output;
+    }
+
+    /**
+     * Enables the caching of the strings decrypted by {@link #decrypt(String)}, so decrypting the
+     * same string again does not run the cipher. The cache is disabled when the size is not
+     * positive.
+     * <p>
+     * The cache keeps the decrypted strings, e.g. passwords and private keys, in plain text on the
+     * heap, keyed by their encrypted value. A decrypted string is removed once its time to live
+     * elapses, at most {@link #MAX_DECRYPTION_CACHE_TTL_MILLIS} after it was decrypted, with the
+     * next access to the cache.
+     *
+     * @param maxSize
+     *            Maximum number of decrypted strings kept, the oldest are removed first
+     * @param timeToLiveMillis
+     *            Time a decrypted string is kept for, limited to
+     *            {@link #MAX_DECRYPTION_CACHE_TTL_MILLIS}
+     */
+    public void setDecryptionCache(int maxSize, long timeToLiveMillis) {
+        decryptionCache = maxSize > 0 ? new DecryptionCache(maxSize,
+                Math.min(timeToLiveMillis, MAX_DECRYPTION_CACHE_TTL_MILLIS)) : null;
+    }
+
+    /**
+     * Removes all the cached decrypted strings, see {@link #setDecryptionCache(int, long)}.
+     */
+    public void clearDecryptionCache() {
+        DecryptionCache cache = decryptionCache;
+        if (cache != null) {
+            cache.clear();
+        }
+    }
+
+    /**
+     * Returns the number of cached decrypted strings.
+     */
+    public int getDecryptionCacheSize() {
+        DecryptionCache cache = decryptionCache;
+        return cache != null ? cache.size() : 0;
     }
 
     /**
@@ -137,8 +211,9 @@ public final class EncryptorService {
             return input;
         }
 
+        BufferedBlockCipher cipher = null;
         try {
-            BufferedBlockCipher cipher = getCipher(false);
+            cipher = getCipher(false);
             byte[] bytes = Base64.getDecoder().decode(input);
             byte[] output = new byte[cipher.getOutputSize(bytes.length)];
 
@@ -148,6 +223,10 @@ public final class EncryptorService {
             return Arrays.copyOfRange(output, 0, length);
         } catch (Exception e) {
             throw new IllegalStateException("Decryption error!", e);
+        } finally {
+            if (cipher != null) {
+                cipher.reset();
+            }
         }
     }
 
@@ -202,10 +281,75 @@ public final class EncryptorService {
      */
 
     private BufferedBlockCipher getCipher(boolean forEncryption) {
-        BufferedBlockCipher cipher = new PaddedBufferedBlockCipher(
-                new CBCBlockCipher(new AESEngine()), new PKCS7Padding());
-        cipher.init(forEncryption, new ParametersWithIV(new KeyParameter(keyBytes, IV_LENGTH,
-                keyBytes.length - IV_LENGTH), keyBytes, 0, IV_LENGTH));
+        ThreadLocal<BufferedBlockCipher> threadCipher = forEncryption ? encryptionCipher
+                : decryptionCipher;
+        BufferedBlockCipher cipher = threadCipher.get();
+        if (cipher == null) {
+            cipher = new PaddedBufferedBlockCipher(
+                    new CBCBlockCipher(new AESEngine()), new PKCS7Padding());
+            cipher.init(forEncryption, new ParametersWithIV(new KeyParameter(keyBytes, IV_LENGTH,
+                    keyBytes.length - IV_LENGTH), keyBytes, 0, IV_LENGTH));
+            threadCipher.set(cipher);
+        }
         return cipher;
     }
+
+    /*
+     * Decryption cache
+     */
+
+    private static class DecryptionCache {
+        private final long timeToLiveNanos;
+        private final Map<String, CachedValue> values;
+
+        DecryptionCache(int maxSize, long timeToLiveMillis) {
+            this.timeToLiveNanos = TimeUnit.MILLISECONDS.toNanos(timeToLiveMillis);
+            // in the order the values are cached, the oldest are removed first
+            this.values = new LinkedHashMap<String, CachedValue>(16, 0.75f, false) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, CachedValue> eldest) {
+                    return size() > maxSize;
+                }
+            };
+        }
+
+        synchronized String get(String input) {
+            removeExpired(System.nanoTime());
+            CachedValue value = values.get(input);
+            return value != null ? value.output : null;
+        }
+
+        synchronized void put(String input, String output) {
+            long now = System.nanoTime();
+            removeExpired(now);
+            values.put(input, new CachedValue(output, now));
+        }
+
+        private void removeExpired(long now) {
+            Iterator<CachedValue> it = values.values().iterator();
+            while (it.hasNext() && now - it.next().cachedTimeNanos > timeToLiveNanos) {
+                it.remove();
+            }
+        }
+
+        synchronized void clear() {
+            values.clear();
+        }
+
+        synchronized int size() {
+            return values.size();
+        }
+    }
+
+    private static class CachedValue {
+        final String output;
+        final long cachedTimeNanos;
+
+        CachedValue(String output, long cachedTimeNanos) {
+            this.output = output;
+            this.cachedTimeNanos = cachedTimeNanos;
+        }
+    }
 }
@@ -325,6 +325,19 @@ public class CertificateUtil {
         }
     }
 
+    /**
+     * Create an SSLContext for the given TrustManager and KeyManager keeping up to
+     * sessionCacheSize client sessions, so that connections to the same server resume a session
+     * instead of doing a full handshake. The context is meant to be shared by the clients.
+     */
+    public static SSLContext createSSLContext(TrustManager trustManager,
+            KeyManager keyManager, int sessionCacheSize) {
+
+        SSLContext ctx = createSSLContext(trustManager, keyManager);
+        ctx.getClientSessionContext().setSessionCacheSize(sessionCacheSize);
+        return ctx;
+    }
+
     /**
      * Extracts the Certificate Principal Common Name (CN).
      */
@@ -513,7 +526,7 @@ public class CertificateUtil {
         try {
             return generateCertificateAndSign(fqdn, issuerCertificate,
                     issuerPrivateKey,
-                    getClientExtensions());
+                    getClientExtensions(), KeyUtil.generateRSAKeyPair());
         } catch (CertIOException | CertificateException | OperatorCreationException e) {
             throw new RuntimeException(String.format(
                     "Failed to generate client certificate, reason: %s",
@@ -535,10 +548,31 @@ public class CertificateUtil {
     public static CertChainKeyPair generateSigned(
             String fqdn, X509Certificate issuerCertificate,
             PrivateKey issuerPrivateKey) {
+        return generateSigned(fqdn, issuerCertificate, issuerPrivateKey,
+                KeyUtil.generateRSAKeyPair());
+    }
+
+    /**
+     * Generates a signed certificate for the given key pair, e.g. taken from a
+     * {@link KeyPairPool}.
+     *
+     * @param fqdn
+     *            the fqdn name of the subject
+     * @param issuerCertificate
+     *            the certificate that will be used as a signer. Cannot be null.
+     * @param issuerPrivateKey
+     *            the private key to sign the certificate. Cannot be null.
+     * @param keyPair
+     *            the key pair of the subject. Cannot be null.
+     * @return holder object for the issued certificate and the private key.
+     */
+    public static CertChainKeyPair generateSigned(
+            String fqdn, X509Certificate issuerCertificate,
+            PrivateKey issuerPrivateKey, KeyPair keyPair) {
         try {
             return generateCertificateAndSign(fqdn, issuerCertificate,
                     issuerPrivateKey,
-                    getServerExtensions(issuerCertificate));
+                    getServerExtensions(issuerCertificate), keyPair);
         } catch (CertificateException | OperatorCreationException | NoSuchAlgorithmException
                 | IOException e) {
             throw new RuntimeException(String.format(
@@ -549,14 +583,13 @@ public class CertificateUtil {
 
     private static CertChainKeyPair generateCertificateAndSign(String fqdn,
             X509Certificate issuerCertificate,
-            PrivateKey issuerPrivateKey, List<ExtensionHolder> extensions)
+            PrivateKey issuerPrivateKey, List<ExtensionHolder> extensions, KeyPair pair)
             throws CertificateException, CertIOException, OperatorCreationException {
         AssertUtil.assertNotNull(issuerCertificate, "issuerCertificate");
         AssertUtil.assertNotNull(issuerPrivateKey, "issuerPrivateKey");
+        AssertUtil.assertNotNull(pair, "pair");
 
-        // private key that we are creating certificate for
-        KeyPair pair = KeyUtil.generateRSAKeyPair();
-
+        // the key pair that we are creating certificate for
         PublicKey publicKey = pair.getPublic();
         PrivateKey privateKey = convertToSunImpl(pair.getPrivate());
 
@@ -17,8 +17,12 @@ import java.security.PrivateKey;
 import java.security.cert.X509Certificate;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
 
 import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocket;
 import javax.net.ssl.X509ExtendedKeyManager;
 import javax.net.ssl.X509KeyManager;
 
@@ -27,19 +31,59 @@ import javax.net.ssl.X509KeyManager;
  * should have one and only one unique alias it handles.
  *
  * The list of delegates can be changed in runtime without reloading or replacing the main
- * KeyManager.
+ * KeyManager. The number of delegates can be bounded, in which case the least recently used
+ * delegate is evicted when a new one is added.
+ *
+ * When choosing the client alias, the delegate of the peer, with alias
+ * <code>https://&lt;host&gt;:&lt;port&gt;</code>, is looked up first, the other delegates are
+ * tried only if it doesn't match.
  */
 public class DelegatingX509KeyManager extends X509ExtendedKeyManager {
-    private final Map<String, X509ExtendedKeyManager> delegates = new ConcurrentHashMap<String, X509ExtendedKeyManager>();
+    private final Map<String, Delegate> delegates = new ConcurrentHashMap<>();
+    // orders the uses of the delegates
+    private final AtomicLong useCounter = new AtomicLong();
+    private final int maxSize;
+    private volatile BiConsumer<String, X509ExtendedKeyManager> evictionHandler;
+
+    private static class Delegate {
+        final X509ExtendedKeyManager keyManager;
+        volatile long lastUse;
+
+        Delegate(X509ExtendedKeyManager keyManager, long lastUse) {
+            this.keyManager = keyManager;
+            this.lastUse = lastUse;
+        }
+    }
+
+    public DelegatingX509KeyManager() {
+        this(Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param maxSize
+     *            the maximum number of delegates kept
+     */
+    public DelegatingX509KeyManager(int maxSize) {
+        AssertUtil.assertTrue(maxSize > 0, "maxSize must be positive");
+        this.maxSize = maxSize;
+    }
 
     @Override
     public String chooseEngineClientAlias(String[] keyType,
             Principal[] issuers, SSLEngine engine) {
 
+        X509ExtendedKeyManager peerDelegate = getPeerDelegate(engine.getPeerHost(),
+                engine.getPeerPort());
+        if (peerDelegate != null) {
+            String alias = peerDelegate.chooseEngineClientAlias(keyType, issuers, engine);
+            if (alias != null) {
+                return alias;
+            }
+        }
+
         // try each delegate and see if has a match for the issuers
-        for (X509KeyManager delegate : delegates.values()) {
-            String alias = ((X509ExtendedKeyManager) delegate)
-                    .chooseEngineClientAlias(keyType, issuers, engine);
+        for (Delegate delegate : delegates.values()) {
+            String alias = delegate.keyManager.chooseEngineClientAlias(keyType, issuers, engine);
 
             if (alias != null) {
                 return alias;
@@ -61,7 +105,29 @@ public class DelegatingX509KeyManager extends X509ExtendedKeyManager {
     public String chooseClientAlias(String[] keyType, Principal[] issuers,
             Socket socket) {
 
-        throw new UnsupportedOperationException();
+        // used by socket based (non SSLEngine) clients such as the docker events stream
+        if (socket instanceof SSLSocket) {
+            SSLSession session = ((SSLSocket) socket).getHandshakeSession();
+            X509ExtendedKeyManager peerDelegate = session == null ? null
+                    : getPeerDelegate(session.getPeerHost(), session.getPeerPort());
+            if (peerDelegate != null) {
+                String alias = peerDelegate.chooseClientAlias(keyType, issuers, socket);
+                if (alias != null) {
+                    return alias;
+                }
+            }
+        }
+
+        for (Delegate delegate : delegates.values()) {
+            String alias = delegate.keyManager.chooseClientAlias(keyType, issuers, socket);
+
+            if (alias != null) {
+                return alias;
+            }
+        }
+
+        // no matching alias found
+        return null;
     }
 
     @Override
@@ -72,8 +138,12 @@ public class DelegatingX509KeyManager extends X509ExtendedKeyManager {
 
     @Override
     public X509Certificate[] getCertificateChain(String alias) {
-        X509Certificate[] certificateChain = delegates.get(alias)
-                .getCertificateChain(alias);
+        X509KeyManager delegate = getDelegate(alias);
+        if (delegate == null) {
+            // evicted meanwhile
+            return null;
+        }
+        X509Certificate[] certificateChain = delegate.getCertificateChain(alias);
         return certificateChain;
     }
 
@@ -84,7 +154,12 @@ public class DelegatingX509KeyManager extends X509ExtendedKeyManager {
 
     @Override
     public PrivateKey getPrivateKey(String alias) {
-        PrivateKey privateKey = delegates.get(alias).getPrivateKey(alias);
+        X509KeyManager delegate = getDelegate(alias);
+        if (delegate == null) {
+            // evicted meanwhile
+            return null;
+        }
+        PrivateKey privateKey = delegate.getPrivateKey(alias);
         return privateKey;
     }
 
@@ -105,7 +180,27 @@ public class DelegatingX509KeyManager extends X509ExtendedKeyManager {
             // they are normalized
             throw new IllegalArgumentException("Aliases must be all lowercase");
         }
-        delegates.put(alias, newDelegate);
+        synchronized (delegates) {
+            delegates.put(alias, new Delegate(newDelegate, useCounter.incrementAndGet()));
+            while (delegates.size() > maxSize) {
+                evictLeastRecentlyUsed();
+            }
+        }
+    }
+
+    /**
+     * Get the delegate for the given alias, marking it as recently used
+     *
+     * @param alias
+     * @return the delegate or <code>null</code> if not added or evicted
+     */
+    public X509ExtendedKeyManager getDelegate(String alias) {
+        Delegate delegate = delegates.get(alias);
+        if (delegate == null) {
+            return null;
+        }
+        delegate.lastUse = useCounter.incrementAndGet();
+        return delegate.keyManager;
     }
 
     /**
@@ -115,7 +210,56 @@ public class DelegatingX509KeyManager extends X509ExtendedKeyManager {
      * @return
      */
     public X509KeyManager removeDelegate(String alias) {
-        return delegates.remove(alias);
+        synchronized (delegates) {
+            Delegate delegate = delegates.remove(alias);
+            return delegate != null ? delegate.keyManager : null;
+        }
+    }
+
+    /**
+     * Set a handler called with the alias and the delegate evicted to keep the maximum size
+     *
+     * @param evictionHandler
+     */
+    public void setEvictionHandler(BiConsumer<String, X509ExtendedKeyManager> evictionHandler) {
+        this.evictionHandler = evictionHandler;
+    }
+
+    /**
+     * @return the number of delegates
+     */
+    public int size() {
+        return delegates.size();
+    }
+
+    /**
+     * Returns the delegate of the peer with the given host and port, if any.
+     */
+    private X509ExtendedKeyManager getPeerDelegate(String peerHost, int peerPort) {
+        if (peerHost == null || peerPort < 0) {
+            return null;
+        }
+        return getDelegate(("https://" + peerHost + ":" + peerPort).toLowerCase());
+    }
+
+    /**
+     * Evicts the least recently used delegate, called on put only so the lookups don't scan the
+     * delegates.
+     */
+    private void evictLeastRecentlyUsed() {
+        Map.Entry<String, Delegate> eldest = null;
+        for (Map.Entry<String, Delegate> e : delegates.entrySet()) {
+            if (eldest == null || e.getValue().lastUse < eldest.getValue().lastUse) {
+                eldest = e;
+            }
+        }
+        if (eldest == null || !delegates.remove(eldest.getKey(), eldest.getValue())) {
+            return;
+        }
+        BiConsumer<String, X509ExtendedKeyManager> handler = evictionHandler;
+        if (handler != null) {
+            handler.accept(eldest.getKey(), eldest.getValue().keyManager);
+        }
     }
 
 }
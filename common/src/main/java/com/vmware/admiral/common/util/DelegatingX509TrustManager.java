@@ -11,21 +11,44 @@
 
 package com.vmware.admiral.common.util;
 
+import java.io.IOException;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 import javax.net.ssl.X509TrustManager;
 
+import org.bouncycastle.asn1.x509.AuthorityKeyIdentifier;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.SubjectKeyIdentifier;
+import org.bouncycastle.cert.jcajce.JcaX509ExtensionUtils;
+import org.bouncycastle.util.encoders.Hex;
+
 /**
  * A TrustManager implementation that delegates to a dynamic list of other TrustManagers.
  *
  * The list can be changed in runtime without reloading or replacing the main TrustManager.
+ *
+ * The delegates are indexed by the subject DN and the subject key identifier of the certificates
+ * they accept, so a chain is checked first against the delegates trusting one of its issuers.
+ * The other delegates are checked only when none of the candidates accepts the chain.
  */
 public class DelegatingX509TrustManager implements X509TrustManager {
+    private static final String DN_INDEX_PREFIX = "dn:";
+    private static final String KEY_ID_INDEX_PREFIX = "ski:";
+
     private final Map<Object, X509TrustManager> delegates = new ConcurrentHashMap<Object, X509TrustManager>();
 
+    // the delegate keys by issuer DN and subject key identifier
+    private final Map<String, Set<Object>> index = new ConcurrentHashMap<>();
+    // the index entries of each delegate, guarded by the index monitor on update
+    private final Map<Object, Set<String>> indexKeys = new ConcurrentHashMap<>();
+
     @Override
     public void checkClientTrusted(X509Certificate[] chain, String authType)
             throws CertificateException {
@@ -43,9 +66,28 @@ public class DelegatingX509TrustManager implements X509TrustManager {
         }
 
         CertificateException lastException = null;
-        for (X509TrustManager delegate : delegates.values()) {
+        Set<Object> candidates = getCandidates(chain);
+        for (Object key : candidates) {
+            X509TrustManager delegate = delegates.get(key);
+            if (delegate == null) {
+                // removed meanwhile
+                continue;
+            }
             try {
                 delegate.checkServerTrusted(chain, authType);
+                return;
+
+            } catch (CertificateException x) {
+                lastException = x;
+            }
+        }
+
+        for (Map.Entry<Object, X509TrustManager> entry : delegates.entrySet()) {
+            if (candidates.contains(entry.getKey())) {
+                continue;
+            }
+            try {
+                entry.getValue().checkServerTrusted(chain, authType);
 
                 // found a delegate that accepts the certificate, so break out
                 // without checking the rest
@@ -57,6 +99,10 @@ public class DelegatingX509TrustManager implements X509TrustManager {
             }
         }
 
+        if (lastException == null) {
+            throw new CertificateException("No delegate accepts the certificate chain");
+        }
+
         // if we reached here then none of the delegates accepted the
         // certificate, so throw the last exception
         throw lastException;
@@ -75,7 +121,23 @@ public class DelegatingX509TrustManager implements X509TrustManager {
      * @param newDelegate
      */
     public void putDelegate(Object key, X509TrustManager newDelegate) {
-        delegates.put(key, newDelegate);
+        Set<String> keys = new HashSet<>();
+        for (X509Certificate issuer : newDelegate.getAcceptedIssuers()) {
+            keys.add(DN_INDEX_PREFIX + issuer.getSubjectX500Principal().getName());
+            String keyId = getSubjectKeyIdentifier(issuer);
+            if (keyId != null) {
+                keys.add(KEY_ID_INDEX_PREFIX + keyId);
+            }
+        }
+
+        synchronized (index) {
+            delegates.put(key, newDelegate);
+            unindex(key);
+            for (String indexKey : keys) {
+                index.computeIfAbsent(indexKey, (k) -> ConcurrentHashMap.newKeySet()).add(key);
+            }
+            indexKeys.put(key, keys);
+        }
     }
 
     /**
@@ -95,7 +157,82 @@ public class DelegatingX509TrustManager implements X509TrustManager {
      * @return
      */
     public X509TrustManager removeDelegate(Object key) {
-        return delegates.remove(key);
+        synchronized (index) {
+            unindex(key);
+            return delegates.remove(key);
+        }
+    }
+
+    private void unindex(Object key) {
+        Set<String> keys = indexKeys.remove(key);
+        if (keys == null) {
+            return;
+        }
+        for (String indexKey : keys) {
+            Set<Object> indexed = index.get(indexKey);
+            if (indexed != null) {
+                indexed.remove(key);
+                if (indexed.isEmpty()) {
+                    index.remove(indexKey);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the keys of the delegates accepting one of the certificates of the chain or one of
+     * their issuers.
+     */
+    private Set<Object> getCandidates(X509Certificate[] chain) {
+        if (chain == null || chain.length == 0) {
+            return Collections.emptySet();
+        }
+
+        Set<Object> candidates = new LinkedHashSet<>();
+        for (X509Certificate cert : chain) {
+            addCandidates(candidates, DN_INDEX_PREFIX, cert.getSubjectX500Principal().getName());
+            addCandidates(candidates, KEY_ID_INDEX_PREFIX, getSubjectKeyIdentifier(cert));
+            addCandidates(candidates, DN_INDEX_PREFIX, cert.getIssuerX500Principal().getName());
+            addCandidates(candidates, KEY_ID_INDEX_PREFIX, getAuthorityKeyIdentifier(cert));
+        }
+        return candidates;
+    }
+
+    private void addCandidates(Set<Object> candidates, String prefix, String value) {
+        if (value == null) {
+            return;
+        }
+        Set<Object> indexed = index.get(prefix + value);
+        if (indexed != null) {
+            candidates.addAll(indexed);
+        }
+    }
+
+    private static String getSubjectKeyIdentifier(X509Certificate cert) {
+        byte[] value = cert.getExtensionValue(Extension.subjectKeyIdentifier.getId());
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Hex.toHexString(SubjectKeyIdentifier.getInstance(
+                    JcaX509ExtensionUtils.parseExtensionValue(value)).getKeyIdentifier());
+        } catch (IOException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static String getAuthorityKeyIdentifier(X509Certificate cert) {
+        byte[] value = cert.getExtensionValue(Extension.authorityKeyIdentifier.getId());
+        if (value == null) {
+            return null;
+        }
+        try {
+            byte[] keyId = AuthorityKeyIdentifier.getInstance(
+                    JcaX509ExtensionUtils.parseExtensionValue(value)).getKeyIdentifier();
+            return keyId == null ? null : Hex.toHexString(keyId);
+        } catch (IOException | IllegalArgumentException e) {
+            return null;
+        }
     }
 
 }
@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2016 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.common.util;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Utility methods for container logs as returned by docker with timestamps. The logs of
+ * containers without a TTY are multiplexed, each log line is a frame with an 8 bytes header.
+ * The logs of containers with a TTY are plain text lines. In both cases each line starts with
+ * its RFC3339 timestamp followed by a space.
+ */
+public class DockerLogUtil {
+
+    private static final int HEADER_SIZE = 8;
+    private static final int FRAME_SIZE_OFFSET = 4;
+    private static final int MAX_TIMESTAMP_LENGTH = 40;
+
+    private interface EntryVisitor {
+        void visit(int start, int end, String timestamp);
+    }
+
+    /**
+     * Returns the log lines with timestamps after the given one, in the format they were given.
+     * Lines without timestamps are kept.
+     */
+    public static byte[] entriesAfter(byte[] logs, Instant after) {
+        if (logs == null || after == null) {
+            return logs;
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(logs.length);
+        forEachEntry(logs, (start, end, timestamp) -> {
+            Instant time = parseTimestamp(timestamp);
+            if (time == null || time.isAfter(after)) {
+                out.write(logs, start, end - start);
+            }
+        });
+        return out.toByteArray();
+    }
+
+    /**
+     * Returns the timestamp of the last log line that has one or <code>null</code>.
+     */
+    public static String lastTimestamp(byte[] logs) {
+        if (logs == null) {
+            return null;
+        }
+
+        String[] last = new String[] { null };
+        forEachEntry(logs, (start, end, timestamp) -> {
+            if (parseTimestamp(timestamp) != null) {
+                last[0] = timestamp;
+            }
+        });
+        return last[0];
+    }
+
+    public static Instant parseTimestamp(String timestamp) {
+        if (timestamp == null || timestamp.isEmpty()) {
+            return null;
+        }
+        try {
+            return Instant.parse(timestamp);
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    private static void forEachEntry(byte[] logs, EntryVisitor visitor) {
+        if (isMultiplexed(logs)) {
+            int pos = 0;
+            while (pos < logs.length) {
+                int payloadStart = Math.min(pos + HEADER_SIZE, logs.length);
+                int end = payloadStart;
+                if (payloadStart - pos == HEADER_SIZE) {
+                    long size = ByteBuffer.wrap(logs, pos + FRAME_SIZE_OFFSET,
+                            HEADER_SIZE - FRAME_SIZE_OFFSET).getInt() & 0xFFFFFFFFL;
+                    end = (int) Math.min(payloadStart + size, logs.length);
+                }
+                visitor.visit(pos, end, readTimestamp(logs, payloadStart, end));
+                pos = end;
+            }
+        } else {
+            int pos = 0;
+            while (pos < logs.length) {
+                int end = pos;
+                while (end < logs.length && logs[end] != '\n') {
+                    end++;
+                }
+                end = Math.min(end + 1, logs.length);
+                visitor.visit(pos, end, readTimestamp(logs, pos, end));
+                pos = end;
+            }
+        }
+    }
+
+    private static boolean isMultiplexed(byte[] logs) {
+        return logs.length >= HEADER_SIZE && logs[0] >= 0 && logs[0] <= 2 && logs[1] == 0
+                && logs[2] == 0 && logs[3] == 0;
+    }
+
+    private static String readTimestamp(byte[] logs, int start, int end) {
+        int limit = Math.min(end, start + MAX_TIMESTAMP_LENGTH);
+        for (int i = start; i < limit; i++) {
+            if (logs[i] == ' ') {
+                return new String(logs, start, i - start, StandardCharsets.US_ASCII);
+            }
+        }
+        return null;
+    }
+}
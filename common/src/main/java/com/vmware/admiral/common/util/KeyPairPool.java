@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2016 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.common.util;
+
+import java.security.KeyPair;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import com.vmware.xenon.common.Utils;
+
+/**
+ * Pool of pre-generated RSA key pairs. Generating a key pair takes tens of milliseconds, so the
+ * pool keeps up to a given number of key pairs ready and generates new ones on a dedicated thread
+ * as they are taken. When the pool is empty the key pair is generated on the calling thread.
+ */
+public class KeyPairPool {
+
+    public static final int DEFAULT_POOL_SIZE = Integer.getInteger(
+            "com.vmware.admiral.common.util.keypair.pool.size", 20);
+
+    private static final KeyPairPool DEFAULT = new KeyPairPool(DEFAULT_POOL_SIZE,
+            KeyUtil::generateRSAKeyPair);
+
+    private final int size;
+    private final Supplier<KeyPair> generator;
+    private final Queue<KeyPair> keyPairs = new ConcurrentLinkedQueue<>();
+    // the size of the queue, not computed by ConcurrentLinkedQueue in constant time
+    private final AtomicInteger available = new AtomicInteger();
+    private final AtomicBoolean refilling = new AtomicBoolean();
+    private final ExecutorService executor;
+
+    public KeyPairPool(int size, Supplier<KeyPair> generator) {
+        this.size = size;
+        this.generator = generator;
+        this.executor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "keypair-pool");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Returns the pool of the {@link KeyUtil#generateRSAKeyPair()} key pairs, sized by
+     * {@link #DEFAULT_POOL_SIZE}.
+     */
+    public static KeyPairPool getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Takes a pre-generated key pair, or generates one if none is available. A key pair is never
+     * returned twice.
+     */
+    public KeyPair take() {
+        KeyPair keyPair = keyPairs.poll();
+        if (keyPair != null) {
+            available.decrementAndGet();
+        }
+        refill();
+
+        return keyPair != null ? keyPair : generator.get();
+    }
+
+    /** The number of key pairs ready to be taken. */
+    public int getAvailable() {
+        return available.get();
+    }
+
+    /**
+     * Starts generating key pairs in the background until the pool is full, unless already
+     * started.
+     */
+    public void refill() {
+        if (available.get() >= size || !refilling.compareAndSet(false, true)) {
+            return;
+        }
+
+        executor.execute(() -> {
+            try {
+                while (available.get() < size) {
+                    keyPairs.add(generator.get());
+                    available.incrementAndGet();
+                }
+            } catch (Throwable e) {
+                Utils.logWarning("Failed to generate key pair: %s", Utils.toString(e));
+                return;
+            } finally {
+                refilling.set(false);
+            }
+
+            // key pairs taken after the last check
+            refill();
+        });
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
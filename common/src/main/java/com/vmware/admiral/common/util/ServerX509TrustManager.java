@@ -21,7 +21,9 @@ import java.nio.file.Paths;
 import java.security.KeyStore;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
+import java.util.Map;
 import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
@@ -56,8 +58,18 @@ public class ServerX509TrustManager implements X509TrustManager, Closeable {
             "dcp.management.config.certificates.reload.period.micros",
             TimeUnit.MINUTES.toMicros(5));
 
+    /* Look back for documents replicated with an update time before the last reload */
+    protected long reloadLookback = Long.getLong(
+            "dcp.management.config.certificates.reload.lookback.micros",
+            TimeUnit.MINUTES.toMicros(1));
+
+    /* Every how many periodic reloads all the certificates are queried */
+    protected int fullReloadPeriod = Integer.getInteger(
+            "dcp.management.config.certificates.full.reload.period", 12);
+
     protected volatile int reloadCounterThreshold = 10;
     private volatile AtomicInteger reloadCounter = new AtomicInteger(0);
+    private final AtomicInteger periodicReloadCounter = new AtomicInteger(0);
 
 
     public static final String JAVAX_NET_SSL_TRUST_STORE = "dcp.net.ssl.trustStore";
@@ -75,6 +87,9 @@ public class ServerX509TrustManager implements X509TrustManager, Closeable {
     /* Last time the document was update in microseconds since UNIX epoch */
     private volatile long documentUpdateTimeMicros;
 
+    /* Update time of the loaded certificates by alias */
+    private final Map<String, Long> loadedCertificates = new ConcurrentHashMap<>();
+
     public static synchronized ServerX509TrustManager create(ServiceHost host) {
         if (INSTANCE == null) {
             INSTANCE = new ServerX509TrustManager(host);
@@ -174,8 +189,9 @@ public class ServerX509TrustManager implements X509TrustManager, Closeable {
 
         host.schedule(() -> {
             try {
-                documentUpdateTimeMicros = 0;
-                loadSslTrustCertServices();
+                // only the recently updated certificates, all of them from time to time
+                int reloads = periodicReloadCounter.incrementAndGet();
+                reloadCertificates(reloads % fullReloadPeriod == 0);
 
                 reloadCounter.updateAndGet((r) -> (r > reloadCounterThreshold) ? r : r + 1);
 
@@ -189,6 +205,19 @@ public class ServerX509TrustManager implements X509TrustManager, Closeable {
         }, nextDelay, TimeUnit.MICROSECONDS);
     }
 
+    /**
+     * Reload the certificates updated since the last reload, or all of them on a full reload so
+     * that the certificates whose updates were missed are reloaded or removed.
+     */
+    protected void reloadCertificates(boolean fullReload) {
+        if (fullReload) {
+            documentUpdateTimeMicros = 0;
+        } else {
+            documentUpdateTimeMicros = Math.max(0, documentUpdateTimeMicros - reloadLookback);
+        }
+        loadSslTrustCertServices();
+    }
+
     @Override
     public void close() {
         this.subscriptionManager.close();
@@ -266,6 +295,7 @@ public class ServerX509TrustManager implements X509TrustManager, Closeable {
                 .getTrustManagers(alias, certificate)[0];
 
         this.delegatingTrustManager.putDelegate(alias, delegateTrustManager);
+        this.loadedCertificates.remove(alias);
     }
 
     public X509TrustManager getDelegate(Object key) {
@@ -299,8 +329,17 @@ public class ServerX509TrustManager implements X509TrustManager, Closeable {
         }
 
         private void loadCertificate(SslTrustCertificateState sslTrustCert) {
+            String alias = sslTrustCert.getAlias();
+            Long loadedUpdateTime = self.loadedCertificates.get(alias);
+            if (loadedUpdateTime != null
+                    && loadedUpdateTime >= sslTrustCert.documentUpdateTimeMicros
+                    && self.getDelegate(alias) != null) {
+                // not changed since loaded
+                return;
+            }
             try {
-                self.putDelegate(sslTrustCert.getAlias(), sslTrustCert.certificate);
+                self.putDelegate(alias, sslTrustCert.certificate);
+                self.loadedCertificates.put(alias, sslTrustCert.documentUpdateTimeMicros);
                 Utils.log(getClass(), "Self Signed Trust Store", Level.FINE,
                         "Certificate with alias %s updated", sslTrustCert.getAlias());
             } catch (Throwable e) {
@@ -311,6 +350,7 @@ public class ServerX509TrustManager implements X509TrustManager, Closeable {
         }
 
         private void deleteCertificate(String alias) {
+            self.loadedCertificates.remove(alias);
             self.delegatingTrustManager.removeDelegate(alias);
             Utils.log(getClass(), "Self Signed Trust Store", Level.FINE,
                     "Certificate with alias %s removed", alias);
@@ -14,6 +14,8 @@ package com.vmware.admiral.common.util;
 import java.util.Collection;
 import java.util.EnumSet;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 import java.util.logging.Level;
@@ -43,8 +45,23 @@ public class ServiceDocumentQuery<T extends ServiceDocument> {
     public static final Integer DEFAULT_QUERY_RESULT_LIMIT = Integer.getInteger(
             "dcp.management.query.documents.default.resultLimit", 50);
 
+    public static final int STREAM_MIN_PAGE_SIZE = Integer.getInteger(
+            "dcp.management.query.documents.stream.minPageSize", 20);
+    public static final int STREAM_MAX_PAGE_SIZE = Integer.getInteger(
+            "dcp.management.query.documents.stream.maxPageSize", 1000);
+    public static final long STREAM_TARGET_PAGE_BYTES = Long.getLong(
+            "dcp.management.query.documents.stream.targetPageBytes", 1024 * 1024);
+    public static final long STREAM_TARGET_PAGE_MILLIS = Long.getLong(
+            "dcp.management.query.documents.stream.targetPageMillis", 200);
+
+    // document size and callback latency measured by the streamed queries, per document kind
+    private static final Map<String, PageStats> pageStats = new ConcurrentHashMap<>();
+
     private final Class<T> type;
     private final ServiceHost host;
+    private boolean direct;
+    private int minPageSize = STREAM_MIN_PAGE_SIZE;
+    private int maxPageSize = STREAM_MAX_PAGE_SIZE;
 
     public ServiceDocumentQuery(ServiceHost host, Class<T> type) {
         AssertUtil.assertNotNull(host, "host");
@@ -53,6 +70,35 @@ public class ServiceDocumentQuery<T extends ServiceDocument> {
         this.type = type;
     }
 
+    /**
+     * Executes the queries passed to {@link #query(QueryTask, Consumer)} as direct tasks. The
+     * results are then returned with the response of the query task creation instead of polling
+     * the task until it is finished.
+     */
+    public ServiceDocumentQuery<T> setDirect(boolean direct) {
+        this.direct = direct;
+        return this;
+    }
+
+    /**
+     * Sets the bounds of the page size used by {@link #stream(QueryTask, Consumer)}.
+     */
+    public ServiceDocumentQuery<T> setPageSizeBounds(int minPageSize, int maxPageSize) {
+        AssertUtil.assertTrue(minPageSize > 0 && minPageSize <= maxPageSize,
+                "Invalid page size bounds: " + minPageSize + " - " + maxPageSize);
+        this.minPageSize = minPageSize;
+        this.maxPageSize = maxPageSize;
+        return this;
+    }
+
+    /**
+     * Forgets the measured page statistics, the next streamed queries start with the default
+     * page size.
+     */
+    static void clearPageStats() {
+        pageStats.clear();
+    }
+
     public static long getDefaultQueryExpiration() {
         return Utils.getNowMicrosUtc() + DEFAULT_EXPIRATION_TIME_IN_MICROS;
     }
@@ -61,7 +107,8 @@ public class ServiceDocumentQuery<T extends ServiceDocument> {
      * Query for a document based on {@link ServiceDocument#documentSelfLink}. This is the same
      * operation of GET <code>documentSelfLink</code>. It is especially needed when a
      * {@link ServiceDocument} might not exist since using <code>GET</code> directly will timeout if
-     * {@link ServiceDocument} doesn't exist.
+     * {@link ServiceDocument} doesn't exist. See {@link #lookupDocument(String, Consumer)} for a
+     * cheaper lookup when the factory of the document is known to be available.
      *
      * @param documentSelfLink
      *            {@link ServiceDocument#documentSelfLink} of the document to be retrieved.
@@ -75,6 +122,52 @@ public class ServiceDocumentQuery<T extends ServiceDocument> {
         queryUpdatedDocumentSince(-1, documentSelfLink, completionHandler);
     }
 
+    /**
+     * Retrieves a document with a GET to its {@link ServiceDocument#documentSelfLink} instead of
+     * creating a query task. A document that is not found or is not of the query type is
+     * reported as no result, same as an empty query. The completion handler is called only once.
+     *
+     * Unlike {@link #queryDocument(String, Consumer)}, the GET waits for the factory of the
+     * document while it is not started, so it should only be used for documents of factories
+     * started on the local host.
+     *
+     * @param documentSelfLink
+     *            {@link ServiceDocument#documentSelfLink} of the document to be retrieved.
+     * @param completionHandler
+     *            The completion handler to be called either with the document, with no result if
+     *            the document doesn't exist or with exception in case of error.
+     */
+    public void lookupDocument(String documentSelfLink,
+            Consumer<ServiceDocumentQueryElementResult<T>> completionHandler) {
+        AssertUtil.assertNotEmpty(documentSelfLink, "documentSelfLink");
+        AssertUtil.assertNotNull(completionHandler, "completionHandler");
+
+        host.sendRequest(Operation
+                .createGet(UriUtils.buildUri(host, UriUtils.buildUriPath(documentSelfLink)))
+                .setReferer(host.getUri())
+                .setCompletion((o, e) -> {
+                    if (o.getStatusCode() == Operation.STATUS_CODE_NOT_FOUND) {
+                        completionHandler.accept(noResult());
+                        return;
+                    }
+                    if (e != null) {
+                        completionHandler.accept(error(e));
+                        return;
+                    }
+                    try {
+                        T document = o.getBody(type);
+                        if (document == null
+                                || !Utils.buildKind(type).equals(document.documentKind)) {
+                            completionHandler.accept(noResult());
+                        } else {
+                            completionHandler.accept(result(document, 1));
+                        }
+                    } catch (Throwable ex) {
+                        completionHandler.accept(error(ex));
+                    }
+                }));
+    }
+
     /**
      * Query an expanded document extending {@link ServiceDocument}s that is updated or deleted
      * since given time in the past. The result will return if there is any update or delete
@@ -180,6 +273,12 @@ public class ServiceDocumentQuery<T extends ServiceDocument> {
         if (q.documentExpirationTimeMicros == 0) {
             q.documentExpirationTimeMicros = getDefaultQueryExpiration();
         }
+        if (direct) {
+            if (q.taskInfo == null) {
+                q.taskInfo = new TaskState();
+            }
+            q.taskInfo.isDirect = true;
+        }
 
         host.sendRequest(Operation
                 .createPost(UriUtils.buildUri(host, ServiceUriPaths.CORE_QUERY_TASKS))
@@ -195,6 +294,77 @@ public class ServiceDocumentQuery<T extends ServiceDocument> {
                 }));
     }
 
+    /**
+     * Streams the results of a query page by page. The next page is retrieved while the current
+     * one is delivered to the completion handler, and the page size is chosen within the
+     * configured bounds from the document size and the completion handler latency measured by
+     * the previous streamed queries for the same document type. The result limit of the query is
+     * replaced by this page size. Count and top results queries are executed with
+     * {@link #query(QueryTask, Consumer)}.
+     *
+     * @param q
+     *            Fully defined {@link QueryTask}
+     * @param completionHandler
+     *            The completion handler to be called for each result, with exception in case of
+     *            error and with no result when all the results are delivered or the query is
+     *            cancelled.
+     * @return handle to cancel the query before all the results are delivered.
+     */
+    public QueryHandle stream(QueryTask q,
+            Consumer<ServiceDocumentQueryElementResult<T>> completionHandler) {
+        QueryHandle handle = new QueryHandle();
+        stream(q, handle, completionHandler);
+        return handle;
+    }
+
+    /**
+     * Same as {@link #stream(QueryTask, Consumer)} with a handle created by the caller, e.g. to
+     * cancel the query from the completion handler.
+     */
+    public void stream(QueryTask q, QueryHandle handle,
+            Consumer<ServiceDocumentQueryElementResult<T>> completionHandler) {
+        AssertUtil.assertNotNull(handle, "handle");
+        if (isCountQuery(q) || (q.querySpec.options != null
+                && q.querySpec.options.contains(QueryOption.TOP_RESULTS))) {
+            query(q, completionHandler);
+            return;
+        }
+
+        PageStats stats = pageStats.computeIfAbsent(Utils.buildKind(type), (k) -> new PageStats());
+        q.querySpec.resultLimit = stats.getPageSize(minPageSize, maxPageSize);
+        if (q.taskInfo == null) {
+            q.taskInfo = new TaskState();
+        }
+        q.taskInfo.isDirect = true;
+        if (q.documentExpirationTimeMicros == 0) {
+            q.documentExpirationTimeMicros = getDefaultQueryExpiration();
+        }
+
+        host.sendRequest(Operation
+                .createPost(UriUtils.buildUri(host, ServiceUriPaths.CORE_QUERY_TASKS))
+                .setBody(q)
+                .setReferer(host.getUri())
+                .setCompletion((o, e) -> {
+                    if (e != null) {
+                        completionHandler.accept(error(e));
+                        return;
+                    }
+                    QueryTask rsp = o.getBody(QueryTask.class);
+                    if (TaskState.isFailed(rsp.taskInfo)) {
+                        completionHandler.accept(error(new IllegalStateException(
+                                rsp.taskInfo.failure.message)));
+                        return;
+                    }
+                    if (rsp.results == null || rsp.results.nextPageLink == null
+                            || handle.isCancelled()) {
+                        completionHandler.accept(noResult());
+                        return;
+                    }
+                    new PageWalker(completionHandler, handle, stats)
+                            .fetch(rsp.results.nextPageLink);
+                }));
+    }
+
     private void processQuery(QueryTask q,
             Consumer<ServiceDocumentQueryElementResult<T>> handler) {
         if (TaskState.isFailed(q.taskInfo)) {
@@ -317,6 +487,126 @@ public class ServiceDocumentQuery<T extends ServiceDocument> {
         }
     }
 
+    /**
+     * Delivers the pages of a streamed query, fetching the next page while the current one is
+     * delivered.
+     */
+    private class PageWalker {
+        private final Consumer<ServiceDocumentQueryElementResult<T>> handler;
+        private final QueryHandle handle;
+        private final PageStats stats;
+
+        // guarded by this, the prefetched page or failure and whether it is waited for
+        private boolean nextPageReady;
+        private QueryTask nextPage;
+        private Throwable nextPageFailure;
+        // nothing is being delivered until the first page arrives
+        private boolean waiting = true;
+
+        PageWalker(Consumer<ServiceDocumentQueryElementResult<T>> handler, QueryHandle handle,
+                PageStats stats) {
+            this.handler = handler;
+            this.handle = handle;
+            this.stats = stats;
+        }
+
+        void fetch(String pageLink) {
+            host.sendRequest(Operation
+                    .createGet(UriUtils.buildUri(host, pageLink))
+                    .setReferer(host.getUri())
+                    .setCompletion((o, e) -> {
+                        if (e != null) {
+                            onPage(null, e);
+                            return;
+                        }
+                        QueryTask page;
+                        try {
+                            page = o.getBody(QueryTask.class);
+                        } catch (Throwable ex) {
+                            onPage(null, ex);
+                            return;
+                        }
+                        onPage(page, null);
+                    }));
+        }
+
+        private void onPage(QueryTask page, Throwable e) {
+            synchronized (this) {
+                if (!waiting) {
+                    // the previous page is still being delivered
+                    nextPage = page;
+                    nextPageFailure = e;
+                    nextPageReady = true;
+                    return;
+                }
+                waiting = false;
+            }
+            deliver(page, e);
+        }
+
+        private void deliver(QueryTask page, Throwable e) {
+            while (true) {
+                if (e != null) {
+                    handler.accept(error(e));
+                    return;
+                }
+                if (handle.isCancelled()) {
+                    handler.accept(noResult());
+                    return;
+                }
+
+                String nextPageLink = page.results.nextPageLink;
+                if (nextPageLink != null) {
+                    fetch(nextPageLink);
+                }
+
+                deliverPage(page);
+
+                if (nextPageLink == null || handle.isCancelled()) {
+                    handler.accept(noResult());
+                    return;
+                }
+
+                synchronized (this) {
+                    if (!nextPageReady) {
+                        waiting = true;
+                        return;
+                    }
+                    page = nextPage;
+                    e = nextPageFailure;
+                    nextPage = null;
+                    nextPageFailure = null;
+                    nextPageReady = false;
+                }
+            }
+        }
+
+        private void deliverPage(QueryTask page) {
+            List<String> links = page.results.documentLinks;
+            if (links == null || links.isEmpty()) {
+                return;
+            }
+
+            boolean expand = isExpandQuery(page);
+            // the size of the first document is taken as a sample for the page
+            Object sample = expand ? page.results.documents.get(links.get(0)) : null;
+            long documentBytes = sample != null ? Utils.toJson(sample).length() : 0;
+            long startNanos = System.nanoTime();
+            int delivered = 0;
+            for (String link : links) {
+                if (handle.isCancelled()) {
+                    break;
+                }
+                handler.accept(expand ? result(page.results.documents.get(link), links.size())
+                        : resultLink(link, links.size()));
+                delivered++;
+            }
+            if (delivered > 0) {
+                stats.update(documentBytes, (System.nanoTime() - startNanos) / delivered);
+            }
+        }
+    }
+
     private boolean isExpandQuery(QueryTask q) {
         return q.querySpec.options != null
                 && q.querySpec.options.contains(QueryOption.EXPAND_CONTENT);
@@ -362,6 +652,7 @@ public class ServiceDocumentQuery<T extends ServiceDocument> {
         ServiceDocumentQueryElementResult<S> r = new ServiceDocumentQueryElementResult<>();
         r.result = document;
         r.documentSelfLink = r.result.documentSelfLink;
+        r.count = count;
         return r;
     }
 
@@ -385,6 +676,60 @@ public class ServiceDocumentQuery<T extends ServiceDocument> {
         return new ServiceDocumentQueryElementResult<>();
     }
 
+    /**
+     * Handle of a streamed query, see {@link ServiceDocumentQuery#stream(QueryTask, Consumer)}.
+     */
+    public static class QueryHandle {
+        private volatile boolean cancelled;
+
+        /**
+         * Stops the delivery of the results. The completion handler is called once more with no
+         * result, unless the query has already completed.
+         */
+        public void cancel() {
+            cancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+    }
+
+    /**
+     * Exponentially weighted averages of the document size and the completion handler latency
+     * per document, used to choose the page size of the streamed queries.
+     */
+    private static class PageStats {
+        private static final double WEIGHT = 0.5;
+
+        private double documentBytes;
+        private double callbackNanos;
+        private boolean measured;
+
+        synchronized void update(long documentBytes, long callbackNanos) {
+            if (!measured) {
+                this.documentBytes = documentBytes;
+                this.callbackNanos = callbackNanos;
+                measured = true;
+                return;
+            }
+            this.documentBytes += WEIGHT * (documentBytes - this.documentBytes);
+            this.callbackNanos += WEIGHT * (callbackNanos - this.callbackNanos);
+        }
+
+        synchronized int getPageSize(int minPageSize, int maxPageSize) {
+            double pageSize = measured ? maxPageSize : DEFAULT_QUERY_RESULT_LIMIT;
+            if (measured && documentBytes > 0) {
+                pageSize = Math.min(pageSize, STREAM_TARGET_PAGE_BYTES / documentBytes);
+            }
+            if (measured && callbackNanos > 0) {
+                pageSize = Math.min(pageSize,
+                        TimeUnit.MILLISECONDS.toNanos(STREAM_TARGET_PAGE_MILLIS) / callbackNanos);
+            }
+            return (int) Math.max(minPageSize, Math.min(maxPageSize, pageSize));
+        }
+    }
+
     public static class ServiceDocumentQueryElementResult<T extends ServiceDocument> {
         private Throwable exception;
         private T result;
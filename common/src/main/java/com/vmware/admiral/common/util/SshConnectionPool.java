@@ -0,0 +1,499 @@
+/*
+ * Copyright (c) 2016 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.common.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
+import java.util.logging.Logger;
+
+import net.schmizz.sshj.SSHClient;
+
+import com.vmware.xenon.services.common.AuthCredentialsService.AuthCredentialsServiceState;
+
+/**
+ * Thread safe pool of ssh connections keyed by host, user and credentials. A connection is shared
+ * by up to {@link #getMaxSessionsPerConnection()} session channels and up to
+ * {@link #getMaxConnectionsPerHost()} connections are opened to the same host with the same
+ * credentials, further requests are queued until a channel is released. No thread is blocked
+ * while a request waits, its callback is called once a channel is acquired. Connections not used
+ * for the idle timeout are closed by {@link #evictIdle()}.
+ */
+public class SshConnectionPool implements Closeable {
+    private static Logger logger = Logger.getLogger(SshConnectionPool.class.getName());
+
+    /*
+     * The sessions per connection should be kept below the MaxSessions property of the ssh server,
+     * 10 by default.
+     */
+    public static final int SSH_MAX_SESSIONS_PER_CONNECTION = Integer.parseInt(
+            System.getProperty("ssh.pool.max_sessions_per_connection", "8"));
+    public static final int SSH_MAX_CONNECTIONS_PER_HOST = Integer.parseInt(
+            System.getProperty("ssh.pool.max_connections_per_host", "2"));
+    public static final int SSH_IDLE_TIMEOUT = Integer.parseInt(
+            System.getProperty("ssh.pool.idle_timeout", "300"));
+
+    private final int maxSessionsPerConnection;
+    private final int maxConnectionsPerHost;
+    private final long idleTimeoutMillis;
+
+    private final Map<String, HostConnections> hosts = new ConcurrentHashMap<>();
+    // expires the queued requests
+    private final ScheduledThreadPoolExecutor timer;
+    private volatile boolean closed;
+
+    public SshConnectionPool() {
+        this(SSH_MAX_SESSIONS_PER_CONNECTION, SSH_MAX_CONNECTIONS_PER_HOST, SSH_IDLE_TIMEOUT,
+                TimeUnit.SECONDS);
+    }
+
+    public SshConnectionPool(int maxSessionsPerConnection, int maxConnectionsPerHost,
+            long idleTimeout, TimeUnit unit) {
+        AssertUtil.assertTrue(maxSessionsPerConnection > 0,
+                "maxSessionsPerConnection must be positive");
+        AssertUtil.assertTrue(maxConnectionsPerHost > 0,
+                "maxConnectionsPerHost must be positive");
+        this.maxSessionsPerConnection = maxSessionsPerConnection;
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+        this.idleTimeoutMillis = unit.toMillis(idleTimeout);
+        this.timer = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(r, "ssh-pool-timeout");
+            t.setDaemon(true);
+            return t;
+        });
+        this.timer.setRemoveOnCancelPolicy(true);
+    }
+
+    public int getMaxSessionsPerConnection() {
+        return maxSessionsPerConnection;
+    }
+
+    public int getMaxConnectionsPerHost() {
+        return maxConnectionsPerHost;
+    }
+
+    /**
+     * Acquires a session channel on a connection to the given host, opening a connection if
+     * needed and allowed. While the connections to the host are all fully used the request is
+     * queued, it fails with a {@link TimeoutException} if no channel is released in time.
+     *
+     * The callback is called on the given executor, which also opens the new connections, with
+     * either a lease to be closed once the session channel is closed or the failure.
+     */
+    public void acquire(String hostname, AuthCredentialsServiceState credentials,
+            long timeout, TimeUnit unit, Executor executor,
+            BiConsumer<Lease, Throwable> callback) {
+        Waiter waiter = new Waiter(System.currentTimeMillis() + unit.toMillis(timeout),
+                executor, callback);
+        String key = getKey(hostname, credentials);
+        while (true) {
+            if (closed) {
+                waiter.complete(null, new IllegalStateException(
+                        "The ssh connection pool is closed"));
+                return;
+            }
+            HostConnections connections = hosts.computeIfAbsent(key,
+                    (k) -> new HostConnections(hostname, credentials));
+            if (connections.acquire(waiter)) {
+                return;
+            }
+            // evicted meanwhile, retry with a new entry
+            hosts.remove(key, connections);
+        }
+    }
+
+    /**
+     * Closes the connections not used for the idle timeout.
+     */
+    public void evictIdle() {
+        long idleSince = System.currentTimeMillis() - idleTimeoutMillis;
+        for (Map.Entry<String, HostConnections> entry : hosts.entrySet()) {
+            List<PooledConnection> evicted = new ArrayList<>();
+            HostConnections connections = entry.getValue();
+            synchronized (connections) {
+                Iterator<PooledConnection> it = connections.connections.iterator();
+                while (it.hasNext()) {
+                    PooledConnection connection = it.next();
+                    if (connection.sessions == 0 && (connection.lastUsed <= idleSince
+                            || !connection.client.isConnected())) {
+                        it.remove();
+                        evicted.add(connection);
+                    }
+                }
+                if (connections.connections.isEmpty() && connections.connecting == 0
+                        && connections.waiters.isEmpty()) {
+                    connections.removed = true;
+                    hosts.remove(entry.getKey(), connections);
+                }
+            }
+            for (PooledConnection connection : evicted) {
+                logger.fine("Closing idle ssh connection to " + connections.hostname);
+                disconnect(connection);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of open connections.
+     */
+    public int getConnectionCount() {
+        int count = 0;
+        for (HostConnections connections : hosts.values()) {
+            synchronized (connections) {
+                count += connections.connections.size();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of session channels in use.
+     */
+    public int getSessionCount() {
+        int count = 0;
+        for (HostConnections connections : hosts.values()) {
+            synchronized (connections) {
+                for (PooledConnection connection : connections.connections) {
+                    count += connection.sessions;
+                }
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        for (HostConnections connections : hosts.values()) {
+            List<PooledConnection> open;
+            List<Waiter> waiters;
+            synchronized (connections) {
+                open = new ArrayList<>(connections.connections);
+                connections.connections.clear();
+                waiters = new ArrayList<>(connections.waiters);
+                connections.waiters.clear();
+                connections.removed = true;
+            }
+            for (Waiter waiter : waiters) {
+                waiter.complete(null, new IllegalStateException(
+                        "The ssh connection pool is closed"));
+            }
+            for (PooledConnection connection : open) {
+                disconnect(connection);
+            }
+        }
+        hosts.clear();
+        timer.shutdownNow();
+    }
+
+    /**
+     * Returns the key of the connections to the host with the given credentials. The credentials
+     * are only kept as a digest.
+     */
+    public static String getKey(String hostname, AuthCredentialsServiceState credentials) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            if (credentials.privateKey != null) {
+                md.update(credentials.privateKey.getBytes(StandardCharsets.UTF_8));
+            }
+            return credentials.userEmail + "@" + hostname + ":"
+                    + Base64.getEncoder().encodeToString(md.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void disconnect(PooledConnection connection) {
+        try {
+            connection.client.disconnect();
+        } catch (IOException e) {
+            logger.fine("Failed to close ssh connection: " + e.getMessage());
+        }
+    }
+
+    /**
+     * A session channel acquired on a pooled connection, released on close.
+     */
+    public static class Lease implements Closeable {
+        private final HostConnections connections;
+        private final PooledConnection connection;
+        private boolean released;
+
+        private Lease(HostConnections connections, PooledConnection connection) {
+            this.connections = connections;
+            this.connection = connection;
+        }
+
+        public SSHClient getClient() {
+            return connection.client;
+        }
+
+        /**
+         * Marks the connection as broken, it is closed and not used for new sessions.
+         */
+        public void invalidate() {
+            synchronized (connections) {
+                if (!connections.connections.remove(connection)) {
+                    return;
+                }
+            }
+            disconnect(connection);
+            connections.dispatch();
+        }
+
+        @Override
+        public void close() {
+            synchronized (connections) {
+                if (released) {
+                    return;
+                }
+                released = true;
+                connection.sessions--;
+                connection.lastUsed = System.currentTimeMillis();
+            }
+            connections.dispatch();
+        }
+    }
+
+    private static class PooledConnection {
+        final SSHClient client;
+        int sessions;
+        long lastUsed = System.currentTimeMillis();
+
+        PooledConnection(SSHClient client) {
+            this.client = client;
+        }
+    }
+
+    /**
+     * A queued request for a session channel.
+     */
+    private static class Waiter {
+        final long deadline;
+        final Executor executor;
+        final BiConsumer<Lease, Throwable> callback;
+        ScheduledFuture<?> timeout;
+
+        Waiter(long deadline, Executor executor, BiConsumer<Lease, Throwable> callback) {
+            this.deadline = deadline;
+            this.executor = executor;
+            this.callback = callback;
+        }
+
+        void complete(Lease lease, Throwable failure) {
+            if (timeout != null) {
+                timeout.cancel(false);
+            }
+            try {
+                executor.execute(() -> callback.accept(lease, failure));
+            } catch (RejectedExecutionException e) {
+                if (lease != null) {
+                    lease.close();
+                }
+                callback.accept(null, new IllegalStateException(
+                        "The ssh executor is stopped", e));
+            }
+        }
+    }
+
+    /**
+     * The connections to a host with the same credentials and the requests waiting for them,
+     * guarded by its monitor.
+     */
+    private class HostConnections {
+        final String hostname;
+        final AuthCredentialsServiceState credentials;
+        final List<PooledConnection> connections = new ArrayList<>();
+        final Deque<Waiter> waiters = new ArrayDeque<>();
+        int connecting;
+        boolean removed;
+
+        HostConnections(String hostname, AuthCredentialsServiceState credentials) {
+            this.hostname = hostname;
+            this.credentials = credentials;
+        }
+
+        /**
+         * Leases a channel, opens a connection or queues the request. Returns <code>false</code>
+         * if these connections were evicted.
+         */
+        boolean acquire(Waiter waiter) {
+            Lease lease;
+            synchronized (this) {
+                if (removed) {
+                    return false;
+                }
+
+                lease = leaseLeastUsed();
+                if (lease == null) {
+                    if (connections.size() + connecting < maxConnectionsPerHost) {
+                        connecting++;
+                    } else {
+                        enqueue(waiter);
+                        return true;
+                    }
+                }
+            }
+
+            if (lease != null) {
+                waiter.complete(lease, null);
+            } else {
+                connect(waiter);
+            }
+            return true;
+        }
+
+        /**
+         * Serves the queued requests with the released channels and the connections that can be
+         * opened.
+         */
+        void dispatch() {
+            List<Waiter> leased = new ArrayList<>();
+            List<Lease> leases = new ArrayList<>();
+            List<Waiter> connectors = new ArrayList<>();
+            synchronized (this) {
+                while (!waiters.isEmpty() && !removed) {
+                    Lease lease = leaseLeastUsed();
+                    if (lease != null) {
+                        leased.add(waiters.poll());
+                        leases.add(lease);
+                    } else if (connections.size() + connecting < maxConnectionsPerHost) {
+                        connecting++;
+                        connectors.add(waiters.poll());
+                    } else {
+                        break;
+                    }
+                }
+            }
+
+            for (int i = 0; i < leased.size(); i++) {
+                leased.get(i).complete(leases.get(i), null);
+            }
+            for (Waiter waiter : connectors) {
+                connect(waiter);
+            }
+        }
+
+        private void enqueue(Waiter waiter) {
+            waiters.add(waiter);
+            try {
+                waiter.timeout = timer.schedule(() -> expire(waiter),
+                        Math.max(waiter.deadline - System.currentTimeMillis(), 1),
+                        TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // closed meanwhile, the waiters are failed on close
+            }
+        }
+
+        private void expire(Waiter waiter) {
+            synchronized (this) {
+                if (!waiters.remove(waiter)) {
+                    return;
+                }
+            }
+            waiter.complete(null, new TimeoutException("Timed out waiting for ssh session to "
+                    + hostname));
+        }
+
+        private Lease leaseLeastUsed() {
+            PooledConnection leastUsed = null;
+            Iterator<PooledConnection> it = connections.iterator();
+            while (it.hasNext()) {
+                PooledConnection connection = it.next();
+                if (!connection.client.isConnected()) {
+                    if (connection.sessions == 0) {
+                        it.remove();
+                    }
+                    continue;
+                }
+                if (connection.sessions < maxSessionsPerConnection
+                        && (leastUsed == null || connection.sessions < leastUsed.sessions)) {
+                    leastUsed = connection;
+                }
+            }
+            if (leastUsed == null) {
+                return null;
+            }
+            leastUsed.sessions++;
+            return new Lease(this, leastUsed);
+        }
+
+        /**
+         * Opens a connection on the executor of the request, the other requests use the open
+         * connections meanwhile.
+         */
+        private void connect(Waiter waiter) {
+            try {
+                waiter.executor.execute(() -> openConnection(waiter));
+            } catch (RejectedExecutionException e) {
+                synchronized (this) {
+                    connecting--;
+                }
+                waiter.callback.accept(null, new IllegalStateException(
+                        "The ssh executor is stopped", e));
+            }
+        }
+
+        private void openConnection(Waiter waiter) {
+            SSHClient client;
+            try {
+                client = SshUtil.getDefaultSshClient(hostname, credentials);
+            } catch (Throwable e) {
+                synchronized (this) {
+                    connecting--;
+                }
+                dispatch();
+                waiter.callback.accept(null, e);
+                return;
+            }
+
+            Lease lease = null;
+            synchronized (this) {
+                connecting--;
+                if (!removed) {
+                    PooledConnection connection = new PooledConnection(client);
+                    connection.sessions++;
+                    connections.add(connection);
+                    lease = new Lease(this, connection);
+                }
+            }
+            if (lease == null) {
+                // closed meanwhile
+                disconnect(new PooledConnection(client));
+                waiter.callback.accept(null, new IllegalStateException(
+                        "The ssh connection pool is closed"));
+                return;
+            }
+
+            // the new connection has channels for the queued requests too
+            dispatch();
+            waiter.callback.accept(lease, null);
+        }
+    }
+}
@@ -11,8 +11,9 @@
 
 package com.vmware.admiral.common.util;
 
-import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
@@ -22,57 +23,128 @@ import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Function;
 import java.util.logging.Logger;
 
-import net.schmizz.sshj.SSHClient;
+import net.schmizz.sshj.connection.ConnectionException;
+import net.schmizz.sshj.connection.channel.direct.Session;
+import net.schmizz.sshj.connection.channel.direct.Session.Command;
+import net.schmizz.sshj.sftp.SFTPClient;
+import net.schmizz.sshj.transport.TransportException;
 
-import com.vmware.admiral.common.security.EncryptionUtils;
-import com.vmware.admiral.common.util.SshUtil.AsyncResult;
-import com.vmware.admiral.common.util.SshUtil.ConsumedResult;
+import com.vmware.admiral.common.util.SshConnectionPool.Lease;
 import com.vmware.xenon.common.Operation;
 import com.vmware.xenon.common.Operation.CompletionHandler;
 import com.vmware.xenon.common.ServiceHost;
+import com.vmware.xenon.common.StatelessService;
+import com.vmware.xenon.common.UriUtils;
 import com.vmware.xenon.services.common.AuthCredentialsService.AuthCredentialsServiceState;
 
 /**
- * Ssh tools optimized for Xenon services usage. All operations execute asynchronously and poll for
- * result, do not hold an open channel, instead the command is executes as background process and
- * persists the output in temporary files until consumed. Such files are later scrapped by a gc.
+ * Ssh tools optimized for Xenon services usage. All operations execute asynchronously on pooled
+ * ssh connections, see {@link SshConnectionPool}. Each command holds a session channel while
+ * running and a blocking reader thread collects its output, the completion handler is called once
+ * the command exits. At most {@link #SSH_MAX_THREADS} commands and uploads run at a time, the
+ * others wait for a thread. Requests waiting for a session channel hold no thread. Uploaded files
+ * can be scheduled to be scrapped by a gc.
+ *
+ * An instance is stopped with {@link #stop()}, the instance shared by the services of a host is
+ * stopped when the host stops.
  */
 public class SshServiceUtil {
     private static Logger logger = Logger.getLogger(SshServiceUtil.class
             .getName());
 
-    public static final String SSH_OP_OUT_PREFIX = "ssh-op-out";
-    public static final String SSH_OP_ERR_PREFIX = "ssh-op-err";
-    public static final String SSH_OP_EXIT_CODE_PREFIX = "ssh-op-exitCode";
-
-    /*
-     * Depending on the load, lowering this may result in better performance for a single operation,
-     * but it will result in higher usage of ssh sessions as well. Change MaxSessions ssh property
-     * accordingly.
-     */
-    public static final int SSH_POLL_MAX_DELAY_SECONDS = Integer.parseInt(
-            System.getProperty("ssh.poll.max_delay", "60"));
     public static final int SSH_OPERATION_TIMEOUT_SHORT = Integer.parseInt(
             System.getProperty("ssh.operation.timeout.short", "15"));
     public static final int SSH_OPERATION_TIMEOUT_LONG = Integer.parseInt(
             System.getProperty("ssh.operation.timeout.long", "300"));
     public static final int SSH_GC_INTERVAL = Integer.parseInt(
             System.getProperty("ssh.gc.interval", "300"));
+    public static final int SSH_MAX_THREADS = Integer.parseInt(
+            System.getProperty("ssh.max_threads", "32"));
+
+    private static final String LIFECYCLE_SERVICE_LINK = UriUtils.buildUriPath("ssh",
+            "service-util");
+
+    private static final Map<ServiceHost, SshServiceUtil> instances = new ConcurrentHashMap<>();
 
     private ServiceHost host;
 
-    private Map<String, SSHClient> clients = new HashMap<>();
+    private final SshConnectionPool pool;
+    // the threads running the commands and reading their output
+    private final ExecutorService executor;
+    // the threads reading the error output of the running commands, one per running command
+    private final ExecutorService errorReaders;
+    private volatile ScheduledFuture<?> maintenance;
+    private volatile boolean stopped;
     public Set<GcData> gcData = ConcurrentHashMap.newKeySet();
 
     public SshServiceUtil(ServiceHost host) {
+        this(host, new SshConnectionPool());
+    }
+
+    public SshServiceUtil(ServiceHost host, SshConnectionPool pool) {
         this.host = host;
-        host.schedule(() -> gcAndReschedule(), SSH_GC_INTERVAL, TimeUnit.SECONDS);
+        this.pool = pool;
+        this.executor = newExecutor("ssh-exec");
+        this.errorReaders = newExecutor("ssh-exec-err");
+        this.maintenance = host.schedule(() -> maintainAndReschedule(), SSH_GC_INTERVAL,
+                TimeUnit.SECONDS);
+    }
+
+    /**
+     * Returns the instance shared by the services of the given host, so that they share the ssh
+     * connections. The instance is stopped when the host stops.
+     */
+    public static SshServiceUtil getInstance(ServiceHost host) {
+        return instances.computeIfAbsent(host, (h) -> {
+            SshServiceUtil sshServiceUtil = new SshServiceUtil(h);
+            h.startService(Operation.createPost(UriUtils.buildUri(h, LIFECYCLE_SERVICE_LINK))
+                    .setReferer(h.getUri()), new LifecycleService(sshServiceUtil));
+            return sshServiceUtil;
+        });
+    }
+
+    /**
+     * Stops the maintenance, the running commands and uploads and closes the connection pool.
+     */
+    public void stop() {
+        stopped = true;
+        instances.remove(host, this);
+        ScheduledFuture<?> maintenance = this.maintenance;
+        if (maintenance != null) {
+            maintenance.cancel(false);
+        }
+        executor.shutdownNow();
+        errorReaders.shutdownNow();
+        pool.close();
+    }
+
+    /**
+     * Wraps a command so that it keeps running when its session is closed, e.g. on timeout. The
+     * output of the command is kept in temp files on the remote host while it runs and is written
+     * to the session output once it exits.
+     */
+    public static String nohup(String command) {
+        String id = UUID.randomUUID().toString();
+        String out = "/tmp/ssh-" + id + ".out";
+        String err = "/tmp/ssh-" + id + ".err";
+        return String.format("nohup /bin/sh -c '%s' > %s 2> %s < /dev/null; rc=$?; cat %s;"
+                + " cat %s >&2; rm -f %s %s; exit $rc", command.replace("'", "'\\''"),
+                out, err, out, err, out, err);
+    }
+
+    public SshConnectionPool getConnectionPool() {
+        return pool;
     }
 
     public void exec(String hostname, AuthCredentialsServiceState credentials,
@@ -86,164 +158,135 @@ public class SshServiceUtil {
             String command,
             final CompletionHandler completionHandler, Function<String, ?> mapper, int timeout,
             TimeUnit unit) {
-        String uuid = UUID.randomUUID().toString();
-        String outStreamFile = "/tmp/" + SSH_OP_OUT_PREFIX + uuid + ".txt";
-        String errStreamFile = "/tmp/" + SSH_OP_ERR_PREFIX + uuid + ".txt";
-        String exitCodeFile = "/tmp/" + SSH_OP_EXIT_CODE_PREFIX + uuid + ".txt";
-
-        SSHClient client;
-        try {
-            client = getSshClient(hostname, credentials);
-        } catch (IOException e) {
-            completionHandler.handle(null, e);
-            return;
-        }
-
-        command = String.format(
-                "nohup /bin/sh -c '%s > %s 2> %s ; echo $? > %s' &>/dev/null & echo $!",
-                escape(command), outStreamFile, errStreamFile, exitCodeFile);
-
-        AsyncResult result = SshUtil.asyncExec(client, command);
-        // Not setting completion handler at constructor so I can use the state id in it (better
-        // log)
-        ExecutionState state = new ExecutionState(result, null, null, timeout,
-                unit);
-        state.handler = (op, failure) -> {
-            if (failure != null) {
-                // Failed to start the process
-                completionHandler.handle(op, failure);
-                return;
-            }
-            String pid = op.getBody(String.class).replace("\n", "");
-            ProcessResultCollector prc = new ProcessResultCollector(pid, completionHandler, mapper);
-            logger.fine(String.format(
-                    "Starting SSH process result collector with id %s for pid %s, origin %s",
-                    prc.id, pid, state.id));
-            pollForProcessCompletion(hostname, credentials, outStreamFile,
-                    errStreamFile, exitCodeFile, prc);
-        };
-
+        String id = UUID.randomUUID().toString();
         logger.fine(
-                String.format("SSH execution %s started on %s: %s", state.id, hostname, command));
-        handleExecInProgress(state);
+                String.format("SSH execution %s started on %s: %s", id, hostname, command));
+
+        // the time waiting for a session counts to the timeout
+        long deadline = System.currentTimeMillis() + unit.toMillis(timeout);
+        CompletionHandler handler = new SingleCallHandler(completionHandler);
+        pool.acquire(hostname, credentials, Math.max(deadline - System.currentTimeMillis(), 1),
+                TimeUnit.MILLISECONDS, executor, (acquired, acquireFailure) -> {
+                    if (acquireFailure != null) {
+                        handler.handle(null, acquireFailure);
+                        return;
+                    }
+                    try (Lease lease = acquired) {
+                        Session session = startSession(lease);
+                        AtomicBoolean timedOut = new AtomicBoolean();
+                        ScheduledFuture<?> timeoutTask = scheduleTimeout(session, timedOut,
+                                deadline - System.currentTimeMillis());
+                        try {
+                            Command cmd = session.exec(command);
+                            Future<String> err = errorReaders.submit(
+                                    () -> SshUtil.readStream(cmd.getErrorStream()));
+                            // blocks until the command closes its output
+                            String out = SshUtil.readStream(cmd.getInputStream());
+                            String errOut = err.get();
+                            cmd.join(SSH_OPERATION_TIMEOUT_SHORT, TimeUnit.SECONDS);
+                            if (timedOut.get()) {
+                                throw new TimeoutException("SSH operation " + id + " timed out");
+                            }
+
+                            Integer exitCode = cmd.getExitStatus();
+                            handleExecResult(id, exitCode == null ? -1 : exitCode, null, out,
+                                    errOut, handler, mapper);
+                        } catch (IOException e) {
+                            if (timedOut.get()) {
+                                throw new TimeoutException("SSH operation " + id + " timed out");
+                            }
+                            throw e;
+                        } finally {
+                            timeoutTask.cancel(false);
+                            session.close();
+                        }
+                    } catch (ExecutionException e) {
+                        handler.handle(null, e.getCause());
+                    } catch (Throwable e) {
+                        handler.handle(null, e);
+                    }
+                });
     }
 
     public void upload(String hostname, AuthCredentialsServiceState credentials, byte[] data,
             String remoteFile, CompletionHandler completionHandler) {
-        Future<Throwable> result = SshUtil.asyncUpload(hostname, credentials,
-                new ByteArrayInputStream(data), remoteFile);
+        CompletionHandler handler = new SingleCallHandler(completionHandler);
+        pool.acquire(hostname, credentials, SSH_OPERATION_TIMEOUT_LONG, TimeUnit.SECONDS,
+                executor, (acquired, acquireFailure) -> {
+                    if (acquireFailure != null) {
+                        handler.handle(null, acquireFailure);
+                        return;
+                    }
+                    File tmp = null;
+                    try (Lease lease = acquired) {
+                        tmp = File.createTempFile("scp-temp", ".tmp");
+                        Files.write(tmp.toPath(), data);
+                        try (SFTPClient sftp = newSftpClient(lease)) {
+                            sftp.put(tmp.getAbsolutePath(), remoteFile);
+                        }
+                    } catch (Throwable e) {
+                        handler.handle(null, e);
+                        return;
+                    } finally {
+                        if (tmp != null && !tmp.delete()) {
+                            tmp.deleteOnExit();
+                        }
+                    }
 
-        handleScpInProgress(
-                new ScpState(hostname, credentials, remoteFile, result, completionHandler,
-                        SSH_OPERATION_TIMEOUT_LONG, TimeUnit.SECONDS));
+                    Operation op = Operation.createPatch(null)
+                            .setBody(new ScpResult(hostname, credentials, remoteFile));
+                    try {
+                        handler.handle(op, null);
+                    } catch (Exception e) {
+                        logger.info("Handler for SCP to " + hostname + " failed: "
+                                + e.getMessage());
+                    }
+                });
     }
 
-    public class ProcessResultCollector {
-        private String id;
-        private String pid;
-        private CompletionHandler completionHandler;
-        private Function<String, ?> mapper;
-
-        // Result data
-        private String out = null;
-        private String err = null;
-        private int exitCode = -99;
-
-        public ProcessResultCollector(String pid, CompletionHandler completionHandler,
-                Function<String, ?> mapper) {
-            super();
-            this.id = UUID.randomUUID().toString();
-            this.pid = pid;
-            this.completionHandler = completionHandler;
-            this.mapper = mapper;
-        }
-
-        public void setOut(String out) {
-            this.out = out;
-            checkDone();
-        }
-
-        public void setErr(String err) {
-            this.err = err;
-            checkDone();
-        }
-
-        public void setExitCode(int exitCode) {
-            this.exitCode = exitCode;
-            checkDone();
-        }
+    private static ExecutorService newExecutor(String threadName) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(SSH_MAX_THREADS, SSH_MAX_THREADS,
+                1, TimeUnit.MINUTES, new LinkedBlockingQueue<>(), r -> {
+                    Thread t = new Thread(r, threadName);
+                    t.setDaemon(true);
+                    return t;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
 
-        public void checkDone() {
-            if (out != null && err != null && exitCode != -99) {
-                handleExecResult(id, exitCode, null, out, err, completionHandler, mapper);
-            }
+    private Session startSession(Lease lease) throws ConnectionException, TransportException {
+        try {
+            return lease.getClient().startSession();
+        } catch (ConnectionException | TransportException e) {
+            // the connection is broken, do not reuse it
+            lease.invalidate();
+            throw e;
         }
     }
 
-    public void pollForProcessCompletion(String hostname, AuthCredentialsServiceState credentials,
-            String outStreamFile,
-            String errStreamFile, String exitCodeFile, ProcessResultCollector prc) {
-
-        SSHClient client;
+    private SFTPClient newSftpClient(Lease lease) throws IOException {
         try {
-            client = getSshClient(hostname, credentials);
-        } catch (IOException e) {
-            prc.completionHandler.handle(null, e);
-            return;
+            return lease.getClient().newSFTPClient();
+        } catch (ConnectionException | TransportException e) {
+            lease.invalidate();
+            throw e;
         }
+    }
 
-        String command = String.format("ps -aux | awk '{print $2}' | { grep -w %s || true; }",
-                prc.pid);
-        AsyncResult result = SshUtil.asyncExec(client, command);
-        ExecutionState state = new ExecutionState(result, (op, failure) -> {
-            if (failure != null) {
-                prc.completionHandler.handle(op, failure);
-                return;
-            }
-            String pidOrEmpty = op.getBody(String.class).replace("\n", "");
-            if (pidOrEmpty.equals("")) {
-                // Process exited, collect data
-
-                AsyncResult outOp = SshUtil.asyncExec(client, "cat " + outStreamFile);
-                handleExecInProgress(new ExecutionState(outOp, (op1, failure1) -> {
-                    if (failure1 != null) {
-                        prc.completionHandler.handle(null, failure1);
-                        return;
-                    }
-                    prc.setOut(op1.getBody(String.class));
-                }, null, SSH_OPERATION_TIMEOUT_SHORT, TimeUnit.SECONDS));
-                AsyncResult errOp = SshUtil.asyncExec(client, "cat " + errStreamFile);
-                handleExecInProgress(new ExecutionState(errOp, (op1, failure1) -> {
-                    if (failure1 != null) {
-                        prc.completionHandler.handle(null, failure1);
-                        return;
-                    }
-                    prc.setErr(op1.getBody(String.class));
-                }, null, SSH_OPERATION_TIMEOUT_SHORT, TimeUnit.SECONDS));
-                AsyncResult exitCodeOp = SshUtil.asyncExec(client, "cat " + exitCodeFile);
-                handleExecInProgress(new ExecutionState(exitCodeOp, (op1, failure1) -> {
-                    if (failure1 != null) {
-                        prc.completionHandler.handle(null, failure1);
-                        return;
-                    }
-                    prc.setExitCode(Integer.parseInt(op1.getBody(String.class).replace("\n", "")));
-                }, null, SSH_OPERATION_TIMEOUT_SHORT, TimeUnit.SECONDS));
-
-                gcData.add(new GcData(hostname, credentials, outStreamFile));
-                gcData.add(new GcData(hostname, credentials, errStreamFile));
-                gcData.add(new GcData(hostname, credentials, exitCodeFile));
-            } else {
-                // Try again in 10 seconds
-                logger.fine("Reschedule process polling with id " + prc.id);
-                host.schedule(() -> {
-                    pollForProcessCompletion(hostname, credentials, outStreamFile, errStreamFile,
-                            exitCodeFile, prc);
-                }, 10, TimeUnit.SECONDS);
+    /**
+     * Closes the session when the timeout elapses, unblocking the reader of the output.
+     */
+    private ScheduledFuture<?> scheduleTimeout(Session session, AtomicBoolean timedOut,
+            long timeoutMillis) {
+        return host.schedule(() -> {
+            timedOut.set(true);
+            try {
+                session.close();
+            } catch (IOException e) {
+                logger.fine("Failed to close timed out ssh session: " + e.getMessage());
             }
-        }, null, SSH_OPERATION_TIMEOUT_SHORT, TimeUnit.SECONDS);
-        logger.fine(
-                String.format("SSH execution %s started on %s: %s", state.id, hostname, command));
-        handleExecInProgress(state);
+        }, Math.max(timeoutMillis, 1), TimeUnit.MILLISECONDS);
     }
 
     private static void handleExecResult(String id, int exitCode, Throwable error, String out,
@@ -279,193 +322,25 @@ public class SshServiceUtil {
         }
     }
 
-    private void handleExecInProgress(ExecutionState state) {
-        if (state.result.isDone()) {
-            ConsumedResult consumed = null;
-            try {
-                consumed = state.result.join().consume();
-                handleExecResult(state.id, consumed.exitCode, consumed.error, consumed.out,
-                        consumed.err, state.handler, state.mapper);
-            } catch (IOException e) {
-                state.handler.handle(null, e);
-                return;
-            }
-        } else {
-            int delay = state.nextDelay();
-            if (state.isTimeout()) {
-                state.handler.handle(null,
-                        new TimeoutException("SSH operation " + state.id + " timed out"));
-                return;
-            }
-            host.schedule(() -> {
-                handleExecInProgress(state);
-            }, delay, TimeUnit.SECONDS);
-        }
-    }
-
-    private void handleScpInProgress(ScpState state) {
-        if (state.result.isDone()) {
-            Throwable error = null;
-            try {
-                error = state.result.get();
-            } catch (InterruptedException | ExecutionException e) {
-                try {
-                    state.handler.handle(null, e);
-                } catch (Exception e1) {
-                    logger.info("Handler for SSH state " + state.id + " failed: "
-                            + e1.getMessage());
-                }
-            }
-            Operation op = Operation.createPatch(null)
-                    .setBody(new ScpResult(state.hostname, state.credentials, state.target));
-            try {
-                state.handler.handle(op, error);
-            } catch (Exception e) {
-                logger.info("Handler for SSH state " + state.id + " failed.");
-            }
-        } else {
-            int delay = state.nextDelay();
-            if (state.isTimeout()) {
-                state.handler.handle(null,
-                        new TimeoutException("SCP operation " + state.id + " timed out"));
-                return;
-            }
-            host.schedule(() -> {
-                handleScpInProgress(state);
-            }, delay, TimeUnit.SECONDS);
-        }
-    }
-
-    private static class SshOperationState {
-        public String id = UUID.randomUUID().toString();
-
-        private int delay = 1;
-
-        private long endTime;
-
-        public SshOperationState(int timeout, TimeUnit unit) {
-            endTime = unit.toMillis(timeout) + System.currentTimeMillis();
-        }
-
-        @Override
-        public boolean equals(Object obj) {
-            if (obj == null) {
-                return false;
-            }
-            if (id == null) {
-                return false;
-            }
-            if (!(obj.getClass().equals(getClass()))) {
-                return false;
-            }
-
-            return id.equals(((SshOperationState) obj).id);
-        }
-
-        @Override
-        public int hashCode() {
-            if (id == null) {
-                return -1;
-            }
-
-            return id.hashCode();
-        }
-
-        public int nextDelay() {
-            delay *= 2;
-            if (delay > SSH_POLL_MAX_DELAY_SECONDS) {
-                delay = SSH_POLL_MAX_DELAY_SECONDS;
-            }
-            return delay;
-        }
-
-        public boolean isTimeout() {
-            if (System.currentTimeMillis() > endTime) {
-                return true;
-            }
-
-            return false;
-        }
-    }
-
-    public static class ExecutionState extends SshOperationState {
-        public AsyncResult result;
-        public CompletionHandler handler;
-        public Function<String, ?> mapper;
-
-        public ExecutionState(AsyncResult result, CompletionHandler handler,
-                Function<String, ?> mapper, int timeout, TimeUnit unit) {
-            super(timeout, unit);
-            this.result = result;
-            this.handler = handler;
-            this.mapper = mapper;
-        }
-
-        @Override
-        public boolean equals(Object obj) {
-            if (obj == null) {
-                return false;
-            }
-            if (id == null) {
-                return false;
-            }
-            if (!(obj.getClass().equals(getClass()))) {
-                return false;
-            }
-
-            return id.equals(((ExecutionState) obj).id);
-        }
-
-        @Override
-        public int hashCode() {
-            if (id == null) {
-                return -1;
-            }
-
-            return id.hashCode();
-        }
-    }
-
-    public static class ScpState extends SshOperationState {
-        public String hostname;
-        public AuthCredentialsServiceState credentials;
-        public String target;
-        public Future<Throwable> result;
-        public CompletionHandler handler;
+    /**
+     * Calls the wrapped handler at most once. A failure thrown by the handler itself is logged
+     * instead of being reported to the handler again.
+     */
+    private static class SingleCallHandler implements CompletionHandler {
+        private final CompletionHandler handler;
+        private final AtomicBoolean called = new AtomicBoolean();
 
-        public ScpState(String hostname, AuthCredentialsServiceState credentials, String target,
-                Future<Throwable> result, CompletionHandler handler,
-                int timeout, TimeUnit unit) {
-            super(timeout, unit);
-            this.hostname = hostname;
-            this.credentials = credentials;
-            this.result = result;
+        SingleCallHandler(CompletionHandler handler) {
             this.handler = handler;
-            this.target = target;
-        }
-
-        @Override
-        public boolean equals(Object obj) {
-            if (obj == null) {
-                return false;
-            }
-            if (id == null) {
-                return false;
-            }
-            if (!(obj.getClass().equals(getClass()))) {
-                return false;
-            }
-
-            return id.equals(((ScpState) obj).id);
         }
 
         @Override
-        public int hashCode() {
-            if (id == null) {
-                return -1;
+        public void handle(Operation op, Throwable failure) {
+            if (called.compareAndSet(false, true)) {
+                handler.handle(op, failure);
+            } else if (failure != null) {
+                logger.info("Handler of ssh operation failed: " + failure.getMessage());
             }
-
-            return id.hashCode();
         }
     }
 
@@ -501,23 +376,48 @@ public class SshServiceUtil {
         }
     }
 
-    private void gcAndReschedule() {
+    private void maintainAndReschedule() {
+        if (stopped || host.isStopping()) {
+            return;
+        }
         try {
             gc();
+            pool.evictIdle();
         } catch (Exception e) {
             logger.info("Failed to SSH garbage collect: " + e.getMessage());
         }
-        host.schedule(() -> gc(), SSH_GC_INTERVAL, TimeUnit.SECONDS);
+        maintenance = host.schedule(() -> maintainAndReschedule(), SSH_GC_INTERVAL,
+                TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stops the shared instance of the host when the host stops.
+     */
+    private static class LifecycleService extends StatelessService {
+        private final SshServiceUtil sshServiceUtil;
+
+        private LifecycleService(SshServiceUtil sshServiceUtil) {
+            this.sshServiceUtil = sshServiceUtil;
+        }
+
+        @Override
+        public void handleStop(Operation delete) {
+            sshServiceUtil.stop();
+            delete.complete();
+        }
     }
 
     public void gc() {
+        if (gcData.isEmpty()) {
+            return;
+        }
         logger.info("SSH gc triggered");
         Map<String, List<GcData>> tasks = new HashMap<>();
         List<GcData> toRemove = new ArrayList<>();
 
         // Sort files by hostname and credentials in tasks
         for (GcData data : gcData) {
-            String id = getSshClientId(data.hostname, data.credentials);
+            String id = SshConnectionPool.getKey(data.hostname, data.credentials);
             if (tasks.get(id) == null) {
                 tasks.put(id, new ArrayList<GcData>());
             }
@@ -535,47 +435,15 @@ public class SshServiceUtil {
             // All data in a task has the same ssh client id, hostname and credentials are identical
             GcData t = task.iterator().next();
             String hostname = t.hostname;
-            AuthCredentialsServiceState credentials = t.credentials;
-            SSHClient client = null;
-            try {
-                client = getSshClient(hostname, credentials);
-            } catch (IOException e) {
-                logger.info("SSH garbage collection failed: " + e.getMessage());
-                return;
-            }
             logger.fine(
                     String.format("Executing SSH garbage collection on %s: %s", hostname, command));
-            AsyncResult result = SshUtil.asyncExec(client, command.toString());
-            handleExecInProgress(new ExecutionState(result, (completedOp, failure) -> {
+            exec(hostname, t.credentials, command.toString(), (completedOp, failure) -> {
                 if (failure != null) {
                     logger.info("SSH garbage collection failed: " + failure.getMessage());
                     return;
                 }
                 logger.info("SSH garbage collection for " + hostname + " success!");
-            }, null, SSH_OPERATION_TIMEOUT_SHORT, TimeUnit.SECONDS));
+            }, SSH_OPERATION_TIMEOUT_SHORT, TimeUnit.SECONDS);
         }
     }
-
-    private SSHClient getSshClient(String hostname, AuthCredentialsServiceState creds)
-            throws IOException {
-        String id = getSshClientId(hostname, creds);
-        synchronized (clients) {
-            SSHClient client = clients.get(id);
-            if (client == null || !client.isConnected()) {
-                client = SshUtil.getDefaultSshClient(hostname, creds);
-                clients.put(id, client);
-                return client;
-            }
-
-            return client;
-        }
-    }
-
-    private String getSshClientId(String hostname, AuthCredentialsServiceState creds) {
-        return creds.userEmail + "@" + hostname + ":" + EncryptionUtils.decrypt(creds.privateKey);
-    }
-
-    private String escape(String command) {
-        return command.replace("'", "'\"'\"'");
-    }
-}
\ No newline at end of file
+}
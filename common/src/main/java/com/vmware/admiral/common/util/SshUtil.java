@@ -195,11 +195,21 @@ public class SshUtil {
         return es.submit(() -> upload(hostname, credentials, stream, remotePath));
     }
 
+    /**
+     * Connects to the given host, a non default port can be given as "hostname:port".
+     */
     public static SSHClient getDefaultSshClient(String hostname,
             AuthCredentialsServiceState credentials) throws IOException {
         SSHClient client = new SSHClient();
         client.addHostKeyVerifier(new InsecureHostkeyVerifier());
-        client.connect(hostname);
+        int portIndex = hostname.lastIndexOf(':');
+        if (portIndex > 0 && portIndex == hostname.indexOf(':')) {
+            // not an IPv6 address
+            client.connect(hostname.substring(0, portIndex),
+                    Integer.parseInt(hostname.substring(portIndex + 1)));
+        } else {
+            client.connect(hostname);
+        }
         String privateKey = EncryptionUtils.decrypt(credentials.privateKey);
         if (credentials.type != null && credentials.type.equals("PublicKey")) {
             OpenSSHKeyFile openSSHKeyFile = new OpenSSHKeyFile();
@@ -326,7 +336,7 @@ public class SshUtil {
 
     }
 
-    private static String readStream(InputStream is) throws IOException {
+    static String readStream(InputStream is) throws IOException {
         if (is == null) {
             return null;
         }
@@ -0,0 +1,318 @@
+/*
+ * Copyright (c) 2016 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.common.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.Service.Action;
+import com.vmware.xenon.common.ServiceHost;
+import com.vmware.xenon.common.ServiceSubscriptionState.ServiceSubscriber;
+import com.vmware.xenon.common.StatelessService;
+import com.vmware.xenon.common.UriUtils;
+import com.vmware.xenon.common.Utils;
+
+/**
+ * Node local hub keeping a single subscription per subscribed service link and dispatching its
+ * notifications to all the local listeners of that link. The subscription is created with the
+ * first listener and removed with the last one, so many listeners of the same service do not
+ * each create a subscription and receive the same notifications.
+ *
+ * The notification operations are completed by the hub once dispatched, the listeners must not
+ * complete them. When the subscribed service is deleted the subscription and its listeners are
+ * removed after the delete notification is dispatched.
+ *
+ * The hub of a host is kept until the host is stopped, so all the users of the host share the same
+ * hub. The links of the notification targets are unique across the hubs.
+ */
+public class SubscriptionHub {
+    private static final String SUBSCRIPTION_TARGET_PATH = UriUtils.buildUriPath(
+            "subscriptions", "hub");
+
+    private static final Map<ServiceHost, SubscriptionHub> hubs = new ConcurrentHashMap<>();
+    private static final AtomicLong targetIds = new AtomicLong();
+
+    private final ServiceHost host;
+    private final AtomicLong listenerIds = new AtomicLong();
+
+    // the subscriptions by subscribed service link, guarded by the hub monitor
+    private final Map<String, Subscription> subscriptions = new HashMap<>();
+
+    private static class Subscription {
+        final String serviceLink;
+        // the dispatch table of the local listeners by listener id
+        final Map<Long, Consumer<Operation>> listeners = new ConcurrentHashMap<>();
+        final List<Consumer<Throwable>> pendingCompletions = new ArrayList<>();
+        String targetLink;
+        boolean active;
+
+        Subscription(String serviceLink) {
+            this.serviceLink = serviceLink;
+        }
+    }
+
+    private SubscriptionHub(ServiceHost host) {
+        this.host = host;
+    }
+
+    /**
+     * Returns the hub of the given host, created on first use and removed when the host stops.
+     */
+    public static SubscriptionHub getInstance(ServiceHost host) {
+        AssertUtil.assertNotNull(host, "serviceHost");
+        SubscriptionHub hub = hubs.get(host);
+        if (hub != null) {
+            return hub;
+        }
+
+        SubscriptionHub created = new SubscriptionHub(host);
+        hub = hubs.putIfAbsent(host, created);
+        if (hub != null) {
+            return hub;
+        }
+        host.startService(Operation.createPost(UriUtils.buildUri(host, SUBSCRIPTION_TARGET_PATH))
+                .setReferer(host.getUri()), new HubLifecycleService(created));
+        return created;
+    }
+
+    /**
+     * Adds a listener for the notifications of the given service. The completion handler is
+     * called with <code>null</code> once the subscription is active or with the failure to
+     * subscribe, in which case the listener is removed.
+     *
+     * @return the id of the listener, to be used when unsubscribing.
+     */
+    public long subscribe(String serviceLink, Consumer<Operation> listener,
+            Consumer<Throwable> completionHandler) {
+        AssertUtil.assertNotEmpty(serviceLink, "serviceLink");
+        AssertUtil.assertNotNull(listener, "listener");
+
+        long listenerId = listenerIds.incrementAndGet();
+        boolean active;
+        boolean created;
+        Subscription subscription;
+        synchronized (this) {
+            subscription = subscriptions.get(serviceLink);
+            created = subscription == null;
+            if (created) {
+                subscription = new Subscription(serviceLink);
+                subscription.targetLink = UriUtils.buildUriPath(SUBSCRIPTION_TARGET_PATH,
+                        Long.toString(targetIds.incrementAndGet()));
+                subscriptions.put(serviceLink, subscription);
+            }
+            subscription.listeners.put(listenerId, listener);
+            active = subscription.active;
+            if (!active && completionHandler != null) {
+                subscription.pendingCompletions.add(completionHandler);
+            }
+        }
+
+        if (created) {
+            startSubscription(subscription);
+        } else if (active && completionHandler != null) {
+            completionHandler.accept(null);
+        }
+        return listenerId;
+    }
+
+    /**
+     * Removes a listener, the subscription is removed with its last listener. The completion
+     * handler is called with <code>null</code> or with the failure to unsubscribe.
+     */
+    public void unsubscribe(String serviceLink, long listenerId,
+            Consumer<Throwable> completionHandler) {
+        Subscription subscription;
+        synchronized (this) {
+            subscription = subscriptions.get(serviceLink);
+            if (subscription == null || subscription.listeners.remove(listenerId) == null
+                    || !subscription.listeners.isEmpty() || !subscription.active) {
+                // still used, or removed once subscribed
+                subscription = null;
+            } else {
+                subscriptions.remove(serviceLink);
+            }
+        }
+
+        if (subscription == null) {
+            if (completionHandler != null) {
+                completionHandler.accept(null);
+            }
+            return;
+        }
+        stopSubscription(subscription, completionHandler);
+    }
+
+    /**
+     * Returns the number of subscriptions of this hub.
+     */
+    public synchronized int getSubscriptionCount() {
+        return subscriptions.size();
+    }
+
+    /**
+     * Returns the number of listeners of the given service.
+     */
+    public synchronized int getListenerCount(String serviceLink) {
+        Subscription subscription = subscriptions.get(serviceLink);
+        return subscription == null ? 0 : subscription.listeners.size();
+    }
+
+    /**
+     * Returns the link of the service receiving the notifications of the given service.
+     */
+    public synchronized String getSubscriptionLink(String serviceLink) {
+        Subscription subscription = subscriptions.get(serviceLink);
+        return subscription == null ? null : subscription.targetLink;
+    }
+
+    private void startSubscription(Subscription subscription) {
+        host.registerForServiceAvailability((o, e) -> {
+            if (e != null) {
+                host.log(Level.SEVERE, "Error waiting for service: %s. Error: %s",
+                        subscription.serviceLink, Utils.toString(e));
+            }
+
+            Operation subscribe = Operation
+                    .createPost(UriUtils.buildSubscriptionUri(host, subscription.serviceLink))
+                    .addPragmaDirective(Operation.PRAGMA_DIRECTIVE_SKIPPED_NOTIFICATIONS)
+                    .setReferer(host.getUri())
+                    .setCompletion((so, se) -> subscribed(subscription, se));
+
+            StatelessService notificationTarget = new NotificationTargetService(this,
+                    subscription);
+            notificationTarget.setSelfLink(subscription.targetLink);
+
+            boolean replayState = false;
+            boolean usePublicUri = false;
+            ServiceSubscriber sr = ServiceSubscriber.create(replayState)
+                    .setUsePublicUri(usePublicUri);
+            host.startSubscriptionService(subscribe, notificationTarget, sr);
+        }, subscription.serviceLink);
+    }
+
+    private void subscribed(Subscription subscription, Throwable e) {
+        if (e != null) {
+            Utils.logWarning("Error subscribing for: %s. Error: %s",
+                    subscription.serviceLink, Utils.toString(e));
+        }
+
+        List<Consumer<Throwable>> completions;
+        boolean idle;
+        synchronized (this) {
+            completions = new ArrayList<>(subscription.pendingCompletions);
+            subscription.pendingCompletions.clear();
+            subscription.active = e == null;
+            idle = subscription.listeners.isEmpty();
+            if (e != null || idle) {
+                subscription.listeners.clear();
+                subscriptions.remove(subscription.serviceLink, subscription);
+            }
+        }
+
+        if (e == null && idle) {
+            // all the listeners left while subscribing
+            stopSubscription(subscription, null);
+        }
+        for (Consumer<Throwable> completion : completions) {
+            completion.accept(e);
+        }
+    }
+
+    private void stopSubscription(Subscription subscription,
+            Consumer<Throwable> completionHandler) {
+        Operation unsubscribe = Operation
+                .createDelete(UriUtils.buildSubscriptionUri(host, subscription.serviceLink))
+                .setReferer(host.getUri())
+                .setCompletion((o, e) -> {
+                    if (e != null) {
+                        Utils.logWarning("Error unsubscribing from: %s. Error: %s",
+                                o.getUri(), Utils.toString(e));
+                    }
+
+                    if (completionHandler != null) {
+                        completionHandler.accept(e);
+                    }
+                });
+
+        host.stopSubscriptionService(unsubscribe,
+                UriUtils.buildUri(host, subscription.targetLink));
+    }
+
+    private void dispatch(Subscription subscription, Operation notification) {
+        for (Consumer<Operation> listener : subscription.listeners.values()) {
+            try {
+                listener.accept(notification);
+            } catch (Throwable e) {
+                Utils.logWarning("Error handling notifications. Error: %s", Utils.toString(e));
+            }
+        }
+
+        if (Action.DELETE == notification.getAction()) {
+            // the subscription is already deleted with the deletion of the document
+            synchronized (this) {
+                subscriptions.remove(subscription.serviceLink, subscription);
+            }
+        }
+    }
+
+    /**
+     * Removes the hub of the host when the host stops.
+     */
+    private static class HubLifecycleService extends StatelessService {
+        private final SubscriptionHub hub;
+
+        private HubLifecycleService(SubscriptionHub hub) {
+            this.hub = hub;
+        }
+
+        @Override
+        public void handleStop(Operation delete) {
+            hubs.remove(hub.host, hub);
+            delete.complete();
+        }
+    }
+
+    private static class NotificationTargetService extends StatelessService {
+        private final SubscriptionHub hub;
+        private final Subscription subscription;
+
+        private NotificationTargetService(SubscriptionHub hub, Subscription subscription) {
+            this.hub = hub;
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void handleRequest(Operation op) {
+            if (Action.DELETE == op.getAction() && !op.hasBody()) {
+                // service stopped. no changes to the state.
+                op.complete();
+                return;
+            }
+
+            logFine("Notification received for action: [%s] and uri: [%s]",
+                    op.getAction(), op.getUri());
+            hub.dispatch(subscription, op);
+            op.complete();
+
+            if (Action.DELETE == op.getAction()) {
+                getHost().stopService(this);
+            }
+        }
+    }
+}
@@ -14,25 +14,23 @@ package com.vmware.admiral.common.util;
 import java.io.Closeable;
 import java.net.URI;
 import java.util.concurrent.CancellationException;
-import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 import java.util.logging.Level;
 
 import com.vmware.admiral.common.util.SubscriptionManager.SubscriptionNotification.NotificationOperation;
 import com.vmware.xenon.common.Operation;
-import com.vmware.xenon.common.Service;
+import com.vmware.xenon.common.Service.Action;
 import com.vmware.xenon.common.ServiceDocument;
 import com.vmware.xenon.common.ServiceHost;
-import com.vmware.xenon.common.ServiceSubscriptionState.ServiceSubscriber;
-import com.vmware.xenon.common.StatelessService;
 import com.vmware.xenon.common.UriUtils;
 import com.vmware.xenon.common.Utils;
 
 /**
  * A helper class to extract and manage the common service subscription operations. This class
  * implements subscription polling strategy that if enabled will switch from notification to polling
- * for notification.
+ * for notification. The notification subscriptions are shared by the instances subscribed for the
+ * same service, see {@link SubscriptionHub}.
  */
 public class SubscriptionManager<T extends ServiceDocument> implements Closeable {
     private static final boolean SUBSCRIPTION_POLLING_STRATEGY = Boolean
@@ -45,11 +43,11 @@ public class SubscriptionManager<T extends ServiceDocument> implements Closeable
     private final String subscribeForServiceLink;
     private final boolean subscribeForNotifications;
     private final ServiceDocumentQuery<T> documentQuery;
-    private final String uniqueSubscriptionId;
     private final Class<T> type;
     private volatile boolean stopPolling;
     private volatile long schedulingPeriodInMillis = DEFAULT_SUBSCRIPTION_POLLING_PERIOD_MILLIS;
     private volatile String subscriptionLink;
+    private volatile Long listenerId;
 
     /* Last time the document was update in microseconds since UNIX epoch */
     private volatile long documentUpdateTimeMicros;
@@ -70,7 +68,6 @@ public class SubscriptionManager<T extends ServiceDocument> implements Closeable
         AssertUtil.assertNotNull(uniqueSubscriptionId, "uniqueSubscriptionId");
         this.host = host;
         this.type = type;
-        this.uniqueSubscriptionId = uniqueSubscriptionId;
         this.subscribeForServiceLink = subscribeForServiceLink;
         this.subscribeForNotifications = useSubscriptionPollingStrategy ?
                 !SUBSCRIPTION_POLLING_STRATEGY : true;
@@ -137,66 +134,37 @@ public class SubscriptionManager<T extends ServiceDocument> implements Closeable
             return null;
         }
 
-        CountDownLatch countDown = new CountDownLatch(1);
-
-        host.registerForServiceAvailability((o, e) -> {
-            if (e != null) {
-                host.log(Level.SEVERE, "Error waiting for service: %s. Error: %s",
-                        subscribeForServiceLink, Utils.toString(e));
-            }
-            countDown.countDown();
-
-        }, subscribeForServiceLink);
-
-        boolean waited;
-        try {
-            waited = countDown.await(10, TimeUnit.SECONDS);
-            if (!waited) {
-                host.log(Level.WARNING, "Waiting for subscription timedout: %s",
-                        subscribeForServiceLink);
-            }
-        } catch (InterruptedException ex) {
-            host.log(Level.WARNING, "Thred interrupted: %s", Utils.toString(ex));
-        }
-
-        Operation subscribe = Operation
-                .createPost(buildSubscribeForUri())
-                .addPragmaDirective(Operation.PRAGMA_DIRECTIVE_SKIPPED_NOTIFICATIONS)
-                .setReferer(host.getUri())
-                .setCompletion((o, e) -> {
-                    if (e != null) {
-                        Utils.logWarning("Error subscribing for: %s. Error: %s",
-                                subscribeForServiceLink, Utils.toString(e));
-                    }
-
+        SubscriptionHub hub = SubscriptionHub.getInstance(host);
+        this.listenerId = hub.subscribe(subscribeForServiceLink,
+                (o) -> handleNotification(o, notificationHandler),
+                (e) -> {
                     if (completionHandler != null) {
                         // the handler should be called in both cases success or error
                         completionHandler.accept(e);
                     }
                 });
+        this.subscriptionLink = hub.getSubscriptionLink(subscribeForServiceLink);
+        return subscriptionLink;
+    }
 
-        StatelessService notificationTarget = new NotificationStatelessServiceHandler<T>(this,
-                notificationHandler);
-
-        // make sure the subscription is idempotent using the id of the service to subscribe for
-        notificationTarget.setSelfLink(UriUtils.buildUriPath("subscriptions",
-                uniqueSubscriptionId, "resource",
-                Service.getId(subscribeForServiceLink)));
-        try {
-            // don't expect exception but in case something happen should not stop the subscription
-            // process
-            host.stopService(notificationTarget);
-        } catch (Throwable e) {
-            Utils.logWarning("Error while stopping the a subscription service %s",
-                    Utils.toString(e));
+    private void handleNotification(Operation op,
+            Consumer<SubscriptionNotification<T>> notificationHandler) {
+        SubscriptionNotification<T> notification = new SubscriptionNotification<>();
+        if (Action.DELETE == op.getAction()) {
+            notification.operation = NotificationOperation.DELETE;
+            // the subscription is already deleted with the deletion of the document
+            // just reset the subscription link.
+            this.subscriptionLink = null;
+            this.listenerId = null;
+        } else {
+            notification.operation = NotificationOperation.UPDATE;
         }
 
-        boolean replayState = false;
-        boolean usePublicUri = false;
-        ServiceSubscriber sr = ServiceSubscriber.create(replayState).setUsePublicUri(usePublicUri);
-        host.startSubscriptionService(subscribe, notificationTarget, sr);
-        this.subscriptionLink = notificationTarget.getSelfLink();
-        return subscriptionLink;
+        if (op.hasBody()) {
+            // the notification is shared by the listeners of the service
+            notification.result = Utils.clone(op.getBody(type));
+        }
+        notificationHandler.accept(notification);
     }
 
     private void schedulePolling(Consumer<SubscriptionNotification<T>> notificationHandler) {
@@ -282,6 +250,22 @@ public class SubscriptionManager<T extends ServiceDocument> implements Closeable
             return;
         }
 
+        Consumer<Throwable> unsubscribeCompletion = (e) -> {
+            if (completionHandler != null) {
+                // the completion handler should be called in both cases: error or success:
+                completionHandler.accept(e);
+            }
+        };
+
+        Long listenerId = this.listenerId;
+        if (listenerId != null) {
+            this.listenerId = null;
+            SubscriptionHub.getInstance(host).unsubscribe(subscribeForServiceLink, listenerId,
+                    unsubscribeCompletion);
+            return;
+        }
+
+        // a subscription started by another instance, see setSubscriptionLink
         Operation unSubscribe = Operation.createDelete(buildSubscribeForUri())
                 .setReferer(host.getUri())
                 .setCompletion((o, e) -> {
@@ -289,11 +273,7 @@ public class SubscriptionManager<T extends ServiceDocument> implements Closeable
                         Utils.logWarning("Error unsubscribing from: %s. Error: %s",
                                 o.getUri(), Utils.toString(e));
                     }
-
-                    if (completionHandler != null) {
-                        // the completion handler should be called in both cases: error or success:
-                        completionHandler.accept(e);
-                    }
+                    unsubscribeCompletion.accept(e);
                 });
 
         host.stopSubscriptionService(unSubscribe, UriUtils.buildUri(host, subscriptionLink));
@@ -303,50 +283,6 @@ public class SubscriptionManager<T extends ServiceDocument> implements Closeable
         return UriUtils.buildSubscriptionUri(host, subscribeForServiceLink);
     }
 
-    private static class NotificationStatelessServiceHandler<T extends ServiceDocument> extends
-            StatelessService {
-        private final SubscriptionManager<T> subscriptionManager;
-        private final Consumer<SubscriptionNotification<T>> notificationHandler;
-
-        private NotificationStatelessServiceHandler(SubscriptionManager<T> subscriptionManager,
-                Consumer<SubscriptionNotification<T>> notificationHandler) {
-            this.subscriptionManager = subscriptionManager;
-            this.notificationHandler = notificationHandler;
-        }
-
-        @Override
-        public void handleRequest(Operation op) {
-            try {
-                logInfo("Notification received for action: [%s] and uri: [%s]",
-                        op.getAction(), op.getUri());
-                SubscriptionNotification<T> notification = new SubscriptionNotification<>();
-
-                if (Action.DELETE == op.getAction()) {
-                    if (!op.hasBody()) { // service stopped. no changes to the state.
-                        op.complete();
-                        return;
-                    } else {
-                        notification.operation = NotificationOperation.DELETE;
-                        // the subscription is already deleted with the deletion of the document
-                        // just reset the subscription link.
-                        subscriptionManager.subscriptionLink = null;
-                    }
-                } else {
-                    notification.operation = NotificationOperation.UPDATE;
-                }
-
-                if (op.hasBody()) {
-                    notification.result = op.getBody(subscriptionManager.type);
-                }
-                notificationHandler.accept(notification);
-                op.complete();
-            } catch (Throwable e) {
-                Utils.logWarning("Error handling notifications. Error: %s", Utils.toString(e));
-                op.fail(e);
-            }
-        }
-    }
-
     public static class SubscriptionNotification<T extends com.vmware.xenon.common.ServiceDocument> {
         public static enum NotificationOperation {
             UPDATE, DELETE;
@@ -17,16 +17,21 @@ import com.vmware.admiral.service.common.ClusterMonitoringService;
 import com.vmware.admiral.service.common.CommonInitialBootService;
 import com.vmware.admiral.service.common.ConfigurationService.ConfigurationFactoryService;
 import com.vmware.admiral.service.common.CounterSubTaskService;
+import com.vmware.admiral.service.common.DocumentCacheService;
+import com.vmware.admiral.service.common.LogChunkService;
 import com.vmware.admiral.service.common.LogService;
 import com.vmware.admiral.service.common.RegistryService;
+import com.vmware.admiral.service.common.ResourceNamePrefixLeaseService;
 import com.vmware.admiral.service.common.ResourceNamePrefixService;
 import com.vmware.admiral.service.common.ReverseProxyService;
 import com.vmware.admiral.service.common.SslTrustCertificateFactoryService;
 import com.vmware.admiral.service.common.SslTrustImportService;
+import com.vmware.admiral.service.common.TaskMetricsService;
 import com.vmware.xenon.common.Operation;
 import com.vmware.xenon.common.ServiceDocument;
 import com.vmware.xenon.common.ServiceHost;
 import com.vmware.xenon.common.UriUtils;
+import com.vmware.xenon.services.common.AuthCredentialsService.AuthCredentialsServiceState;
 
 public class HostInitCommonServiceConfig extends HostInitServiceHelper {
 
@@ -36,12 +41,18 @@ public class HostInitCommonServiceConfig extends HostInitServiceHelper {
                 ConfigurationFactoryService.class,
                 SslTrustCertificateFactoryService.class,
                 CommonInitialBootService.class,
-                ReverseProxyService.class);
+                ReverseProxyService.class,
+                ResourceNamePrefixLeaseService.class,
+                DocumentCacheService.class,
+                TaskMetricsService.class);
 
         startServiceFactories(host, ResourceNamePrefixService.class, RegistryService.class,
-                LogService.class, EventLogService.class,
+                LogService.class, LogChunkService.class, EventLogService.class,
                 CounterSubTaskService.class, AuthBootstrapService.class);
 
+        DocumentCacheService.registerDocumentType(AuthCredentialsServiceState.class,
+                DocumentCacheService.DEFAULT_TTL_MICROS);
+
         // start initialization of system documents
         host.sendRequest(Operation.createPost(
                 UriUtils.buildUri(host, CommonInitialBootService.class))
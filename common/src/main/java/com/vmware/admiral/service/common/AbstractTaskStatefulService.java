@@ -18,6 +18,8 @@ import java.util.Collections;
 import java.util.Set;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 
 import com.vmware.admiral.common.util.QueryUtil;
@@ -31,6 +33,10 @@ import com.vmware.xenon.common.TaskState;
 import com.vmware.xenon.common.TaskState.TaskStage;
 import com.vmware.xenon.common.UriUtils;
 import com.vmware.xenon.common.Utils;
+import com.vmware.xenon.services.common.NodeGroupService.NodeGroupState;
+import com.vmware.xenon.services.common.NodeState;
+import com.vmware.xenon.services.common.NodeState.NodeStatus;
+import com.vmware.xenon.services.common.ServiceUriPaths;
 
 public abstract class AbstractTaskStatefulService<T extends TaskServiceDocument<E>, E extends Enum<E>>
         extends StatefulService {
@@ -42,6 +48,19 @@ public abstract class AbstractTaskStatefulService<T extends TaskServiceDocument<
                     "com.vmware.admiral.service.common.AbstractTaskStatefulService.completion.polling.period.millis",
                     TimeUnit.SECONDS.toMillis(3));
 
+    /** The time a completed ephemeral task is kept in memory before it is deleted. */
+    protected static final long EPHEMERAL_TASK_RETENTION_MICROS = Long.getLong(
+            "com.vmware.admiral.service.common.AbstractTaskStatefulService.ephemeral.retention.micros",
+            TimeUnit.MINUTES.toMicros(1));
+
+    /**
+     * The period of the check for a lost ephemeral sub task, see
+     * {@link #setEphemeralSubTasksCheck(boolean)}.
+     */
+    protected static final long EPHEMERAL_SUB_TASK_CHECK_INTERVAL_MICROS = Long.getLong(
+            "com.vmware.admiral.service.common.AbstractTaskStatefulService.ephemeral.check.interval.micros",
+            TimeUnit.SECONDS.toMicros(30));
+
     protected Class<E> subStageType;
 
     private final String displayName;
@@ -49,6 +68,18 @@ public abstract class AbstractTaskStatefulService<T extends TaskServiceDocument<
     // whether the task should self-delete itself upon completion
     private boolean selfDelete;
 
+    // whether the task state is kept in memory only
+    private boolean ephemeral;
+
+    // whether the ephemeral sub task the task waits for is checked periodically
+    private boolean ephemeralSubTasksCheck;
+
+    // the stage of the task as last seen on this node, stages only move forward
+    private volatile TaskStage currentStage;
+
+    // the time the task moved to its current stage, recorded in the task metrics when it moves on
+    private long stageStartMicros;
+
     /** SubStages that are indicating a transient state and order of patching can't be guaranteed */
     protected Set<E> transientSubStages = Collections.emptySet();
 
@@ -89,6 +120,142 @@ public abstract class AbstractTaskStatefulService<T extends TaskServiceDocument<
         this.selfDelete = selfDelete;
     }
 
+    /**
+     * Ephemeral tasks keep their state in memory on the node they are created on. The state is
+     * neither persisted nor replicated and the request tracker is updated with the final stage
+     * only. The completed task is deleted after {@link #EPHEMERAL_TASK_RETENTION_MICROS}.
+     *
+     * An ephemeral task is lost with its node, so it should be created by a parent task that
+     * creates it again when it's lost, see {@link #setEphemeralSubTasksCheck(boolean)}. Must be set
+     * in the constructor, the factory of the task uses the same options.
+     */
+    protected void setEphemeral(boolean ephemeral) {
+        this.ephemeral = ephemeral;
+        if (ephemeral) {
+            super.toggleOption(ServiceOption.PERSISTENCE, false);
+            super.toggleOption(ServiceOption.REPLICATION, false);
+            super.toggleOption(ServiceOption.OWNER_SELECTION, false);
+        }
+    }
+
+    protected boolean isEphemeral() {
+        return ephemeral;
+    }
+
+    /**
+     * Enables the periodic check of the ephemeral sub task the task waits for in its current sub
+     * stage, see {@link #getEphemeralSubTaskLink}. The task isn't restarted when its owner
+     * changes, so the owner handles the sub stage again when the task has made no progress for
+     * {@link #EPHEMERAL_SUB_TASK_CHECK_INTERVAL_MICROS} and the sub task isn't found on any
+     * available node, e.g. when the node running it was stopped. Must be set in the constructor.
+     */
+    protected void setEphemeralSubTasksCheck(boolean check) {
+        this.ephemeralSubTasksCheck = check;
+        super.toggleOption(ServiceOption.PERIODIC_MAINTENANCE, check);
+        if (check) {
+            super.setMaintenanceIntervalMicros(EPHEMERAL_SUB_TASK_CHECK_INTERVAL_MICROS);
+        }
+    }
+
+    /**
+     * Returns the link of the ephemeral sub task the task waits for in the sub stage of the given
+     * state, or null when it doesn't wait for one. The sub stage must create the sub task with
+     * the same link when it's handled again.
+     */
+    protected String getEphemeralSubTaskLink(T state) {
+        return null;
+    }
+
+    @Override
+    public void handlePeriodicMaintenance(Operation post) {
+        post.complete();
+        // the stage is not known yet on a replica that became the owner of the task
+        TaskStage stage = currentStage;
+        if (!ephemeralSubTasksCheck || (stage != null && stage != TaskStage.STARTED)) {
+            return;
+        }
+
+        sendRequest(Operation.createGet(getUri())
+                .setCompletion((o, e) -> {
+                    if (e != null) {
+                        logFine("Failed to get task state for the sub task check: %s",
+                                Utils.toString(e));
+                        return;
+                    }
+                    T state = getBody(o);
+                    if (state.taskInfo != null) {
+                        setCurrentStage(state.taskInfo.stage);
+                    }
+                    if (!getHost().getId().equals(state.documentOwner)
+                            || state.taskInfo == null
+                            || state.taskInfo.stage != TaskStage.STARTED
+                            || Utils.getNowMicrosUtc() - state.documentUpdateTimeMicros
+                                    < EPHEMERAL_SUB_TASK_CHECK_INTERVAL_MICROS) {
+                        return;
+                    }
+                    String subTaskLink = getEphemeralSubTaskLink(state);
+                    if (subTaskLink != null) {
+                        checkEphemeralSubTask(state, subTaskLink);
+                    }
+                }));
+    }
+
+    /**
+     * Records the stage of the task, the periodic sub task check is stopped once the task is
+     * no longer started.
+     */
+    private void setCurrentStage(TaskStage stage) {
+        currentStage = stage;
+        if (ephemeralSubTasksCheck && stage != null
+                && stage.ordinal() > TaskStage.STARTED.ordinal()
+                && hasOption(ServiceOption.PERIODIC_MAINTENANCE)) {
+            super.toggleOption(ServiceOption.PERIODIC_MAINTENANCE, false);
+        }
+    }
+
+    private void checkEphemeralSubTask(T state, String subTaskLink) {
+        sendRequest(Operation.createGet(this, ServiceUriPaths.DEFAULT_NODE_GROUP)
+                .setCompletion((o, e) -> {
+                    if (e != null) {
+                        logWarning("Failed to get node group for the sub task check: %s",
+                                Utils.toString(e));
+                        return;
+                    }
+                    NodeGroupState nodeGroup = o.getBody(NodeGroupState.class);
+                    int nodeCount = 0;
+                    for (NodeState node : nodeGroup.nodes.values()) {
+                        if (node.status == NodeStatus.AVAILABLE) {
+                            nodeCount++;
+                        }
+                    }
+
+                    // the sub stage is handled again only when all nodes report the sub task
+                    // missing, a node that fails to respond is checked again on the next period
+                    AtomicInteger remaining = new AtomicInteger(nodeCount);
+                    AtomicBoolean missing = new AtomicBoolean(true);
+                    for (NodeState node : nodeGroup.nodes.values()) {
+                        if (node.status != NodeStatus.AVAILABLE) {
+                            continue;
+                        }
+                        URI subTaskUri = UriUtils.buildUri(node.groupReference.getScheme(),
+                                node.groupReference.getHost(), node.groupReference.getPort(),
+                                subTaskLink, null);
+                        sendRequest(Operation.createGet(subTaskUri)
+                                .setCompletion((op, ex) -> {
+                                    if (ex == null || op.getStatusCode()
+                                            != Operation.STATUS_CODE_NOT_FOUND) {
+                                        missing.set(false);
+                                    }
+                                    if (remaining.decrementAndGet() == 0 && missing.get()) {
+                                        logWarning("Sub task %s not found, handling %s again",
+                                                subTaskLink, state.taskSubStage);
+                                        handleStartedStagePatch(state);
+                                    }
+                                }));
+                    }
+                }));
+    }
+
     @Override
     public void handleCreate(Operation post) {
         if (!checkForBody(post)) {
@@ -130,6 +297,7 @@ public abstract class AbstractTaskStatefulService<T extends TaskServiceDocument<
         }
 
         if (state.taskInfo.stage.ordinal() >= TaskStage.FINISHED.ordinal()) {
+            setCurrentStage(state.taskInfo.stage);
             startPost.complete();
             return; // the task should not restart in this stage
         }
@@ -142,6 +310,8 @@ public abstract class AbstractTaskStatefulService<T extends TaskServiceDocument<
             logWarning("restarting task with parent link: %s",
                     state.serviceTaskCallback.serviceSelfLink);
         }
+        stageStartMicros = Utils.getNowMicrosUtc();
+        setCurrentStage(state.taskInfo.stage);
         startPost.setBody(state);
         startPost.complete();
 
@@ -198,14 +368,21 @@ public abstract class AbstractTaskStatefulService<T extends TaskServiceDocument<
         T patchBody = getBody(patch);
         T state = getState(patch);
 
-        logWarning("Patch from: %s , selfLink: %s", patch.getRefererAsString(),
+        logFine("Patch from: %s , selfLink: %s", patch.getRefererAsString(),
                 state.documentSelfLink);
+        TaskStage stage = state.taskInfo.stage;
+        E subStage = state.taskSubStage;
         // validates AND transitions the stage to the next state by using the patchBody.
         if (validateStageTransitionAndState(patch, patchBody, state)) {
             // the patch operation is assumed to be already completed/failed in this case
             return;
         }
 
+        if (stage != state.taskInfo.stage || subStage != state.taskSubStage) {
+            recordStageDuration(stage, subStage);
+        }
+        setCurrentStage(state.taskInfo.stage);
+
         updateRequestTracker(state);
 
         patch.complete();
@@ -213,7 +390,21 @@ public abstract class AbstractTaskStatefulService<T extends TaskServiceDocument<
         handleStagePatch(state);
     }
 
+    private void recordStageDuration(TaskStage stage, E subStage) {
+        long now = Utils.getNowMicrosUtc();
+        if (stageStartMicros > 0 && subStage != null) {
+            TaskMetricsService.recordStageDuration(getClass(), stage, subStage,
+                    now - stageStartMicros);
+        }
+        stageStartMicros = now;
+    }
+
     protected void updateRequestTracker(T state) {
+        if (ephemeral && state != null && state.taskInfo.stage.ordinal()
+                <= TaskStage.STARTED.ordinal()) {
+            // the progress of ephemeral tasks is not tracked
+            return;
+        }
         updateRequestTracker(state, RETRIES_COUNT);
     }
 
@@ -276,6 +467,9 @@ public abstract class AbstractTaskStatefulService<T extends TaskServiceDocument<
         // self delete the completed task, if needed
         if (shouldSelfDelete) {
             sendSelfDelete();
+        } else if (ephemeral && state.taskInfo.stage.ordinal() > TaskStage.STARTED.ordinal()) {
+            getHost().schedule(this::sendSelfDelete, EPHEMERAL_TASK_RETENTION_MICROS,
+                    TimeUnit.MICROSECONDS);
         }
     }
 
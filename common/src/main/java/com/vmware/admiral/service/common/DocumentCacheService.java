@@ -0,0 +1,333 @@
+/*
+ * Copyright (c) 2016 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.service.common;
+
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+
+import com.vmware.admiral.common.ManagementUriParts;
+import com.vmware.admiral.common.util.OperationUtil;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.Service;
+import com.vmware.xenon.common.Service.Action;
+import com.vmware.xenon.common.ServiceDocument;
+import com.vmware.xenon.common.ServiceHost;
+import com.vmware.xenon.common.StatelessService;
+import com.vmware.xenon.common.UriUtils;
+import com.vmware.xenon.common.Utils;
+import com.vmware.xenon.services.common.QueryTask;
+import com.vmware.xenon.services.common.QueryTask.Query;
+import com.vmware.xenon.services.common.QueryTask.QuerySpecification.QueryOption;
+import com.vmware.xenon.services.common.ServiceUriPaths;
+
+/**
+ * Node local read-through cache of documents which are read many times and rarely changed, like
+ * the descriptions and the credentials used while provisioning. Only the document types
+ * registered with {@link #registerDocumentType(Class, long)} are cached, each with its own time
+ * to live, and at most {@link #MAX_SIZE} documents are kept.
+ *
+ * The cached documents of a type are invalidated by a node local continuous query over the
+ * documents of that type. The index of every node is updated with the replicated state, so the
+ * updates made on the other nodes invalidate the cached documents as well. A document of a type
+ * is cached only once its query is active, until then the documents are just retrieved.
+ *
+ * The cache is used in the same process only, through
+ * {@link #getDocumentState(Service, String, Class, Consumer, Consumer)}. It holds documents like
+ * the credentials, so it is not exposed over HTTP, the authorization of the documents applies to
+ * their own links only.
+ */
+public class DocumentCacheService extends StatelessService {
+
+    public static final String SELF_LINK = ManagementUriParts.DOCUMENT_CACHE;
+
+    public static final String STAT_NAME_HIT_COUNT = "documentCacheHitCount";
+    public static final String STAT_NAME_MISS_COUNT = "documentCacheMissCount";
+
+    public static final int MAX_SIZE = Integer.getInteger(
+            "dcp.management.document.cache.max.size", 1000);
+
+    public static final long DEFAULT_TTL_MICROS = Long.getLong(
+            "dcp.management.document.cache.ttl.micros", TimeUnit.MINUTES.toMicros(5));
+
+    private static final long QUERY_EXPIRATION_MICROS = TimeUnit.DAYS.toMicros(365);
+
+    // the cached document types by kind, shared by the hosts in the same process
+    private static final Map<String, CachedType> cachedTypes = new ConcurrentHashMap<>();
+
+    // the started caches by their host
+    private static final Map<ServiceHost, DocumentCacheService> caches =
+            new ConcurrentHashMap<>();
+
+    private static class CachedType {
+        final Class<? extends ServiceDocument> type;
+        final long ttlMicros;
+
+        CachedType(Class<? extends ServiceDocument> type, long ttlMicros) {
+            this.type = type;
+            this.ttlMicros = ttlMicros;
+        }
+    }
+
+    /**
+     * A cached document or, when the document is <code>null</code>, the version the cached
+     * document was invalidated with. A retrieved document older than that is not cached.
+     */
+    private static class Entry {
+        final ServiceDocument document;
+        final long version;
+        final long expirationMicros;
+
+        Entry(ServiceDocument document, long version, long expirationMicros) {
+            this.document = document;
+            this.version = version;
+            this.expirationMicros = expirationMicros;
+        }
+    }
+
+    // least recently used order, guarded by its own monitor
+    private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > MAX_SIZE;
+        }
+    };
+
+    // the links being retrieved, guarded by the entries monitor
+    private final Map<String, Integer> retrievedLinks = new HashMap<>();
+
+    // whether the continuous query of a kind is active
+    private final Map<String, Boolean> subscriptions = new ConcurrentHashMap<>();
+    private final Map<String, String> queryTaskLinks = new ConcurrentHashMap<>();
+
+    public DocumentCacheService() {
+        super.toggleOption(ServiceOption.INSTRUMENTATION, true);
+    }
+
+    /**
+     * Registers a document type to be cached for the given time. The documents of other types
+     * are always retrieved.
+     */
+    public static void registerDocumentType(Class<? extends ServiceDocument> type,
+            long ttlMicros) {
+        cachedTypes.put(Utils.buildKind(type), new CachedType(type, ttlMicros));
+    }
+
+    public static boolean isDocumentTypeCached(Class<? extends ServiceDocument> type) {
+        return cachedTypes.containsKey(Utils.buildKind(type));
+    }
+
+    /**
+     * Retrieves a document through the cache of the host of the given service, the same way as
+     * {@link OperationUtil#getDocumentState(Service, String, Class, Consumer, Consumer)}. The
+     * document is retrieved directly when its type is not cached or the cache is not started.
+     * The cached documents are returned as copies and can be modified.
+     */
+    public static <T extends ServiceDocument> void getDocumentState(Service service, String link,
+            Class<T> classT, Consumer<T> callbackFunction, Consumer<Throwable> failureFunction) {
+        CachedType cachedType = cachedTypes.get(Utils.buildKind(classT));
+        DocumentCacheService cache = caches.get(service.getHost());
+        if (cachedType == null || cache == null) {
+            OperationUtil.getDocumentState(service, link, classT, callbackFunction,
+                    failureFunction);
+            return;
+        }
+
+        cache.getDocument(link, cachedType, (document, e) -> {
+            if (e != null) {
+                service.getHost().log(Level.WARNING,
+                        "Failure retrieving document [%s], referrer: [%s] : %s",
+                        link, service.getSelfLink(), Utils.toString(e));
+
+                if (failureFunction != null) {
+                    failureFunction.accept(e);
+                }
+                return;
+            }
+
+            callbackFunction.accept(classT.cast(document));
+        });
+    }
+
+    @Override
+    public void handleStart(Operation start) {
+        caches.put(getHost(), this);
+        super.handleStart(start);
+    }
+
+    private void getDocument(String link, CachedType cachedType,
+            BiConsumer<ServiceDocument, Throwable> callback) {
+        String kind = Utils.buildKind(cachedType.type);
+        if (!Boolean.TRUE.equals(subscriptions.get(kind))) {
+            subscribe(kind);
+            retrieve(link, cachedType, false, callback);
+            return;
+        }
+
+        ServiceDocument document = getCachedDocument(link);
+        if (document == null) {
+            retrieve(link, cachedType, true, callback);
+            return;
+        }
+
+        adjustStat(STAT_NAME_HIT_COUNT, 1);
+        callback.accept(Utils.clone(document), null);
+    }
+
+    @Override
+    public void handleStop(Operation delete) {
+        caches.remove(getHost(), this);
+        for (String queryTaskLink : queryTaskLinks.values()) {
+            sendRequest(Operation.createDelete(this, queryTaskLink));
+        }
+        queryTaskLinks.clear();
+        subscriptions.clear();
+        synchronized (entries) {
+            entries.clear();
+        }
+
+        super.handleStop(delete);
+    }
+
+    private ServiceDocument getCachedDocument(String link) {
+        synchronized (entries) {
+            Entry entry = entries.get(link);
+            if (entry == null) {
+                return null;
+            }
+            if (entry.expirationMicros < Utils.getNowMicrosUtc()) {
+                entries.remove(link);
+                return null;
+            }
+            return entry.document;
+        }
+    }
+
+    private void retrieve(String link, CachedType cachedType, boolean cache,
+            BiConsumer<ServiceDocument, Throwable> callback) {
+        adjustStat(STAT_NAME_MISS_COUNT, 1);
+        if (cache) {
+            synchronized (entries) {
+                retrievedLinks.merge(link, 1, Integer::sum);
+            }
+        }
+
+        sendRequest(Operation.createGet(this, link)
+                .setCompletion((o, e) -> {
+                    ServiceDocument document = e == null ? o.getBody(cachedType.type) : null;
+                    if (cache) {
+                        cacheDocument(link, document, cachedType);
+                    }
+
+                    callback.accept(document, e);
+                }));
+    }
+
+    private void cacheDocument(String link, ServiceDocument document, CachedType cachedType) {
+        synchronized (entries) {
+            retrievedLinks.computeIfPresent(link, (l, count) -> count > 1 ? count - 1 : null);
+            if (document == null) {
+                return;
+            }
+
+            // an invalidation received while retrieving the document wins over an older version
+            Entry entry = entries.get(link);
+            if (entry != null && entry.version > document.documentVersion) {
+                return;
+            }
+            entries.put(link, new Entry(Utils.clone(document), document.documentVersion,
+                    Utils.fromNowMicrosUtc(cachedType.ttlMicros)));
+        }
+    }
+
+    private void invalidate(String link, long version, String kind) {
+        CachedType cachedType = cachedTypes.get(kind);
+        long ttlMicros = cachedType != null ? cachedType.ttlMicros : DEFAULT_TTL_MICROS;
+        synchronized (entries) {
+            Entry entry = entries.get(link);
+            if (entry == null && !retrievedLinks.containsKey(link)) {
+                return;
+            }
+            if (entry != null && entry.document == null && entry.version >= version) {
+                return;
+            }
+            entries.put(link, new Entry(null, version, Utils.fromNowMicrosUtc(ttlMicros)));
+        }
+    }
+
+    private void subscribe(String kind) {
+        if (subscriptions.putIfAbsent(kind, Boolean.FALSE) != null) {
+            return;
+        }
+
+        QueryTask queryTask = QueryTask.Builder.create()
+                .addOptions(EnumSet.of(QueryOption.CONTINUOUS, QueryOption.EXPAND_CONTENT))
+                .setQuery(Query.Builder.create()
+                        .addFieldClause(ServiceDocument.FIELD_NAME_KIND, kind)
+                        .build())
+                .build();
+        queryTask.documentExpirationTimeMicros = Utils.fromNowMicrosUtc(QUERY_EXPIRATION_MICROS);
+
+        sendRequest(Operation.createPost(this, ServiceUriPaths.CORE_LOCAL_QUERY_TASKS)
+                .setBody(queryTask)
+                .setCompletion((o, e) -> {
+                    if (e != null) {
+                        logWarning("Failed to create the query of the cached %s documents: %s",
+                                kind, Utils.toString(e));
+                        subscriptions.remove(kind);
+                        return;
+                    }
+
+                    String queryTaskLink = o.getBody(QueryTask.class).documentSelfLink;
+                    Operation subscribe = Operation.createPost(
+                            UriUtils.buildSubscriptionUri(getHost(), queryTaskLink))
+                            .setReferer(getUri())
+                            .setCompletion((so, se) -> {
+                                if (se != null) {
+                                    logWarning("Failed to subscribe for the cached %s documents:"
+                                            + " %s", kind, Utils.toString(se));
+                                    subscriptions.remove(kind);
+                                    sendRequest(Operation.createDelete(this, queryTaskLink));
+                                    return;
+                                }
+                                queryTaskLinks.put(kind, queryTaskLink);
+                                subscriptions.put(kind, Boolean.TRUE);
+                            });
+                    getHost().startSubscriptionService(subscribe, this::handleNotification);
+                }));
+    }
+
+    private void handleNotification(Operation notification) {
+        notification.complete();
+
+        QueryTask queryTask = notification.getBody(QueryTask.class);
+        if (queryTask.results == null || queryTask.results.documents == null) {
+            return;
+        }
+
+        for (Object json : queryTask.results.documents.values()) {
+            ServiceDocument document = Utils.fromJson(json, ServiceDocument.class);
+            // a deleted document stays invalidated until the entry expires
+            long version = Action.DELETE.name().equals(document.documentUpdateAction)
+                    ? Long.MAX_VALUE : document.documentVersion;
+            invalidate(document.documentSelfLink, version, document.documentKind);
+        }
+    }
+}
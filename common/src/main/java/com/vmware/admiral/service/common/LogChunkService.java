@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2016 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.service.common;
+
+import com.vmware.admiral.common.ManagementUriParts;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.Service;
+import com.vmware.xenon.common.ServiceDocument;
+import com.vmware.xenon.common.ServiceDocumentDescription.PropertyIndexingOption;
+import com.vmware.xenon.common.StatefulService;
+
+/**
+ * A full chunk of the log data of a {@link LogService}. The chunks are written once, when they
+ * are full, so that appending to a log doesn't store its older data again. The chunks expire
+ * with the log they belong to and are deleted when the log drops them.
+ */
+public class LogChunkService extends StatefulService {
+    public static final String FACTORY_LINK = ManagementUriParts.LOG_CHUNKS;
+
+    public static class LogChunkState extends ServiceDocument {
+        /** Offset of the first byte of the chunk in the log. */
+        @PropertyOptions(indexing = PropertyIndexingOption.STORE_ONLY)
+        public long offset;
+
+        /** Uncompressed size of the chunk. */
+        @PropertyOptions(indexing = PropertyIndexingOption.STORE_ONLY)
+        public int size;
+
+        /** GZIP compressed chunk data. */
+        @PropertyOptions(indexing = {
+                PropertyIndexingOption.STORE_ONLY,
+                PropertyIndexingOption.EXCLUDE_FROM_SIGNATURE })
+        public byte[] data;
+    }
+
+    public LogChunkService() {
+        super(LogChunkState.class);
+        super.toggleOption(Service.ServiceOption.PERSISTENCE, true);
+        super.toggleOption(Service.ServiceOption.DOCUMENT_OWNER, true);
+        super.toggleOption(ServiceOption.IDEMPOTENT_POST, true);
+    }
+
+    @Override
+    public void handleCreate(Operation post) {
+        if (!checkForBody(post)) {
+            return;
+        }
+        post.complete();
+    }
+
+    @Override
+    public void handlePut(Operation put) {
+        if (!checkForBody(put)) {
+            return;
+        }
+
+        // a chunk of a log created again with the same link
+        LogChunkState newState = put.getBody(LogChunkState.class);
+        if (newState.documentEpoch == null) {
+            newState.documentEpoch = 0L;
+        }
+        setState(put, newState);
+        put.complete();
+    }
+
+    @Override
+    public ServiceDocument getDocumentTemplate() {
+        ServiceDocument template = super.getDocumentTemplate();
+        template.documentDescription.serializedStateSizeLimit = 1024 * 1024; // 1MB
+        template.documentDescription.versionRetentionLimit = 1;
+        return template;
+    }
+}
@@ -11,20 +11,49 @@
 
 package com.vmware.admiral.service.common;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.time.Instant;
+import java.util.ArrayList;
 import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import com.vmware.admiral.common.ManagementUriParts;
+import com.vmware.admiral.common.util.DockerLogUtil;
 import com.vmware.admiral.common.util.ServiceUtils;
+import com.vmware.admiral.service.common.LogChunkService.LogChunkState;
 import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.OperationJoin;
 import com.vmware.xenon.common.Service;
 import com.vmware.xenon.common.ServiceDocument;
 import com.vmware.xenon.common.ServiceDocumentDescription;
 import com.vmware.xenon.common.ServiceDocumentDescription.PropertyIndexingOption;
+import com.vmware.xenon.common.ServiceDocumentDescription.PropertyUsageOption;
 import com.vmware.xenon.common.StatefulService;
+import com.vmware.xenon.common.UriUtils;
+import com.vmware.xenon.common.Utils;
 
 /**
  * LogService is log management service which maintains the logs of a container.
+ * <p>
+ * A POST or PUT replaces the whole log. A PATCH appends the new log data to a bounded ring of
+ * compressed chunks, so a refresh only sends and compresses the lines logged since the last
+ * refresh. Only the last chunk is kept in the log document, the full chunks are stored once as
+ * {@link LogChunkService} documents, so an append doesn't store the older log data again. The
+ * lines of a PATCH with timestamps not after {@link LogServiceState#lastTimestamp} are already
+ * stored, e.g. by a concurrent refresh, and are dropped. The oldest chunks are dropped once the
+ * ring exceeds {@link #MAX_COMPRESSED_SIZE}. A GET returns the whole log kept or, with the
+ * {@link #OFFSET_QUERY_PARAM} query parameter, only the log data after the given offset. The
+ * offsets are counted from the creation of the log and the {@link LogServiceState#endOffset} of
+ * a response is the offset to continue reading from.
  */
 public class LogService extends StatefulService {
     public static final String FACTORY_LINK = ManagementUriParts.LOGS;
@@ -32,9 +61,20 @@ public class LogService extends StatefulService {
     protected static final long DEFAULT_EXPIRATION_MICROS = Long.getLong(
             "com.vmware.admiral.service.common.expiration.micros", TimeUnit.MINUTES.toMicros(5));
 
+    public static final String OFFSET_QUERY_PARAM = "offset";
+
+    /** Appended data is merged into the last chunk until it reaches this (uncompressed) size. */
+    private static final int CHUNK_SIZE = Integer.getInteger(
+            "com.vmware.admiral.service.common.log.chunk.size", 64 * 1024);
+
+    /** The maximum size of the compressed log data kept, the oldest chunks are dropped first. */
+    private static final int MAX_COMPRESSED_SIZE = Integer.getInteger(
+            "com.vmware.admiral.service.common.log.max.compressed.size", 1024 * 1024);
+
     public static class LogServiceState extends com.vmware.admiral.service.common.MultiTenantDocument {
 
         public static final String FIELD_NAME_LOGS = "logs";
+        public static final String FIELD_NAME_LAST_TIMESTAMP = "lastTimestamp";
 
         /** Stream of container log data */
         @Documentation(description = "Stream of container log data.")
@@ -42,6 +82,44 @@ public class LogService extends StatefulService {
                 PropertyIndexingOption.STORE_ONLY,
                 PropertyIndexingOption.EXCLUDE_FROM_SIGNATURE })
         public byte[] logs;
+
+        /** Timestamp of the last log line, the next refresh fetches the lines after it. */
+        @Documentation(description = "Timestamp of the last log line.")
+        @PropertyOptions(indexing = PropertyIndexingOption.STORE_ONLY)
+        public String lastTimestamp;
+
+        /** Offset of the first byte of the log data kept or returned. */
+        @Documentation(description = "Offset of the first byte of the log data.")
+        @PropertyOptions(indexing = PropertyIndexingOption.STORE_ONLY)
+        public Long startOffset;
+
+        /** Offset after the last byte of the log data, the cursor for the next read. */
+        @Documentation(description = "Offset after the last byte of the log data.")
+        @PropertyOptions(indexing = PropertyIndexingOption.STORE_ONLY)
+        public Long endOffset;
+
+        /** Ring of compressed chunks the appended log data is stored in. */
+        @PropertyOptions(usage = PropertyUsageOption.SERVICE_USE, indexing = {
+                PropertyIndexingOption.STORE_ONLY,
+                PropertyIndexingOption.EXCLUDE_FROM_SIGNATURE })
+        public List<LogChunk> chunks;
+    }
+
+    public static class LogChunk {
+        /** Offset of the first byte of the chunk. */
+        public long offset;
+
+        /** Uncompressed size of the chunk. */
+        public int size;
+
+        /** Compressed size of the chunk. */
+        public int compressedSize;
+
+        /** GZIP compressed chunk data, kept in the log document for the last chunk only. */
+        public byte[] data;
+
+        /** Link of the {@link LogChunkService} document the data of a full chunk is stored in. */
+        public String link;
     }
 
     public LogService() {
@@ -62,9 +140,90 @@ public class LogService extends StatefulService {
         state.documentExpirationTimeMicros = ServiceUtils
                 .getExpirationTimeFromNowInMicros(
                 DEFAULT_EXPIRATION_MICROS);
+        state.chunks = null;
+        state.startOffset = 0L;
+        state.endOffset = state.logs != null ? (long) state.logs.length : 0L;
         startPost.complete();
     }
 
+    @Override
+    public void handleGet(Operation get) {
+        LogServiceState currentState = getState(get);
+        initOffsets(currentState);
+        if (currentState.chunks == null && get.getUri().getQuery() == null) {
+            get.setBody(currentState).complete();
+            return;
+        }
+
+        long offset = 0;
+        Map<String, String> params = UriUtils.parseUriQueryParams(get.getUri());
+        String offsetParam = params.get(OFFSET_QUERY_PARAM);
+        if (offsetParam != null) {
+            try {
+                offset = Long.parseLong(offsetParam);
+            } catch (NumberFormatException e) {
+                get.fail(new IllegalArgumentException("Invalid offset: " + offsetParam));
+                return;
+            }
+        }
+
+        LogServiceState result = new LogServiceState();
+        currentState.copyTo(result);
+        result.tenantLinks = currentState.tenantLinks;
+        result.lastTimestamp = currentState.lastTimestamp;
+        result.endOffset = currentState.endOffset;
+        result.startOffset = Math.min(Math.max(offset, startOffset(currentState)),
+                currentState.endOffset);
+        if (currentState.chunks == null) {
+            result.logs = readLogs(currentState, result.startOffset);
+            get.setBody(result).complete();
+            return;
+        }
+
+        // the chunks are changed by the appends, copy the ones to read
+        List<LogChunk> chunks = new ArrayList<>();
+        List<Operation> chunkGets = new ArrayList<>();
+        for (LogChunk chunk : currentState.chunks) {
+            if (chunk.offset + chunk.size <= result.startOffset) {
+                continue;
+            }
+            LogChunk copy = copyOf(chunk);
+            chunks.add(copy);
+            if (copy.data == null && copy.link != null) {
+                chunkGets.add(Operation.createGet(this, copy.link));
+            }
+        }
+        if (chunkGets.isEmpty()) {
+            result.logs = readChunks(chunks, result.startOffset);
+            get.setBody(result).complete();
+            return;
+        }
+
+        OperationJoin.create(chunkGets).setCompletion((ops, failures) -> {
+            if (failures != null) {
+                get.fail(failures.values().iterator().next());
+                return;
+            }
+            Map<String, byte[]> data = new HashMap<>();
+            for (Operation o : ops.values()) {
+                LogChunkState chunkState = o.getBody(LogChunkState.class);
+                data.put(chunkState.documentSelfLink, chunkState.data);
+            }
+            for (LogChunk chunk : chunks) {
+                if (chunk.data == null) {
+                    chunk.data = data.get(chunk.link);
+                }
+            }
+            try {
+                result.logs = readChunks(chunks, result.startOffset);
+            } catch (UncheckedIOException e) {
+                get.fail(e.getCause());
+                return;
+            }
+            get.setBody(result).complete();
+        }).sendWith(this);
+    }
+
     @Override
     public void handlePut(Operation put) {
         if (!checkForBody(put)) {
@@ -73,9 +232,18 @@ public class LogService extends StatefulService {
 
         LogServiceState currentState = getState(put);
         LogServiceState newState = put.getBody(LogServiceState.class);
+        initOffsets(currentState);
 
         if (newState.logs != null) {
+            deleteChunks(currentState.chunks);
             currentState.logs = newState.logs;
+            currentState.chunks = null;
+            // keep the offsets growing so the cursors of the readers stay valid
+            currentState.startOffset = currentState.endOffset;
+            currentState.endOffset = currentState.startOffset + newState.logs.length;
+        }
+        if (newState.lastTimestamp != null) {
+            currentState.lastTimestamp = newState.lastTimestamp;
         }
         // workaround for NullPointerException in xenon when the service has no REPLICATION option
         if (currentState.documentEpoch == null) {
@@ -85,6 +253,67 @@ public class LogService extends StatefulService {
         put.setBody(currentState).complete();
     }
 
+    @Override
+    public void handlePatch(Operation patch) {
+        if (!checkForBody(patch)) {
+            return;
+        }
+
+        LogServiceState currentState = getState(patch);
+        LogServiceState patchBody = patch.getBody(LogServiceState.class);
+        initOffsets(currentState);
+
+        byte[] logs = patchBody.logs;
+        Instant lastTimestamp = DockerLogUtil.parseTimestamp(currentState.lastTimestamp);
+        if (lastTimestamp != null) {
+            // drop the lines already stored, e.g. by a concurrent refresh with the same since
+            logs = DockerLogUtil.entriesAfter(logs, lastTimestamp);
+        }
+
+        List<LogChunk> fullChunks = new ArrayList<>();
+        List<LogChunk> droppedChunks = new ArrayList<>();
+        try {
+            if (currentState.logs != null) {
+                // move the log set by the last replace into the ring
+                byte[] replacedLogs = currentState.logs;
+                currentState.logs = null;
+                currentState.chunks = new ArrayList<>();
+                appendChunks(currentState, currentState.startOffset, replacedLogs, fullChunks);
+            }
+            if (logs != null && logs.length > 0) {
+                appendChunks(currentState, currentState.endOffset, logs, fullChunks);
+                currentState.endOffset += logs.length;
+            }
+            if (currentState.chunks != null) {
+                dropChunks(currentState, fullChunks, droppedChunks);
+            }
+        } catch (UncheckedIOException e) {
+            patch.fail(e.getCause());
+            return;
+        }
+
+        Instant patchTimestamp = DockerLogUtil.parseTimestamp(patchBody.lastTimestamp);
+        if (patchBody.lastTimestamp != null && (lastTimestamp == null
+                || (patchTimestamp != null && patchTimestamp.isAfter(lastTimestamp)))) {
+            currentState.lastTimestamp = patchBody.lastTimestamp;
+        }
+        if (currentState.documentEpoch == null) {
+            currentState.documentEpoch = 0L;
+        }
+
+        deleteChunks(droppedChunks);
+        storeChunks(currentState, fullChunks, () -> patch.complete());
+    }
+
+    @Override
+    public void handleDelete(Operation delete) {
+        LogServiceState currentState = getState(delete);
+        if (currentState != null) {
+            deleteChunks(currentState.chunks);
+        }
+        super.handleDelete(delete);
+    }
+
     /**
      * Provides a default instance of the service state and allows service author to specify
      * indexing and usage options, per service document property
@@ -106,4 +335,212 @@ public class LogService extends StatefulService {
 
         return template;
     }
+
+    /**
+     * Appends the data to the last chunk, starting new chunks when it is full. The chunks that
+     * became full are added to <code>fullChunks</code>.
+     */
+    private static void appendChunks(LogServiceState state, long offset, byte[] data,
+            List<LogChunk> fullChunks) {
+        if (state.chunks == null) {
+            state.chunks = new ArrayList<>();
+        }
+
+        int pos = 0;
+        while (pos < data.length) {
+            LogChunk last = state.chunks.isEmpty() ? null
+                    : state.chunks.get(state.chunks.size() - 1);
+            byte[] lastData;
+            if (last != null && last.link == null && last.data != null
+                    && last.size < CHUNK_SIZE) {
+                lastData = decompress(last.data, last.size);
+            } else {
+                last = new LogChunk();
+                last.offset = offset + pos;
+                state.chunks.add(last);
+                lastData = new byte[0];
+            }
+
+            int length = Math.min(data.length - pos, CHUNK_SIZE - lastData.length);
+            byte[] merged = new byte[lastData.length + length];
+            System.arraycopy(lastData, 0, merged, 0, lastData.length);
+            System.arraycopy(data, pos, merged, lastData.length, length);
+            last.size = merged.length;
+            last.data = compress(merged);
+            last.compressedSize = last.data.length;
+            if (last.size >= CHUNK_SIZE) {
+                fullChunks.add(last);
+            }
+            pos += length;
+        }
+    }
+
+    /**
+     * Drops the oldest chunks while the ring exceeds its size. The dropped chunks already stored
+     * are added to <code>droppedChunks</code>, the ones not stored yet are not stored.
+     */
+    private static void dropChunks(LogServiceState state, List<LogChunk> fullChunks,
+            List<LogChunk> droppedChunks) {
+        long compressedSize = 0;
+        for (LogChunk chunk : state.chunks) {
+            compressedSize += compressedSize(chunk);
+        }
+        while (compressedSize > MAX_COMPRESSED_SIZE && state.chunks.size() > 1) {
+            LogChunk dropped = state.chunks.remove(0);
+            compressedSize -= compressedSize(dropped);
+            if (dropped.link != null) {
+                droppedChunks.add(dropped);
+            }
+            fullChunks.remove(dropped);
+        }
+        if (!state.chunks.isEmpty()) {
+            state.startOffset = state.chunks.get(0).offset;
+        }
+    }
+
+    /**
+     * Stores the full chunks as {@link LogChunkService} documents expiring with the log and
+     * removes their data from the log document. A chunk that fails to be stored stays in the log
+     * document.
+     */
+    private void storeChunks(LogServiceState state, List<LogChunk> fullChunks,
+            Runnable completion) {
+        if (fullChunks.isEmpty()) {
+            completion.run();
+            return;
+        }
+
+        List<Operation> posts = new ArrayList<>();
+        for (LogChunk chunk : fullChunks) {
+            LogChunkState chunkState = new LogChunkState();
+            chunkState.documentSelfLink = UriUtils.buildUriPath(LogChunkService.FACTORY_LINK,
+                    Service.getId(getSelfLink()) + "-" + chunk.offset);
+            chunkState.documentExpirationTimeMicros = state.documentExpirationTimeMicros;
+            chunkState.offset = chunk.offset;
+            chunkState.size = chunk.size;
+            chunkState.data = chunk.data;
+            posts.add(Operation.createPost(this, LogChunkService.FACTORY_LINK)
+                    .setBody(chunkState));
+        }
+
+        OperationJoin.create(posts).setCompletion((ops, failures) -> {
+            for (int i = 0; i < fullChunks.size(); i++) {
+                Operation post = posts.get(i);
+                if (failures != null && failures.containsKey(post.getId())) {
+                    logWarning("Failed to store log chunk at offset %d: %s",
+                            fullChunks.get(i).offset,
+                            Utils.toString(failures.get(post.getId())));
+                    continue;
+                }
+                LogChunk chunk = fullChunks.get(i);
+                chunk.link = UriUtils.buildUriPath(LogChunkService.FACTORY_LINK,
+                        Service.getId(getSelfLink()) + "-" + chunk.offset);
+                chunk.data = null;
+            }
+            completion.run();
+        }).sendWith(this);
+    }
+
+    private void deleteChunks(List<LogChunk> chunks) {
+        if (chunks == null) {
+            return;
+        }
+        for (LogChunk chunk : chunks) {
+            if (chunk.link == null) {
+                continue;
+            }
+            // the chunks expire with the log anyway
+            sendRequest(Operation.createDelete(this, chunk.link)
+                    .setCompletion((o, e) -> {
+                        if (e != null) {
+                            logFine("Failed to delete log chunk %s: %s", chunk.link,
+                                    Utils.toString(e));
+                        }
+                    }));
+        }
+    }
+
+    private static int compressedSize(LogChunk chunk) {
+        return chunk.data != null ? chunk.data.length : chunk.compressedSize;
+    }
+
+    private static LogChunk copyOf(LogChunk chunk) {
+        LogChunk copy = new LogChunk();
+        copy.offset = chunk.offset;
+        copy.size = chunk.size;
+        copy.compressedSize = chunk.compressedSize;
+        copy.data = chunk.data;
+        copy.link = chunk.link;
+        return copy;
+    }
+
+    private static void initOffsets(LogServiceState state) {
+        // logs stored before the offsets were introduced
+        if (state.endOffset == null) {
+            state.startOffset = 0L;
+            state.endOffset = state.logs != null ? (long) state.logs.length : 0L;
+        }
+    }
+
+    private static long startOffset(LogServiceState state) {
+        return state.startOffset != null ? state.startOffset : 0;
+    }
+
+    private static byte[] readLogs(LogServiceState state, long offset) {
+        if (state.chunks == null) {
+            if (state.logs == null) {
+                return null;
+            }
+            int skip = (int) Math.max(0, offset - startOffset(state));
+            if (skip == 0) {
+                return state.logs;
+            }
+            byte[] result = new byte[Math.max(0, state.logs.length - skip)];
+            System.arraycopy(state.logs, Math.min(skip, state.logs.length), result, 0,
+                    result.length);
+            return result;
+        }
+
+        return readChunks(state.chunks, offset);
+    }
+
+    private static byte[] readChunks(List<LogChunk> chunks, long offset) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (LogChunk chunk : chunks) {
+            if (chunk.offset + chunk.size <= offset || chunk.data == null) {
+                continue;
+            }
+            byte[] data = decompress(chunk.data, chunk.size);
+            int skip = (int) Math.max(0, offset - chunk.offset);
+            out.write(data, skip, data.length - skip);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] compress(byte[] data) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 4 + 32);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(data);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] decompress(byte[] data, int size) {
+        byte[] result = new byte[size];
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(data))) {
+            int read = 0;
+            while (read < size) {
+                int n = in.read(result, read, size - read);
+                if (n < 0) {
+                    throw new IOException("Unexpected end of log chunk");
+                }
+                read += n;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return result;
+    }
 }
@@ -0,0 +1,316 @@
+/*
+ * Copyright (c) 2016 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.service.common;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import com.vmware.admiral.common.ManagementUriParts;
+import com.vmware.admiral.service.common.ResourceNamePrefixService.NamePrefixRequest;
+import com.vmware.admiral.service.common.ResourceNamePrefixService.NamePrefixResponse;
+import com.vmware.admiral.service.common.ResourceNamePrefixService.NumberRange;
+import com.vmware.admiral.service.common.ResourceNamePrefixService.ResourceNamePrefixState;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.OperationJoin;
+import com.vmware.xenon.common.StatelessService;
+import com.vmware.xenon.common.Utils;
+
+/**
+ * Node local service generating resource name prefixes from ranges of numbers leased from the
+ * {@link ResourceNamePrefixService} documents. A range of {@link #LEASE_SIZE} numbers is leased
+ * with a single PATCH and the names are then generated from an in-memory counter, so concurrent
+ * provisioning requests do not all update the same replicated document.
+ *
+ * The prefix document is read for every request, so a change of the prefix applies to the next
+ * names and the leased numbers no longer in the sequence, e.g. after the counter wrapped around,
+ * are dropped. Reading the document doesn't update it.
+ *
+ * The numbers not used until the lease expires or the node is stopped are given back to the
+ * prefix document. The names generated by the different nodes are unique but not ordered.
+ */
+public class ResourceNamePrefixLeaseService extends StatelessService {
+
+    public static final String SELF_LINK = ManagementUriParts.RESOURCE_NAME_PREFIX_LEASES;
+
+    public static final long LEASE_SIZE = Long.getLong(
+            "dcp.management.name.prefix.lease.size", 100);
+
+    public static final long LEASE_EXPIRATION_MICROS = Long.getLong(
+            "dcp.management.name.prefix.lease.expiration.micros",
+            TimeUnit.MINUTES.toMicros(5));
+
+    /** An DTO used during PATCH request in order to get names for the given prefix document. */
+    public static class NamePrefixLeaseRequest {
+        public String resourceNamePrefixLink;
+        public long resourceCount;
+    }
+
+    private static class PendingRequest {
+        final Operation op;
+        final long resourceCount;
+        final List<String> resourceNamePrefixes;
+
+        PendingRequest(Operation op, long resourceCount) {
+            this.op = op;
+            this.resourceCount = resourceCount;
+            this.resourceNamePrefixes = new ArrayList<>((int) resourceCount);
+        }
+    }
+
+    /** The ranges leased from a prefix document, guarded by its own monitor. */
+    private static class Lease {
+        final String resourceNamePrefixLink;
+        final Deque<NumberRange> ranges = new ArrayDeque<>();
+        final Deque<PendingRequest> pending = new ArrayDeque<>();
+        String prefix;
+        Boolean addRandomToken;
+        long expirationMicros;
+        boolean leasing;
+        boolean released;
+
+        Lease(String resourceNamePrefixLink) {
+            this.resourceNamePrefixLink = resourceNamePrefixLink;
+        }
+    }
+
+    // the leases are not persisted, if the node crashes the leased numbers are just skipped
+    private final Map<String, Lease> leases = new ConcurrentHashMap<>();
+
+    public ResourceNamePrefixLeaseService() {
+        super.toggleOption(ServiceOption.INSTRUMENTATION, true);
+        super.toggleOption(ServiceOption.PERIODIC_MAINTENANCE, true);
+        super.setMaintenanceIntervalMicros(LEASE_EXPIRATION_MICROS / 2);
+    }
+
+    @Override
+    public void handlePatch(Operation patch) {
+        if (!patch.hasBody()) {
+            patch.fail(new IllegalArgumentException("body is required"));
+            return;
+        }
+
+        NamePrefixLeaseRequest request = patch.getBody(NamePrefixLeaseRequest.class);
+        if (request.resourceNamePrefixLink == null || request.resourceNamePrefixLink.isEmpty()) {
+            patch.fail(new IllegalArgumentException("'resourceNamePrefixLink' is required."));
+            return;
+        }
+        if (request.resourceCount <= 0) {
+            patch.fail(new IllegalArgumentException(
+                    "Requested resource count must be positive number."));
+            return;
+        }
+
+        sendRequest(Operation.createGet(this, request.resourceNamePrefixLink)
+                .setCompletion((o, e) -> {
+                    if (e != null) {
+                        patch.fail(e);
+                        return;
+                    }
+                    ResourceNamePrefixState state = o.getBody(ResourceNamePrefixState.class);
+                    serve(patch, request, state);
+                }));
+    }
+
+    private void serve(Operation patch, NamePrefixLeaseRequest request,
+            ResourceNamePrefixState state) {
+        PendingRequest pendingRequest = new PendingRequest(patch, request.resourceCount);
+        Lease lease;
+        boolean added = false;
+        do {
+            lease = leases.computeIfAbsent(request.resourceNamePrefixLink, Lease::new);
+            synchronized (lease) {
+                // a lease released in the meantime is replaced by a new one
+                if (!lease.released) {
+                    update(lease, state);
+                    lease.pending.add(pendingRequest);
+                    added = true;
+                }
+            }
+        } while (!added);
+        serve(lease);
+    }
+
+    /**
+     * Updates the lease with the current state of the prefix document, the caller holds the
+     * monitor of the lease.
+     */
+    private static void update(Lease lease, ResourceNamePrefixState state) {
+        lease.prefix = state.prefix;
+        lease.addRandomToken = state.addRandomToken;
+        // the numbers handed out again by the document or not in the sequence any more
+        lease.ranges.removeIf((range) -> range.epoch < state.epoch
+                || range.start < state.nextNumber || range.end > state.getMaxNumber());
+    }
+
+    @Override
+    public void handlePeriodicMaintenance(Operation post) {
+        long now = Utils.getNowMicrosUtc();
+        List<Operation> releaseOps = new ArrayList<>();
+        for (Lease lease : leases.values()) {
+            synchronized (lease) {
+                if (lease.leasing || !lease.pending.isEmpty() || lease.expirationMicros > now) {
+                    continue;
+                }
+                lease.released = true;
+                leases.remove(lease.resourceNamePrefixLink, lease);
+                Operation op = createReleaseOperation(lease);
+                if (op != null) {
+                    releaseOps.add(op);
+                }
+            }
+        }
+
+        sendReleaseOperations(releaseOps, post);
+    }
+
+    @Override
+    public void handleStop(Operation delete) {
+        List<Operation> releaseOps = new ArrayList<>();
+        for (Lease lease : leases.values()) {
+            synchronized (lease) {
+                lease.released = true;
+                Operation op = createReleaseOperation(lease);
+                if (op != null) {
+                    releaseOps.add(op);
+                }
+            }
+        }
+        leases.clear();
+
+        sendReleaseOperations(releaseOps, delete);
+    }
+
+    private void serve(Lease lease) {
+        List<PendingRequest> completed = new ArrayList<>();
+        long leaseCount = 0;
+        long resourceCount = 0;
+        synchronized (lease) {
+            while (!lease.pending.isEmpty()) {
+                PendingRequest request = lease.pending.peek();
+                while (request.resourceNamePrefixes.size() < request.resourceCount
+                        && !lease.ranges.isEmpty()) {
+                    NumberRange range = lease.ranges.peek();
+                    request.resourceNamePrefixes.add(ResourceNamePrefixService.buildNamePrefix(
+                            lease.prefix, range.start++, lease.addRandomToken));
+                    if (range.start > range.end) {
+                        lease.ranges.poll();
+                    }
+                }
+                if (request.resourceNamePrefixes.size() < request.resourceCount) {
+                    if (!lease.leasing) {
+                        lease.leasing = true;
+                        leaseCount = Math.max(LEASE_SIZE,
+                                request.resourceCount - request.resourceNamePrefixes.size());
+                        resourceCount = request.resourceCount;
+                    }
+                    break;
+                }
+                completed.add(lease.pending.poll());
+            }
+        }
+
+        for (PendingRequest request : completed) {
+            NamePrefixResponse response = new NamePrefixResponse();
+            response.resourceNamePrefixes = request.resourceNamePrefixes;
+            request.op.setBodyNoCloning(response).complete();
+        }
+
+        if (leaseCount > 0) {
+            leaseRange(lease, leaseCount, resourceCount);
+        }
+    }
+
+    private void leaseRange(Lease lease, long leaseCount, long resourceCount) {
+        NamePrefixRequest request = new NamePrefixRequest();
+        request.leaseCount = leaseCount;
+        // validated against the range of the prefix
+        request.resourceCount = resourceCount;
+
+        sendRequest(Operation.createPatch(this, lease.resourceNamePrefixLink)
+                .setBody(request)
+                .setCompletion((o, e) -> {
+                    if (e != null) {
+                        failLease(lease, e);
+                        return;
+                    }
+
+                    NamePrefixResponse response = o.getBody(NamePrefixResponse.class);
+                    if (response.leasedRange == null) {
+                        failLease(lease, new IllegalStateException(
+                                "No range leased from " + lease.resourceNamePrefixLink));
+                        return;
+                    }
+                    synchronized (lease) {
+                        lease.leasing = false;
+                        lease.prefix = response.prefix;
+                        lease.addRandomToken = response.addRandomToken;
+                        lease.ranges.add(response.leasedRange);
+                        lease.expirationMicros = Utils.getNowMicrosUtc()
+                                + LEASE_EXPIRATION_MICROS;
+                    }
+                    serve(lease);
+                }));
+    }
+
+    private void failLease(Lease lease, Throwable e) {
+        PendingRequest failed;
+        synchronized (lease) {
+            lease.leasing = false;
+            failed = lease.pending.poll();
+        }
+
+        logWarning("Failure leasing resource name prefixes from %s: %s",
+                lease.resourceNamePrefixLink, Utils.toString(e));
+        // the numbers already taken by the failed request are skipped
+        if (failed != null) {
+            failed.op.fail(e);
+        }
+        // the next requests lease again, e.g. the failure might be for the resource count only
+        serve(lease);
+    }
+
+    private Operation createReleaseOperation(Lease lease) {
+        if (lease.ranges.isEmpty()) {
+            return null;
+        }
+
+        NamePrefixRequest request = new NamePrefixRequest();
+        request.releasedRanges = new ArrayList<>(lease.ranges);
+        lease.ranges.clear();
+
+        return Operation.createPatch(this, lease.resourceNamePrefixLink)
+                .setBody(request)
+                .setReferer(getUri());
+    }
+
+    private void sendReleaseOperations(List<Operation> releaseOps, Operation op) {
+        if (releaseOps.isEmpty()) {
+            op.complete();
+            return;
+        }
+
+        OperationJoin.create(releaseOps)
+                .setCompletion((ops, failures) -> {
+                    if (failures != null) {
+                        // the numbers are skipped until the counter wraps around
+                        logWarning("Failure releasing resource name prefixes: %s",
+                                Utils.toString(failures));
+                    }
+                    op.complete();
+                }).sendWith(getHost());
+    }
+}
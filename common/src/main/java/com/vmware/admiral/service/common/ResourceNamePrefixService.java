@@ -39,6 +39,14 @@ import com.vmware.xenon.common.UriUtils;
  * A prefix is a base name to be followed by a counter of a specified number of digits. When the
  * digits have all been used the service rolls back to the first number (which potentially might
  * cause issue if the resources are still not removed).
+ *
+ * Besides generating the names, a PATCH with {@link NamePrefixRequest#leaseCount} leases a whole
+ * range of numbers to a node which then generates the names locally (see
+ * {@link ResourceNamePrefixLeaseService}), so the document is not updated for every name. The
+ * unused numbers are given back with {@link NamePrefixRequest#releasedRanges} and are leased again
+ * before the counter moves on. The ranges are tagged with the {@link NumberRange#epoch} of the
+ * counter, the ranges given back after the counter wrapped around are ignored, since their
+ * numbers are handed out again anyway.
  */
 public class ResourceNamePrefixService extends StatefulService {
     public static final String FACTORY_LINK = ManagementUriParts.RESOURCE_NAME_PREFIXES;
@@ -104,6 +112,14 @@ public class ResourceNamePrefixService extends StatefulService {
         @UsageOption(option = PropertyUsageOption.SERVICE_USE)
         public long currentCount = -1;
 
+        /* Numbers leased by nodes and given back unused */
+        @UsageOption(option = PropertyUsageOption.SERVICE_USE)
+        public List<NumberRange> releasedRanges;
+
+        /* The number of times the counter wrapped around */
+        @UsageOption(option = PropertyUsageOption.SERVICE_USE)
+        public long epoch;
+
         public long getMaxNumber() {
             return ((long) Math.pow(10, numberOfDigits)) - 1;
         }
@@ -113,14 +129,36 @@ public class ResourceNamePrefixService extends StatefulService {
         }
     }
 
+    /** A range of numbers in the sequence, both ends are included. */
+    public static class NumberRange {
+        public long start;
+        public long end;
+
+        /** The epoch of the counter the range was leased in. */
+        public long epoch;
+    }
+
     /** An DTO used during PATCH request in order to get the next prefix in the sequence. */
     public static class NamePrefixRequest {
         public long resourceCount;
+
+        /** When set a range of up to this many numbers is leased instead of generating names. */
+        public long leaseCount;
+
+        /** Leased numbers given back unused. */
+        public List<NumberRange> releasedRanges;
     }
 
     /** An DTO used during PATCH response in order to return the requested prefixes. */
     public static class NamePrefixResponse {
         public List<String> resourceNamePrefixes;
+
+        /** The leased range of numbers, set only when a lease was requested. */
+        public NumberRange leasedRange;
+
+        /** The prefix and the random token option to build the names with the leased range. */
+        public String prefix;
+        public Boolean addRandomToken;
     }
 
     public ResourceNamePrefixService() {
@@ -191,6 +229,10 @@ public class ResourceNamePrefixService extends StatefulService {
 
         NamePrefixRequest request = patch.getBody(NamePrefixRequest.class);
         ResourceNamePrefixState state = getState(patch);
+        if (request.leaseCount > 0 || request.releasedRanges != null) {
+            handleLeasePatch(patch, state, request);
+            return;
+        }
         if (request.resourceCount <= 0) {
             patch.fail(new IllegalArgumentException(
                     "Requested resource count must be positive number."));
@@ -205,28 +247,109 @@ public class ResourceNamePrefixService extends StatefulService {
         response.resourceNamePrefixes = new ArrayList<String>((int) request.resourceCount);
 
         for (int i = 0; i < request.resourceCount; i++) {
-            final StringBuilder namePrefix = new StringBuilder();
-            namePrefix.append(state.prefix);
-            namePrefix.append(state.currentCount++);
-            if (state.addRandomToken) {
-                namePrefix.append(RANDOM_GENERATED_TOKEN_DELIMITER);
-                //adding time since 2016 as shortest and smallest possible guaranteed random token
-                long timestamp = System.currentTimeMillis() - SINCE_TIME;
-                namePrefix.append(timestamp);
-            }
-            response.resourceNamePrefixes.add(namePrefix.toString());
+            response.resourceNamePrefixes.add(buildNamePrefix(state.prefix,
+                    state.currentCount++, state.addRandomToken));
             if (state.currentCount > state.getMaxNumber()) {
-                // reset back to the beginning.
-                logWarning("Reseting name prefix counter [%s] to initial value [%s]...",
-                        state.currentCount, state.nextNumber);
-                state.currentCount = state.nextNumber;
+                resetCounter(state);
+            }
+        }
+
+        patch.setBodyNoCloning(response);
+        patch.complete();
+    }
+
+    private void handleLeasePatch(Operation patch, ResourceNamePrefixState state,
+            NamePrefixRequest request) {
+        if (request.leaseCount < 0) {
+            patch.fail(new IllegalArgumentException(
+                    "Requested lease count must be positive number."));
+            return;
+        } else if (request.resourceCount > state.getRange()) {
+            // the resources requested from the node leasing the range
+            patch.fail(new IllegalArgumentException(
+                    "Requested resource count must be less than the range."));
+            return;
+        }
+
+        if (request.releasedRanges != null) {
+            for (NumberRange range : request.releasedRanges) {
+                // ignore ranges not in the sequence any more, e.g. after a change of the digits,
+                // or leased before the counter wrapped around, their numbers are used again
+                if (range == null || range.start < state.nextNumber
+                        || range.end > state.getMaxNumber() || range.start > range.end
+                        || range.epoch != state.epoch) {
+                    continue;
+                }
+                if (state.releasedRanges == null) {
+                    state.releasedRanges = new ArrayList<>();
+                }
+                state.releasedRanges.add(range);
             }
         }
 
+        NamePrefixResponse response = new NamePrefixResponse();
+        response.prefix = state.prefix;
+        response.addRandomToken = state.addRandomToken;
+        if (request.leaseCount > 0) {
+            response.leasedRange = leaseRange(state, request.leaseCount);
+        }
+
         patch.setBodyNoCloning(response);
         patch.complete();
     }
 
+    private NumberRange leaseRange(ResourceNamePrefixState state, long leaseCount) {
+        NumberRange range = new NumberRange();
+        range.epoch = state.epoch;
+        if (state.releasedRanges != null && !state.releasedRanges.isEmpty()) {
+            // the numbers given back are leased first
+            NumberRange released = state.releasedRanges.get(0);
+            range.start = released.start;
+            range.end = Math.min(released.end, released.start + leaseCount - 1);
+            if (range.end == released.end) {
+                state.releasedRanges.remove(0);
+            } else {
+                released.start = range.end + 1;
+            }
+            return range;
+        }
+
+        // a range never goes over the max number, the next lease continues from the beginning
+        range.start = state.currentCount;
+        range.end = Math.min(state.getMaxNumber(), state.currentCount + leaseCount - 1);
+        state.currentCount = range.end + 1;
+        if (state.currentCount > state.getMaxNumber()) {
+            resetCounter(state);
+        }
+        return range;
+    }
+
+    private void resetCounter(ResourceNamePrefixState state) {
+        // reset back to the beginning.
+        logWarning("Reseting name prefix counter [%s] to initial value [%s]...",
+                state.currentCount, state.nextNumber);
+        state.currentCount = state.nextNumber;
+        // all the numbers are available again, the ranges leased so far are not given back
+        state.releasedRanges = null;
+        state.epoch++;
+    }
+
+    /**
+     * Builds the name prefix for the given number in the sequence.
+     */
+    public static String buildNamePrefix(String prefix, long number, Boolean addRandomToken) {
+        final StringBuilder namePrefix = new StringBuilder();
+        namePrefix.append(prefix);
+        namePrefix.append(number);
+        if (Boolean.TRUE.equals(addRandomToken)) {
+            namePrefix.append(RANDOM_GENERATED_TOKEN_DELIMITER);
+            //adding time since 2016 as shortest and smallest possible guaranteed random token
+            long timestamp = System.currentTimeMillis() - SINCE_TIME;
+            namePrefix.append(timestamp);
+        }
+        return namePrefix.toString();
+    }
+
     public static String getDefaultResourceNameFormat(String baseName) {
         if (ResourceNamePrefixState.DEFAULT_PREFIX_FLAG) {
             return "%s" + ResourceNamePrefixState.PREFIX_DELIMITER + baseName;
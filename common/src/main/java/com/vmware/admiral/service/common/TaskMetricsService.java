@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2016 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.service.common;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import com.vmware.admiral.common.ManagementUriParts;
+import com.vmware.admiral.common.util.LatencyHistogram;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.StatelessService;
+import com.vmware.xenon.common.TaskState.TaskStage;
+
+/**
+ * Node local latency metrics of the tasks extending {@link AbstractTaskStatefulService}. The time
+ * spent in each stage and sub stage is recorded per task type in a {@link LatencyHistogram} when
+ * the task moves to the next stage. GET renders the percentiles of the durations, in
+ * microseconds. The percentiles are also published as stats of this service by the maintenance.
+ *
+ * The metrics are not persisted and are reset when the host restarts.
+ */
+public class TaskMetricsService extends StatelessService {
+
+    public static final String SELF_LINK = ManagementUriParts.METRICS;
+
+    public static final String STAT_NAME_SUFFIX_COUNT = ".count";
+    public static final String STAT_NAME_SUFFIX_P50 = ".p50Micros";
+    public static final String STAT_NAME_SUFFIX_P99 = ".p99Micros";
+
+    // task type -> stage -> sub stage -> durations. Keyed by the classes and the enums, so that
+    // recording a duration doesn't allocate.
+    private static final ConcurrentMap<Class<?>, StageHistograms> HISTOGRAMS =
+            new ConcurrentHashMap<>();
+
+    private static class StageHistograms {
+        final List<ConcurrentMap<Enum<?>, LatencyHistogram>> byStage;
+
+        StageHistograms() {
+            byStage = new ArrayList<>(TaskStage.values().length);
+            for (int i = 0; i < TaskStage.values().length; i++) {
+                byStage.add(new ConcurrentHashMap<>());
+            }
+        }
+    }
+
+    /** Returned by GET. */
+    public static class TaskMetrics {
+        /** The metrics per task type and "stage:subStage". */
+        public Map<String, Map<String, StageMetrics>> tasks;
+    }
+
+    public static class StageMetrics {
+        public long count;
+        public long meanMicros;
+        public long p50Micros;
+        public long p90Micros;
+        public long p99Micros;
+        public long p999Micros;
+        public long maxMicros;
+    }
+
+    public TaskMetricsService() {
+        super.toggleOption(ServiceOption.INSTRUMENTATION, true);
+        super.toggleOption(ServiceOption.PERIODIC_MAINTENANCE, true);
+        super.setMaintenanceIntervalMicros(TimeUnit.MINUTES.toMicros(1));
+    }
+
+    /**
+     * Records the time a task of the given type spent in the given stage and sub stage.
+     */
+    public static void recordStageDuration(Class<?> taskType, TaskStage stage, Enum<?> subStage,
+            long durationMicros) {
+        StageHistograms histograms = HISTOGRAMS.get(taskType);
+        if (histograms == null) {
+            histograms = HISTOGRAMS.computeIfAbsent(taskType, (k) -> new StageHistograms());
+        }
+
+        ConcurrentMap<Enum<?>, LatencyHistogram> bySubStage = histograms.byStage
+                .get(stage.ordinal());
+        LatencyHistogram histogram = bySubStage.get(subStage);
+        if (histogram == null) {
+            histogram = bySubStage.computeIfAbsent(subStage, (k) -> new LatencyHistogram());
+        }
+        histogram.record(durationMicros);
+    }
+
+    /**
+     * Returns the metrics of the recorded durations, per task type and "stage:subStage".
+     */
+    public static TaskMetrics getTaskMetrics() {
+        TaskMetrics metrics = new TaskMetrics();
+        metrics.tasks = new TreeMap<>();
+        for (Entry<Class<?>, StageHistograms> e : HISTOGRAMS.entrySet()) {
+            Map<String, StageMetrics> stages = new LinkedHashMap<>();
+            for (TaskStage stage : TaskStage.values()) {
+                // in the order of the sub stages
+                Map<Enum<?>, LatencyHistogram> bySubStage = new TreeMap<>(
+                        (a, b) -> Integer.compare(a.ordinal(), b.ordinal()));
+                bySubStage.putAll(e.getValue().byStage.get(stage.ordinal()));
+
+                for (Entry<Enum<?>, LatencyHistogram> h : bySubStage.entrySet()) {
+                    stages.put(stage.name() + ":" + h.getKey().name(),
+                            toStageMetrics(h.getValue()));
+                }
+            }
+            metrics.tasks.put(e.getKey().getSimpleName(), stages);
+        }
+        return metrics;
+    }
+
+    private static StageMetrics toStageMetrics(LatencyHistogram histogram) {
+        StageMetrics metrics = new StageMetrics();
+        metrics.count = histogram.getCount();
+        metrics.meanMicros = histogram.getMean();
+        metrics.p50Micros = histogram.getValueAtPercentile(50);
+        metrics.p90Micros = histogram.getValueAtPercentile(90);
+        metrics.p99Micros = histogram.getValueAtPercentile(99);
+        metrics.p999Micros = histogram.getValueAtPercentile(99.9);
+        metrics.maxMicros = histogram.getMax();
+        return metrics;
+    }
+
+    @Override
+    public void handleGet(Operation get) {
+        get.setBody(getTaskMetrics()).complete();
+    }
+
+    @Override
+    public void handlePeriodicMaintenance(Operation post) {
+        // the percentiles are computed here and not when the durations are recorded
+        TaskMetrics metrics = getTaskMetrics();
+        for (Entry<String, Map<String, StageMetrics>> task : metrics.tasks.entrySet()) {
+            for (Entry<String, StageMetrics> stage : task.getValue().entrySet()) {
+                String prefix = task.getKey() + "." + stage.getKey();
+                setStat(prefix + STAT_NAME_SUFFIX_COUNT, stage.getValue().count);
+                setStat(prefix + STAT_NAME_SUFFIX_P50, stage.getValue().p50Micros);
+                setStat(prefix + STAT_NAME_SUFFIX_P99, stage.getValue().p99Micros);
+            }
+        }
+        post.complete();
+    }
+}
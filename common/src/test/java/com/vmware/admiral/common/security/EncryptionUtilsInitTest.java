@@ -40,6 +40,7 @@ public class EncryptionUtilsInitTest {
     public void init() throws IOException {
         System.clearProperty(EncryptionUtils.ENCRYPTION_KEY);
         System.clearProperty(EncryptionUtils.INIT_KEY_IF_MISSING);
+        System.clearProperty(EncryptionUtils.DECRYPTION_CACHE_SIZE);
         EncryptionUtils.initEncryptionService();
         keyFile = Paths.get(folder.newFolder().getPath(), "encryption.key").toFile();
     }
@@ -95,4 +96,35 @@ public class EncryptionUtilsInitTest {
         assertEquals(plainText, decryptedString);
     }
 
+    @Test
+    public void testDecryptionCacheClearedOnKeyChange() throws IOException {
+        Files.write(keyFile.toPath(), EncryptorService.generateKey());
+        System.setProperty(EncryptionUtils.ENCRYPTION_KEY, keyFile.getPath());
+        System.setProperty(EncryptionUtils.DECRYPTION_CACHE_SIZE, "10");
+        EncryptionUtils.initEncryptionService();
+
+        String plainText = EncryptorServiceTest.generatePlainText();
+        String encryptedString = EncryptionUtils.encrypt(plainText);
+        assertEquals(plainText, EncryptionUtils.decrypt(encryptedString));
+
+        EncryptorService previousService = EncryptionUtils.getEncryptionService();
+        assertEquals(1, previousService.getDecryptionCacheSize());
+
+        // the key file changes, the value decrypted with the previous key is not returned
+        Files.write(keyFile.toPath(), EncryptorService.generateKey());
+        EncryptionUtils.initEncryptionService();
+        assertEquals(0, previousService.getDecryptionCacheSize());
+        assertEquals(0, EncryptionUtils.getEncryptionService().getDecryptionCacheSize());
+
+        try {
+            assertNotEquals(plainText, EncryptionUtils.decrypt(encryptedString));
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().equalsIgnoreCase("Decryption error!"));
+        }
+
+        String newEncryptedString = EncryptionUtils.encrypt(plainText);
+        assertEquals(plainText, EncryptionUtils.decrypt(newEncryptedString));
+        assertEquals(1, EncryptionUtils.getEncryptionService().getDecryptionCacheSize());
+    }
+
 }
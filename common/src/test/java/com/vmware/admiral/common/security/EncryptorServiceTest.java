@@ -211,6 +211,35 @@ public class EncryptorServiceTest {
         }
     }
 
+    @Test
+    public void testDecryptionCache() throws InterruptedException {
+
+        EncryptorService service = new EncryptorService(EncryptorService.generateKey());
+        service.setDecryptionCache(2, 200);
+
+        String plainText = generatePlainText();
+        String encryptedOne = service.encrypt(plainText + " One");
+        String encryptedTwo = service.encrypt(plainText + " Two");
+        String encryptedThree = service.encrypt(plainText + " Three");
+
+        assertEquals(plainText + " One", service.decrypt(encryptedOne));
+        assertEquals(plainText + " Two", service.decrypt(encryptedTwo));
+        assertEquals(plainText + " Three", service.decrypt(encryptedThree));
+        assertEquals(plainText + " One", service.decrypt(encryptedOne));
+
+        // bounded
+        assertEquals(2, service.getDecryptionCacheSize());
+
+        // short lived, the expired values are removed
+        Thread.sleep(300);
+        assertEquals(plainText + " Three", service.decrypt(encryptedThree));
+        assertEquals(1, service.getDecryptionCacheSize());
+
+        service.clearDecryptionCache();
+        assertEquals(0, service.getDecryptionCacheSize());
+        assertEquals(plainText + " Two", service.decrypt(encryptedTwo));
+    }
+
     public static File getKeyFile() {
         try {
             return new File(
@@ -0,0 +1,245 @@
+/*
+ * Copyright (c) 2016 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.common.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyStore;
+import java.security.Principal;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Scanner;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509ExtendedKeyManager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vmware.admiral.common.util.CertificateUtil.CertChainKeyPair;
+import com.vmware.xenon.common.Utils;
+
+public class DelegatingX509KeyManagerTest {
+    private static final int IDENTITY_COUNT = 10_000;
+    private static final int CACHE_SIZE = 100;
+    private static final int CONNECTION_COUNT = 20;
+    private static final String PROTOCOL = "TLSv1.2";
+
+    private CertChainKeyPair serverCertificate;
+    private CertChainKeyPair clientCertificate;
+    private SSLServerSocket serverSocket;
+    private Thread serverThread;
+
+    @Before
+    public void setUp() throws Exception {
+        X509Certificate caCertificate = CertificateUtil.createCertificate(
+                loadPemFileContent("certs/ca.pem"));
+        KeyPair caKeyPair = CertificateUtil.createKeyPair(loadPemFileContent("certs/ca-key.pem"));
+        serverCertificate = CertificateUtil.generateSigned("localhost", caCertificate,
+                caKeyPair.getPrivate());
+        clientCertificate = CertificateUtil.generateSignedForClient("client", caCertificate,
+                caKeyPair.getPrivate());
+
+        // the CA is listed as accepted issuer for the client to choose its certificate
+        SSLContext serverContext = CertificateUtil.createSSLContext(
+                createTrustManager(clientCertificate.getCertificate(), caCertificate),
+                createKeyManager("server", serverCertificate));
+        serverSocket = (SSLServerSocket) serverContext.getServerSocketFactory()
+                .createServerSocket(0);
+        serverSocket.setNeedClientAuth(true);
+        serverSocket.setEnabledProtocols(new String[] { PROTOCOL });
+        serverThread = new Thread(this::serve, "tls-stub-server");
+        serverThread.setDaemon(true);
+        serverThread.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        serverSocket.close();
+        serverThread.join(TimeUnit.SECONDS.toMillis(5));
+    }
+
+    @Test
+    public void testBoundedDelegates() {
+        DelegatingX509KeyManager keyManager = new DelegatingX509KeyManager(CACHE_SIZE);
+        AtomicInteger evicted = new AtomicInteger();
+        keyManager.setEvictionHandler((alias, delegate) -> evicted.incrementAndGet());
+
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < IDENTITY_COUNT; i++) {
+            keyManager.putDelegate("https://host-" + i + ":2376", new StubKeyManager());
+            // the first host is used all the time and never evicted
+            assertNotNull(keyManager.getDelegate("https://host-0:2376"));
+        }
+
+        assertEquals(CACHE_SIZE, keyManager.size());
+        assertEquals(IDENTITY_COUNT - CACHE_SIZE, evicted.get());
+        assertNotNull(keyManager.getDelegate("https://host-0:2376"));
+        assertNull(keyManager.getDelegate("https://host-1:2376"));
+        assertNotNull(keyManager.getDelegate("https://host-" + (IDENTITY_COUNT - 1) + ":2376"));
+
+        Utils.log(getClass(), getClass().getSimpleName(), Level.INFO,
+                "%d identities, %d kept, heap used %d MB", IDENTITY_COUNT, keyManager.size(),
+                (runtime.totalMemory() - runtime.freeMemory()) / (1024 * 1024));
+    }
+
+    @Test
+    public void testPeerDelegateChosen() throws Exception {
+        DelegatingX509KeyManager keyManager = new DelegatingX509KeyManager(CACHE_SIZE);
+        for (int i = 0; i < 10; i++) {
+            String alias = "https://host-" + i + ":2376";
+            keyManager.putDelegate(alias, createKeyManager(alias, clientCertificate));
+        }
+
+        // all the delegates match, the one of the peer is chosen
+        SSLEngine engine = SSLContext.getDefault().createSSLEngine("Host-7", 2376);
+        assertEquals("https://host-7:2376", keyManager.chooseEngineClientAlias(
+                new String[] { "RSA" }, null, engine));
+    }
+
+    @Test
+    public void testSessionResumption() throws Exception {
+        String alias = "https://localhost:" + serverSocket.getLocalPort();
+        DelegatingX509KeyManager keyManager = new DelegatingX509KeyManager(CACHE_SIZE);
+        keyManager.putDelegate(alias, createKeyManager(alias, clientCertificate));
+        TrustManager trustManager = createTrustManager(serverCertificate.getCertificate());
+
+        // a new context for every connection, every handshake is a full one
+        Set<ByteBuffer> sessions = new HashSet<>();
+        long start = System.nanoTime();
+        for (int i = 0; i < CONNECTION_COUNT; i++) {
+            sessions.add(connect(CertificateUtil.createSSLContext(trustManager, keyManager)));
+        }
+        long fullNanos = System.nanoTime() - start;
+        assertEquals(CONNECTION_COUNT, sessions.size());
+
+        // a shared context, the session is resumed after the first handshake
+        SSLContext sharedContext = CertificateUtil.createSSLContext(trustManager, keyManager,
+                CACHE_SIZE);
+        sessions.clear();
+        start = System.nanoTime();
+        for (int i = 0; i < CONNECTION_COUNT; i++) {
+            sessions.add(connect(sharedContext));
+        }
+        long resumedNanos = System.nanoTime() - start;
+        assertEquals(1, sessions.size());
+
+        Utils.log(getClass(), getClass().getSimpleName(), Level.INFO,
+                "%d connections: full handshakes %d ms, resumed handshakes %d ms",
+                CONNECTION_COUNT, TimeUnit.NANOSECONDS.toMillis(fullNanos),
+                TimeUnit.NANOSECONDS.toMillis(resumedNanos));
+    }
+
+    private ByteBuffer connect(SSLContext context) throws Exception {
+        try (SSLSocket socket = (SSLSocket) context.getSocketFactory().createSocket(
+                "localhost", serverSocket.getLocalPort())) {
+            socket.setEnabledProtocols(new String[] { PROTOCOL });
+            socket.startHandshake();
+            OutputStream out = socket.getOutputStream();
+            out.write(1);
+            out.flush();
+            assertEquals(1, socket.getInputStream().read());
+            return ByteBuffer.wrap(socket.getSession().getId());
+        }
+    }
+
+    private void serve() {
+        while (!serverSocket.isClosed()) {
+            try (Socket socket = serverSocket.accept()) {
+                InputStream in = socket.getInputStream();
+                int b = in.read();
+                OutputStream out = socket.getOutputStream();
+                out.write(b);
+                out.flush();
+            } catch (Exception e) {
+                // closed or failed handshake, the client fails the test
+            }
+        }
+    }
+
+    private static X509ExtendedKeyManager createKeyManager(String alias,
+            CertChainKeyPair certificate) throws Exception {
+        KeyStore keyStore = CertificateUtil.createEmptyKeyStore();
+        List<X509Certificate> chain = certificate.getCertificateChain();
+        keyStore.setKeyEntry(alias, certificate.getPrivateKey(), new char[0],
+                chain.toArray(new X509Certificate[chain.size()]));
+        KeyManager[] keyManagers = CertificateUtil.getKeyManagers(keyStore);
+        return (X509ExtendedKeyManager) keyManagers[0];
+    }
+
+    private static TrustManager createTrustManager(X509Certificate... certificates)
+            throws Exception {
+        KeyStore trustStore = CertificateUtil.createEmptyKeyStore();
+        for (int i = 0; i < certificates.length; i++) {
+            trustStore.setCertificateEntry("trusted-" + i, certificates[i]);
+        }
+        return CertificateUtil.getTrustManagers(trustStore)[0];
+    }
+
+    private static String loadPemFileContent(String pemFile) {
+        try (Scanner scanner = new Scanner(DelegatingX509KeyManagerTest.class.getClassLoader()
+                .getResourceAsStream(pemFile), StandardCharsets.UTF_8.name())) {
+            return scanner.useDelimiter("\\A").next();
+        }
+    }
+
+    private static class StubKeyManager extends X509ExtendedKeyManager {
+        @Override
+        public String[] getClientAliases(String keyType, Principal[] issuers) {
+            return null;
+        }
+
+        @Override
+        public String chooseClientAlias(String[] keyType, Principal[] issuers, Socket socket) {
+            return null;
+        }
+
+        @Override
+        public String[] getServerAliases(String keyType, Principal[] issuers) {
+            return null;
+        }
+
+        @Override
+        public String chooseServerAlias(String keyType, Principal[] issuers, Socket socket) {
+            return null;
+        }
+
+        @Override
+        public X509Certificate[] getCertificateChain(String alias) {
+            return null;
+        }
+
+        @Override
+        public PrivateKey getPrivateKey(String alias) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) 2016 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.common.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import javax.net.ssl.X509TrustManager;
+
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.cert.X509v3CertificateBuilder;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509ExtensionUtils;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.vmware.xenon.common.Utils;
+
+public class DelegatingX509TrustManagerTest {
+    private static final int CERTIFICATE_COUNT = 5000;
+    private static final String AUTH_TYPE = "ECDHE_ECDSA";
+
+    private static List<X509Certificate> certificates;
+    private static X509Certificate untrusted;
+
+    private DelegatingX509TrustManager trustManager;
+    private AtomicInteger checkCount;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        certificates = new ArrayList<>(CERTIFICATE_COUNT);
+        for (int i = 0; i < CERTIFICATE_COUNT; i++) {
+            certificates.add(createSelfSignedCertificate("host-" + i, i));
+        }
+        untrusted = createSelfSignedCertificate("untrusted", CERTIFICATE_COUNT);
+    }
+
+    @Test
+    public void testIndexedLookup() throws Exception {
+        createTrustManager();
+
+        long start = System.nanoTime();
+        for (X509Certificate certificate : certificates) {
+            trustManager.checkServerTrusted(new X509Certificate[] { certificate }, AUTH_TYPE);
+        }
+        long indexedNanos = System.nanoTime() - start;
+
+        // every chain is checked by the delegate trusting it only
+        assertEquals(CERTIFICATE_COUNT, checkCount.get());
+
+        Utils.log(getClass(), getClass().getSimpleName(), Level.INFO,
+                "%d trusted certificates checked in %d ms", CERTIFICATE_COUNT,
+                TimeUnit.NANOSECONDS.toMillis(indexedNanos));
+    }
+
+    @Test
+    public void testFullScanOnMiss() throws Exception {
+        createTrustManager();
+
+        try {
+            trustManager.checkServerTrusted(new X509Certificate[] { untrusted }, AUTH_TYPE);
+            fail("Untrusted certificate accepted");
+        } catch (CertificateException e) {
+            // expected
+        }
+        assertEquals(CERTIFICATE_COUNT, checkCount.get());
+
+        // a delegate not telling its accepted issuers is found by the full scan
+        trustManager.putDelegate("not-indexed", new CountingTrustManager(
+                createTrustManager("not-indexed", untrusted), checkCount) {
+            @Override
+            public X509Certificate[] getAcceptedIssuers() {
+                return new X509Certificate[0];
+            }
+        });
+        checkCount.set(0);
+        trustManager.checkServerTrusted(new X509Certificate[] { untrusted }, AUTH_TYPE);
+        assertTrue(checkCount.get() > 0);
+    }
+
+    @Test
+    public void testUpdateAndRemoveDelegates() throws Exception {
+        createTrustManager();
+        X509Certificate[] chain = new X509Certificate[] { certificates.get(0) };
+
+        // the delegate replaced by one trusting another certificate
+        trustManager.putDelegate("host-0", createTrustManager("host-0", untrusted));
+        trustManager.checkServerTrusted(new X509Certificate[] { untrusted }, AUTH_TYPE);
+        assertRejected(chain);
+
+        trustManager.putDelegate("host-0", createTrustManager("host-0", certificates.get(0)));
+        trustManager.checkServerTrusted(chain, AUTH_TYPE);
+        assertRejected(new X509Certificate[] { untrusted });
+
+        trustManager.removeDelegate("host-0");
+        assertRejected(chain);
+        trustManager.checkServerTrusted(new X509Certificate[] { certificates.get(1) },
+                AUTH_TYPE);
+    }
+
+    private void assertRejected(X509Certificate[] chain) {
+        try {
+            trustManager.checkServerTrusted(chain, AUTH_TYPE);
+            fail("Certificate accepted: " + chain[0].getSubjectX500Principal());
+        } catch (CertificateException e) {
+            // expected
+        }
+    }
+
+    private void createTrustManager() throws Exception {
+        trustManager = new DelegatingX509TrustManager();
+        checkCount = new AtomicInteger();
+        for (int i = 0; i < CERTIFICATE_COUNT; i++) {
+            String alias = "host-" + i;
+            trustManager.putDelegate(alias, new CountingTrustManager(
+                    createTrustManager(alias, certificates.get(i)), checkCount));
+        }
+    }
+
+    private static X509TrustManager createTrustManager(String alias,
+            X509Certificate certificate) throws Exception {
+        KeyStore trustStore = CertificateUtil.createEmptyKeyStore();
+        trustStore.setCertificateEntry(alias, certificate);
+        return (X509TrustManager) CertificateUtil.getTrustManagers(trustStore)[0];
+    }
+
+    private static X509Certificate createSelfSignedCertificate(String name, long serial)
+            throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(256);
+        KeyPair keyPair = generator.generateKeyPair();
+
+        X500Name subject = new X500Name("CN=" + name);
+        Date notBefore = new Date(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(1));
+        Date notAfter = new Date(System.currentTimeMillis() + TimeUnit.DAYS.toMillis(1));
+        X509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(subject,
+                BigInteger.valueOf(serial), notBefore, notAfter, subject, keyPair.getPublic());
+        builder.addExtension(Extension.subjectKeyIdentifier, false,
+                new JcaX509ExtensionUtils().createSubjectKeyIdentifier(keyPair.getPublic()));
+
+        return new JcaX509CertificateConverter().getCertificate(builder.build(
+                new JcaContentSignerBuilder("SHA256withECDSA").build(keyPair.getPrivate())));
+    }
+
+    private static class CountingTrustManager implements X509TrustManager {
+        private final X509TrustManager delegate;
+        private final AtomicInteger checkCount;
+
+        CountingTrustManager(X509TrustManager delegate, AtomicInteger checkCount) {
+            this.delegate = delegate;
+            this.checkCount = checkCount;
+        }
+
+        @Override
+        public void checkClientTrusted(X509Certificate[] chain, String authType)
+                throws CertificateException {
+            delegate.checkClientTrusted(chain, authType);
+        }
+
+        @Override
+        public void checkServerTrusted(X509Certificate[] chain, String authType)
+                throws CertificateException {
+            checkCount.incrementAndGet();
+            delegate.checkServerTrusted(chain, authType);
+        }
+
+        @Override
+        public X509Certificate[] getAcceptedIssuers() {
+            return delegate.getAcceptedIssuers();
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2016 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.service.common.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.security.KeyPair;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.vmware.admiral.common.util.KeyPairPool;
+import com.vmware.admiral.common.util.KeyUtil;
+
+/**
+ * Tests for KeyPairPool
+ */
+public class KeyPairPoolTest {
+    private static final int POOL_SIZE = 5;
+    private static final long WAIT_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+    private final AtomicInteger generated = new AtomicInteger();
+    private KeyPairPool pool;
+
+    @After
+    public void tearDown() {
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testRefill() throws Exception {
+        pool = new KeyPairPool(POOL_SIZE, () -> {
+            generated.incrementAndGet();
+            return new KeyPair(null, null);
+        });
+        assertEquals(0, pool.getAvailable());
+
+        pool.refill();
+        waitForAvailable(POOL_SIZE);
+        assertEquals(POOL_SIZE, generated.get());
+
+        // the taken key pairs are generated again in the background
+        Set<KeyPair> taken = new HashSet<>();
+        for (int i = 0; i < POOL_SIZE * 3; i++) {
+            taken.add(pool.take());
+        }
+        assertEquals(POOL_SIZE * 3, taken.size());
+
+        waitForAvailable(POOL_SIZE);
+        assertEquals(POOL_SIZE * 4, generated.get());
+    }
+
+    @Test
+    public void testTakeFromEmptyPool() throws Exception {
+        pool = new KeyPairPool(0, KeyUtil::generateRSAKeyPair);
+
+        KeyPair keyPair = pool.take();
+        assertNotNull(keyPair.getPublic());
+        assertNotNull(keyPair.getPrivate());
+        assertEquals(0, pool.getAvailable());
+    }
+
+    @Test
+    public void testTakeLatency() throws Exception {
+        pool = new KeyPairPool(POOL_SIZE, KeyUtil::generateRSAKeyPair);
+        pool.refill();
+        waitForAvailable(POOL_SIZE);
+
+        long startTime = System.nanoTime();
+        for (int i = 0; i < POOL_SIZE; i++) {
+            assertNotNull(pool.take());
+        }
+        long pooledNanos = (System.nanoTime() - startTime) / POOL_SIZE;
+
+        startTime = System.nanoTime();
+        for (int i = 0; i < POOL_SIZE; i++) {
+            assertNotNull(KeyUtil.generateRSAKeyPair());
+        }
+        long generatedNanos = (System.nanoTime() - startTime) / POOL_SIZE;
+
+        assertTrue(String.format("take: %d ns, generate: %d ns", pooledNanos, generatedNanos),
+                pooledNanos < generatedNanos);
+    }
+
+    private void waitForAvailable(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+        while (pool.getAvailable() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, pool.getAvailable());
+    }
+}
@@ -11,10 +11,13 @@
 
 package com.vmware.admiral.compute;
 
+import java.util.HashMap;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import java.util.logging.Level;
 
+import com.vmware.admiral.common.util.CertificateUtil;
 import com.vmware.admiral.common.util.OperationUtil;
 import com.vmware.admiral.common.util.UriUtilsExtended;
 import com.vmware.admiral.compute.container.ShellContainerExecutorService;
@@ -24,6 +27,7 @@ import com.vmware.admiral.log.EventLogService.EventLogState;
 import com.vmware.admiral.log.EventLogService.EventLogState.EventLogType;
 import com.vmware.photon.controller.model.resources.ComputeService.ComputeState;
 import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.Service;
 import com.vmware.xenon.common.StatelessService;
 import com.vmware.xenon.common.UriUtils;
 import com.vmware.xenon.common.Utils;
@@ -38,6 +42,9 @@ public class AbstractCertificateDistributionService extends StatelessService {
     public static final long QUERY_RETRIEVAL_RETRY_INTERVAL_SECONDS = Integer.getInteger(
             "cmp.management.query.certificatedistribution.maxRetryIntervalSec", 5);
 
+    /** Host custom property prefix for the fingerprint of the certificate of a registry. */
+    public static final String REGISTRY_CERTIFICATE_PROP_NAME_PREFIX = "__registryCertificate.";
+
     protected void uploadCertificate(String hostLink, String registryAddress, String certificate,
             List<String> tenantLinks) {
 
@@ -47,71 +54,146 @@ public class AbstractCertificateDistributionService extends StatelessService {
                         logInfo("Skip installing certificate for VIC host [%s]", hostLink);
                         return;
                     }
-                    ShellContainerExecutorState execState = new ShellContainerExecutorState();
-                    execState.command = new String[] { "sh", "/copy-certificate.sh",
-                            getCertificateDirName(registryAddress), certificate };
-
-                    try {
-                        processUploadCertificateQuery(execState, hostLink, MAX_RETRIES,
-                                registryAddress, tenantLinks);
-                    } catch (Throwable t) {
-                        logSevere("Fail to upload registry certificate to host %s: "
-                                + "failed to connect to shell container executor service.",
-                                hostLink);
-                    }
+
+                    uploadCertificate(this, hostLink, registryAddress, certificate, (ex) -> {
+                        if (ex != null) {
+                            String errMsg = getUploadFailureMessage(registryAddress, hostLink);
+                            logSevere(errMsg);
+                            publishEventLog(errMsg, tenantLinks);
+                        }
+                    });
                 });
     }
 
-    protected void processUploadCertificateQuery(ShellContainerExecutorState execState,
-            String hostLink, int retries, String registryAddress, List<String> tenantLinks) {
-        Operation post = Operation.createPost(this, ShellContainerExecutorService.SELF_LINK);
+    /**
+     * Uploads the certificate of the registry to the given docker host, retrying up to
+     * {@link #MAX_RETRIES} times. The callback is called with the last failure or
+     * <code>null</code> when done.
+     */
+    public static void uploadCertificate(Service sender, String hostLink,
+            String registryAddress, String certificate, Consumer<Throwable> callback) {
+        ShellContainerExecutorState execState = new ShellContainerExecutorState();
+        execState.command = new String[] { "sh", "/copy-certificate.sh",
+                getCertificateDirName(registryAddress), certificate };
+
+        processUploadCertificateQuery(sender, execState, hostLink, MAX_RETRIES, callback);
+    }
+
+    /**
+     * Returns whether the certificate was recorded as uploaded to the host for the given
+     * registry, see {@link #recordUploadedCertificate(Service, String, String, String, Runnable)}.
+     */
+    public static boolean isCertificateUploaded(ComputeState host, String registryAddress,
+            String certificate) {
+        String fingerprint = getCertificateFingerprint(certificate);
+        return fingerprint != null && host.customProperties != null
+                && fingerprint.equals(host.customProperties.get(
+                        getCertificatePropertyName(registryAddress)));
+    }
+
+    private static void processUploadCertificateQuery(Service sender,
+            ShellContainerExecutorState execState, String hostLink, int retries,
+            Consumer<Throwable> callback) {
+        Operation post = Operation.createPost(sender, ShellContainerExecutorService.SELF_LINK);
         post.setUri(UriUtils.appendQueryParam(post.getUri(),
                 ShellContainerExecutorService.HOST_LINK_URI_PARAM, hostLink));
 
-        sendRequest(post.setBody(execState).setCompletion((o, ex) -> {
+        sender.sendRequest(post.setBody(execState).setCompletion((o, ex) -> {
             if (ex != null) {
-                logSevere("Failed to upload registry certificate to host %s: %s",
+                sender.getHost().log(Level.SEVERE,
+                        "Failed to upload registry certificate to host %s: %s",
                         hostLink, Utils.toString(ex));
                 if (retries > 0) {
-                    getHost().schedule(() -> {
-                        processUploadCertificateQuery(execState, hostLink, retries - 1,
-                                registryAddress, tenantLinks);
+                    sender.getHost().schedule(() -> {
+                        processUploadCertificateQuery(sender, execState, hostLink, retries - 1,
+                                callback);
                     }, QUERY_RETRIEVAL_RETRY_INTERVAL_SECONDS, TimeUnit.SECONDS);
                 } else {
-                    String errMsg = String.format(
-                            "Failed to upload registry certificate for [%s] to host [%s] after %s "
-                                    + "attempts. Your host may experience issues connecting to this registry. "
-                                    + "For more info see: https://docs.docker.com/registry/insecure/#/using-self-signed-certificates",
-                            registryAddress, hostLink, MAX_RETRIES);
-                    logSevere(errMsg);
-                    publishEventLog(errMsg, tenantLinks);
+                    callback.accept(ex);
                 }
             } else {
-                logInfo("Registry certificate successfully uploaded to host %s", hostLink);
-                log(Level.FINEST, () -> String.format(
+                sender.getHost().log(Level.INFO,
+                        "Registry certificate successfully uploaded to host %s", hostLink);
+                sender.getHost().log(Level.FINEST,
                         "Command result (possibly truncated):\n---\n%1.1024s\n---\n",
-                        o.getBody(String.class)));
+                        o.getBody(String.class));
+                callback.accept(null);
             }
         }));
     }
 
+    /**
+     * Records the fingerprint of the certificate uploaded to the host in the host custom
+     * properties. A failure is only logged, the certificate is then uploaded again next time.
+     */
+    public static void recordUploadedCertificate(Service sender, String hostLink,
+            String registryAddress, String certificate, Runnable callback) {
+        String fingerprint = getCertificateFingerprint(certificate);
+        if (fingerprint == null) {
+            callback.run();
+            return;
+        }
+
+        ComputeState patch = new ComputeState();
+        patch.customProperties = new HashMap<>();
+        patch.customProperties.put(getCertificatePropertyName(registryAddress), fingerprint);
+        sender.sendRequest(Operation.createPatch(sender, hostLink)
+                .setBody(patch)
+                .setCompletion((o, e) -> {
+                    if (e != null) {
+                        sender.getHost().log(Level.WARNING,
+                                "Failed to record the registry certificate of host %s: %s",
+                                hostLink, Utils.toString(e));
+                    }
+                    callback.run();
+                }));
+    }
+
+    private static String getCertificatePropertyName(String registryAddress) {
+        return REGISTRY_CERTIFICATE_PROP_NAME_PREFIX + getCertificateDirName(registryAddress);
+    }
+
+    private static String getCertificateFingerprint(String certificate) {
+        try {
+            return CertificateUtil.computeCertificateThumbprint(
+                    CertificateUtil.createCertificate(certificate));
+        } catch (Exception e) {
+            // not a valid certificate, it is uploaded every time
+            return null;
+        }
+    }
+
     protected void publishEventLog(String errMsg, List<String> tenantLinks) {
+        publishEventLog(this, errMsg, tenantLinks);
+    }
+
+    protected static void publishEventLog(Service sender, String errMsg,
+            List<String> tenantLinks) {
         EventLogState eventLog = new EventLogState();
         eventLog.description = errMsg;
         eventLog.eventLogType = EventLogType.WARNING;
-        eventLog.resourceType = getClass().getName();
+        eventLog.resourceType = sender.getClass().getName();
         eventLog.tenantLinks = tenantLinks;
 
-        sendRequest(Operation.createPost(this, EventLogService.FACTORY_LINK)
+        sender.sendRequest(Operation.createPost(sender, EventLogService.FACTORY_LINK)
                 .setBody(eventLog)
                 .setCompletion((o, e) -> {
                     if (e != null) {
-                        logWarning("Failed to create event log: %s", Utils.toString(e));
+                        sender.getHost().log(Level.WARNING, "Failed to create event log: %s",
+                                Utils.toString(e));
                     }
                 }));
     }
 
-    protected String getCertificateDirName(String registryAddress) {
+    protected static String getUploadFailureMessage(String registryAddress, String hostLink) {
+        return String.format(
+                "Failed to upload registry certificate for [%s] to host [%s] after %s "
+                        + "attempts. Your host may experience issues connecting to this registry. "
+                        + "For more info see: https://docs.docker.com/registry/insecure/#/using-self-signed-certificates",
+                registryAddress, hostLink, MAX_RETRIES);
+    }
+
+    protected static String getCertificateDirName(String registryAddress) {
         // certificates are stored under /etc/docker/certs.d/{registryAddress}/
         return UriUtilsExtended.extractHostAndPort(registryAddress);
     }
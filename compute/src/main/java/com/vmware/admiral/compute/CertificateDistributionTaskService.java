@@ -0,0 +1,352 @@
+/*
+ * Copyright (c) 2016 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.compute;
+
+import static com.vmware.xenon.common.ServiceDocumentDescription.PropertyIndexingOption.STORE_ONLY;
+import static com.vmware.xenon.common.ServiceDocumentDescription.PropertyUsageOption.AUTO_MERGE_IF_NOT_NULL;
+import static com.vmware.xenon.common.ServiceDocumentDescription.PropertyUsageOption.OPTIONAL;
+import static com.vmware.xenon.common.ServiceDocumentDescription.PropertyUsageOption.REQUIRED;
+import static com.vmware.xenon.common.ServiceDocumentDescription.PropertyUsageOption.SERVICE_USE;
+import static com.vmware.xenon.common.ServiceDocumentDescription.PropertyUsageOption.SINGLE_ASSIGNMENT;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.vmware.admiral.common.ManagementUriParts;
+import com.vmware.admiral.common.util.AssertUtil;
+import com.vmware.admiral.compute.CertificateDistributionTaskService.CertificateDistributionTaskState;
+import com.vmware.admiral.service.common.AbstractTaskStatefulService;
+import com.vmware.admiral.service.common.TaskServiceDocument;
+import com.vmware.photon.controller.model.resources.ComputeService.ComputeState;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.ServiceDocument;
+import com.vmware.xenon.common.ServiceDocumentDescription.TypeName;
+import com.vmware.xenon.common.ServiceDocumentQueryResult;
+import com.vmware.xenon.common.Utils;
+import com.vmware.xenon.services.common.QueryTask;
+import com.vmware.xenon.services.common.QueryTask.Query;
+import com.vmware.xenon.services.common.QueryTask.QuerySpecification.QueryOption;
+import com.vmware.xenon.services.common.ServiceUriPaths;
+
+/**
+ * Task distributing the certificate of a registry to all docker hosts. The hosts are retrieved
+ * page by page, ordered by their link, and at most
+ * {@link CertificateDistributionTaskState#maxConcurrentUploads} certificate uploads are in flight
+ * at any time. The fingerprint of the uploaded certificate is recorded in the host custom
+ * properties and hosts that already have it are skipped.
+ *
+ * The link of the last processed host is kept in the task state. When the page link of the query
+ * expired, e.g. after slow uploads, the query is issued again and the hosts up to that link are
+ * skipped.
+ */
+public class CertificateDistributionTaskService extends
+        AbstractTaskStatefulService<CertificateDistributionTaskState,
+                CertificateDistributionTaskState.SubStage> {
+
+    public static final String FACTORY_LINK = ManagementUriParts.CERT_DISTRIBUTION_TASKS;
+    public static final String DISPLAY_NAME = "Certificate Distribution";
+
+    public static final int HOST_PAGE_SIZE = Integer.getInteger(
+            "cmp.management.certificatedistribution.page.size", 100);
+    public static final int DEFAULT_MAX_CONCURRENT_UPLOADS = Integer.getInteger(
+            "cmp.management.certificatedistribution.max.concurrent.uploads", 10);
+    public static final long HOST_QUERY_EXPIRATION_MICROS = Long.getLong(
+            "cmp.management.certificatedistribution.query.expiration.micros",
+            TimeUnit.MINUTES.toMicros(10));
+
+    /**
+     * Task parameters, progress and internal state.
+     */
+    public static class CertificateDistributionTaskState
+            extends TaskServiceDocument<CertificateDistributionTaskState.SubStage> {
+
+        public static enum SubStage {
+            CREATED,
+            QUERY_HOSTS,
+            DISTRIBUTE,
+            COMPLETED,
+            ERROR;
+        }
+
+        @Documentation(description = "Address of the registry the certificate is for.")
+        @PropertyOptions(usage = { SINGLE_ASSIGNMENT, REQUIRED }, indexing = STORE_ONLY)
+        public String registryAddress;
+
+        @Documentation(description = "The PEM encoded certificate of the registry.")
+        @PropertyOptions(usage = { SINGLE_ASSIGNMENT, REQUIRED }, indexing = STORE_ONLY)
+        public String certificate;
+
+        @Documentation(description = "The maximum number of certificate uploads in flight.")
+        @PropertyOptions(usage = { SINGLE_ASSIGNMENT, OPTIONAL }, indexing = STORE_ONLY)
+        public Integer maxConcurrentUploads;
+
+        @Documentation(description = "Link to the next page of hosts to retrieve.")
+        @PropertyOptions(usage = { SERVICE_USE, AUTO_MERGE_IF_NOT_NULL },
+                indexing = STORE_ONLY)
+        public String nextPageLink;
+
+        @Documentation(description = "Link to the last host processed, the hosts are processed "
+                + "in the order of their links.")
+        @PropertyOptions(usage = { SERVICE_USE, AUTO_MERGE_IF_NOT_NULL },
+                indexing = STORE_ONLY)
+        public String lastHostLink;
+
+        @Documentation(description = "The number of hosts processed so far.")
+        @PropertyOptions(usage = { SERVICE_USE, AUTO_MERGE_IF_NOT_NULL },
+                indexing = STORE_ONLY)
+        public Long hostCount;
+
+        @Documentation(description = "The number of hosts the certificate was uploaded to.")
+        @PropertyOptions(usage = { SERVICE_USE, AUTO_MERGE_IF_NOT_NULL },
+                indexing = STORE_ONLY)
+        public Long uploadedCount;
+
+        @Documentation(description = "The number of hosts that already had the certificate.")
+        @PropertyOptions(usage = { SERVICE_USE, AUTO_MERGE_IF_NOT_NULL },
+                indexing = STORE_ONLY)
+        public Long skippedCount;
+
+        @Documentation(description = "Links to the hosts the certificate failed to upload to.")
+        @PropertyOptions(usage = { SERVICE_USE, AUTO_MERGE_IF_NOT_NULL },
+                indexing = STORE_ONLY)
+        public Set<String> failedHostLinks;
+    }
+
+    /**
+     * Outcome of the uploads for a page of hosts.
+     */
+    private static class PageUploads {
+        final AtomicInteger nextIndex = new AtomicInteger();
+        final AtomicInteger remaining;
+        final AtomicInteger uploaded = new AtomicInteger();
+        final AtomicInteger skipped = new AtomicInteger();
+        final Set<String> failedHostLinks = new HashSet<>();
+        final String lastHostLink;
+
+        PageUploads(int hostCount, String lastHostLink) {
+            this.remaining = new AtomicInteger(hostCount);
+            this.lastHostLink = lastHostLink;
+        }
+    }
+
+    public CertificateDistributionTaskService() {
+        super(CertificateDistributionTaskState.class,
+                CertificateDistributionTaskState.SubStage.class, DISPLAY_NAME);
+        super.toggleOption(ServiceOption.INSTRUMENTATION, true);
+    }
+
+    @Override
+    protected void validateStateOnStart(CertificateDistributionTaskState state)
+            throws IllegalArgumentException {
+        if (state.maxConcurrentUploads == null) {
+            state.maxConcurrentUploads = DEFAULT_MAX_CONCURRENT_UPLOADS;
+        }
+        AssertUtil.assertTrue(state.maxConcurrentUploads > 0,
+                "'maxConcurrentUploads' must be greater than 0.");
+    }
+
+    @Override
+    protected void handleStartedStagePatch(CertificateDistributionTaskState state) {
+        switch (state.taskSubStage) {
+        case CREATED:
+            proceedTo(CertificateDistributionTaskState.SubStage.QUERY_HOSTS);
+            break;
+        case QUERY_HOSTS:
+            startHostQuery(state);
+            break;
+        case DISTRIBUTE:
+            handleHostPage(state);
+            break;
+        case COMPLETED:
+            completeDistribution(state);
+            break;
+        case ERROR:
+            completeWithError();
+            break;
+        default:
+            break;
+        }
+    }
+
+    private void startHostQuery(CertificateDistributionTaskState state) {
+        Query query = Query.Builder.create().addKindFieldClause(ComputeState.class).build();
+        QueryTask queryTask = QueryTask.Builder.createDirectTask()
+                .setQuery(query)
+                .setResultLimit(HOST_PAGE_SIZE)
+                .addOption(QueryOption.EXPAND_CONTENT)
+                .orderAscending(ServiceDocument.FIELD_NAME_SELF_LINK, TypeName.STRING)
+                .build();
+        // the pages expire with the query task
+        queryTask.documentExpirationTimeMicros = Utils.getNowMicrosUtc()
+                + HOST_QUERY_EXPIRATION_MICROS;
+
+        sendRequest(Operation
+                .createPost(this, ServiceUriPaths.CORE_QUERY_TASKS)
+                .setBody(queryTask)
+                .setCompletion((o, e) -> {
+                    if (e != null) {
+                        failTask("Error querying for hosts", e);
+                        return;
+                    }
+
+                    ServiceDocumentQueryResult result = o.getBody(QueryTask.class).results;
+                    if (result.nextPageLink == null) {
+                        logInfo("No hosts found to distribute the certificate of %s to",
+                                state.registryAddress);
+                        proceedTo(CertificateDistributionTaskState.SubStage.COMPLETED);
+                    } else {
+                        proceedTo(CertificateDistributionTaskState.SubStage.DISTRIBUTE, s -> {
+                            s.nextPageLink = result.nextPageLink;
+                        });
+                    }
+                }));
+    }
+
+    private void handleHostPage(CertificateDistributionTaskState state) {
+        sendRequest(Operation
+                .createGet(getHost(), state.nextPageLink)
+                .setCompletion((o, e) -> {
+                    if (o.getStatusCode() == Operation.STATUS_CODE_NOT_FOUND) {
+                        logWarning("Page of hosts %s expired, querying again for hosts after %s",
+                                state.nextPageLink, state.lastHostLink);
+                        startHostQuery(state);
+                        return;
+                    }
+                    if (e != null) {
+                        failTask("Error retrieving hosts", e);
+                        return;
+                    }
+
+                    ServiceDocumentQueryResult result = o.getBody(QueryTask.class).results;
+                    List<ComputeState> hosts = new ArrayList<>();
+                    String lastHostLink = state.lastHostLink;
+                    for (String link : result.documentLinks) {
+                        // skip the hosts processed before the query was issued again
+                        if (state.lastHostLink != null
+                                && link.compareTo(state.lastHostLink) <= 0) {
+                            continue;
+                        }
+                        hosts.add(Utils.fromJson(result.documents.get(link), ComputeState.class));
+                        lastHostLink = link;
+                    }
+
+                    uploadCertificates(state, hosts, result.nextPageLink, lastHostLink);
+                }));
+    }
+
+    private void uploadCertificates(CertificateDistributionTaskState state,
+            List<ComputeState> hosts, String nextPageLink, String lastHostLink) {
+        if (hosts.isEmpty()) {
+            completePage(state, hosts, new PageUploads(0, lastHostLink), nextPageLink);
+            return;
+        }
+
+        PageUploads page = new PageUploads(hosts.size(), lastHostLink);
+        int workers = Math.min(state.maxConcurrentUploads, hosts.size());
+        for (int i = 0; i < workers; i++) {
+            uploadNext(state, hosts, page, nextPageLink);
+        }
+    }
+
+    private void uploadNext(CertificateDistributionTaskState state, List<ComputeState> hosts,
+            PageUploads page, String nextPageLink) {
+        int index = page.nextIndex.getAndIncrement();
+        if (index >= hosts.size()) {
+            return;
+        }
+
+        ComputeState host = hosts.get(index);
+        if (ContainerHostUtil.isVicHost(host) || AbstractCertificateDistributionService
+                .isCertificateUploaded(host, state.registryAddress, state.certificate)) {
+            page.skipped.incrementAndGet();
+            onUploadCompleted(state, hosts, page, nextPageLink);
+            return;
+        }
+
+        AbstractCertificateDistributionService.uploadCertificate(this, host.documentSelfLink,
+                state.registryAddress, state.certificate, (ex) -> {
+                    if (ex != null) {
+                        logSevere(AbstractCertificateDistributionService.getUploadFailureMessage(
+                                state.registryAddress, host.documentSelfLink));
+                        synchronized (page.failedHostLinks) {
+                            page.failedHostLinks.add(host.documentSelfLink);
+                        }
+                        onUploadCompleted(state, hosts, page, nextPageLink);
+                        return;
+                    }
+
+                    page.uploaded.incrementAndGet();
+                    AbstractCertificateDistributionService.recordUploadedCertificate(this,
+                            host.documentSelfLink, state.registryAddress, state.certificate,
+                            () -> onUploadCompleted(state, hosts, page, nextPageLink));
+                });
+    }
+
+    private void onUploadCompleted(CertificateDistributionTaskState state,
+            List<ComputeState> hosts, PageUploads page, String nextPageLink) {
+        if (page.remaining.decrementAndGet() == 0) {
+            completePage(state, hosts, page, nextPageLink);
+        } else {
+            uploadNext(state, hosts, page, nextPageLink);
+        }
+    }
+
+    private void completePage(CertificateDistributionTaskState state, List<ComputeState> hosts,
+            PageUploads page, String nextPageLink) {
+        long hostCount = getCount(state.hostCount) + hosts.size();
+        long uploadedCount = getCount(state.uploadedCount) + page.uploaded.get();
+        long skippedCount = getCount(state.skippedCount) + page.skipped.get();
+        Set<String> failedHostLinks = new HashSet<>();
+        if (state.failedHostLinks != null) {
+            failedHostLinks.addAll(state.failedHostLinks);
+        }
+        failedHostLinks.addAll(page.failedHostLinks);
+
+        CertificateDistributionTaskState.SubStage nextSubStage = nextPageLink == null
+                ? CertificateDistributionTaskState.SubStage.COMPLETED : state.taskSubStage;
+        proceedTo(nextSubStage, s -> {
+            s.nextPageLink = nextPageLink;
+            s.lastHostLink = page.lastHostLink;
+            s.hostCount = hostCount;
+            s.uploadedCount = uploadedCount;
+            s.skippedCount = skippedCount;
+            // the whole set is sent so the merge does not depend on the collection semantics
+            s.failedHostLinks = failedHostLinks.isEmpty() ? null : failedHostLinks;
+        });
+    }
+
+    private void completeDistribution(CertificateDistributionTaskState state) {
+        logInfo("Certificate of %s distributed to %s hosts, %s skipped, %s failed",
+                state.registryAddress, getCount(state.uploadedCount),
+                getCount(state.skippedCount),
+                state.failedHostLinks == null ? 0 : state.failedHostLinks.size());
+
+        if (state.failedHostLinks != null && !state.failedHostLinks.isEmpty()) {
+            String errMsg = String.format("Failed to upload registry certificate for [%s] to "
+                    + "%s hosts after %s attempts. These hosts may experience issues connecting "
+                    + "to this registry: %s", state.registryAddress,
+                    state.failedHostLinks.size(),
+                    AbstractCertificateDistributionService.MAX_RETRIES, state.failedHostLinks);
+            AbstractCertificateDistributionService.publishEventLog(this, errMsg,
+                    state.tenantLinks);
+        }
+        complete();
+    }
+
+    private static long getCount(Long count) {
+        return count == null ? 0 : count;
+    }
+}
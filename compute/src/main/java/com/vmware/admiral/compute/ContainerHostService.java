@@ -92,6 +92,9 @@ public class ContainerHostService extends StatelessService {
     public static final String DOCKER_HOST_PLUGINS_VOLUME_PROP_NAME = "Volume";
     public static final String DOCKER_HOST_PLUGINS_NETWORK_PROP_NAME = "Network";
 
+    /** Set to "true" while the docker events stream for the host is connected. */
+    public static final String DOCKER_HOST_EVENTS_STREAM_PROP_NAME = "__eventsStream";
+
     public enum DockerAdapterType {
         API
     }
@@ -15,14 +15,14 @@ import java.util.List;
 
 import com.vmware.admiral.common.ManagementUriParts;
 import com.vmware.admiral.common.util.AssertUtil;
+import com.vmware.admiral.compute.CertificateDistributionTaskService.CertificateDistributionTaskState;
 import com.vmware.admiral.service.common.SslTrustCertificateService.SslTrustCertificateState;
-import com.vmware.photon.controller.model.resources.ComputeService;
 import com.vmware.xenon.common.Operation;
-import com.vmware.xenon.common.ServiceDocumentQueryResult;
 import com.vmware.xenon.common.Utils;
 
 /**
- * Service for distribution of self-signed trusted registry certificate to all docker hosts.
+ * Service for distribution of self-signed trusted registry certificate to all docker hosts. The
+ * distribution is done by a {@link CertificateDistributionTaskService} task.
  */
 public class RegistryConfigCertificateDistributionService
         extends AbstractCertificateDistributionService {
@@ -54,16 +54,17 @@ public class RegistryConfigCertificateDistributionService
     private void handleAddRegistryHostOperation(String registryAddress, String certificate,
             List<String> tenantLinks) {
 
-        sendRequest(Operation.createGet(this, ComputeService.FACTORY_LINK)
+        CertificateDistributionTaskState task = new CertificateDistributionTaskState();
+        task.registryAddress = registryAddress;
+        task.certificate = certificate;
+        task.tenantLinks = tenantLinks;
+
+        sendRequest(Operation.createPost(this, CertificateDistributionTaskService.FACTORY_LINK)
+                .setBody(task)
                 .setCompletion((o, ex) -> {
                     if (ex != null) {
-                        o.fail(ex);
-                    } else {
-                        ServiceDocumentQueryResult doc = o
-                                .getBody(ServiceDocumentQueryResult.class);
-                        for (String hostLink : doc.documentLinks) {
-                            uploadCertificate(hostLink, registryAddress, certificate, tenantLinks);
-                        }
+                        logSevere("Failed to start certificate distribution task for %s: %s",
+                                registryAddress, Utils.toString(ex));
                     }
                 }));
     }
@@ -24,6 +24,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
@@ -85,6 +86,12 @@ public class ContainerHostDataCollectionService extends StatefulService {
             "com.vmware.admiral.compute.container.host.frequency.interval.micros",
             TimeUnit.SECONDS.toMicros(20));
 
+    // hosts with a connected docker events stream get their containers updated on events, so
+    // the full list of containers is collected much less often
+    private static final long FREQUENCY_OF_STREAMED_HOST_LIST_COLLECTION_MICROS = Long.getLong(
+            "com.vmware.admiral.compute.container.host.events.list.interval.micros",
+            TimeUnit.MINUTES.toMicros(30));
+
     public static final String RESOURCE_POOL_CPU_USAGE_CUSTOM_PROP = "__cpuUsage";
     public static final String RESOURCE_POOL_AVAILABLE_MEMORY_CUSTOM_PROP = "__availableMemory";
 
@@ -122,6 +129,8 @@ public class ContainerHostDataCollectionService extends StatefulService {
         public long skipRunCount;
     }
 
+    private final Map<String, Long> lastListCollectionByHost = new ConcurrentHashMap<>();
+
     public ContainerHostDataCollectionService() {
         super(ContainerHostDataCollectionState.class);
         super.toggleOption(ServiceOption.PERSISTENCE, true);
@@ -211,6 +220,7 @@ public class ContainerHostDataCollectionService extends StatefulService {
                                         body.remove);
                                 updateContainerHostContainers(computeState.documentSelfLink);
                                 updateContainerHostNetworks(computeState.documentSelfLink);
+                                updateContainerHostImages(computeState.documentSelfLink);
                                 updateHostStats(computeState.documentSelfLink);
                             }
                         }, null);
@@ -220,6 +230,7 @@ public class ContainerHostDataCollectionService extends StatefulService {
                         updateResourcePool(computeState,
                                 qr.rpLinksByComputeLink.get(computeState.documentSelfLink),
                                 body.remove);
+                        removeContainerHostImages(computeState.documentSelfLink);
                     }
                 }
             });
@@ -666,7 +677,10 @@ public class ContainerHostDataCollectionService extends StatefulService {
                 }, null);
 
                 if (PowerState.ON.equals(compute.powerState)) {
-                    updateContainerHostContainers(compute.documentSelfLink);
+                    if (shouldCollectContainerList(compute)) {
+                        updateContainerHostContainers(compute.documentSelfLink);
+                        updateContainerHostImages(compute.documentSelfLink);
+                    }
                     updateContainerHostNetworks(compute.documentSelfLink);
                 }
             }
@@ -679,6 +693,20 @@ public class ContainerHostDataCollectionService extends StatefulService {
         });
     }
 
+    private boolean shouldCollectContainerList(ComputeState compute) {
+        long now = Utils.getNowMicrosUtc();
+        boolean eventsStreamed = compute.customProperties != null
+                && Boolean.parseBoolean(compute.customProperties.get(
+                        ContainerHostService.DOCKER_HOST_EVENTS_STREAM_PROP_NAME));
+        Long lastCollection = lastListCollectionByHost.get(compute.documentSelfLink);
+        if (eventsStreamed && lastCollection != null
+                && lastCollection + FREQUENCY_OF_STREAMED_HOST_LIST_COLLECTION_MICROS > now) {
+            return false;
+        }
+        lastListCollectionByHost.put(compute.documentSelfLink, now);
+        return true;
+    }
+
     private QueryTask createDockerComputeDescriptionQuery() {
         QueryTask q = QueryUtil.buildQuery(ComputeDescription.class, true);
         QueryTask.Query hostTypeClause = new QueryTask.Query()
@@ -733,6 +761,34 @@ public class ContainerHostDataCollectionService extends StatefulService {
                 }));
     }
 
+    private void updateContainerHostImages(String documentSelfLink) {
+        AdapterRequest request = new AdapterRequest();
+        request.operationTypeId = ContainerHostOperationType.LIST_IMAGES.id;
+        request.serviceTaskCallback = ServiceTaskCallback.createEmpty();
+        request.resourceReference = UriUtils.buildUri(getHost(), documentSelfLink);
+        sendRequest(Operation.createPatch(this, ManagementUriParts.ADAPTER_DOCKER_HOST)
+                .setBody(request)
+                .setCompletion((o, ex) -> {
+                    if (ex != null) {
+                        logWarning("Failed to collect the images of host %s: %s",
+                                documentSelfLink, Utils.toString(ex));
+                    }
+                }));
+    }
+
+    private void removeContainerHostImages(String documentSelfLink) {
+        lastListCollectionByHost.remove(documentSelfLink);
+        sendRequest(Operation
+                .createDelete(this, HostImageInventoryService.getInventoryLink(documentSelfLink))
+                .setBody(new ServiceDocument())
+                .setCompletion((o, ex) -> {
+                    if (ex != null && o.getStatusCode() != Operation.STATUS_CODE_NOT_FOUND) {
+                        logWarning("Failed to remove the images of host %s: %s",
+                                documentSelfLink, Utils.toString(ex));
+                    }
+                }));
+    }
+
     private void updateContainerHostNetworks(String documentSelfLink) {
         NetworkListCallback body = new NetworkListCallback();
         body.containerHostLink = documentSelfLink;
@@ -11,11 +11,14 @@
 
 package com.vmware.admiral.compute.container;
 
+import java.net.URI;
+import java.time.Instant;
 import java.util.Map;
 
 import com.vmware.admiral.adapter.common.AdapterRequest;
 import com.vmware.admiral.adapter.common.ContainerOperationType;
 import com.vmware.admiral.common.ManagementUriParts;
+import com.vmware.admiral.common.util.DockerLogUtil;
 import com.vmware.admiral.compute.container.ContainerService.ContainerState;
 import com.vmware.admiral.service.common.LogService;
 import com.vmware.admiral.service.common.LogService.LogServiceState;
@@ -26,9 +29,15 @@ import com.vmware.xenon.common.StatelessService;
 import com.vmware.xenon.common.UriUtils;
 import com.vmware.xenon.common.Utils;
 
+/**
+ * Returns the stored logs of a container and triggers their refresh. Once the logs are stored the
+ * refresh fetches only the lines logged after the last stored one. The <code>offset</code> query
+ * parameter returns only the log data after the <code>endOffset</code> of a previous response.
+ */
 public class ContainerLogService extends StatelessService {
     public static final String SELF_LINK = ManagementUriParts.CONTAINER_LOGS;
     public static final String CONTAINER_ID_QUERY_PARAM = "id";
+    public static final String SINCE_QUERY_PARAM = "since";
 
     @Override
     public void handleGet(Operation get) {
@@ -42,18 +51,44 @@ public class ContainerLogService extends StatelessService {
 
         final String containerLogsLink = UriUtils.buildUriPath(LogService.FACTORY_LINK,
                 containerId);
+        String offset = params.remove(LogService.OFFSET_QUERY_PARAM);
+        URI containerLogsUri = UriUtils.buildUri(getHost(), containerLogsLink,
+                offset != null ? LogService.OFFSET_QUERY_PARAM + "=" + offset : null);
 
-        sendRequest(Operation.createGet(this, containerLogsLink)
+        sendRequest(Operation.createGet(containerLogsUri)
                 .setCompletion((o, e) -> {
                     if (e != null) {
                         requestLog(get, containerId, params);
                     } else {
-                        get.setBody(o.getBody(LogServiceState.class)).complete();
+                        LogServiceState logState = o.getBody(LogServiceState.class);
+                        if (logState.lastTimestamp != null) {
+                            params.put(LogServiceState.FIELD_NAME_LAST_TIMESTAMP,
+                                    logState.lastTimestamp);
+                        }
+                        logState.logs = filterSince(logState.logs, params.get(SINCE_QUERY_PARAM));
+                        get.setBody(logState).complete();
                         requestLog(null, containerId, params);
                     }
                 }));
     }
 
+    /**
+     * The stored log may hold lines older than the ones requested, return only the lines logged
+     * since the requested time (in seconds).
+     */
+    private byte[] filterSince(byte[] logs, String since) {
+        if (logs == null || since == null || since.isEmpty()) {
+            return logs;
+        }
+        try {
+            long sinceMillis = (long) (Double.parseDouble(since) * 1000);
+            return DockerLogUtil.entriesAfter(logs,
+                    Instant.ofEpochMilli(sinceMillis).minusNanos(1));
+        } catch (NumberFormatException e) {
+            return logs;
+        }
+    }
+
     private void requestLog(Operation get, String containerId, Map<String, String> params) {
         sendRequest(Operation.createGet(this,
                 UriUtils.buildUriPath(ContainerFactoryService.SELF_LINK, containerId))
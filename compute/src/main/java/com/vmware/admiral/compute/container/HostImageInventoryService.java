@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2016 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.compute.container;
+
+import static com.vmware.xenon.common.ServiceDocumentDescription.PropertyIndexingOption.STORE_ONLY;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.vmware.admiral.adapter.docker.util.DockerImage;
+import com.vmware.admiral.common.ManagementUriParts;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.Service;
+import com.vmware.xenon.common.ServiceDocument;
+import com.vmware.xenon.common.StatefulService;
+import com.vmware.xenon.common.UriUtils;
+import com.vmware.xenon.common.Utils;
+
+/**
+ * Keeps the list of images present on a container host. There is a single document per host,
+ * replaced as a whole each time the images of the host are collected.
+ */
+public class HostImageInventoryService extends StatefulService {
+    public static final String FACTORY_LINK = ManagementUriParts.HOST_IMAGE_INVENTORIES;
+
+    private static final String SHA256_PREFIX = "sha256:";
+
+    public static String getInventoryLink(String hostLink) {
+        return UriUtils.buildUriPath(FACTORY_LINK, Service.getId(hostLink));
+    }
+
+    public static class HostImage {
+        /** Short (12 characters) image id. */
+        public String id;
+
+        /** The repository tags of the image, e.g. busybox:latest */
+        public List<String> repoTags;
+
+        /** The size of the image in bytes. */
+        public Long size;
+    }
+
+    public static class HostImageInventoryState extends ServiceDocument {
+        public static final String FIELD_NAME_HOST_LINK = "hostLink";
+
+        /** The link of the container host the images are present on. */
+        public String hostLink;
+
+        @PropertyOptions(indexing = STORE_ONLY)
+        public List<HostImage> images;
+
+        public void addImage(String id, List<String> repoTags, Long size) {
+            if (images == null) {
+                images = new ArrayList<>();
+            }
+            HostImage image = new HostImage();
+            image.id = shortImageId(id);
+            image.repoTags = repoTags;
+            image.size = size;
+            images.add(image);
+        }
+
+        /**
+         * Find the image with the given name (repository and tag) or id. Names are compared in
+         * their canonical form so <code>busybox</code> matches <code>library/busybox:latest</code>.
+         */
+        public HostImage findImage(String imageName) {
+            if (images == null || imageName == null) {
+                return null;
+            }
+
+            String canonicalName = canonicalImageName(imageName);
+            String shortId = shortImageId(imageName);
+            for (HostImage image : images) {
+                if (shortId != null && shortId.equals(image.id)) {
+                    return image;
+                }
+                if (canonicalName == null || image.repoTags == null) {
+                    continue;
+                }
+                for (String repoTag : image.repoTags) {
+                    if (canonicalName.equals(canonicalImageName(repoTag))) {
+                        return image;
+                    }
+                }
+            }
+            return null;
+        }
+    }
+
+    public HostImageInventoryService() {
+        super(HostImageInventoryState.class);
+
+        super.toggleOption(ServiceOption.PERSISTENCE, true);
+        super.toggleOption(ServiceOption.REPLICATION, true);
+        super.toggleOption(ServiceOption.OWNER_SELECTION, true);
+        super.toggleOption(ServiceOption.IDEMPOTENT_POST, true);
+    }
+
+    @Override
+    public void handleCreate(Operation start) {
+        validate(start);
+        start.complete();
+    }
+
+    @Override
+    public void handlePut(Operation op) {
+        if (!op.hasBody()) {
+            op.fail(new IllegalArgumentException("HostImageInventoryState body is required"));
+            return;
+        }
+
+        HostImageInventoryState state = op.getBody(HostImageInventoryState.class);
+        try {
+            Utils.validateState(getStateDescription(), state);
+            this.setState(op, state);
+            op.setBody(null).complete();
+        } catch (Throwable e) {
+            op.fail(e);
+        }
+    }
+
+    @Override
+    public ServiceDocument getDocumentTemplate() {
+        ServiceDocument template = super.getDocumentTemplate();
+        // hosts with many images exceed the default limit
+        template.documentDescription.serializedStateSizeLimit = 1024 * 1024; // 1MB
+        return template;
+    }
+
+    private void validate(Operation op) {
+        if (!op.hasBody()) {
+            throw new IllegalArgumentException("body is required");
+        }
+        HostImageInventoryState state = op.getBody(HostImageInventoryState.class);
+        Utils.validateState(getStateDescription(), state);
+        if (state.hostLink == null) {
+            throw new IllegalArgumentException("hostLink is required");
+        }
+    }
+
+    private static String shortImageId(String id) {
+        if (id == null) {
+            return null;
+        }
+        String hash = id.startsWith(SHA256_PREFIX) ? id.substring(SHA256_PREFIX.length()) : id;
+        if (hash.length() < 12 || !hash.matches("[0-9a-f]+")) {
+            return null;
+        }
+        return hash.substring(0, 12);
+    }
+
+    private static String canonicalImageName(String imageName) {
+        try {
+            return DockerImage.fromImageName(imageName).toString();
+        } catch (IllegalArgumentException e) {
+            // e.g. image digests, "<none>:<none>"
+            return null;
+        }
+    }
+}
@@ -13,6 +13,7 @@ package com.vmware.admiral.compute.container.util;
 
 import java.net.URI;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
@@ -23,6 +24,7 @@ import java.util.logging.Level;
 import com.vmware.admiral.compute.container.CompositeComponentService.CompositeComponent;
 import com.vmware.photon.controller.model.resources.ResourceState;
 import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.Operation.AuthorizationContext;
 import com.vmware.xenon.common.Service;
 import com.vmware.xenon.common.Service.Action;
 import com.vmware.xenon.common.StatefulService;
@@ -31,6 +33,31 @@ import com.vmware.xenon.common.Utils;
 
 public class CompositeComponentNotifier {
 
+    /**
+     * Pragma directive set on the DELETE of a component when the caller notifies the composite
+     * component itself, usually once for a batch of removed components, see
+     * {@link #createComponentsRemovalPatch(Service, String, Collection)}. Honored only for
+     * internal requests, see {@link #isNotificationSkipped(Service, Operation)}.
+     */
+    public static final String PRAGMA_DIRECTIVE_SKIP_NOTIFICATION =
+            "admiral-skip-composite-notification";
+
+    /**
+     * Returns whether the caller notifies the composite component of the given operation itself.
+     * When authorization is enabled, only requests of the system user may skip the notification,
+     * so that a user can't leave a composite component with a removed component.
+     */
+    public static boolean isNotificationSkipped(Service service, Operation op) {
+        if (!op.hasPragmaDirective(PRAGMA_DIRECTIVE_SKIP_NOTIFICATION)) {
+            return false;
+        }
+        if (!service.getHost().isAuthorizationEnabled()) {
+            return true;
+        }
+        AuthorizationContext ctx = op.getAuthorizationContext();
+        return ctx != null && ctx.isSystemUser();
+    }
+
     public static void notifyCompositionComponents(Service service,
             List<String> compositeComponentLinks, Action action) {
         if (compositeComponentLinks == null || compositeComponentLinks.isEmpty()) {
@@ -90,6 +117,23 @@ public class CompositeComponentNotifier {
                 }));
     }
 
+    /**
+     * Creates the PATCH removing the given components from the composite component. The composite
+     * component is deleted when no components are left.
+     */
+    public static Operation createComponentsRemovalPatch(Service service,
+            String compositeComponentLink, Collection<String> componentLinks) {
+        CompositeComponent body = new CompositeComponent();
+        body.documentSelfLink = compositeComponentLink;
+        body.componentLinks = new ArrayList<>(componentLinks);
+
+        URI uri = UriUtils.extendUriWithQuery(
+                UriUtils.buildUri(service.getHost(), compositeComponentLink),
+                UriUtils.URI_PARAM_INCLUDE_DELETED, Boolean.TRUE.toString());
+
+        return Operation.createPatch(uri).setBody(body);
+    }
+
     public static void notifyCompositionComponentsOnChange(StatefulService service, Action action,
             List<String> newCompositeComponentLinks, List<String> currentCompositeComponentLink) {
 
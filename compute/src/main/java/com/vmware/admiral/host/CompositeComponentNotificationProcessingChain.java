@@ -90,6 +90,10 @@ public class CompositeComponentNotificationProcessingChain extends OperationProc
                                 compositeComponentLink, op.getAction());
                     });
                 } else if (op.getAction() == Action.DELETE) {
+                    if (CompositeComponentNotifier.isNotificationSkipped(service, op)) {
+                        // the composite component is notified by the caller
+                        return true;
+                    }
                     ResourceState state = service.getState(op);
                     String compositeComponentLink = retrieveLink(state);
                     CompositeComponentNotifier.notifyCompositionComponent(service, state,
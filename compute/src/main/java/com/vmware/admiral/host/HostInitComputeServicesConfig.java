@@ -15,6 +15,7 @@ import com.vmware.admiral.closures.services.closure.Closure;
 import com.vmware.admiral.closures.services.closure.ClosureFactoryService;
 import com.vmware.admiral.closures.services.closuredescription.ClosureDescription;
 import com.vmware.admiral.closures.services.closuredescription.ClosureDescriptionFactoryService;
+import com.vmware.admiral.compute.CertificateDistributionTaskService;
 import com.vmware.admiral.compute.ContainerHostService;
 import com.vmware.admiral.compute.ElasticPlacementZoneConfigurationService;
 import com.vmware.admiral.compute.ElasticPlacementZoneService;
@@ -39,6 +40,7 @@ import com.vmware.admiral.compute.container.ContainerService.ContainerState;
 import com.vmware.admiral.compute.container.ContainerShellService;
 import com.vmware.admiral.compute.container.DeploymentPolicyService;
 import com.vmware.admiral.compute.container.GroupResourcePlacementService;
+import com.vmware.admiral.compute.container.HostImageInventoryService;
 import com.vmware.admiral.compute.container.HostContainerListDataCollection.HostContainerListDataCollectionFactoryService;
 import com.vmware.admiral.compute.container.HostNetworkListDataCollection.HostNetworkListDataCollectionFactoryService;
 import com.vmware.admiral.compute.container.ShellContainerExecutorService;
@@ -54,9 +56,12 @@ import com.vmware.admiral.compute.container.volume.ContainerVolumeService.Contai
 import com.vmware.admiral.compute.content.CompositeDescriptionContentService;
 import com.vmware.admiral.compute.content.TemplateComputeDescription;
 import com.vmware.admiral.compute.endpoint.EndpointAdapterService;
+import com.vmware.admiral.service.common.DocumentCacheService;
 import com.vmware.photon.controller.model.resources.ComputeDescriptionService;
+import com.vmware.photon.controller.model.resources.ComputeDescriptionService.ComputeDescription;
 import com.vmware.photon.controller.model.resources.ComputeService;
 import com.vmware.photon.controller.model.resources.ComputeService.ComputeState;
+import com.vmware.photon.controller.model.resources.ResourcePoolService.ResourcePoolState;
 import com.vmware.xenon.common.Operation;
 import com.vmware.xenon.common.ServiceDocument;
 import com.vmware.xenon.common.ServiceHost;
@@ -87,6 +92,7 @@ public class HostInitComputeServicesConfig extends HostInitServiceHelper {
         startServiceFactories(host, ContainerDescriptionService.class,
                 GroupResourcePlacementService.class,
                 ContainerHostDataCollectionService.class,
+                HostImageInventoryService.class,
                 EnvironmentMappingService.class,
                 DeploymentPolicyService.class,
                 ContainerNetworkService.class,
@@ -96,7 +102,8 @@ public class HostInitComputeServicesConfig extends HostInitServiceHelper {
                 ContainerVolumeDescriptionService.class,
                 ElasticPlacementZoneService.class,
                 EpzComputeEnumerationTaskService.class,
-                PlacementCapacityUpdateTaskService.class);
+                PlacementCapacityUpdateTaskService.class,
+                CertificateDistributionTaskService.class);
 
         // register a well-know Components
         CompositeComponentRegistry.registerComponent(ResourceType.CONTAINER_TYPE.getName(),
@@ -121,6 +128,14 @@ public class HostInitComputeServicesConfig extends HostInitServiceHelper {
                 ClosureDescriptionFactoryService.FACTORY_LINK, ClosureDescription.class,
                 ClosureFactoryService.FACTORY_LINK, Closure.class);
 
+        // the descriptions read many times while provisioning
+        DocumentCacheService.registerDocumentType(ContainerDescription.class,
+                DocumentCacheService.DEFAULT_TTL_MICROS);
+        DocumentCacheService.registerDocumentType(ComputeDescription.class,
+                DocumentCacheService.DEFAULT_TTL_MICROS);
+        DocumentCacheService.registerDocumentType(ResourcePoolState.class,
+                DocumentCacheService.DEFAULT_TTL_MICROS);
+
         // start initialization of system documents
         host.sendRequest(Operation.createPost(
                 UriUtils.buildUri(host, ComputeInitialBootService.class))
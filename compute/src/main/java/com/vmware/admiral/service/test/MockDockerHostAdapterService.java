@@ -13,14 +13,21 @@ package com.vmware.admiral.service.test;
 
 import java.net.HttpURLConnection;
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.vmware.admiral.adapter.common.AdapterRequest;
 import com.vmware.admiral.adapter.common.ContainerHostOperationType;
 import com.vmware.admiral.common.ManagementUriParts;
 import com.vmware.admiral.compute.ContainerHostService;
 import com.vmware.admiral.compute.container.HostContainerListDataCollection.ContainerListCallback;
+import com.vmware.admiral.compute.container.HostImageInventoryService;
+import com.vmware.admiral.compute.container.HostImageInventoryService.HostImage;
+import com.vmware.admiral.compute.container.HostImageInventoryService.HostImageInventoryState;
 import com.vmware.admiral.compute.container.HostNetworkListDataCollection.NetworkListCallback;
 import com.vmware.admiral.service.common.ServiceTaskCallback.ServiceTaskCallbackResponse;
 import com.vmware.photon.controller.model.resources.ComputeService;
@@ -35,6 +42,20 @@ import com.vmware.xenon.common.Utils;
 public class MockDockerHostAdapterService extends StatelessService {
     public static final String SELF_LINK = ManagementUriParts.ADAPTER_DOCKER_HOST;
 
+    private static final Map<String, List<HostImage>> IMAGES_BY_HOST_ID = new ConcurrentHashMap<>();
+
+    public static void addImage(String hostId, String imageId, String repoTag, long size) {
+        HostImage image = new HostImage();
+        image.id = imageId;
+        image.repoTags = Arrays.asList(repoTag);
+        image.size = size;
+        IMAGES_BY_HOST_ID.computeIfAbsent(hostId, (k) -> new ArrayList<>()).add(image);
+    }
+
+    public static void resetImages() {
+        IMAGES_BY_HOST_ID.clear();
+    }
+
     @Override
     public void handleRequest(Operation op) {
         if (op.getAction() == Action.DELETE) {
@@ -93,6 +114,29 @@ public class MockDockerHostAdapterService extends StatelessService {
             op.setBody(callbackResponse);
             op.complete();
 
+        } else if (ContainerHostOperationType.LIST_IMAGES.id.equals(request.operationTypeId)) {
+            HostImageInventoryState inventory = new HostImageInventoryState();
+            inventory.hostLink = request.resourceReference.getPath();
+            inventory.documentSelfLink = HostImageInventoryService
+                    .getInventoryLink(inventory.hostLink);
+            String hostId = Service.getId(request.resourceReference.getPath());
+            List<HostImage> images = IMAGES_BY_HOST_ID.get(hostId);
+            inventory.images = images != null ? new ArrayList<>(images) : new ArrayList<>();
+
+            sendRequest(Operation
+                    .createPost(this, HostImageInventoryService.FACTORY_LINK)
+                    .setBody(inventory)
+                    .setCompletion((o, e) -> {
+                        if (e != null) {
+                            patchTaskStage(request, e);
+                            op.fail(e);
+                            return;
+                        }
+                        patchTaskStage(request, null);
+                        op.setBody(inventory);
+                        op.complete();
+                    }));
+
         } else {
             op.setStatusCode(Operation.STATUS_CODE_ACCEPTED).complete();
 
@@ -0,0 +1,219 @@
+/*
+ * Copyright (c) 2016 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.compute;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vmware.admiral.common.test.CommonTestStateFactory;
+import com.vmware.admiral.common.util.CertificateUtil;
+import com.vmware.admiral.compute.CertificateDistributionTaskService.CertificateDistributionTaskState;
+import com.vmware.admiral.compute.container.ComputeBaseTest;
+import com.vmware.admiral.compute.container.ShellContainerExecutorService;
+import com.vmware.photon.controller.model.resources.ComputeDescriptionService;
+import com.vmware.photon.controller.model.resources.ComputeDescriptionService.ComputeDescription;
+import com.vmware.photon.controller.model.resources.ComputeService;
+import com.vmware.photon.controller.model.resources.ComputeService.ComputeState;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.StatelessService;
+import com.vmware.xenon.common.UriUtils;
+import com.vmware.xenon.common.test.TestContext;
+import com.vmware.xenon.services.common.ServiceUriPaths;
+
+/**
+ * Tests for the {@link CertificateDistributionTaskService} class.
+ */
+public class CertificateDistributionTaskServiceTest extends ComputeBaseTest {
+    private static final int HOST_COUNT = 1000;
+    private static final int MAX_CONCURRENT_UPLOADS = 8;
+    private static final String REGISTRY_ADDRESS = "https://test-registry:5000";
+
+    private MockShellContainerExecutorService shellExecutor;
+    private String certificate;
+
+    @Before
+    public void setUp() throws Throwable {
+        waitForServiceAvailability(CertificateDistributionTaskService.FACTORY_LINK);
+        waitForServiceAvailability(ShellContainerExecutorService.SELF_LINK);
+
+        // replace the shell executor with a mock counting the uploads in flight
+        delete(ShellContainerExecutorService.SELF_LINK);
+        shellExecutor = new MockShellContainerExecutorService();
+        host.startService(Operation.createPost(UriUtils.buildUri(host,
+                ShellContainerExecutorService.SELF_LINK)), shellExecutor);
+        waitForServiceAvailability(ShellContainerExecutorService.SELF_LINK);
+
+        certificate = CommonTestStateFactory.getFileContent("test_ssl_trust.PEM");
+    }
+
+    @Test
+    public void testDistributionToManyHosts() throws Throwable {
+        String fingerprint = CertificateUtil.computeCertificateThumbprint(
+                CertificateUtil.createCertificate(certificate));
+        String propertyName = AbstractCertificateDistributionService
+                .REGISTRY_CERTIFICATE_PROP_NAME_PREFIX + "test-registry:5000";
+
+        // every fourth host already has the certificate
+        List<ComputeState> hosts = new ArrayList<>();
+        for (int i = 0; i < HOST_COUNT; i++) {
+            ComputeState cs = new ComputeState();
+            cs.customProperties = new HashMap<>();
+            if (i % 4 == 0) {
+                cs.customProperties.put(propertyName, fingerprint);
+            }
+            hosts.add(cs);
+        }
+        hosts = createHosts(hosts);
+
+        Set<String> markedHostLinks = new HashSet<>();
+        for (int i = 0; i < HOST_COUNT; i += 4) {
+            markedHostLinks.add(hosts.get(i).documentSelfLink);
+        }
+        String failingHostLink = hosts.get(1).documentSelfLink;
+        shellExecutor.failingHostLinks.add(failingHostLink);
+
+        CertificateDistributionTaskState task = startAndWaitForTask();
+
+        assertTrue("max in flight " + shellExecutor.maxInFlight.get(),
+                shellExecutor.maxInFlight.get() <= MAX_CONCURRENT_UPLOADS);
+        assertTrue("max in flight " + shellExecutor.maxInFlight.get(),
+                shellExecutor.maxInFlight.get() > 1);
+
+        for (String hostLink : markedHostLinks) {
+            assertFalse(hostLink, shellExecutor.hostLinks.contains(hostLink));
+        }
+        assertEquals(HOST_COUNT - markedHostLinks.size(), shellExecutor.hostLinks.size());
+
+        assertEquals(HOST_COUNT, task.hostCount.longValue());
+        assertEquals(markedHostLinks.size(), task.skippedCount.longValue());
+        assertEquals(HOST_COUNT - markedHostLinks.size() - 1, task.uploadedCount.longValue());
+        assertEquals(new HashSet<>(Arrays.asList(failingHostLink)), task.failedHostLinks);
+
+        // the fingerprint is recorded on upload, a second run skips all but the failed host
+        ComputeState uploaded = getDocument(ComputeState.class, hosts.get(2).documentSelfLink);
+        assertEquals(fingerprint, uploaded.customProperties.get(propertyName));
+
+        shellExecutor.hostLinks.clear();
+        shellExecutor.failingHostLinks.clear();
+        task = startAndWaitForTask();
+
+        assertEquals(new HashSet<>(Arrays.asList(failingHostLink)), shellExecutor.hostLinks);
+        assertEquals(HOST_COUNT - 1, task.skippedCount.longValue());
+        assertEquals(1, task.uploadedCount.longValue());
+    }
+
+    @Test
+    public void testDistributionResumedWhenPageExpired() throws Throwable {
+        List<ComputeState> hosts = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            hosts.add(new ComputeState());
+        }
+        List<String> hostLinks = createHosts(hosts).stream()
+                .map(cs -> cs.documentSelfLink)
+                .sorted()
+                .collect(Collectors.toList());
+
+        // the task was distributing the first half of the hosts when its page link expired
+        CertificateDistributionTaskState task = new CertificateDistributionTaskState();
+        task.registryAddress = REGISTRY_ADDRESS;
+        task.certificate = certificate;
+        task.maxConcurrentUploads = MAX_CONCURRENT_UPLOADS;
+        task.taskSubStage = CertificateDistributionTaskState.SubStage.DISTRIBUTE;
+        task.nextPageLink = UriUtils.buildUriPath(ServiceUriPaths.CORE_QUERY_PAGE, "expired");
+        task.lastHostLink = hostLinks.get(9);
+        task = doPost(task, CertificateDistributionTaskService.FACTORY_LINK);
+        task = waitForTaskSuccess(task.documentSelfLink, CertificateDistributionTaskState.class);
+
+        assertEquals(new HashSet<>(hostLinks.subList(10, 20)), shellExecutor.hostLinks);
+        assertEquals(10, task.hostCount.longValue());
+        assertEquals(10, task.uploadedCount.longValue());
+        assertEquals(Collections.max(hostLinks), task.lastHostLink);
+    }
+
+    private List<ComputeState> createHosts(List<ComputeState> hosts) throws Throwable {
+        ComputeDescription cd = new ComputeDescription();
+        cd = doPost(cd, ComputeDescriptionService.FACTORY_LINK);
+
+        List<ComputeState> created = new ArrayList<>(hosts);
+        TestContext ctx = testCreate(hosts.size());
+        for (int i = 0; i < hosts.size(); i++) {
+            int index = i;
+            ComputeState cs = hosts.get(i);
+            cs.descriptionLink = cd.documentSelfLink;
+            host.send(Operation.createPost(UriUtils.buildUri(host, ComputeService.FACTORY_LINK))
+                    .setBody(cs)
+                    .setReferer(host.getUri())
+                    .setCompletion((o, e) -> {
+                        if (e != null) {
+                            ctx.failIteration(e);
+                            return;
+                        }
+                        created.set(index, o.getBody(ComputeState.class));
+                        ctx.completeIteration();
+                    }));
+        }
+        ctx.await();
+        return created;
+    }
+
+    private CertificateDistributionTaskState startAndWaitForTask() throws Throwable {
+        CertificateDistributionTaskState task = new CertificateDistributionTaskState();
+        task.registryAddress = REGISTRY_ADDRESS;
+        task.certificate = certificate;
+        task.maxConcurrentUploads = MAX_CONCURRENT_UPLOADS;
+        task = doPost(task, CertificateDistributionTaskService.FACTORY_LINK);
+        assertNotNull(task);
+
+        return waitForTaskSuccess(task.documentSelfLink, CertificateDistributionTaskState.class);
+    }
+
+    private static class MockShellContainerExecutorService extends StatelessService {
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        final Set<String> hostLinks = ConcurrentHashMap.newKeySet();
+        final Set<String> failingHostLinks = ConcurrentHashMap.newKeySet();
+
+        @Override
+        public void handlePost(Operation post) {
+            String hostLink = UriUtils.parseUriQueryParams(post.getUri())
+                    .get(ShellContainerExecutorService.HOST_LINK_URI_PARAM);
+            hostLinks.add(hostLink);
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+
+            getHost().schedule(() -> {
+                inFlight.decrementAndGet();
+                if (failingHostLinks.contains(hostLink)) {
+                    post.fail(new IllegalStateException("Host not reachable: " + hostLink));
+                } else {
+                    post.setBody("").complete();
+                }
+            }, 5, TimeUnit.MILLISECONDS);
+        }
+    }
+}
@@ -0,0 +1,291 @@
+/*
+ * Copyright (c) 2016 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.compute.container;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.logging.Level;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vmware.admiral.common.test.BaseTestCase;
+import com.vmware.admiral.compute.container.ContainerDescriptionService.ContainerDescription;
+import com.vmware.admiral.host.HostInitServiceHelper;
+import com.vmware.admiral.service.common.DocumentCacheService;
+import com.vmware.photon.controller.model.resources.ComputeDescriptionService;
+import com.vmware.photon.controller.model.resources.ComputeDescriptionService.ComputeDescription;
+import com.vmware.photon.controller.model.resources.ResourcePoolService;
+import com.vmware.photon.controller.model.resources.ResourcePoolService.ResourcePoolState;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.ServiceDocument;
+import com.vmware.xenon.common.ServiceStats;
+import com.vmware.xenon.common.ServiceStats.ServiceStat;
+import com.vmware.xenon.common.StatefulService;
+import com.vmware.xenon.common.UriUtils;
+import com.vmware.xenon.common.test.TestContext;
+import com.vmware.xenon.common.test.VerificationHost;
+import com.vmware.xenon.services.common.AuthCredentialsService.AuthCredentialsServiceState;
+import com.vmware.xenon.services.common.ServiceUriPaths;
+
+public class DocumentCacheServiceTest extends BaseTestCase {
+    private static final int NODE_COUNT = 3;
+    private static final int CONTAINER_COUNT = 20;
+
+    private List<VerificationHost> nodes;
+    // the services reading through the cache of each node
+    private Map<VerificationHost, StatefulService> senders;
+
+    @Before
+    public void setUp() throws Throwable {
+        DocumentCacheService.registerDocumentType(ContainerDescription.class,
+                DocumentCacheService.DEFAULT_TTL_MICROS);
+        DocumentCacheService.registerDocumentType(ComputeDescription.class,
+                DocumentCacheService.DEFAULT_TTL_MICROS);
+        DocumentCacheService.registerDocumentType(ResourcePoolState.class,
+                DocumentCacheService.DEFAULT_TTL_MICROS);
+        DocumentCacheService.registerDocumentType(AuthCredentialsServiceState.class,
+                DocumentCacheService.DEFAULT_TTL_MICROS);
+
+        host.setUpPeerHosts(NODE_COUNT);
+        host.joinNodesAndVerifyConvergence(NODE_COUNT);
+        nodes = new ArrayList<>(host.getInProcessHostMap().values());
+        senders = new HashMap<>();
+
+        for (VerificationHost h : nodes) {
+            HostInitServiceHelper.startServiceFactories(h, ContainerDescriptionService.class,
+                    ComputeDescriptionService.class, ResourcePoolService.class);
+            HostInitServiceHelper.startServices(h, DocumentCacheService.class);
+        }
+        for (VerificationHost h : nodes) {
+            h.waitForReplicatedFactoryServiceAvailable(
+                    UriUtils.buildUri(h, ContainerDescriptionService.FACTORY_LINK));
+            h.waitForReplicatedFactoryServiceAvailable(
+                    UriUtils.buildUri(h, ComputeDescriptionService.FACTORY_LINK));
+            h.waitForReplicatedFactoryServiceAvailable(
+                    UriUtils.buildUri(h, ResourcePoolService.FACTORY_LINK));
+            waitForServiceAvailability(h, DocumentCacheService.SELF_LINK);
+
+            StatefulService sender = new StatefulService(ServiceDocument.class);
+            h.startServiceAndWait(sender, UUID.randomUUID().toString(), new ServiceDocument());
+            senders.put(h, sender);
+        }
+    }
+
+    @Test
+    public void testUpdateOnPeerNodeInvalidatesCachedDocument() throws Throwable {
+        VerificationHost cacheNode = nodes.get(0);
+        VerificationHost updateNode = nodes.get(1);
+
+        ContainerDescription desc = createContainerDescription(cacheNode, "cached");
+        waitForCachedDocument(cacheNode, desc.documentSelfLink, ContainerDescription.class);
+
+        ContainerDescription patch = new ContainerDescription();
+        patch.name = "updated";
+        ContainerDescription updated = send(Operation.createPatch(UriUtils.buildUri(updateNode,
+                desc.documentSelfLink)).setBody(patch), ContainerDescription.class);
+
+        waitFor(() -> {
+            ContainerDescription cached = getCachedDocument(cacheNode, desc.documentSelfLink,
+                    ContainerDescription.class);
+            return "updated".equals(cached.name);
+        });
+
+        // the update is cached again
+        ContainerDescription cached = waitForCachedDocument(cacheNode, desc.documentSelfLink,
+                ContainerDescription.class);
+        assertEquals("updated", cached.name);
+        assertTrue(cached.documentVersion >= updated.documentVersion);
+    }
+
+    @Test
+    public void testDeleteOnPeerNodeInvalidatesCachedDocument() throws Throwable {
+        VerificationHost cacheNode = nodes.get(0);
+        VerificationHost deleteNode = nodes.get(2);
+
+        ContainerDescription desc = createContainerDescription(cacheNode, "deleted");
+        waitForCachedDocument(cacheNode, desc.documentSelfLink, ContainerDescription.class);
+
+        send(Operation.createDelete(UriUtils.buildUri(deleteNode, desc.documentSelfLink))
+                .setBody(new ServiceDocument()), ServiceDocument.class);
+
+        waitFor(() -> readCached(cacheNode, desc.documentSelfLink,
+                ContainerDescription.class)[1] != null);
+    }
+
+    @Test
+    public void testCachedReadsForContainerDeployment() throws Throwable {
+        VerificationHost node = nodes.get(0);
+
+        ContainerDescription containerDesc = createContainerDescription(node, "deployment");
+        ComputeDescription computeDesc = send(Operation.createPost(UriUtils.buildUri(node,
+                ComputeDescriptionService.FACTORY_LINK)).setBody(new ComputeDescription()),
+                ComputeDescription.class);
+        ResourcePoolState poolState = new ResourcePoolState();
+        poolState.name = "deployment-pool";
+        ResourcePoolState pool = send(Operation.createPost(UriUtils.buildUri(node,
+                ResourcePoolService.FACTORY_LINK)).setBody(poolState), ResourcePoolState.class);
+        AuthCredentialsServiceState credentialsState = new AuthCredentialsServiceState();
+        credentialsState.userEmail = "deployment";
+        credentialsState.privateKey = "password";
+        AuthCredentialsServiceState credentials = send(Operation.createPost(
+                UriUtils.buildUri(node, ServiceUriPaths.CORE_CREDENTIALS))
+                .setBody(credentialsState), AuthCredentialsServiceState.class);
+
+        // the documents read while allocating, reserving, placing and creating a container
+        List<ServiceDocument> reads = new ArrayList<>();
+        for (int i = 0; i < CONTAINER_COUNT; i++) {
+            for (int j = 0; j < 3; j++) {
+                reads.add(containerDesc);
+            }
+            reads.add(computeDesc);
+            reads.add(pool);
+            reads.add(credentials);
+        }
+
+        waitForCachedDocument(node, containerDesc.documentSelfLink, ContainerDescription.class);
+        waitForCachedDocument(node, computeDesc.documentSelfLink, ComputeDescription.class);
+        waitForCachedDocument(node, pool.documentSelfLink, ResourcePoolState.class);
+        waitForCachedDocument(node, credentials.documentSelfLink,
+                AuthCredentialsServiceState.class);
+
+        long directStart = System.nanoTime();
+        for (ServiceDocument read : reads) {
+            send(Operation.createGet(UriUtils.buildUri(node, read.documentSelfLink)),
+                    read.getClass());
+        }
+        long directNanos = System.nanoTime() - directStart;
+
+        long missCount = getStat(node, DocumentCacheService.STAT_NAME_MISS_COUNT);
+        long hitCount = getStat(node, DocumentCacheService.STAT_NAME_HIT_COUNT);
+        long cachedStart = System.nanoTime();
+        for (ServiceDocument read : reads) {
+            getCachedDocument(node, read.documentSelfLink, read.getClass());
+        }
+        long cachedNanos = System.nanoTime() - cachedStart;
+        long indexReads = getStat(node, DocumentCacheService.STAT_NAME_MISS_COUNT) - missCount;
+        long cachedReads = getStat(node, DocumentCacheService.STAT_NAME_HIT_COUNT) - hitCount;
+
+        host.log(Level.INFO, "%d reads for %d containers: direct %d ms, cached %d ms with %d"
+                + " document reads", reads.size(), CONTAINER_COUNT, directNanos / 1_000_000,
+                cachedNanos / 1_000_000, indexReads);
+
+        // every document is read at most once, the other reads are served from the cache
+        assertTrue("document reads " + indexReads, indexReads <= 4);
+        assertEquals(reads.size(), indexReads + cachedReads);
+    }
+
+    @Test
+    public void testCacheNotExposedOverHttp() throws Throwable {
+        VerificationHost node = nodes.get(0);
+        ContainerDescription desc = createContainerDescription(node, "not-exposed");
+        waitForCachedDocument(node, desc.documentSelfLink, ContainerDescription.class);
+
+        // the cached documents are not returned to the HTTP clients
+        Operation get = sendNoFail(Operation.createGet(UriUtils.buildUri(node,
+                DocumentCacheService.SELF_LINK, UriUtils.buildUriQuery("documentLink",
+                        desc.documentSelfLink))));
+        ServiceDocument body = get.hasBody() ? get.getBody(ServiceDocument.class) : null;
+        assertTrue(body == null || !desc.documentSelfLink.equals(body.documentSelfLink));
+    }
+
+    private ContainerDescription createContainerDescription(VerificationHost node, String name)
+            throws Throwable {
+        ContainerDescription desc = new ContainerDescription();
+        desc.name = name;
+        desc.image = "registry.hub.docker.com/library/busybox:latest";
+        return send(Operation.createPost(UriUtils.buildUri(node,
+                ContainerDescriptionService.FACTORY_LINK)).setBody(desc),
+                ContainerDescription.class);
+    }
+
+    /**
+     * Reads the document through the cache of the node and returns the document and the failure.
+     */
+    private Object[] readCached(VerificationHost node, String link,
+            Class<? extends ServiceDocument> type) throws Throwable {
+        Object[] result = new Object[2];
+        TestContext ctx = testCreate(1);
+        DocumentCacheService.getDocumentState(senders.get(node), link, type,
+                (document) -> {
+                    result[0] = document;
+                    ctx.completeIteration();
+                }, (e) -> {
+                    result[1] = e;
+                    ctx.completeIteration();
+                });
+        ctx.await();
+        return result;
+    }
+
+    private <T extends ServiceDocument> T getCachedDocument(VerificationHost node, String link,
+            Class<T> type) throws Throwable {
+        Object[] result = readCached(node, link, type);
+        if (result[1] != null) {
+            throw (Throwable) result[1];
+        }
+        return type.cast(result[0]);
+    }
+
+    /** Reads the document until it is served from the cache, once the query is active. */
+    private <T extends ServiceDocument> T waitForCachedDocument(VerificationHost node,
+            String link, Class<T> type) throws Throwable {
+        Object[] result = new Object[1];
+        waitFor(() -> {
+            long hitCount = getStat(node, DocumentCacheService.STAT_NAME_HIT_COUNT);
+            result[0] = getCachedDocument(node, link, type);
+            return getStat(node, DocumentCacheService.STAT_NAME_HIT_COUNT) > hitCount;
+        });
+        return type.cast(result[0]);
+    }
+
+    private long getStat(VerificationHost node, String name) throws Throwable {
+        ServiceStats stats = send(Operation.createGet(UriUtils.buildStatsUri(
+                UriUtils.buildUri(node, DocumentCacheService.SELF_LINK))), ServiceStats.class);
+        ServiceStat stat = stats.entries.get(name);
+        return stat == null ? 0 : (long) stat.latestValue;
+    }
+
+    private Operation sendNoFail(Operation op) throws Throwable {
+        Operation[] result = new Operation[1];
+        TestContext ctx = testCreate(1);
+        host.send(op.setReferer(host.getUri())
+                .setCompletion((o, e) -> {
+                    result[0] = o;
+                    ctx.completeIteration();
+                }));
+        ctx.await();
+        return result[0];
+    }
+
+    private <T> T send(Operation op, Class<T> type) throws Throwable {
+        Object[] result = new Object[1];
+        TestContext ctx = testCreate(1);
+        host.send(op.setReferer(host.getUri())
+                .setCompletion((o, e) -> {
+                    if (e != null) {
+                        ctx.failIteration(e);
+                        return;
+                    }
+                    result[0] = o.getBody(type);
+                    ctx.completeIteration();
+                }));
+        ctx.await();
+        return type.cast(result[0]);
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) 2016 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.compute.container;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vmware.admiral.common.test.BaseTestCase;
+import com.vmware.admiral.host.HostInitServiceHelper;
+import com.vmware.admiral.service.common.ResourceNamePrefixLeaseService;
+import com.vmware.admiral.service.common.ResourceNamePrefixLeaseService.NamePrefixLeaseRequest;
+import com.vmware.admiral.service.common.ResourceNamePrefixService;
+import com.vmware.admiral.service.common.ResourceNamePrefixService.NamePrefixResponse;
+import com.vmware.admiral.service.common.ResourceNamePrefixService.ResourceNamePrefixState;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.ServiceStats;
+import com.vmware.xenon.common.ServiceStats.ServiceStat;
+import com.vmware.xenon.common.UriUtils;
+import com.vmware.xenon.common.test.TestContext;
+import com.vmware.xenon.common.test.VerificationHost;
+
+public class ResourceNamePrefixLeaseServiceTest extends BaseTestCase {
+    private static final int NODE_COUNT = 3;
+    private static final int REQUEST_COUNT = 1000;
+
+    private List<VerificationHost> nodes;
+
+    @Before
+    public void setUp() throws Throwable {
+        host.setUpPeerHosts(NODE_COUNT);
+        host.joinNodesAndVerifyConvergence(NODE_COUNT);
+        nodes = new ArrayList<>(host.getInProcessHostMap().values());
+
+        for (VerificationHost h : nodes) {
+            HostInitServiceHelper.startServiceFactories(h, ResourceNamePrefixService.class);
+            HostInitServiceHelper.startServices(h, ResourceNamePrefixLeaseService.class);
+        }
+        for (VerificationHost h : nodes) {
+            h.waitForReplicatedFactoryServiceAvailable(
+                    UriUtils.buildUri(h, ResourceNamePrefixService.FACTORY_LINK));
+            waitForServiceAvailability(h, ResourceNamePrefixLeaseService.SELF_LINK);
+        }
+    }
+
+    @Test
+    public void testConcurrentNameRequestsInCluster() throws Throwable {
+        ResourceNamePrefixState state = createPrefix("lease", 5, 1);
+
+        Set<String> names = ConcurrentHashMap.newKeySet();
+        TestContext ctx = testCreate(REQUEST_COUNT);
+        for (int i = 0; i < REQUEST_COUNT; i++) {
+            host.send(createNameRequest(nodes.get(i % nodes.size()), state.documentSelfLink)
+                    .setCompletion((o, e) -> {
+                        if (e != null) {
+                            ctx.failIteration(e);
+                            return;
+                        }
+                        names.addAll(o.getBody(NamePrefixResponse.class).resourceNamePrefixes);
+                        ctx.completeIteration();
+                    }));
+        }
+        ctx.await();
+
+        // all the names are unique
+        assertEquals(REQUEST_COUNT, names.size());
+
+        // the numbers are leased in ranges, not one by one
+        ResourceNamePrefixState currentState = send(Operation.createGet(
+                UriUtils.buildUri(nodes.get(0), state.documentSelfLink)),
+                ResourceNamePrefixState.class);
+        long leasedCount = currentState.currentCount - state.nextNumber;
+        assertTrue("leased " + leasedCount, leasedCount >= REQUEST_COUNT);
+        assertTrue("leased " + leasedCount, leasedCount <= REQUEST_COUNT
+                + NODE_COUNT * ResourceNamePrefixLeaseService.LEASE_SIZE);
+
+        long patchCount = countPatches(state.documentSelfLink);
+        assertTrue("patched " + patchCount, patchCount > 0);
+        assertTrue("patched " + patchCount, patchCount <= REQUEST_COUNT / 10);
+    }
+
+    @Test
+    public void testNamesWrapAroundAtMaxNumber() throws Throwable {
+        ResourceNamePrefixState state = createPrefix("wrap", 2, 1);
+        VerificationHost node = nodes.get(0);
+
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < 120; i++) {
+            names.addAll(send(createNameRequest(node, state.documentSelfLink),
+                    NamePrefixResponse.class).resourceNamePrefixes);
+        }
+
+        for (int i = 0; i < names.size(); i++) {
+            long number = i < state.getMaxNumber() ? i + 1 : i - state.getMaxNumber() + 1;
+            assertEquals(state.prefix + number, names.get(i));
+        }
+    }
+
+    @Test
+    public void testPrefixChangeAppliedToNextNames() throws Throwable {
+        ResourceNamePrefixState state = createPrefix("old", 5, 1);
+        VerificationHost node = nodes.get(0);
+
+        assertEquals(Arrays.asList("old1"), send(createNameRequest(node,
+                state.documentSelfLink), NamePrefixResponse.class).resourceNamePrefixes);
+
+        ResourceNamePrefixState currentState = send(Operation.createGet(
+                UriUtils.buildUri(node, state.documentSelfLink)), ResourceNamePrefixState.class);
+        currentState.prefix = "new";
+        send(Operation.createPut(UriUtils.buildUri(node, state.documentSelfLink))
+                .setBody(currentState), ResourceNamePrefixState.class);
+
+        // the leased range is still used, with the new prefix
+        assertEquals(Arrays.asList("new2"), send(createNameRequest(node,
+                state.documentSelfLink), NamePrefixResponse.class).resourceNamePrefixes);
+    }
+
+    private ResourceNamePrefixState createPrefix(String prefix, long numberOfDigits,
+            long nextNumber) throws Throwable {
+        ResourceNamePrefixState state = new ResourceNamePrefixState();
+        state.prefix = prefix;
+        state.numberOfDigits = numberOfDigits;
+        state.nextNumber = nextNumber;
+        state.addRandomToken = false;
+        return send(Operation.createPost(UriUtils.buildUri(nodes.get(0),
+                ResourceNamePrefixService.FACTORY_LINK)).setBody(state),
+                ResourceNamePrefixState.class);
+    }
+
+    private Operation createNameRequest(VerificationHost node, String resourceNamePrefixLink) {
+        NamePrefixLeaseRequest request = new NamePrefixLeaseRequest();
+        request.resourceNamePrefixLink = resourceNamePrefixLink;
+        request.resourceCount = 1;
+        return Operation.createPatch(UriUtils.buildUri(node,
+                ResourceNamePrefixLeaseService.SELF_LINK))
+                .setBody(request)
+                .setReferer(host.getUri());
+    }
+
+    private long countPatches(String resourceNamePrefixLink) throws Throwable {
+        long count = 0;
+        for (VerificationHost node : nodes) {
+            ServiceStats stats = send(Operation.createGet(UriUtils.buildStatsUri(
+                    UriUtils.buildUri(node, resourceNamePrefixLink))), ServiceStats.class);
+            // the patches are handled by the owner only
+            ServiceStat stat = stats.entries.get(ResourceNamePrefixState.class.getSimpleName());
+            if (stat != null) {
+                count += (long) stat.latestValue;
+            }
+        }
+        return count;
+    }
+
+    private <T> T send(Operation op, Class<T> type) throws Throwable {
+        Object[] result = new Object[1];
+        TestContext ctx = testCreate(1);
+        host.send(op.setReferer(host.getUri())
+                .setCompletion((o, e) -> {
+                    if (e != null) {
+                        ctx.failIteration(e);
+                        return;
+                    }
+                    result[0] = o.getBody(type);
+                    ctx.completeIteration();
+                }));
+        ctx.await();
+        return type.cast(result[0]);
+    }
+}
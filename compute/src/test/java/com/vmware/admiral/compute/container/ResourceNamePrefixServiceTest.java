@@ -16,6 +16,7 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.logging.Level;
 
@@ -25,6 +26,7 @@ import org.junit.Test;
 import com.vmware.admiral.service.common.ResourceNamePrefixService;
 import com.vmware.admiral.service.common.ResourceNamePrefixService.NamePrefixRequest;
 import com.vmware.admiral.service.common.ResourceNamePrefixService.NamePrefixResponse;
+import com.vmware.admiral.service.common.ResourceNamePrefixService.NumberRange;
 import com.vmware.admiral.service.common.ResourceNamePrefixService.ResourceNamePrefixState;
 import com.vmware.xenon.common.FactoryService;
 import com.vmware.xenon.common.Operation;
@@ -210,6 +212,99 @@ public class ResourceNamePrefixServiceTest extends ComputeBaseTest {
         }
     }
 
+    @Test
+    public void testLeaseAndReleaseRanges() throws Throwable {
+        ResourceNamePrefixState state = createValidResourceNamePrefixState();
+        state = doPost(state, ResourceNamePrefixService.FACTORY_LINK);
+
+        NamePrefixRequest request = new NamePrefixRequest();
+        request.leaseCount = 10;
+        NamePrefixResponse response = patch(state, request);
+        assertEquals(state.prefix, response.prefix);
+        assertRange(2, 11, response.leasedRange);
+
+        // give back part of the range, it is leased before moving on
+        request = new NamePrefixRequest();
+        request.releasedRanges = Arrays.asList(range(5, 11));
+        response = patch(state, request);
+        assertNull(response.leasedRange);
+
+        request = new NamePrefixRequest();
+        request.leaseCount = 3;
+        assertRange(5, 7, patch(state, request).leasedRange);
+        request.leaseCount = 10;
+        assertRange(8, 11, patch(state, request).leasedRange);
+        assertRange(12, 21, patch(state, request).leasedRange);
+
+        // ranges outside of the sequence are ignored
+        request = new NamePrefixRequest();
+        request.releasedRanges = Arrays.asList(range(0, 1), range(998, 1000));
+        patch(state, request);
+        request = new NamePrefixRequest();
+        request.leaseCount = 10;
+        assertRange(22, 31, patch(state, request).leasedRange);
+    }
+
+    @Test
+    public void testLeaseRangeWrapsAroundAtMaxNumber() throws Throwable {
+        ResourceNamePrefixState state = createValidResourceNamePrefixState();
+        state.nextNumber = 994;
+        state = doPost(state, ResourceNamePrefixService.FACTORY_LINK);
+
+        NamePrefixRequest request = new NamePrefixRequest();
+        request.leaseCount = 4;
+        assertRange(994, 997, patch(state, request).leasedRange);
+        // the range never goes over the max number
+        assertRange(998, 999, patch(state, request).leasedRange);
+        assertRange(994, 997, patch(state, request).leasedRange);
+
+        request.resourceCount = state.getRange() + 1;
+        NamePrefixRequest invalidRequest = request;
+        ResourceNamePrefixState invalidState = state;
+        validateIllegalArgument(() -> {
+            patch(invalidState, invalidRequest, true);
+        }, "must be bigger than the range.");
+    }
+
+    @Test
+    public void testRangeReleasedAfterWrapAroundIgnored() throws Throwable {
+        ResourceNamePrefixState state = createValidResourceNamePrefixState();
+        state.nextNumber = 994;
+        state = doPost(state, ResourceNamePrefixService.FACTORY_LINK);
+
+        NamePrefixRequest request = new NamePrefixRequest();
+        request.leaseCount = 4;
+        NumberRange leased = patch(state, request).leasedRange;
+        assertRange(994, 997, leased);
+        assertRange(998, 999, patch(state, request).leasedRange);
+
+        // the counter wrapped around, the numbers of the range are handed out again already
+        request = new NamePrefixRequest();
+        request.releasedRanges = Arrays.asList(leased);
+        patch(state, request);
+
+        request = new NamePrefixRequest();
+        request.leaseCount = 2;
+        NumberRange range = patch(state, request).leasedRange;
+        assertRange(994, 995, range);
+        assertEquals(leased.epoch + 1, range.epoch);
+        assertRange(996, 997, patch(state, request).leasedRange);
+        assertRange(998, 999, patch(state, request).leasedRange);
+    }
+
+    private static NumberRange range(long start, long end) {
+        NumberRange range = new NumberRange();
+        range.start = start;
+        range.end = end;
+        return range;
+    }
+
+    private static void assertRange(long start, long end, NumberRange range) {
+        assertNotNull(range);
+        assertEquals(start, range.start);
+        assertEquals(end, range.end);
+    }
+
     private void validateIllegalArgument(ResourceNamePrefixState state, String expecation)
             throws Throwable {
         validateIllegalArgument(() -> {
@@ -16,19 +16,25 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.function.Consumer;
 
 import org.junit.Before;
 import org.junit.Test;
 
+import com.vmware.admiral.common.util.QueryUtil;
 import com.vmware.admiral.common.util.ServiceDocumentQuery;
 import com.vmware.admiral.common.util.ServiceDocumentQuery.ServiceDocumentQueryElementResult;
 import com.vmware.admiral.compute.container.ContainerDescriptionService.ContainerDescription;
+import com.vmware.photon.controller.model.resources.ComputeDescriptionService;
+import com.vmware.photon.controller.model.resources.ComputeDescriptionService.ComputeDescription;
 import com.vmware.xenon.common.Service;
 import com.vmware.xenon.common.ServiceDocument;
 import com.vmware.xenon.common.UriUtils;
 import com.vmware.xenon.common.Utils;
+import com.vmware.xenon.services.common.QueryTask;
 
 public class ServiceDocumentQueryTest extends ComputeBaseTest {
     ServiceDocumentQuery<ContainerDescription> query;
@@ -62,6 +68,57 @@ public class ServiceDocumentQueryTest extends ComputeBaseTest {
         assertEquals(0, descs.size());
     }
 
+    @Test
+    public void testLookupDocumentParityWithQuery() throws Throwable {
+        ContainerDescription desc = new ContainerDescription();
+        desc.image = image1;
+        desc = doPost(desc, ContainerDescriptionService.FACTORY_LINK);
+
+        ContainerDescription deletedDesc = new ContainerDescription();
+        deletedDesc.image = image2;
+        deletedDesc = doPost(deletedDesc, ContainerDescriptionService.FACTORY_LINK);
+        delete(deletedDesc.documentSelfLink);
+
+        // a document of another type
+        ComputeDescription computeDesc = doPost(new ComputeDescription(),
+                ComputeDescriptionService.FACTORY_LINK);
+
+        String[] links = new String[] { "testLink",
+                UriUtils.buildUriPath(ContainerDescriptionService.FACTORY_LINK, "missing"),
+                desc.documentSelfLink, deletedDesc.documentSelfLink,
+                computeDesc.documentSelfLink };
+        for (String link : links) {
+            List<ContainerDescription> queried = new ArrayList<>(
+                    queryDocumentUpdatedSince(-1, link));
+            List<ContainerDescription> lookedUp = new ArrayList<>(lookupDocument(link));
+
+            assertEquals(link, queried.size(), lookedUp.size());
+            for (int i = 0; i < queried.size(); i++) {
+                assertEquals(queried.get(i).documentSelfLink, lookedUp.get(i).documentSelfLink);
+                assertEquals(queried.get(i).documentVersion, lookedUp.get(i).documentVersion);
+                assertEquals(queried.get(i).image, lookedUp.get(i).image);
+            }
+        }
+    }
+
+    @Test
+    public void testDirectQueryParity() throws Throwable {
+        Set<String> links = new HashSet<>();
+        for (int i = 0; i < 5; i++) {
+            ContainerDescription desc = new ContainerDescription();
+            desc.image = "direct-image";
+            links.add(doPost(desc, ContainerDescriptionService.FACTORY_LINK).documentSelfLink);
+        }
+
+        Set<String> polled = queryLinks(query, "direct-image");
+        Set<String> direct = queryLinks(
+                new ServiceDocumentQuery<>(host, ContainerDescription.class).setDirect(true),
+                "direct-image");
+
+        assertEquals(links, polled);
+        assertEquals(links, direct);
+    }
+
     @Test
     public void testQueryUpdatedDocumentSince() throws Throwable {
         long startTime = Utils.getNowMicrosUtc();
@@ -235,6 +292,14 @@ public class ServiceDocumentQueryTest extends ComputeBaseTest {
         return descs;
     }
 
+    private List<ContainerDescription> lookupDocument(String documentSelfLink)
+            throws Throwable {
+        host.testStart(1);
+        query.lookupDocument(documentSelfLink, handler(true));
+        host.testWait();
+        return descs;
+    }
+
     private List<ContainerDescription> queryDocumentUpdatedSince(
             long documentSinceUpdateTimeMicros, String documentSelfLink) throws Throwable {
         host.testStart(1);
@@ -251,6 +316,23 @@ public class ServiceDocumentQueryTest extends ComputeBaseTest {
         return descs;
     }
 
+    private Set<String> queryLinks(ServiceDocumentQuery<ContainerDescription> query,
+            String image) throws Throwable {
+        QueryTask q = QueryUtil.buildPropertyQuery(ContainerDescription.class,
+                ContainerDescription.FIELD_NAME_IMAGE, image);
+        q.taskInfo.isDirect = false;
+        QueryUtil.addExpandOption(q);
+        q.querySpec.resultLimit = 2;
+
+        host.testStart(1);
+        query.query(q, handler(false));
+        host.testWait();
+
+        Set<String> links = new HashSet<>();
+        descs.forEach((d) -> links.add(d.documentSelfLink));
+        return links;
+    }
+
     private Consumer<ServiceDocumentQueryElementResult<ContainerDescription>> handler(
             boolean singleResult) {
         descs.clear();
@@ -11,10 +11,15 @@
 
 package com.vmware.admiral.service.common;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
+import java.io.ByteArrayOutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
 
 import org.junit.After;
 import org.junit.Before;
@@ -23,6 +28,7 @@ import org.junit.Test;
 import com.vmware.admiral.compute.container.ComputeBaseTest;
 import com.vmware.admiral.compute.container.ContainerFactoryService;
 import com.vmware.admiral.service.common.LogService.LogServiceState;
+import com.vmware.xenon.common.ServiceDocumentQueryResult;
 
 public class LogServiceTest extends ComputeBaseTest {
     private List<String> documentLinksForDeletion;
@@ -51,4 +57,139 @@ public class LogServiceTest extends ComputeBaseTest {
 
         assertEquals(new String(logState.logs), new String(newLogState.logs));
     }
+
+    @Test
+    public void testAppendLogs() throws Throwable {
+        LogServiceState logState = new LogServiceState();
+        logState.logs = "a".getBytes();
+        logState = doPost(logState, LogService.FACTORY_LINK);
+        documentLinksForDeletion.add(logState.documentSelfLink);
+
+        appendLogs(logState.documentSelfLink, "bc".getBytes());
+        appendLogs(logState.documentSelfLink, "def".getBytes());
+
+        LogServiceState currentState = getDocument(LogServiceState.class,
+                logState.documentSelfLink);
+        assertEquals("abcdef", new String(currentState.logs));
+        assertEquals(0, currentState.startOffset.longValue());
+        assertEquals(6, currentState.endOffset.longValue());
+
+        // read only the logs after a given offset
+        currentState = getDocument(LogServiceState.class, logState.documentSelfLink,
+                LogService.OFFSET_QUERY_PARAM, "3");
+        assertEquals("def", new String(currentState.logs));
+        assertEquals(3, currentState.startOffset.longValue());
+        assertEquals(6, currentState.endOffset.longValue());
+
+        // nothing new after the end offset
+        currentState = getDocument(LogServiceState.class, logState.documentSelfLink,
+                LogService.OFFSET_QUERY_PARAM, "6");
+        assertEquals(0, currentState.logs.length);
+    }
+
+    @Test
+    public void testOldestLogsAreDroppedWhenTheLimitIsReached() throws Throwable {
+        LogServiceState logState = new LogServiceState();
+        logState.logs = new byte[0];
+        logState = doPost(logState, LogService.FACTORY_LINK);
+        documentLinksForDeletion.add(logState.documentSelfLink);
+
+        // random data is not compressible, 40 chunks of 64KB exceed the 1MB limit
+        Random random = new Random(1);
+        ByteArrayOutputStream allLogs = new ByteArrayOutputStream();
+        for (int i = 0; i < 40; i++) {
+            byte[] chunk = new byte[64 * 1024];
+            random.nextBytes(chunk);
+            allLogs.write(chunk, 0, chunk.length);
+            appendLogs(logState.documentSelfLink, chunk);
+        }
+
+        LogServiceState currentState = getDocument(LogServiceState.class,
+                logState.documentSelfLink);
+        byte[] all = allLogs.toByteArray();
+        assertEquals(all.length, currentState.endOffset.longValue());
+        assertTrue(currentState.startOffset > 0);
+        assertTrue(currentState.logs.length <= 1024 * 1024);
+        assertEquals(currentState.endOffset - currentState.startOffset,
+                currentState.logs.length);
+        assertArrayEquals(Arrays.copyOfRange(all, currentState.startOffset.intValue(),
+                all.length), currentState.logs);
+
+        // an offset of dropped logs returns all the logs kept
+        currentState = getDocument(LogServiceState.class, logState.documentSelfLink,
+                LogService.OFFSET_QUERY_PARAM, "0");
+        assertTrue(currentState.startOffset > 0);
+        assertEquals(currentState.endOffset - currentState.startOffset,
+                currentState.logs.length);
+    }
+
+    @Test
+    public void testLinesAlreadyStoredAreDropped() throws Throwable {
+        String first = "2016-01-01T00:00:01.000000001Z first\n";
+        String second = "2016-01-01T00:00:01.000000002Z second\n";
+        String third = "2016-01-01T00:00:02.000000001Z third\n";
+
+        LogServiceState logState = new LogServiceState();
+        logState.logs = first.getBytes();
+        logState.lastTimestamp = "2016-01-01T00:00:01.000000001Z";
+        logState = doPost(logState, LogService.FACTORY_LINK);
+        documentLinksForDeletion.add(logState.documentSelfLink);
+
+        // two refreshes with the same since
+        appendLogs(logState.documentSelfLink, (first + second).getBytes(),
+                "2016-01-01T00:00:01.000000002Z");
+        appendLogs(logState.documentSelfLink, (first + second + third).getBytes(),
+                "2016-01-01T00:00:02.000000001Z");
+        // a late refresh doesn't move the last timestamp back
+        appendLogs(logState.documentSelfLink, (first + second).getBytes(),
+                "2016-01-01T00:00:01.000000002Z");
+
+        LogServiceState currentState = getDocument(LogServiceState.class,
+                logState.documentSelfLink);
+        assertEquals(first + second + third, new String(currentState.logs));
+        assertEquals("2016-01-01T00:00:02.000000001Z", currentState.lastTimestamp);
+    }
+
+    @Test
+    public void testFullChunksStoredSeparately() throws Throwable {
+        LogServiceState logState = new LogServiceState();
+        logState.logs = new byte[0];
+        logState = doPost(logState, LogService.FACTORY_LINK);
+        documentLinksForDeletion.add(logState.documentSelfLink);
+
+        Random random = new Random(1);
+        ByteArrayOutputStream allLogs = new ByteArrayOutputStream();
+        for (int i = 0; i < 5; i++) {
+            byte[] chunk = new byte[40 * 1024];
+            random.nextBytes(chunk);
+            allLogs.write(chunk, 0, chunk.length);
+            appendLogs(logState.documentSelfLink, chunk);
+        }
+
+        // 200KB, three full chunks of 64KB are stored in their own documents
+        ServiceDocumentQueryResult chunks = getDocument(ServiceDocumentQueryResult.class,
+                LogChunkService.FACTORY_LINK);
+        assertEquals(3, chunks.documentLinks.size());
+
+        LogServiceState currentState = getDocument(LogServiceState.class,
+                logState.documentSelfLink);
+        assertArrayEquals(allLogs.toByteArray(), currentState.logs);
+
+        currentState = getDocument(LogServiceState.class, logState.documentSelfLink,
+                LogService.OFFSET_QUERY_PARAM, "70000");
+        assertArrayEquals(Arrays.copyOfRange(allLogs.toByteArray(), 70000,
+                allLogs.size()), currentState.logs);
+    }
+
+    private void appendLogs(String logLink, byte[] logs) throws Throwable {
+        appendLogs(logLink, logs, null);
+    }
+
+    private void appendLogs(String logLink, byte[] logs, String lastTimestamp)
+            throws Throwable {
+        LogServiceState patch = new LogServiceState();
+        patch.logs = logs;
+        patch.lastTimestamp = lastTimestamp;
+        doPatch(patch, logLink);
+    }
 }
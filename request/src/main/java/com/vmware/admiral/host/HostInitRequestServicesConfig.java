@@ -12,6 +12,7 @@
 package com.vmware.admiral.host;
 
 
+import com.vmware.admiral.common.util.KeyPairPool;
 import com.vmware.admiral.request.ClosureAllocationTaskService;
 import com.vmware.admiral.request.ClosureProvisionTaskService;
 import com.vmware.admiral.request.ClosureRemovalTaskFactoryService;
@@ -27,6 +28,8 @@ import com.vmware.admiral.request.ContainerVolumeAllocationTaskService;
 import com.vmware.admiral.request.ContainerVolumeProvisionTaskService;
 import com.vmware.admiral.request.ContainerVolumeRemovalTaskService;
 import com.vmware.admiral.request.PlacementHostSelectionTaskService;
+import com.vmware.admiral.request.RequestAdmissionService;
+import com.vmware.admiral.request.RequestBrokerBulkFactoryService;
 import com.vmware.admiral.request.RequestBrokerFactoryService;
 import com.vmware.admiral.request.RequestStatusFactoryService;
 import com.vmware.admiral.request.ReservationAllocationTaskService;
@@ -51,7 +54,9 @@ public class HostInitRequestServicesConfig extends HostInitServiceHelper {
 
     public static void startServices(ServiceHost host) {
         startServices(host,
+                RequestAdmissionService.class,
                 RequestBrokerFactoryService.class,
+                RequestBrokerBulkFactoryService.class,
                 ContainerAllocationTaskFactoryService.class,
                 ReservationTaskFactoryService.class,
                 ReservationRemovalTaskFactoryService.class,
@@ -86,5 +91,8 @@ public class HostInitRequestServicesConfig extends HostInitServiceHelper {
                 ReservationAllocationTaskService.class,
                 CompositeComponentRemovalTaskService.class,
                 ServiceDocumentDeleteTaskService.class);
+
+        // pre-generate the key pairs of the provisioned computes
+        KeyPairPool.getDefault().refill();
     }
 }
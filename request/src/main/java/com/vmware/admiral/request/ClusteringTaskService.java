@@ -24,7 +24,9 @@ import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
@@ -45,6 +47,7 @@ import com.vmware.admiral.service.common.ServiceTaskCallback.ServiceTaskCallback
 import com.vmware.photon.controller.model.resources.ComputeService.ComputeState;
 import com.vmware.photon.controller.model.resources.ResourceState;
 import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.ServiceErrorResponse;
 import com.vmware.xenon.common.TaskState;
 import com.vmware.xenon.common.UriUtils;
 import com.vmware.xenon.common.Utils;
@@ -54,7 +57,9 @@ import com.vmware.xenon.services.common.QueryTask.QuerySpecification.QueryOption
 
 /**
  * Task for clusterization of resources: handles both increase and decrease of the number of the
- * resources in a cluster.
+ * resources in a cluster. The additional resources are provisioned in waves of
+ * {@link #WAVE_SIZE} resources, each wave is a separate request and the next wave is placed
+ * while the previous one is allocated.
  */
 public class ClusteringTaskService extends
         AbstractTaskStatefulService<ClusteringTaskService.ClusteringTaskState, ClusteringTaskService.ClusteringTaskState.SubStage> {
@@ -63,17 +68,29 @@ public class ClusteringTaskService extends
 
     public static final String FACTORY_LINK = ManagementUriParts.REQUEST_RESOURCE_CLUSTERING_TASK;
 
+    /** The number of resources provisioned by one wave. */
+    public static final int WAVE_SIZE = Integer.getInteger(
+            "com.vmware.admiral.request.clustering.wave.size", 50);
+
+    /** The number of waves provisioned in parallel. */
+    public static final int WAVES_IN_PROGRESS = Integer.getInteger(
+            "com.vmware.admiral.request.clustering.waves.in.progress", 2);
+
+    // the sizes of the waves submitted by the merge of a patch, sent once the patch is applied
+    private final Queue<Long> nextWaves = new ConcurrentLinkedQueue<>();
+
     public static class ClusteringTaskState extends
             com.vmware.admiral.service.common.TaskServiceDocument<ClusteringTaskState.SubStage> {
 
         public enum SubStage {
             CREATED,
             CLUSTERING,
+            WAVE_COMPLETED,
             COMPLETED,
             ERROR;
 
             static final Set<SubStage> TRANSIENT_SUB_STAGES = new HashSet<>(
-                    Arrays.asList(CLUSTERING));
+                    Arrays.asList(CLUSTERING, WAVE_COMPLETED));
         }
 
         public String contextId;
@@ -95,6 +112,33 @@ public class ClusteringTaskService extends
         // Service use fields:
         @PropertyOptions(usage = { SERVICE_USE, AUTO_MERGE_IF_NOT_NULL }, indexing = STORE_ONLY)
         public Set<String> resourceLinks;
+
+        /** The placement of the existing resources, used by all waves. */
+        @PropertyOptions(usage = SERVICE_USE, indexing = STORE_ONLY)
+        public String groupResourcePlacementLink;
+
+        /** The number of resources to add. */
+        @PropertyOptions(usage = SERVICE_USE, indexing = STORE_ONLY)
+        public long resourcesToAdd;
+
+        @PropertyOptions(usage = SERVICE_USE, indexing = STORE_ONLY)
+        public long waveSize;
+
+        @PropertyOptions(usage = SERVICE_USE, indexing = STORE_ONLY)
+        public long wavesCount;
+
+        @PropertyOptions(usage = SERVICE_USE, indexing = STORE_ONLY)
+        public long wavesSubmitted;
+
+        @PropertyOptions(usage = SERVICE_USE, indexing = STORE_ONLY)
+        public long wavesCompleted;
+
+        @PropertyOptions(usage = SERVICE_USE, indexing = STORE_ONLY)
+        public long wavesFailed;
+
+        /** The failure of the last failed wave. */
+        @PropertyOptions(usage = SERVICE_USE, indexing = STORE_ONLY)
+        public ServiceErrorResponse waveFailure;
     }
 
     public ClusteringTaskService() {
@@ -121,6 +165,11 @@ public class ClusteringTaskService extends
             provisionOrRemoveResources(state, null);
             break;
         case CLUSTERING:
+            sendNextWaves(state);
+            break;
+        case WAVE_COMPLETED:
+            sendNextWaves(state);
+            completeWaves(state);
             break;
         case COMPLETED:
             complete();
@@ -133,6 +182,28 @@ public class ClusteringTaskService extends
         }
     }
 
+    @Override
+    protected void customStateValidationAndMerge(Operation patch,
+            ClusteringTaskState patchBody, ClusteringTaskState currentState) {
+        if (patchBody.taskSubStage == SubStage.CLUSTERING && patchBody.wavesCount > 0) {
+            currentState.groupResourcePlacementLink = patchBody.groupResourcePlacementLink;
+            currentState.resourcesToAdd = patchBody.resourcesToAdd;
+            currentState.waveSize = patchBody.waveSize;
+            currentState.wavesCount = patchBody.wavesCount;
+            submitWaves(currentState);
+        } else if (patchBody.taskSubStage == SubStage.WAVE_COMPLETED) {
+            if (patchBody.taskInfo.failure != null) {
+                // the task fails once the waves in progress complete
+                currentState.wavesFailed++;
+                currentState.waveFailure = patchBody.taskInfo.failure;
+                currentState.taskInfo.failure = null;
+            } else {
+                currentState.wavesCompleted++;
+            }
+            submitWaves(currentState);
+        }
+    }
+
     @Override
     protected ServiceTaskCallbackResponse getFinishedCallbackResponse(
             ClusteringTaskState state) {
@@ -188,8 +259,17 @@ public class ClusteringTaskService extends
             groupResourcePlacementLink = getGroupResourcePlacementLink(sortedResources.get(0));
         }
         if (resourcesToAdd >= 1) {
-            createAdditionalResources(state, state.resourceDescriptionLink,
-                    groupResourcePlacementLink, resourcesToAdd);
+            long waveSize = WAVE_SIZE;
+            long wavesCount = (resourcesToAdd + waveSize - 1) / waveSize;
+            String placementLink = groupResourcePlacementLink;
+            long count = resourcesToAdd;
+            // the waves are submitted once the plan is persisted
+            proceedTo(SubStage.CLUSTERING, (s) -> {
+                s.groupResourcePlacementLink = placementLink;
+                s.resourcesToAdd = count;
+                s.waveSize = waveSize;
+                s.wavesCount = wavesCount;
+            });
         } else {
             removeResources(state, state.resourceDescriptionLink, resourcesToRemove);
         }
@@ -234,19 +314,61 @@ public class ClusteringTaskService extends
         return sortedResources;
     }
 
-    private void createAdditionalResources(ClusteringTaskState state, String descLink,
-            String groupResourcePlacementLink, int resourcesToAdd) {
+    /**
+     * Submits the next waves, keeping up to {@link #WAVES_IN_PROGRESS} waves in progress. No
+     * more waves are submitted once a wave fails. The requests of the waves are sent once the
+     * patch is applied.
+     */
+    private void submitWaves(ClusteringTaskState state) {
+        long wavesFinished = state.wavesCompleted + state.wavesFailed;
+        while (state.wavesFailed == 0 && state.wavesSubmitted < state.wavesCount
+                && state.wavesSubmitted - wavesFinished < WAVES_IN_PROGRESS) {
+            long provisioned = state.wavesSubmitted * state.waveSize;
+            long count = Math.min(state.waveSize, state.resourcesToAdd - provisioned);
+            state.wavesSubmitted++;
+            logInfo("Submitting wave %d of %d with %d resources", state.wavesSubmitted,
+                    state.wavesCount, count);
+            nextWaves.add(count);
+        }
+    }
+
+    /**
+     * Sends the requests of the waves submitted by the merge of the patch.
+     */
+    private void sendNextWaves(ClusteringTaskState state) {
+        Long count;
+        while ((count = nextWaves.poll()) != null) {
+            createAdditionalResources(state, count);
+        }
+    }
+
+    private void completeWaves(ClusteringTaskState state) {
+        if (state.wavesSubmitted > state.wavesCompleted + state.wavesFailed) {
+            // waves still in progress
+            return;
+        }
+        if (state.wavesFailed > 0) {
+            logWarning("%d of %d waves failed, %d completed", state.wavesFailed,
+                    state.wavesCount, state.wavesCompleted);
+            completeWithError((s) -> s.taskInfo.failure = state.waveFailure);
+            return;
+        }
+        proceedTo(SubStage.COMPLETED);
+    }
+
+    private void createAdditionalResources(ClusteringTaskState state, long resourcesToAdd) {
+        ServiceTaskCallback waveCallback = ServiceTaskCallback.create(getSelfLink(),
+                TaskState.TaskStage.STARTED, SubStage.WAVE_COMPLETED,
+                TaskState.TaskStage.STARTED, SubStage.WAVE_COMPLETED);
 
         RequestBrokerState requestBrokerState = new RequestBrokerState();
         requestBrokerState.resourceCount = resourcesToAdd;
-        requestBrokerState.resourceDescriptionLink = descLink;
+        requestBrokerState.resourceDescriptionLink = state.resourceDescriptionLink;
         requestBrokerState.resourceType = state.resourceType;
         requestBrokerState.operation = RequestBrokerState.PROVISION_RESOURCE_OPERATION;
-        requestBrokerState.groupResourcePlacementLink = groupResourcePlacementLink;
+        requestBrokerState.groupResourcePlacementLink = state.groupResourcePlacementLink;
         requestBrokerState.tenantLinks = state.tenantLinks;
-        requestBrokerState.serviceTaskCallback = ServiceTaskCallback.create(getSelfLink(),
-                TaskState.TaskStage.STARTED, SubStage.COMPLETED, TaskState.TaskStage.FAILED,
-                SubStage.ERROR);
+        requestBrokerState.serviceTaskCallback = waveCallback;
         requestBrokerState.addCustomProperty(FIELD_NAME_CONTEXT_ID_KEY, state.contextId);
         requestBrokerState.addCustomProperty(RequestUtils.CLUSTERING_OPERATION_CUSTOM_PROP,
                 Boolean.TRUE.toString());
@@ -259,9 +381,10 @@ public class ClusteringTaskService extends
                 .setBody(requestBrokerState).setCompletion((o, e) -> {
                     if (e != null) {
                         logSevere(Utils.toString(e));
-                        return;
+                        // complete the wave as failed
+                        sendRequest(Operation.createPatch(this, getSelfLink())
+                                .setBody(waveCallback.getFailedResponse(e)));
                     }
-                    proceedTo(SubStage.CLUSTERING);
                 }));
     }
 
@@ -59,6 +59,7 @@ import com.vmware.admiral.request.PlacementHostSelectionTaskService.PlacementHos
 import com.vmware.admiral.request.ResourceNamePrefixTaskService.ResourceNamePrefixTaskState;
 import com.vmware.admiral.request.allocation.filter.HostSelectionFilter.HostSelection;
 import com.vmware.admiral.service.common.AbstractTaskStatefulService;
+import com.vmware.admiral.service.common.DocumentCacheService;
 import com.vmware.admiral.service.common.ResourceNamePrefixService;
 import com.vmware.admiral.service.common.ServiceTaskCallback;
 import com.vmware.admiral.service.common.ServiceTaskCallback.ServiceTaskCallbackResponse;
@@ -165,6 +166,25 @@ public class ContainerAllocationTaskService
         super.toggleOption(ServiceOption.OWNER_SELECTION, true);
         super.toggleOption(ServiceOption.INSTRUMENTATION, true);
         super.transientSubStages = SubStage.TRANSIENT_SUB_STAGES;
+        super.setEphemeralSubTasksCheck(true);
+    }
+
+    @Override
+    protected String getEphemeralSubTaskLink(ContainerAllocationTaskState state) {
+        switch (state.taskSubStage) {
+        case CONTEXT_PREPARED:
+            return state.resourceNames == null || state.resourceNames.isEmpty()
+                    ? UriUtils.buildUriPath(ResourceNamePrefixTaskService.FACTORY_LINK,
+                            getSelfId())
+                    : null;
+        case RESOURCES_LINKS_BUILT:
+            return state.hostSelections == null || state.hostSelections.isEmpty()
+                    ? UriUtils.buildUriPath(PlacementHostSelectionTaskService.FACTORY_LINK,
+                            getSelfId())
+                    : null;
+        default:
+            return null;
+        }
     }
 
     @Override
@@ -343,17 +363,11 @@ public class ContainerAllocationTaskService
             callbackFunction.accept(containerDescription);
             return;
         }
-        sendRequest(Operation.createGet(this, state.resourceDescriptionLink)
-                .setCompletion((o, e) -> {
-                    if (e != null) {
-                        failTask("Failure retrieving description state", e);
-                        return;
-                    }
-
-                    ContainerDescription desc = o.getBody(ContainerDescription.class);
+        DocumentCacheService.getDocumentState(this, state.resourceDescriptionLink,
+                ContainerDescription.class, (desc) -> {
                     this.containerDescription = desc;
                     callbackFunction.accept(desc);
-                }));
+                }, (e) -> failTask("Failure retrieving description state", e));
     }
 
     private void prepareContext(ContainerAllocationTaskState state,
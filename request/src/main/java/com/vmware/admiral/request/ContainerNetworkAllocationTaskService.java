@@ -124,6 +124,7 @@ public class ContainerNetworkAllocationTaskService extends
         super.toggleOption(ServiceOption.REPLICATION, true);
         super.toggleOption(ServiceOption.OWNER_SELECTION, true);
         super.toggleOption(ServiceOption.INSTRUMENTATION, true);
+        super.setEphemeralSubTasksCheck(true);
     }
 
     @Override
@@ -139,6 +140,16 @@ public class ContainerNetworkAllocationTaskService extends
         }
     }
 
+    @Override
+    protected String getEphemeralSubTaskLink(ContainerNetworkAllocationTaskState state) {
+        if (state.taskSubStage == SubStage.CONTEXT_PREPARED
+                && (state.resourceNames == null || state.resourceNames.isEmpty())) {
+            return UriUtils.buildUriPath(ResourceNamePrefixTaskService.FACTORY_LINK,
+                    getSelfId());
+        }
+        return null;
+    }
+
     @Override
     protected void handleStartedStagePatch(ContainerNetworkAllocationTaskState state) {
         switch (state.taskSubStage) {
@@ -14,12 +14,22 @@ package com.vmware.admiral.request;
 import static com.vmware.admiral.compute.container.SystemContainerDescriptions.isSystemContainer;
 import static com.vmware.xenon.common.ServiceDocumentDescription.PropertyIndexingOption.STORE_ONLY;
 import static com.vmware.xenon.common.ServiceDocumentDescription.PropertyUsageOption.REQUIRED;
+import static com.vmware.xenon.common.ServiceDocumentDescription.PropertyUsageOption.SERVICE_USE;
 
+import java.util.AbstractMap.SimpleImmutableEntry;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Arrays;
 import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 
 import com.vmware.admiral.adapter.common.AdapterRequest;
 import com.vmware.admiral.adapter.common.ContainerOperationType;
@@ -30,16 +40,25 @@ import com.vmware.admiral.compute.container.ContainerService.ContainerState;
 import com.vmware.admiral.compute.container.maintenance.ContainerStats;
 import com.vmware.admiral.request.ContainerOperationTaskService.ContainerOperationTaskState.SubStage;
 import com.vmware.admiral.service.common.AbstractTaskStatefulService;
+import com.vmware.admiral.service.common.CounterSubTaskService;
+import com.vmware.admiral.service.common.CounterSubTaskService.CounterSubTaskState;
 import com.vmware.admiral.service.common.ServiceTaskCallback;
 import com.vmware.admiral.service.common.TaskServiceDocument;
 import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.OperationJoin;
 import com.vmware.xenon.common.ServiceDocument;
+import com.vmware.xenon.common.TaskState.TaskStage;
 import com.vmware.xenon.common.UriUtils;
+import com.vmware.xenon.common.Utils;
 import com.vmware.xenon.services.common.QueryTask;
 import com.vmware.xenon.services.common.QueryTask.QuerySpecification.QueryOption;
 
 /**
- * Task implementing Container post-provisioning (Day2) operation.
+ * Task implementing Container post-provisioning (Day2) operation. The operation is requested from
+ * the adapter host by host, with at most {@link #HOST_PIPELINE_SIZE} requests in progress per
+ * host. The number of processed containers per host is kept in the task state, so a restarted task
+ * or a new owner continues with the next batch of each host. The container states of a host are
+ * updated together once all of its operations complete.
  */
 public class ContainerOperationTaskService extends
         AbstractTaskStatefulService<ContainerOperationTaskService.ContainerOperationTaskState,
@@ -47,14 +66,37 @@ public class ContainerOperationTaskService extends
 
     public static final String DISPLAY_NAME = "Container Operation";
 
+    public static final int HOST_PIPELINE_SIZE = Integer.getInteger(
+            "com.vmware.admiral.request.container.operation.host.pipeline.size", 5);
+
+    // set by the counter sub task of a host batch to identify the host and the batch
+    private static final String OPERATION_HOST_LINK_PROP_NAME = "__operationHostLink";
+    private static final String OPERATION_BATCH_OFFSET_PROP_NAME = "__operationBatchOffset";
+
+    // the containers to be processed by the adapter, built again from the query when missing
+    private volatile HostContainersPlan operationPlan;
+
+    // whether the batches of the hosts are sent by this instance of the task
+    private final AtomicBoolean operationStarted = new AtomicBoolean();
+
+    // the next batches of the hosts and the completed hosts with whether all hosts are
+    // completed, as decided when a batch completes, handled once the patch of the completed
+    // batch is applied
+    private final Queue<Entry<String, Long>> nextBatches = new ConcurrentLinkedQueue<>();
+    private final Queue<Entry<String, Boolean>> completedHosts = new ConcurrentLinkedQueue<>();
+
     public static class ContainerOperationTaskState
             extends
             com.vmware.admiral.service.common.TaskServiceDocument<ContainerOperationTaskState.SubStage> {
 
         public static enum SubStage {
             CREATED,
+            INSTANCES_PROCESSING,
             COMPLETED,
             ERROR;
+
+            static final Set<SubStage> TRANSIENT_SUB_STAGES = new HashSet<>(
+                    Arrays.asList(INSTANCES_PROCESSING));
         }
 
         /** (Required) The name of the resource operation to be performed. */
@@ -64,6 +106,14 @@ public class ContainerOperationTaskService extends
         /** (Required) The resources on which the given operation will be applied */
         @PropertyOptions(usage = { REQUIRED }, indexing = STORE_ONLY)
         public Set<String> resourceLinks;
+
+        /** (Internal) Set by task with the number of containers to be processed per host. */
+        @PropertyOptions(usage = { SERVICE_USE }, indexing = STORE_ONLY)
+        public Map<String, Long> hostContainerCounts;
+
+        /** (Internal) Set by task with the number of containers processed per host. */
+        @PropertyOptions(usage = { SERVICE_USE }, indexing = STORE_ONLY)
+        public Map<String, Long> hostCompletedCounts;
     }
 
     public ContainerOperationTaskService() {
@@ -72,6 +122,7 @@ public class ContainerOperationTaskService extends
         super.toggleOption(ServiceOption.REPLICATION, true);
         super.toggleOption(ServiceOption.OWNER_SELECTION, true);
         super.toggleOption(ServiceOption.INSTRUMENTATION, true);
+        super.transientSubStages = SubStage.TRANSIENT_SUB_STAGES;
     }
 
     @Override
@@ -80,6 +131,13 @@ public class ContainerOperationTaskService extends
         case CREATED:
             queryContainerResources(state);
             break;
+        case INSTANCES_PROCESSING:
+            // once per instance, the next patches are the batches of the hosts
+            if (operationStarted.compareAndSet(false, true)) {
+                performResourceOperations(state);
+            }
+            handleCompletedBatches(state);
+            break;
         case COMPLETED:
             complete();
             break;
@@ -91,6 +149,66 @@ public class ContainerOperationTaskService extends
         }
     }
 
+    @Override
+    protected void customStateValidationAndMerge(Operation patch,
+            ContainerOperationTaskState patchBody, ContainerOperationTaskState currentState) {
+        if (patchBody.hostContainerCounts != null && currentState.hostContainerCounts == null) {
+            currentState.hostContainerCounts = patchBody.hostContainerCounts;
+            currentState.hostCompletedCounts = new HashMap<>();
+            for (String hostLink : patchBody.hostContainerCounts.keySet()) {
+                currentState.hostCompletedCounts.put(hostLink, 0L);
+            }
+        }
+
+        String hostLink = currentState.removeCustomProperty(OPERATION_HOST_LINK_PROP_NAME);
+        String batchOffset = currentState.removeCustomProperty(OPERATION_BATCH_OFFSET_PROP_NAME);
+        if (hostLink == null || batchOffset == null
+                || SubStage.INSTANCES_PROCESSING != patchBody.taskSubStage
+                || currentState.hostContainerCounts == null) {
+            return;
+        }
+
+        // the batch of the host completed, continue with the next one
+        operationStarted.set(true);
+        long nextOffset = HostContainersPlan.completeBatch(currentState.hostCompletedCounts,
+                currentState.hostContainerCounts, hostLink, Long.parseLong(batchOffset),
+                HOST_PIPELINE_SIZE);
+        if (nextOffset < 0) {
+            logFine("Ignoring completed batch %s of host %s", batchOffset, hostLink);
+        } else if (nextOffset < currentState.hostContainerCounts.get(hostLink)) {
+            nextBatches.add(new SimpleImmutableEntry<>(hostLink, nextOffset));
+        } else {
+            completedHosts.add(new SimpleImmutableEntry<>(hostLink,
+                    HostContainersPlan.isCompleted(currentState.hostCompletedCounts,
+                            currentState.hostContainerCounts)));
+        }
+    }
+
+    /**
+     * Sends the next batches of the hosts whose batch completed and updates the stats of the
+     * completed hosts, the task completes after the stats of the last host.
+     */
+    private void handleCompletedBatches(ContainerOperationTaskState state) {
+        Entry<String, Long> batch;
+        while ((batch = nextBatches.poll()) != null) {
+            performHostResourceOperations(state, batch.getKey(), batch.getValue());
+        }
+
+        Entry<String, Boolean> completedHost;
+        while ((completedHost = completedHosts.poll()) != null) {
+            String hostLink = completedHost.getKey();
+            boolean completed = completedHost.getValue();
+            getOperationPlan(state, (plan) -> {
+                patchContainerStats(state, plan.getContainers(hostLink), () -> {
+                    if (completed) {
+                        operationPlan = null;
+                        proceedTo(SubStage.COMPLETED);
+                    }
+                });
+            });
+        }
+    }
+
     @Override
     protected TaskStatusState fromTask(TaskServiceDocument<SubStage> state) {
         TaskStatusState statusTask = super.fromTask(state);
@@ -123,7 +241,13 @@ public class ContainerOperationTaskService extends
                         failTask("No available resources", null);
                     }
                 } else {
-                    performResourceOperations(state, documents, null);
+                    HostContainersPlan plan = new HostContainersPlan(documents);
+                    logInfo("Starting %s of %d container resources on %d hosts",
+                            state.operation, plan.size(), plan.getHostLinks().size());
+                    operationPlan = plan;
+                    proceedTo(SubStage.INSTANCES_PROCESSING, s -> {
+                        s.hostContainerCounts = plan.getContainerCounts();
+                    });
                 }
             }
         });
@@ -140,22 +264,99 @@ public class ContainerOperationTaskService extends
         return query;
     }
 
-    private void performResourceOperations(ContainerOperationTaskState state,
-            Collection<ContainerState> resources, ServiceTaskCallback taskCallback) {
-        if (taskCallback == null) {
-            createCounterSubTaskCallback(state, resources.size(), true,
-                    (serviceTask) -> performResourceOperations(state, resources, serviceTask));
+    /**
+     * Sends the current batch of each host not completed yet. Called once the operation starts and
+     * when the task is restarted, a batch in progress before the restart is sent again.
+     */
+    private void performResourceOperations(ContainerOperationTaskState state) {
+        if (state.hostContainerCounts == null) {
+            failTask("No container operation in progress: " + state.operation, null);
             return;
         }
 
-        try {
-            logInfo("Starting %s of %d container resources", state.operation, resources.size());
-            for (ContainerState container : resources) {
-                createAdapterRequest(state, container, taskCallback);
+        for (Entry<String, Long> e : state.hostContainerCounts.entrySet()) {
+            Long completed = state.hostCompletedCounts.get(e.getKey());
+            long offset = completed != null ? completed : 0;
+            if (offset < e.getValue()) {
+                performHostResourceOperations(state, e.getKey(), offset);
+            }
+        }
+    }
+
+    /**
+     * Sends the adapter requests for the batch of containers of the given host starting at the
+     * given offset. The counter sub task of the batch notifies back when all of them are
+     * processed.
+     */
+    private void performHostResourceOperations(ContainerOperationTaskState state,
+            String hostLink, long offset) {
+        getOperationPlan(state, (plan) -> {
+            List<ContainerState> containers = plan.getBatch(hostLink, offset,
+                    HOST_PIPELINE_SIZE);
+            if (containers.isEmpty()) {
+                failTask("No containers to be processed for host: " + hostLink, null);
+                return;
             }
-        } catch (Throwable e) {
-            failTask("Unexpected exception while requesting operation: " + state.operation, e);
+
+            CounterSubTaskState subTaskInitState = new CounterSubTaskState();
+            subTaskInitState.completionsRemaining = containers.size();
+            subTaskInitState.serviceTaskCallback = ServiceTaskCallback.create(
+                    getSelfLink(),
+                    TaskStage.STARTED, SubStage.INSTANCES_PROCESSING,
+                    TaskStage.STARTED, SubStage.ERROR);
+            subTaskInitState.customProperties = new HashMap<>();
+            subTaskInitState.customProperties.put(OPERATION_HOST_LINK_PROP_NAME, hostLink);
+            subTaskInitState.customProperties.put(OPERATION_BATCH_OFFSET_PROP_NAME,
+                    Long.toString(offset));
+
+            CounterSubTaskService.createSubTask(this, subTaskInitState, (subTaskLink) -> {
+                ServiceTaskCallback taskCallback = ServiceTaskCallback.create(
+                        UriUtils.buildUri(getHost(), subTaskLink).toString(),
+                        TaskStage.FINISHED, TaskStage.FAILED);
+                for (ContainerState containerState : containers) {
+                    createAdapterRequest(state, containerState, taskCallback);
+                }
+            });
+        });
+    }
+
+    /**
+     * Provides the operation plan, built again from the containers of the task when this instance
+     * of the task didn't start the operation, e.g. after a restart or an owner change.
+     */
+    private void getOperationPlan(ContainerOperationTaskState state,
+            Consumer<HostContainersPlan> callback) {
+        HostContainersPlan plan = operationPlan;
+        if (plan != null) {
+            callback.accept(plan);
+            return;
         }
+
+        QueryTask computeQuery = createResourcesQuery(ContainerState.class, state.resourceLinks);
+        List<ContainerState> documents = new ArrayList<>(state.resourceLinks.size());
+        new ServiceDocumentQuery<ContainerState>(getHost(), ContainerState.class)
+                .query(computeQuery, (r) -> {
+                    if (r.hasException()) {
+                        failTask("Failure retrieving query results", r.getException());
+                    } else if (r.hasResult()) {
+                        documents.add(r.getResult());
+                    } else {
+                        HostContainersPlan newPlan = new HostContainersPlan(documents);
+                        // the batches are identified by their offset, they must not move
+                        if (state.hostContainerCounts != null && !state.hostContainerCounts
+                                .equals(newPlan.getContainerCounts())) {
+                            failTask(String.format("Containers of %s changed since the"
+                                    + " operation started: %s, expected %s", state.operation,
+                                    newPlan.getContainerCounts(), state.hostContainerCounts),
+                                    null);
+                            return;
+                        }
+                        logInfo("Continuing %s of %d container resources on %d hosts",
+                                state.operation, newPlan.size(), newPlan.getHostLinks().size());
+                        operationPlan = newPlan;
+                        callback.accept(newPlan);
+                    }
+                });
     }
 
     private void createAdapterRequest(ContainerOperationTaskState state,
@@ -172,19 +373,35 @@ public class ContainerOperationTaskService extends
                 .setCompletion((o, e) -> {
                     if (e != null) {
                         failTask("AdapterRequest failed for container: " + selfLink, e);
-                        return;
-                    } else {
-                        patchContainerStats(state, containerState);
                     }
                 }));
     }
 
-    private void patchContainerStats(ContainerOperationTaskState state, ContainerState containerState) {
-        if (state.operation.equals(ContainerOperationType.STOP.toString())) {
+    /**
+     * Updates the stats of all containers of a host at once, after their operations completed.
+     */
+    private void patchContainerStats(ContainerOperationTaskState state,
+            List<ContainerState> containers, Runnable callback) {
+        if (!state.operation.equals(ContainerOperationType.STOP.toString())
+                || containers.isEmpty()) {
+            callback.run();
+            return;
+        }
+
+        List<Operation> patches = new ArrayList<>(containers.size());
+        for (ContainerState containerState : containers) {
             ContainerStats patch = new ContainerStats();
             patch.containerStopped = true;
-            sendRequest(Operation.createPatch(this, containerState.documentSelfLink)
+            patches.add(Operation.createPatch(this, containerState.documentSelfLink)
                     .setBody(patch));
         }
+
+        OperationJoin.create(patches).setCompletion((ops, exs) -> {
+            if (exs != null && !exs.isEmpty()) {
+                logWarning("Failed updating the stats of stopped containers: %s",
+                        Utils.toString(exs));
+            }
+            callback.run();
+        }).sendWith(this);
     }
 }
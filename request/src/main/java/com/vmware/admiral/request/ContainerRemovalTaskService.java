@@ -18,27 +18,32 @@ import static com.vmware.xenon.common.ServiceDocumentDescription.PropertyUsageOp
 import static com.vmware.xenon.common.ServiceDocumentDescription.PropertyUsageOption.REQUIRED;
 import static com.vmware.xenon.common.ServiceDocumentDescription.PropertyUsageOption.SERVICE_USE;
 
+import java.util.AbstractMap.SimpleImmutableEntry;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Queue;
 import java.util.Set;
-import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
 import com.vmware.admiral.adapter.common.AdapterRequest;
 import com.vmware.admiral.adapter.common.ContainerOperationType;
 import com.vmware.admiral.common.ManagementUriParts;
 import com.vmware.admiral.common.util.QueryUtil;
 import com.vmware.admiral.common.util.ServiceDocumentQuery;
-import com.vmware.admiral.common.util.ServiceUtils;
 import com.vmware.admiral.compute.container.ContainerDescriptionService.ContainerDescription;
 import com.vmware.admiral.compute.container.ContainerHostDataCollectionService;
 import com.vmware.admiral.compute.container.ContainerHostDataCollectionService.ContainerHostDataCollectionState;
 import com.vmware.admiral.compute.container.ContainerService.ContainerState;
 import com.vmware.admiral.compute.container.ContainerService.ContainerState.PowerState;
+import com.vmware.admiral.compute.container.util.CompositeComponentNotifier;
 import com.vmware.admiral.request.ContainerRemovalTaskService.ContainerRemovalTaskState.SubStage;
 import com.vmware.admiral.request.ReservationRemovalTaskService.ReservationRemovalTaskState;
 import com.vmware.admiral.service.common.AbstractTaskStatefulService;
@@ -57,7 +62,12 @@ import com.vmware.xenon.common.Utils;
 import com.vmware.xenon.services.common.QueryTask;
 
 /**
- * Task implementing removal of Containers.
+ * Task implementing removal of Containers. The containers are removed by the adapter host by
+ * host, with at most {@link #HOST_PIPELINE_SIZE} removals in progress per host. The number of
+ * removed containers per host is kept in the task state, so a restarted task or a new owner
+ * continues with the next batch of each host. The container states are then deleted in batches
+ * and the composite components, descriptions and placements of all removed containers are updated
+ * once at the end.
  */
 public class ContainerRemovalTaskService
         extends
@@ -65,6 +75,29 @@ public class ContainerRemovalTaskService
 
     public static final String DISPLAY_NAME = "Container Removal";
 
+    /** The number of containers removed in parallel on the same host. */
+    public static final int HOST_PIPELINE_SIZE = Integer.getInteger(
+            "com.vmware.admiral.request.container.removal.host.pipeline.size", 5);
+
+    /** The number of container states deleted in parallel. */
+    public static final int STATE_REMOVAL_BATCH_SIZE = Integer.getInteger(
+            "com.vmware.admiral.request.container.removal.batch.size", 50);
+
+    // set by the counter sub task of a host batch to identify the host and the batch
+    private static final String REMOVAL_HOST_LINK_PROP_NAME = "__removalHostLink";
+    private static final String REMOVAL_BATCH_OFFSET_PROP_NAME = "__removalBatchOffset";
+
+    // the containers to be removed by the adapter, built again from the query when missing
+    private volatile HostContainersPlan removalPlan;
+
+    // whether the batches of the hosts are sent by this instance of the task
+    private final AtomicBoolean removalStarted = new AtomicBoolean();
+
+    // the next batches of the hosts and whether all are removed, as decided when a batch
+    // completes, handled once the patch of the completed batch is applied
+    private final Queue<Entry<String, Long>> nextBatches = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean removalCompleted = new AtomicBoolean();
+
     public static class ContainerRemovalTaskState extends
             com.vmware.admiral.service.common.TaskServiceDocument<ContainerRemovalTaskState.SubStage> {
 
@@ -92,6 +125,14 @@ public class ContainerRemovalTaskService
         @PropertyOptions(usage = { SERVICE_USE, AUTO_MERGE_IF_NOT_NULL }, indexing = STORE_ONLY)
         public Set<String> containersParentLinks;
 
+        /** (Internal) Set by task with the number of containers to be removed per host. */
+        @PropertyOptions(usage = { SERVICE_USE }, indexing = STORE_ONLY)
+        public Map<String, Long> hostContainerCounts;
+
+        /** (Internal) Set by task with the number of containers removed per host. */
+        @PropertyOptions(usage = { SERVICE_USE }, indexing = STORE_ONLY)
+        public Map<String, Long> hostCompletedCounts;
+
         /**
          * whether to actually go and destroy the container using the adapter or just remove the
          * ContainerState
@@ -120,9 +161,14 @@ public class ContainerRemovalTaskService
             queryContainerResources(state);
             break;
         case INSTANCES_REMOVING:
-            break;// just patch with the links
+            // once per instance, the next patches are the batches of the hosts
+            if (removalStarted.compareAndSet(false, true)) {
+                deleteResourceInstances(state);
+            }
+            handleCompletedBatches(state);
+            break;
         case INSTANCES_REMOVED:
-            removeResources(state, null);
+            removeResources(state);
             break;
         case REMOVING_RESOURCE_STATES:
             break;
@@ -138,6 +184,55 @@ public class ContainerRemovalTaskService
         }
     }
 
+    @Override
+    protected void customStateValidationAndMerge(Operation patch,
+            ContainerRemovalTaskState patchBody, ContainerRemovalTaskState currentState) {
+        if (patchBody.hostContainerCounts != null && currentState.hostContainerCounts == null) {
+            currentState.hostContainerCounts = patchBody.hostContainerCounts;
+            currentState.hostCompletedCounts = new HashMap<>();
+            for (String hostLink : patchBody.hostContainerCounts.keySet()) {
+                currentState.hostCompletedCounts.put(hostLink, 0L);
+            }
+        }
+
+        String hostLink = currentState.removeCustomProperty(REMOVAL_HOST_LINK_PROP_NAME);
+        String batchOffset = currentState.removeCustomProperty(REMOVAL_BATCH_OFFSET_PROP_NAME);
+        if (hostLink == null || batchOffset == null
+                || SubStage.INSTANCES_REMOVING != patchBody.taskSubStage
+                || currentState.hostContainerCounts == null) {
+            return;
+        }
+
+        // the batch of the host completed, continue with the next one
+        removalStarted.set(true);
+        long nextOffset = HostContainersPlan.completeBatch(currentState.hostCompletedCounts,
+                currentState.hostContainerCounts, hostLink, Long.parseLong(batchOffset),
+                HOST_PIPELINE_SIZE);
+        if (nextOffset < 0) {
+            logFine("Ignoring completed batch %s of host %s", batchOffset, hostLink);
+        } else if (HostContainersPlan.isCompleted(currentState.hostCompletedCounts,
+                currentState.hostContainerCounts)) {
+            removalCompleted.set(true);
+        } else if (nextOffset < currentState.hostContainerCounts.get(hostLink)) {
+            nextBatches.add(new SimpleImmutableEntry<>(hostLink, nextOffset));
+        }
+    }
+
+    /**
+     * Sends the next batches of the hosts whose batch completed, or moves on once all containers
+     * are removed.
+     */
+    private void handleCompletedBatches(ContainerRemovalTaskState state) {
+        Entry<String, Long> batch;
+        while ((batch = nextBatches.poll()) != null) {
+            deleteHostResourceInstances(state, batch.getKey(), batch.getValue());
+        }
+        if (removalCompleted.getAndSet(false)) {
+            removalPlan = null;
+            proceedTo(SubStage.INSTANCES_REMOVED);
+        }
+    }
+
     private void updateContainerHosts(ContainerRemovalTaskState state) {
 
         // Don't trigger data collection as the containers will be discovered and the whole removal
@@ -175,7 +270,7 @@ public class ContainerRemovalTaskService
         QueryTask computeQuery = createResourcesQuery(ContainerState.class, state.resourceLinks);
         ServiceDocumentQuery<ContainerState> query = new ServiceDocumentQuery<>(getHost(),
                 ContainerState.class);
-        List<String> containerLinks = new ArrayList<>();
+        List<ContainerState> containers = new ArrayList<>();
         state.containersParentLinks = new HashSet<>();
         QueryUtil.addBroadcastOption(computeQuery);
         QueryUtil.addExpandOption(computeQuery);
@@ -183,20 +278,38 @@ public class ContainerRemovalTaskService
             if (r.hasException()) {
                 failTask("Failure retrieving query results", r.getException());
             } else if (r.hasResult()) {
-                containerLinks.add(r.getDocumentSelfLink());
+                containers.add(r.getResult());
                 state.containersParentLinks.add(r.getResult().parentLink);
             } else {
-                if (containerLinks.isEmpty()) {
+                if (containers.isEmpty()) {
                     logWarning(
                             "No available resources found to be removed with links: %s",
                             state.resourceLinks);
                     proceedTo(SubStage.COMPLETED);
+                } else if (state.removeOnly) {
+                    logFine("Skipping actual container removal by the adapter since the"
+                            + " removeOnly flag was set: %s", state.documentSelfLink);
+
+                    // skip the actual removal of containers through the adapter
+                    proceedTo(SubStage.INSTANCES_REMOVED, s -> {
+                        s.containersParentLinks = state.containersParentLinks;
+                    });
                 } else {
+                    HostContainersPlan plan = createRemovalPlan(containers, true);
+                    if (plan.isEmpty()) {
+                        proceedTo(SubStage.INSTANCES_REMOVED, s -> {
+                            s.containersParentLinks = state.containersParentLinks;
+                        });
+                        return;
+                    }
+
+                    logInfo("Starting delete of %d container resources on %d hosts",
+                            plan.size(), plan.getHostLinks().size());
+                    removalPlan = plan;
                     proceedTo(SubStage.INSTANCES_REMOVING, s -> {
                         s.containersParentLinks = state.containersParentLinks;
+                        s.hostContainerCounts = plan.getContainerCounts();
                     });
-
-                    deleteResourceInstances(state, containerLinks, null);
                 }
             }
         });
@@ -210,57 +323,113 @@ public class ContainerRemovalTaskService
         return query;
     }
 
-    private void deleteResourceInstances(ContainerRemovalTaskState state,
-            Collection<String> resourceLinks, String subTaskLink) {
-
-        if (state.removeOnly) {
-            logFine("Skipping actual container removal by the adapter since the removeOnly flag "
-                    + "was set: %s", state.documentSelfLink);
+    private HostContainersPlan createRemovalPlan(Collection<ContainerState> containers,
+            boolean logSkipped) {
+        List<ContainerState> removedContainers = new ArrayList<>(containers.size());
+        for (ContainerState containerState : containers) {
+            if (isAllocatedOnlyContainer(containerState)) {
+                continue;
+            } else if (containerState.id == null || containerState.id.isEmpty()) {
+                if (logSkipped) {
+                    logWarning("No ID set for container state: [%s]  ",
+                            containerState.documentSelfLink);
+                }
+            } else if (isSystemContainer(containerState)) {
+                if (logSkipped) {
+                    logWarning("Resource [%s] will not be removed because it is a system"
+                            + " container", containerState.documentSelfLink);
+                }
+            } else {
+                removedContainers.add(containerState);
+            }
+        }
+        return new HostContainersPlan(removedContainers);
+    }
 
-            // skip the actual removal of containers through the adapter
-            proceedTo(SubStage.INSTANCES_REMOVED);
+    /**
+     * Sends the current batch of each host not completed yet. Called once the removal starts and
+     * when the task is restarted, a batch in progress before the restart is sent again.
+     */
+    private void deleteResourceInstances(ContainerRemovalTaskState state) {
+        if (state.hostContainerCounts == null) {
+            failTask("No container removal in progress", null);
             return;
         }
 
-        if (subTaskLink == null) {
-            createDeleteResourceCounterSubTask(state, resourceLinks);
-            return;
+        for (Entry<String, Long> e : state.hostContainerCounts.entrySet()) {
+            Long completed = state.hostCompletedCounts.get(e.getKey());
+            long offset = completed != null ? completed : 0;
+            if (offset < e.getValue()) {
+                deleteHostResourceInstances(state, e.getKey(), offset);
+            }
         }
+    }
 
-        try {
-            logInfo("Starting delete of %d container resources", resourceLinks.size());
-            for (String resourceLink : resourceLinks) {
-                sendRequest(Operation
-                        .createGet(this, resourceLink)
-                        .setCompletion(
-                                (o, e) -> {
-                                    if (e != null) {
-                                        logWarning("Failed retrieving ContainerState: "
-                                                + resourceLink);
-                                        completeSubTasksCounter(subTaskLink, e);
-                                        return;
-                                    }
-                                    ContainerState containerState = o.getBody(ContainerState.class);
-                                    if (isAllocatedOnlyContainer(containerState)) {
-                                        completeSubTasksCounter(subTaskLink, null);
-                                    } else if (containerState.id == null
-                                            || containerState.id.isEmpty()) {
-                                        logWarning("No ID set for container state: [%s]  ",
-                                                containerState.documentSelfLink);
-                                        completeSubTasksCounter(subTaskLink, null);
-                                    } else if (isSystemContainer(o.getBody(ContainerState.class))) {
-                                        logWarning(
-                                                "Resource [%s] will not be removed because it is a system container",
-                                                o.getBody(ContainerState.class).documentSelfLink);
-                                        completeSubTasksCounter(subTaskLink, null);
-                                    } else {
-                                        sendContainerDeleteRequest(containerState, subTaskLink);
-                                    }
-                                }));
+    /**
+     * Sends the adapter requests for the batch of containers of the given host starting at the
+     * given offset. The counter sub task of the batch notifies back when all of them are removed.
+     */
+    private void deleteHostResourceInstances(ContainerRemovalTaskState state, String hostLink,
+            long offset) {
+        getRemovalPlan(state, (plan) -> {
+            List<ContainerState> containers = plan.getBatch(hostLink, offset,
+                    HOST_PIPELINE_SIZE);
+            if (containers.isEmpty()) {
+                failTask("No containers to be removed for host: " + hostLink, null);
+                return;
             }
-        } catch (Throwable e) {
-            failTask("Unexpected exception while deleting container instances", e);
+
+            CounterSubTaskState subTaskInitState = new CounterSubTaskState();
+            subTaskInitState.completionsRemaining = containers.size();
+            subTaskInitState.serviceTaskCallback = ServiceTaskCallback.create(
+                    getSelfLink(),
+                    TaskStage.STARTED, SubStage.INSTANCES_REMOVING,
+                    TaskStage.STARTED, SubStage.ERROR);
+            subTaskInitState.customProperties = new HashMap<>();
+            subTaskInitState.customProperties.put(REMOVAL_HOST_LINK_PROP_NAME, hostLink);
+            subTaskInitState.customProperties.put(REMOVAL_BATCH_OFFSET_PROP_NAME,
+                    Long.toString(offset));
+
+            CounterSubTaskService.createSubTask(this, subTaskInitState, (subTaskLink) -> {
+                for (ContainerState containerState : containers) {
+                    sendContainerDeleteRequest(containerState, subTaskLink);
+                }
+            });
+        });
+    }
+
+    /**
+     * Provides the removal plan, built again from the containers of the task when this instance
+     * of the task didn't start the removal, e.g. after a restart or an owner change.
+     */
+    private void getRemovalPlan(ContainerRemovalTaskState state,
+            Consumer<HostContainersPlan> callback) {
+        HostContainersPlan plan = removalPlan;
+        if (plan != null) {
+            callback.accept(plan);
+            return;
         }
+
+        QueryTask containerQuery = createResourcesQuery(ContainerState.class,
+                state.resourceLinks);
+        QueryUtil.addBroadcastOption(containerQuery);
+        QueryUtil.addExpandOption(containerQuery);
+
+        List<ContainerState> containers = new ArrayList<>();
+        new ServiceDocumentQuery<ContainerState>(getHost(), ContainerState.class)
+                .query(containerQuery, (r) -> {
+                    if (r.hasException()) {
+                        failTask("Failure retrieving query results", r.getException());
+                    } else if (r.hasResult()) {
+                        containers.add(r.getResult());
+                    } else {
+                        HostContainersPlan newPlan = createRemovalPlan(containers, false);
+                        logInfo("Continuing delete of %d container resources on %d hosts",
+                                newPlan.size(), newPlan.getHostLinks().size());
+                        removalPlan = newPlan;
+                        callback.accept(newPlan);
+                    }
+                });
     }
 
     private boolean isAllocatedOnlyContainer(ContainerState containerState) {
@@ -289,21 +458,6 @@ public class ContainerRemovalTaskService
                 }));
     }
 
-    private void createDeleteResourceCounterSubTask(ContainerRemovalTaskState state,
-            Collection<String> resourceLinks) {
-        CounterSubTaskState subTaskInitState = new CounterSubTaskState();
-        subTaskInitState.completionsRemaining = resourceLinks.size();
-        subTaskInitState.documentExpirationTimeMicros = ServiceUtils
-                .getDefaultTaskExpirationTimeInMicros();
-        subTaskInitState.serviceTaskCallback = ServiceTaskCallback.create(
-                getSelfLink(),
-                TaskStage.STARTED, SubStage.INSTANCES_REMOVED,
-                TaskStage.STARTED, SubStage.ERROR);
-
-        CounterSubTaskService.createSubTask(this, subTaskInitState,
-                (subTaskLink) -> deleteResourceInstances(state, resourceLinks, subTaskLink));
-    }
-
     private void sendContainerDeleteRequest(ContainerState containerState, String subTaskLink) {
         AdapterRequest adapterRequest = new AdapterRequest();
         String selfLink = containerState.documentSelfLink;
@@ -321,194 +475,241 @@ public class ContainerRemovalTaskService
                 }));
     }
 
-    private void removeResources(ContainerRemovalTaskState state, String subTaskLink) {
-        if (subTaskLink == null) {
-            // count 2 * resourceLinks (to keep track of each removal operation starting and ending)
-            createCounterSubTask(state, 2 * state.resourceLinks.size(),
-                    (link) -> removeResources(state, link));
+    private void removeResources(ContainerRemovalTaskState state) {
+        boolean isRemoveHost = state.serviceTaskCallback.serviceSelfLink
+                .startsWith(ManagementUriParts.REQUEST_HOST_REMOVAL_OPERATIONS);
+
+        QueryTask containerQuery = createResourcesQuery(ContainerState.class,
+                state.resourceLinks);
+        QueryUtil.addBroadcastOption(containerQuery);
+        QueryUtil.addExpandOption(containerQuery);
+
+        List<ContainerState> containers = new ArrayList<>();
+        new ServiceDocumentQuery<ContainerState>(getHost(), ContainerState.class)
+                .query(containerQuery, (r) -> {
+                    if (r.hasException()) {
+                        failTask("Failure retrieving query results", r.getException());
+                    } else if (r.hasResult()) {
+                        if (isSystemContainer(r.getResult()) && !isRemoveHost) {
+                            logWarning(
+                                    "Resource [%s] will not be removed because it is a system container",
+                                    r.getDocumentSelfLink());
+                            return;
+                        }
+                        containers.add(r.getResult());
+                    } else if (containers.isEmpty()) {
+                        proceedTo(SubStage.COMPLETED);
+                    } else {
+                        proceedTo(SubStage.REMOVING_RESOURCE_STATES);
+                        deleteContainers(state, containers, 0);
+                    }
+                });
+    }
+
+    /**
+     * Deletes the container states in batches of {@link #STATE_REMOVAL_BATCH_SIZE}, starting
+     * from the given index.
+     */
+    private void deleteContainers(ContainerRemovalTaskState state,
+            List<ContainerState> containers, int fromIndex) {
+        if (fromIndex >= containers.size()) {
+            removeContainerDependencies(state, containers);
             return;
         }
-        AtomicBoolean isRemoveHost = new AtomicBoolean(state.serviceTaskCallback.serviceSelfLink
-                .startsWith(ManagementUriParts.REQUEST_HOST_REMOVAL_OPERATIONS));
+
+        List<ContainerState> batch = containers.subList(fromIndex,
+                Math.min(fromIndex + STATE_REMOVAL_BATCH_SIZE, containers.size()));
+        List<Operation> deletes = new ArrayList<>(batch.size());
+        for (ContainerState cs : batch) {
+            deletes.add(deleteContainer(cs));
+        }
 
         try {
-            for (String resourceLink : state.resourceLinks) {
-                sendRequest(Operation
-                        .createGet(this, resourceLink)
-                        .setCompletion(
-                                (o, e) -> {
-                                    if (e != null) {
-                                        failTask("Failed retrieving Container State: "
-                                                + resourceLink, e);
-                                        return;
-                                    }
-
-                                    if (isSystemContainer(o.getBody(ContainerState.class))
-                                            && !(isRemoveHost.get())) {
-                                        logWarning(
-                                                "Resource [%s] will not be removed because it is a system container",
-                                                o.getBody(ContainerState.class).documentSelfLink);
-                                        // need to complete the counter twice, because the removal
-                                        // task is not created in this case
-                                        completeSubTasksCounter(subTaskLink, null);
-                                        completeSubTasksCounter(subTaskLink, null);
-                                        return;
-                                    }
-
-                                    ContainerState cs = o.getBody(ContainerState.class);
-                                    doDeleteResource(state, subTaskLink, cs);
-                                }));
-            }
-            proceedTo(SubStage.REMOVING_RESOURCE_STATES);
+            OperationJoin.create(deletes).setCompletion((ops, exs) -> {
+                if (exs != null && !exs.isEmpty()) {
+                    failTask("Failed deleting container resources: "
+                            + Utils.toString(exs), null);
+                    return;
+                }
+                logInfo("Deleted %d of %d ContainerStates", fromIndex + batch.size(),
+                        containers.size());
+                deleteContainers(state, containers, fromIndex + batch.size());
+            }).sendWith(this);
         } catch (Throwable e) {
             failTask("Unexpected exception while deleting resources", e);
         }
     }
 
-    private void doDeleteResource(ContainerRemovalTaskState state, String subTaskLink,
-            ContainerState cs) {
+    private Operation deleteContainer(ContainerState cs) {
+        // the composite component is updated once all containers are deleted, the pragma is
+        // honored for the system user only
+        Operation delete = Operation
+                .createDelete(this, cs.documentSelfLink)
+                .setBody(new ServiceDocument())
+                .addPragmaDirective(CompositeComponentNotifier.PRAGMA_DIRECTIVE_SKIP_NOTIFICATION);
+        setAuthorizationContext(delete, getSystemAuthorizationContext());
+        return delete;
+    }
+
+    /**
+     * Updates the composite components, descriptions and placements of the deleted containers.
+     * The counter completes with one notification for each released placement and one for the
+     * composite components and descriptions.
+     */
+    private void removeContainerDependencies(ContainerRemovalTaskState state,
+            List<ContainerState> containers) {
+        Map<String, List<ContainerState>> containersByPlacement = new HashMap<>();
+        for (ContainerState cs : containers) {
+            if (shouldReleaseResourcePlacement(state, cs)) {
+                containersByPlacement.computeIfAbsent(
+                        cs.descriptionLink + cs.groupResourcePlacementLink,
+                        (k) -> new ArrayList<>()).add(cs);
+            }
+        }
 
-        QueryTask compositeQueryTask = QueryUtil.buildQuery(ContainerState.class, true);
+        createCounterSubTask(state, containersByPlacement.size() + 1, (subTaskLink) -> {
+            List<Operation> operations = new ArrayList<>();
+            for (List<ContainerState> placementContainers : containersByPlacement.values()) {
+                operations.add(releaseResourcePlacement(state, placementContainers,
+                        subTaskLink));
+            }
+            operations.addAll(notifyCompositeComponents(containers));
 
-        String containerDescriptionLink = UriUtils.buildUriPath(
-                ManagementUriParts.CONTAINER_DESC,
-                Service.getId(cs.descriptionLink));
-        QueryUtil.addListValueClause(compositeQueryTask,
-                ContainerState.FIELD_NAME_DESCRIPTION_LINK,
-                Arrays.asList(containerDescriptionLink));
+            queryUnusedContainerDescriptions(containers, (descriptionLinks) -> {
+                for (String descriptionLink : descriptionLinks) {
+                    operations.add(Operation.createDelete(this, descriptionLink)
+                            .setBody(new ServiceDocument()));
+                }
+
+                if (operations.isEmpty()) {
+                    completeSubTasksCounter(subTaskLink, null);
+                    return;
+                }
+
+                OperationJoin.create(operations).setCompletion((ops, exs) -> {
+                    // there could be a race condition when containers are in cluster and the same
+                    // description or composite component is removed by several tasks
+                    if (exs != null) {
+                        exs.keySet().removeIf((id) -> ops.get(id)
+                                .getStatusCode() == Operation.STATUS_CODE_NOT_FOUND);
+                    }
+                    if (exs != null && !exs.isEmpty()) {
+                        failTask("Failed deleting container resources: "
+                                + Utils.toString(exs), null);
+                        return;
+                    }
+
+                    logInfo("Removed %d ContainerStates", containers.size());
+                    completeSubTasksCounter(subTaskLink, null);
+                }).sendWith(this);
+            });
+        });
+    }
+
+    private List<Operation> notifyCompositeComponents(List<ContainerState> containers) {
+        Map<String, List<String>> containerLinksByComposite = new HashMap<>();
+        for (ContainerState cs : containers) {
+            if (cs.compositeComponentLink != null && !cs.compositeComponentLink.isEmpty()) {
+                containerLinksByComposite.computeIfAbsent(cs.compositeComponentLink,
+                        (k) -> new ArrayList<>()).add(cs.documentSelfLink);
+            }
+        }
+
+        List<Operation> operations = new ArrayList<>(containerLinksByComposite.size());
+        for (Map.Entry<String, List<String>> entry : containerLinksByComposite.entrySet()) {
+            operations.add(CompositeComponentNotifier.createComponentsRemovalPatch(this,
+                    entry.getKey(), entry.getValue()));
+        }
+        return operations;
+    }
+
+    /**
+     * Returns the links of the cloned descriptions of the deleted containers, not used by any
+     * other container.
+     */
+    private void queryUnusedContainerDescriptions(List<ContainerState> containers,
+            Consumer<Collection<String>> callback) {
+        // the container states refer the descriptions with the default container description path
+        Map<String, String> descriptionLinks = new HashMap<>();
+        for (ContainerState cs : containers) {
+            if (cs.descriptionLink != null) {
+                descriptionLinks.put(UriUtils.buildUriPath(ManagementUriParts.CONTAINER_DESC,
+                        Service.getId(cs.descriptionLink)), cs.descriptionLink);
+            }
+        }
+        if (descriptionLinks.isEmpty()) {
+            callback.accept(descriptionLinks.values());
+            return;
+        }
+
+        QueryTask containerQuery = QueryUtil.buildQuery(ContainerState.class, true);
+        QueryUtil.addListValueClause(containerQuery, ContainerState.FIELD_NAME_DESCRIPTION_LINK,
+                descriptionLinks.keySet());
+        QueryUtil.addExpandOption(containerQuery);
 
-        final List<String> resourcesSharingDesc = new ArrayList<String>();
         new ServiceDocumentQuery<ContainerState>(getHost(), ContainerState.class)
-                .query(compositeQueryTask, (r) -> {
+                .query(containerQuery, (r) -> {
                     if (r.hasException()) {
-                        logSevere(
-                                "Failed to retrieve containers, sharing the same containerdescription: %s -%s",
-                                r.getDocumentSelfLink(), r.getException());
+                        failTask("Failed to retrieve containers, sharing the same container "
+                                + "descriptions", r.getException());
                     } else if (r.hasResult()) {
-                        resourcesSharingDesc.add(r.getDocumentSelfLink());
+                        descriptionLinks.remove(r.getResult().descriptionLink);
+                    } else if (descriptionLinks.isEmpty()) {
+                        callback.accept(descriptionLinks.values());
                     } else {
-                        AtomicLong skipOperationException = new AtomicLong();
-
-                        Operation delContainerOpr = deleteContainer(cs);
-                        Operation placementOpr = releaseResourcePlacement(state, cs, subTaskLink);
-
-                        // list of operations to execute to release container resources
-                        List<Operation> operations = new ArrayList<>();
-                        operations.add(delContainerOpr);
-                        // add placementOpr only when needed
-                        if (placementOpr != null) {
-                            operations.add(placementOpr);
-                        } else {
-                            // if ReservationRemovalTask is not started, count it as finished
-                            completeSubTasksCounter(subTaskLink, null);
-                        }
-                        // delete container description when deleting all its containers
-                        if (state.resourceLinks.containsAll(resourcesSharingDesc)) {
-                            // there could be a race condition when containers are in cluster and
-                            // the same description tries to be deleted multiple times, that's why
-                            // we need to skipOperationException is the description is NOT FOUND
-                            Operation deleteContainerDescription = deleteContainerDescription(cs,
-                                    skipOperationException);
-                            operations.add(deleteContainerDescription);
-                        }
-
-                        OperationJoin.create(operations).setCompletion((ops, exs) -> {
-                            // remove skipped exceptions
-                            if (exs != null && skipOperationException.get() != 0) {
-                                exs.remove(skipOperationException.get());
-                            }
-                            // fail the task is there are exceptions in the children operations
-                            if (exs != null && !exs.isEmpty()) {
-                                failTask("Failed deleting container resources: "
-                                        + Utils.toString(exs), null);
-                                return;
-                            }
-
-                            // complete the counter task after all remove operations finished
-                            // successfully
-                            completeSubTasksCounter(subTaskLink, null);
-                        }).sendWith(this);
+                        queryClonedContainerDescriptions(descriptionLinks.values(), callback);
                     }
                 });
     }
 
-    private Operation deleteContainer(ContainerState cs) {
-        return Operation
-                .createDelete(this, cs.documentSelfLink)
-                .setBody(new ServiceDocument())
-                .setCompletion(
-                        (op, ex) -> {
-                            if (ex != null) {
-                                logWarning("Failed deleting ContainerState: " + cs.documentSelfLink,
-                                        ex);
-                                return;
-                            }
-                            logInfo("Deleted ContainerState: " + cs.documentSelfLink);
-                        });
-    }
+    private void queryClonedContainerDescriptions(Collection<String> descriptionLinks,
+            Consumer<Collection<String>> callback) {
+        QueryTask descriptionQuery = createResourcesQuery(ContainerDescription.class,
+                descriptionLinks);
+        QueryUtil.addExpandOption(descriptionQuery);
 
-    private Operation deleteContainerDescription(ContainerState cs,
-            AtomicLong skipOperationException) {
-
-        Operation deleteContanerDesc = Operation
-                .createGet(this, cs.descriptionLink)
-                .setCompletion(
-                        (o, e) -> {
-                            if (o.getStatusCode() == Operation.STATUS_CODE_NOT_FOUND ||
-                                    e instanceof CancellationException) {
-                                logFine("Resource [%s] not found, it will not be removed!",
-                                        cs.descriptionLink);
-                                skipOperationException.set(o.getId());
-                                return;
-                            }
-
-                            if (e != null) {
-                                logWarning("Failed retrieving ContainerDescription: "
-                                        + cs.descriptionLink, e);
-                                return;
-                            }
-
-                            ContainerDescription cd = o.getBody(ContainerDescription.class);
-
-                            if (cd.parentDescriptionLink == null) {
-                                logFine("Resource [%s] will not be removed because it doesn't contain parentDescriptionLink!",
-                                        o.getBody(ContainerDescription.class).documentSelfLink);
-                                return;
-                            }
-
-                            sendRequest(Operation
-                                    .createDelete(this, cd.documentSelfLink)
-                                    .setBody(new ServiceDocument())
-                                    .setCompletion(
-                                            (op, ex) -> {
-                                                if (ex != null) {
-                                                    logWarning("Failed deleting ContainerDescription: " + cd.documentSelfLink, ex);
-                                                    return;
-                                                }
-                                                logInfo("Deleted ContainerDescription: " + cd.documentSelfLink);
-                                            }));
-                        });
-
-        return deleteContanerDesc;
+        List<String> clonedDescriptionLinks = new ArrayList<>();
+        new ServiceDocumentQuery<ContainerDescription>(getHost(), ContainerDescription.class)
+                .query(descriptionQuery, (r) -> {
+                    if (r.hasException()) {
+                        failTask("Failed retrieving ContainerDescriptions", r.getException());
+                    } else if (r.hasResult()) {
+                        if (r.getResult().parentDescriptionLink == null) {
+                            logFine("Resource [%s] will not be removed because it doesn't contain parentDescriptionLink!",
+                                    r.getDocumentSelfLink());
+                            return;
+                        }
+                        clonedDescriptionLinks.add(r.getDocumentSelfLink());
+                    } else {
+                        callback.accept(clonedDescriptionLinks);
+                    }
+                });
     }
 
-    private Operation releaseResourcePlacement(ContainerRemovalTaskState state, ContainerState cs,
-            String subTaskLink) {
+    private boolean shouldReleaseResourcePlacement(ContainerRemovalTaskState state,
+            ContainerState cs) {
 
         if (isDiscoveredContainer(cs) || state.skipReleaseResourcePlacement) {
             logFine("Skipping releasing placement because container is a discovered one: %s",
                     cs.documentSelfLink);
-            return null;
+            return false;
         }
 
         if (isSystemContainer(cs)) {
             logFine("Skipping releasing placement because container is a system one: %s",
                     cs.documentSelfLink);
-            return null;
+            return false;
         }
 
+        return true;
+    }
+
+    private Operation releaseResourcePlacement(ContainerRemovalTaskState state,
+            List<ContainerState> containers, String subTaskLink) {
+        ContainerState cs = containers.get(0);
+
         ReservationRemovalTaskState rsrvTask = new ReservationRemovalTaskState();
-        rsrvTask.resourceCount = 1;
+        rsrvTask.resourceCount = containers.size();
         rsrvTask.resourceDescriptionLink = cs.descriptionLink;
         rsrvTask.groupResourcePlacementLink = cs.groupResourcePlacementLink;
         rsrvTask.requestTrackerLink = state.requestTrackerLink;
@@ -516,13 +717,6 @@ public class ContainerRemovalTaskService
         rsrvTask.serviceTaskCallback = ServiceTaskCallback.create(subTaskLink);
 
         return Operation.createPost(this, ReservationRemovalTaskFactoryService.SELF_LINK)
-                .setBody(rsrvTask)
-                .setCompletion((o, e) -> {
-                    if (e != null) {
-                        logWarning("Failed creating task to delete placement "
-                                + cs.groupResourcePlacementLink, e);
-                        return;
-                    }
-                });
+                .setBody(rsrvTask);
     }
 }
@@ -111,6 +111,7 @@ public class ContainerVolumeAllocationTaskService extends
         super.toggleOption(ServiceOption.REPLICATION, true);
         super.toggleOption(ServiceOption.OWNER_SELECTION, true);
         super.toggleOption(ServiceOption.INSTRUMENTATION, true);
+        super.setEphemeralSubTasksCheck(true);
     }
 
     @Override
@@ -122,6 +123,16 @@ public class ContainerVolumeAllocationTaskService extends
 
     }
 
+    @Override
+    protected String getEphemeralSubTaskLink(ContainerVolumeAllocationTaskState state) {
+        if (state.taskSubStage == SubStage.CREATED
+                && (state.resourceNames == null || state.resourceNames.isEmpty())) {
+            return UriUtils.buildUriPath(ResourceNamePrefixTaskService.FACTORY_LINK,
+                    getSelfId());
+        }
+        return null;
+    }
+
     @Override
     protected void handleStartedStagePatch(ContainerVolumeAllocationTaskState state) {
         switch (state.taskSubStage) {
@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2016 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.request;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import com.vmware.admiral.compute.container.ContainerService.ContainerState;
+
+/**
+ * The containers to be processed by the adapter, grouped by their host and ordered by their link,
+ * so the batches of a host are the same when the plan is built again from the same containers,
+ * e.g. by a new owner of the task. The progress of the hosts is kept in the task state as the
+ * number of containers completed per host, see {@link #completeBatch}.
+ */
+class HostContainersPlan {
+    private final Map<String, List<ContainerState>> containersByHost = new HashMap<>();
+    private int size;
+
+    HostContainersPlan(Collection<ContainerState> containers) {
+        for (ContainerState containerState : containers) {
+            String hostLink = containerState.parentLink != null ? containerState.parentLink : "";
+            containersByHost.computeIfAbsent(hostLink, (k) -> new ArrayList<>())
+                    .add(containerState);
+            size++;
+        }
+        for (List<ContainerState> hostContainers : containersByHost.values()) {
+            Collections.sort(hostContainers,
+                    Comparator.comparing((ContainerState c) -> c.documentSelfLink));
+        }
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    Set<String> getHostLinks() {
+        return Collections.unmodifiableSet(containersByHost.keySet());
+    }
+
+    /**
+     * Returns the number of containers per host, the initial progress of the task.
+     */
+    Map<String, Long> getContainerCounts() {
+        Map<String, Long> counts = new HashMap<>();
+        for (Entry<String, List<ContainerState>> e : containersByHost.entrySet()) {
+            counts.put(e.getKey(), (long) e.getValue().size());
+        }
+        return counts;
+    }
+
+    List<ContainerState> getContainers(String hostLink) {
+        List<ContainerState> containers = containersByHost.get(hostLink);
+        return containers != null ? containers : Collections.emptyList();
+    }
+
+    /**
+     * Returns the batch of containers of the given host starting at the given offset.
+     */
+    List<ContainerState> getBatch(String hostLink, long offset, int batchSize) {
+        List<ContainerState> containers = getContainers(hostLink);
+        int from = (int) Math.min(offset, containers.size());
+        int to = (int) Math.min(offset + batchSize, containers.size());
+        return new ArrayList<>(containers.subList(from, to));
+    }
+
+    /**
+     * Records in the given progress the completion of the batch of a host starting at the given
+     * offset and returns the offset of the next batch of the host. Returns -1 when the batch is not
+     * the current one of the host, e.g. a batch sent again after the task was restarted.
+     */
+    static long completeBatch(Map<String, Long> completedCounts, Map<String, Long> containerCounts,
+            String hostLink, long offset, int batchSize) {
+        Long completed = completedCounts.get(hostLink);
+        Long count = containerCounts.get(hostLink);
+        if (completed == null || count == null || completed != offset) {
+            return -1;
+        }
+        long next = Math.min(offset + batchSize, count);
+        completedCounts.put(hostLink, next);
+        return next;
+    }
+
+    /**
+     * Returns whether all containers of all hosts in the given progress are completed.
+     */
+    static boolean isCompleted(Map<String, Long> completedCounts,
+            Map<String, Long> containerCounts) {
+        for (Entry<String, Long> e : containerCounts.entrySet()) {
+            Long completed = completedCounts.get(e.getKey());
+            if (completed == null || completed < e.getValue()) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -20,6 +20,9 @@ import static com.vmware.xenon.common.ServiceDocumentDescription.PropertyUsageOp
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -39,13 +42,13 @@ import com.vmware.admiral.request.allocation.filter.HostSelectionFilter.HostSele
 import com.vmware.admiral.request.allocation.filter.HostSelectionFilter.HostSelectionFilterException;
 import com.vmware.admiral.service.common.AbstractTaskStatefulService;
 import com.vmware.admiral.service.common.DefaultSubStage;
+import com.vmware.admiral.service.common.DocumentCacheService;
 import com.vmware.admiral.service.common.ServiceTaskCallback.ServiceTaskCallbackResponse;
 import com.vmware.photon.controller.model.resources.ComputeDescriptionService.ComputeDescription;
 import com.vmware.photon.controller.model.resources.ComputeService.ComputeState;
 import com.vmware.photon.controller.model.resources.ComputeService.PowerState;
 import com.vmware.photon.controller.model.resources.util.ResourcePoolQueryHelper;
 import com.vmware.photon.controller.model.resources.util.ResourcePoolQueryHelper.QueryResult;
-import com.vmware.xenon.common.Operation;
 import com.vmware.xenon.services.common.QueryTask;
 import com.vmware.xenon.services.common.QueryTask.QuerySpecification;
 
@@ -61,6 +64,8 @@ public class PlacementHostSelectionTaskService
     public static final String DISPLAY_NAME = "Host Selection";
     private static final int QUERY_RETRY_COUNT = Integer.getInteger(
             "com.vmware.admiral.service.placement.query.retries", 2);
+    private static final boolean PERSISTED = Boolean.getBoolean(
+            "com.vmware.admiral.service.placement.persisted");
 
     // cached container description
     private volatile ContainerDescription containerDescription;
@@ -100,10 +105,15 @@ public class PlacementHostSelectionTaskService
 
     public PlacementHostSelectionTaskService() {
         super(PlacementHostSelectionTaskState.class, DefaultSubStage.class, DISPLAY_NAME);
-        super.toggleOption(ServiceOption.PERSISTENCE, true);
-        super.toggleOption(ServiceOption.REPLICATION, true);
-        super.toggleOption(ServiceOption.OWNER_SELECTION, true);
         super.toggleOption(ServiceOption.INSTRUMENTATION, true);
+        if (PERSISTED) {
+            super.toggleOption(ServiceOption.PERSISTENCE, true);
+            super.toggleOption(ServiceOption.REPLICATION, true);
+            super.toggleOption(ServiceOption.OWNER_SELECTION, true);
+        } else {
+            // re-created by the allocation task when restarted
+            setEphemeral(true);
+        }
     }
 
     @Override
@@ -320,6 +330,7 @@ public class PlacementHostSelectionTaskService
         }
         ArrayList<HostSelection> hostSelections = new ArrayList<>(hostSelectionMap.values());
         Collections.shuffle(hostSelections);
+        preferLocalImages(hostSelections);
 
         int initialSize = hostSelections.size();
         int diff = (int) (state.resourceCount - initialSize);
@@ -338,23 +349,39 @@ public class PlacementHostSelectionTaskService
         });
     }
 
+    /**
+     * Among the hosts with the same number of already placed resources, moves the hosts which
+     * already have the image first. The hosts keep the positions of their group in the shuffled
+     * list, so the image locality only breaks ties and doesn't change the spreading.
+     */
+    static void preferLocalImages(List<HostSelection> hostSelections) {
+        Map<Integer, List<HostSelection>> hostsByResourceCount = hostSelections.stream()
+                .collect(Collectors.groupingBy((hs) -> hs.resourceCount));
+        // the sort is stable, the hosts without the image stay shuffled
+        Map<Integer, Iterator<HostSelection>> sortedHosts = new HashMap<>();
+        hostsByResourceCount.forEach((resourceCount, hosts) -> {
+            hosts.sort(Comparator.comparingLong(
+                    (HostSelection hs) -> hs.localImageSize != null ? hs.localImageSize : 0)
+                    .reversed());
+            sortedHosts.put(resourceCount, hosts.iterator());
+        });
+
+        for (int i = 0; i < hostSelections.size(); i++) {
+            hostSelections.set(i, sortedHosts.get(hostSelections.get(i).resourceCount).next());
+        }
+    }
+
     private void getContainerDescription(PlacementHostSelectionTaskState state,
             Consumer<ContainerDescription> callbackFunction) {
         if (containerDescription != null) {
             callbackFunction.accept(containerDescription);
             return;
         }
-        sendRequest(Operation.createGet(this, state.resourceDescriptionLink)
-                .setCompletion((o, e) -> {
-                    if (e != null) {
-                        failTask("Failure retrieving description state", e);
-                        return;
-                    }
-
-                    ContainerDescription desc = o.getBody(ContainerDescription.class);
+        DocumentCacheService.getDocumentState(this, state.resourceDescriptionLink,
+                ContainerDescription.class, (desc) -> {
                     this.containerDescription = desc;
                     callbackFunction.accept(desc);
-                }));
+                }, (e) -> failTask("Failure retrieving description state", e));
     }
 
     private boolean isNoSelection(Map<String, HostSelection> filteredHostSelectionMap) {
@@ -0,0 +1,414 @@
+/*
+ * Copyright (c) 2016 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.request;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import com.vmware.admiral.adapter.common.ClosureOperationType;
+import com.vmware.admiral.adapter.common.ContainerOperationType;
+import com.vmware.admiral.adapter.common.NetworkOperationType;
+import com.vmware.admiral.adapter.common.VolumeOperationType;
+import com.vmware.admiral.common.ManagementUriParts;
+import com.vmware.admiral.common.util.QueryUtil;
+import com.vmware.admiral.common.util.ServiceDocumentQuery;
+import com.vmware.admiral.request.RequestBrokerService.RequestBrokerState;
+import com.vmware.admiral.request.RequestBrokerService.RequestBrokerState.SubStage;
+import com.vmware.admiral.request.compute.ComputeOperationType;
+import com.vmware.admiral.request.utils.RequestUtils;
+import com.vmware.admiral.service.common.MultiTenantDocument;
+import com.vmware.admiral.service.common.TaskServiceDocument;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.StatelessService;
+import com.vmware.xenon.common.TaskState;
+import com.vmware.xenon.common.TaskState.TaskStage;
+import com.vmware.xenon.common.UriUtils;
+import com.vmware.xenon.common.Utils;
+import com.vmware.xenon.services.common.QueryTask;
+import com.vmware.xenon.services.common.QueryTask.NumericRange;
+import com.vmware.xenon.services.common.QueryTask.Query;
+import com.vmware.xenon.services.common.QueryTask.QueryTerm.MatchType;
+
+/**
+ * Node local admission control of the requests submitted to the
+ * {@link RequestBrokerFactoryService}. At most {@link #MAX_ACTIVE_REQUESTS} requests, and
+ * {@link #MAX_ACTIVE_REQUESTS_PER_TENANT} of the same tenant, are active on a node. The requests
+ * without a tenant, e.g. in a single tenant installation, are limited by
+ * {@link #MAX_ACTIVE_REQUESTS} only. The other requests are queued, the interactive day-2
+ * operations, see {@link #INTERACTIVE_OPERATIONS}, ahead of the provisioning and the other bulk
+ * requests, and started once active requests complete. When {@link #MAX_QUEUED_REQUESTS} requests
+ * are already queued the request is rejected with {@link #STATUS_CODE_TOO_MANY_REQUESTS}.
+ *
+ * The admissions are not persisted. An active request not released for
+ * {@link #ACTIVE_EXPIRATION_MICROS}, e.g. because it completed on another node, is released by the
+ * maintenance. The maintenance also restores the queue from the persisted requests queued on this
+ * node, e.g. after a restart of the node, and drops the queued requests that are not queued any
+ * more, e.g. because they were deleted on another node.
+ */
+public class RequestAdmissionService extends StatelessService {
+
+    public static final String SELF_LINK = ManagementUriParts.REQUEST_ADMISSION;
+
+    public static final int STATUS_CODE_TOO_MANY_REQUESTS = 429;
+    public static final String RETRY_AFTER_HEADER = "Retry-After";
+
+    public static final int MAX_ACTIVE_REQUESTS = Integer.getInteger(
+            "com.vmware.admiral.request.admission.max.active", 50);
+
+    public static final int MAX_ACTIVE_REQUESTS_PER_TENANT = Integer.getInteger(
+            "com.vmware.admiral.request.admission.max.active.per.tenant", 20);
+
+    public static final int MAX_QUEUED_REQUESTS = Integer.getInteger(
+            "com.vmware.admiral.request.admission.max.queued", 500);
+
+    public static final int RETRY_AFTER_SECONDS = Integer.getInteger(
+            "com.vmware.admiral.request.admission.retry.after.seconds", 10);
+
+    public static final long ACTIVE_EXPIRATION_MICROS = Long.getLong(
+            "com.vmware.admiral.request.admission.active.expiration.micros",
+            TimeUnit.HOURS.toMicros(1));
+
+    /**
+     * The day-2 operations queued ahead of the other requests. The bulk operations, e.g. the
+     * clustering or the provisioning of container hosts, are queued with the provisioning requests.
+     */
+    static final Set<String> INTERACTIVE_OPERATIONS = new HashSet<>(Arrays.asList(
+            RequestBrokerState.REMOVE_RESOURCE_OPERATION,
+            ContainerOperationType.START.id,
+            ContainerOperationType.STOP.id,
+            ContainerOperationType.DELETE.id,
+            ComputeOperationType.POWER_ON.id,
+            ComputeOperationType.POWER_OFF.id,
+            ComputeOperationType.DELETE.id,
+            NetworkOperationType.DELETE.id,
+            VolumeOperationType.DELETE.id,
+            ClosureOperationType.DELETE.id));
+
+    public static final long MAINTENANCE_INTERVAL_MICROS = Long.getLong(
+            "com.vmware.admiral.request.admission.maintenance.interval.micros",
+            TimeUnit.MINUTES.toMicros(1));
+
+    private static final int START_RETRIES_COUNT = 5;
+    private static final long START_RETRY_INTERVAL_MILLIS = 500;
+
+    /** An DTO used during PATCH request in order to admit or release a request. */
+    public static class AdmissionRequest {
+        /** The link of the request broker task. */
+        public String requestLink;
+
+        /** The tenant the request is admitted for. */
+        public String tenantLink;
+
+        /** Interactive requests are queued ahead of the others. */
+        public boolean interactive;
+
+        /** Set to release the admission of a completed request. */
+        public boolean release;
+    }
+
+    public static class AdmissionResponse {
+        /** The position of the request in the queue, 0 when the request is admitted. */
+        public long queuePosition;
+    }
+
+    /** Returned by GET. */
+    public static class AdmissionStatus {
+        public long activeCount;
+        public long queuedCount;
+        public long maxActiveCount;
+    }
+
+    private static class Admission {
+        final AdmissionRequest request;
+        final long queuedMicros;
+        long admittedMicros;
+
+        Admission(AdmissionRequest request) {
+            this.request = request;
+            this.queuedMicros = Utils.getNowMicrosUtc();
+        }
+    }
+
+    // guarded by the lock
+    private final Object lock = new Object();
+    private final Map<String, Admission> active = new HashMap<>();
+    private final Map<String, Integer> activeByTenant = new HashMap<>();
+    private final Deque<Admission> interactiveQueue = new ArrayDeque<>();
+    private final Deque<Admission> queue = new ArrayDeque<>();
+    private long maxActiveCount;
+
+    public RequestAdmissionService() {
+        super.toggleOption(ServiceOption.INSTRUMENTATION, true);
+        super.toggleOption(ServiceOption.PERIODIC_MAINTENANCE, true);
+        super.setMaintenanceIntervalMicros(MAINTENANCE_INTERVAL_MICROS);
+    }
+
+    static boolean isInteractive(RequestBrokerState state) {
+        return INTERACTIVE_OPERATIONS.contains(state.operation)
+                && state.getCustomProperty(RequestUtils.CLUSTERING_OPERATION_CUSTOM_PROP) == null;
+    }
+
+    static String getTenantLink(RequestBrokerState state) {
+        if (state.tenantLinks == null) {
+            return null;
+        }
+        return state.tenantLinks.stream()
+                .filter((l) -> l.startsWith(MultiTenantDocument.TENANTS_PREFIX)
+                        && !l.contains(MultiTenantDocument.GROUP_IDENTIFIER))
+                .findFirst().orElse(null);
+    }
+
+    @Override
+    public void handleGet(Operation get) {
+        AdmissionStatus status = new AdmissionStatus();
+        synchronized (lock) {
+            status.activeCount = active.size();
+            status.queuedCount = interactiveQueue.size() + queue.size();
+            status.maxActiveCount = maxActiveCount;
+        }
+        get.setBody(status).complete();
+    }
+
+    @Override
+    public void handlePatch(Operation patch) {
+        if (!patch.hasBody()) {
+            patch.fail(new IllegalArgumentException("body is required"));
+            return;
+        }
+
+        AdmissionRequest request = patch.getBody(AdmissionRequest.class);
+        if (request.requestLink == null || request.requestLink.isEmpty()) {
+            patch.fail(new IllegalArgumentException("'requestLink' is required."));
+            return;
+        }
+        if (request.tenantLink == null) {
+            request.tenantLink = "";
+        }
+
+        if (request.release) {
+            release(request.requestLink);
+            patch.complete();
+            return;
+        }
+
+        AdmissionResponse response = new AdmissionResponse();
+        synchronized (lock) {
+            Admission admission = new Admission(request);
+            if (canAdmit(request.tenantLink)) {
+                admit(admission);
+            } else if (interactiveQueue.size() + queue.size() >= MAX_QUEUED_REQUESTS) {
+                adjustStat("rejectedRequests", 1);
+                patch.setStatusCode(STATUS_CODE_TOO_MANY_REQUESTS);
+                patch.fail(new IllegalStateException(String.format(
+                        "Too many requests, %d requests active and %d queued", active.size(),
+                        interactiveQueue.size() + queue.size())));
+                return;
+            } else if (request.interactive) {
+                interactiveQueue.add(admission);
+                response.queuePosition = interactiveQueue.size();
+            } else {
+                queue.add(admission);
+                response.queuePosition = interactiveQueue.size() + queue.size();
+            }
+        }
+
+        if (response.queuePosition > 0) {
+            logFine("Request %s queued at position %d", request.requestLink,
+                    response.queuePosition);
+        }
+        patch.setBody(response).complete();
+    }
+
+    @Override
+    public void handlePeriodicMaintenance(Operation post) {
+        long expiredMicros = Utils.getNowMicrosUtc() - ACTIVE_EXPIRATION_MICROS;
+        List<String> expired = new ArrayList<>();
+        synchronized (lock) {
+            for (Admission admission : active.values()) {
+                if (admission.admittedMicros < expiredMicros) {
+                    expired.add(admission.request.requestLink);
+                }
+            }
+        }
+
+        for (String requestLink : expired) {
+            logWarning("Releasing request %s not completed for %d seconds", requestLink,
+                    TimeUnit.MICROSECONDS.toSeconds(ACTIVE_EXPIRATION_MICROS));
+            release(requestLink);
+        }
+
+        restoreQueue();
+        post.complete();
+    }
+
+    /**
+     * Queries the requests queued on this node and synchronizes the queue with them.
+     */
+    private void restoreQueue() {
+        long queryMicros = Utils.getNowMicrosUtc();
+        QueryTask q = QueryUtil.buildPropertyQuery(RequestBrokerState.class,
+                TaskServiceDocument.FIELD_NAME_TASK_SUB_STAGE, SubStage.CREATED.name(),
+                RequestBrokerState.FIELD_NAME_ADMISSION_SERVICE_LINK,
+                UriUtils.buildUri(getHost(), SELF_LINK).toString());
+        q.querySpec.query.addBooleanClause(new Query()
+                .setTermPropertyName(RequestBrokerState.FIELD_NAME_QUEUE_POSITION)
+                .setNumericRange(NumericRange.createLongRange(1L, Long.MAX_VALUE, true, true))
+                .setTermMatchType(MatchType.TERM));
+        QueryUtil.addExpandOption(q);
+
+        List<RequestBrokerState> queued = new ArrayList<>();
+        new ServiceDocumentQuery<>(getHost(), RequestBrokerState.class).query(q, (r) -> {
+            if (r.hasException()) {
+                logWarning("Failed to query the queued requests: %s",
+                        Utils.toString(r.getException()));
+            } else if (r.hasResult()) {
+                queued.add(r.getResult());
+            } else {
+                restoreQueue(queued, queryMicros);
+            }
+        });
+    }
+
+    /**
+     * Queues the persisted queued requests not known to the service, in the order they were
+     * submitted, and drops the queued requests that were not persisted as queued when the previous
+     * maintenance started.
+     */
+    private void restoreQueue(List<RequestBrokerState> queued, long queryMicros) {
+        queued.sort(Comparator.comparingLong((s) -> s.documentUpdateTimeMicros));
+        Set<String> queuedLinks = new HashSet<>();
+        List<Admission> admitted = new ArrayList<>();
+        synchronized (lock) {
+            Set<String> knownLinks = new HashSet<>(active.keySet());
+            interactiveQueue.forEach((a) -> knownLinks.add(a.request.requestLink));
+            queue.forEach((a) -> knownLinks.add(a.request.requestLink));
+
+            for (RequestBrokerState state : queued) {
+                queuedLinks.add(state.documentSelfLink);
+                if (knownLinks.contains(state.documentSelfLink)) {
+                    continue;
+                }
+                AdmissionRequest request = new AdmissionRequest();
+                request.requestLink = state.documentSelfLink;
+                String tenantLink = getTenantLink(state);
+                request.tenantLink = tenantLink != null ? tenantLink : "";
+                request.interactive = isInteractive(state);
+                (request.interactive ? interactiveQueue : queue).add(new Admission(request));
+                logInfo("Request %s queued again", request.requestLink);
+            }
+
+            long staleMicros = queryMicros - MAINTENANCE_INTERVAL_MICROS;
+            Predicate<Admission> stale = (a) -> a.queuedMicros < staleMicros
+                    && !queuedLinks.contains(a.request.requestLink);
+            int queuedCount = interactiveQueue.size() + queue.size();
+            interactiveQueue.removeIf(stale);
+            queue.removeIf(stale);
+            int staleCount = queuedCount - interactiveQueue.size() - queue.size();
+            if (staleCount > 0) {
+                logWarning("Dropped %d queued requests not queued any more", staleCount);
+            }
+
+            admitQueued(interactiveQueue, admitted);
+            admitQueued(queue, admitted);
+        }
+
+        for (Admission admission : admitted) {
+            startRequest(admission.request.requestLink, START_RETRIES_COUNT);
+        }
+    }
+
+    private boolean canAdmit(String tenantLink) {
+        return active.size() < MAX_ACTIVE_REQUESTS
+                && (tenantLink.isEmpty() || activeByTenant.getOrDefault(tenantLink, 0)
+                        < MAX_ACTIVE_REQUESTS_PER_TENANT);
+    }
+
+    private void admit(Admission admission) {
+        admission.admittedMicros = Utils.getNowMicrosUtc();
+        active.put(admission.request.requestLink, admission);
+        activeByTenant.merge(admission.request.tenantLink, 1, Integer::sum);
+        maxActiveCount = Math.max(maxActiveCount, active.size());
+    }
+
+    private void release(String requestLink) {
+        List<Admission> admitted = new ArrayList<>();
+        synchronized (lock) {
+            Admission admission = active.remove(requestLink);
+            if (admission != null) {
+                activeByTenant.computeIfPresent(admission.request.tenantLink,
+                        (k, count) -> count > 1 ? count - 1 : null);
+            } else {
+                // a queued request completed, e.g. deleted or failed
+                interactiveQueue.removeIf((a) -> a.request.requestLink.equals(requestLink));
+                queue.removeIf((a) -> a.request.requestLink.equals(requestLink));
+            }
+
+            admitQueued(interactiveQueue, admitted);
+            admitQueued(queue, admitted);
+        }
+
+        for (Admission admission : admitted) {
+            startRequest(admission.request.requestLink, START_RETRIES_COUNT);
+        }
+    }
+
+    /**
+     * Admits the queued requests in order, skipping the ones of tenants without free slots.
+     */
+    private void admitQueued(Deque<Admission> requests, List<Admission> admitted) {
+        Iterator<Admission> it = requests.iterator();
+        while (it.hasNext() && active.size() < MAX_ACTIVE_REQUESTS) {
+            Admission admission = it.next();
+            if (canAdmit(admission.request.tenantLink)) {
+                it.remove();
+                admit(admission);
+                admitted.add(admission);
+            }
+        }
+    }
+
+    private void startRequest(String requestLink, int retryCount) {
+        RequestBrokerState body = new RequestBrokerState();
+        body.taskInfo = new TaskState();
+        body.taskInfo.stage = TaskStage.STARTED;
+        body.taskSubStage = RequestBrokerState.SubStage.CREATED;
+        body.queuePosition = 0L;
+
+        sendRequest(Operation.createPatch(this, requestLink)
+                .setBody(body)
+                .setCompletion((o, e) -> {
+                    if (e == null) {
+                        return;
+                    }
+                    if (retryCount > 0) {
+                        // the request might be still starting
+                        getHost().schedule(() -> startRequest(requestLink, retryCount - 1),
+                                START_RETRY_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+                        return;
+                    }
+                    logWarning("Failure starting admitted request %s: %s", requestLink,
+                            Utils.toString(e));
+                    release(requestLink);
+                }));
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2016 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.request;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import com.vmware.admiral.common.ManagementUriParts;
+import com.vmware.admiral.compute.container.GroupResourcePlacementService.GroupResourcePlacementState;
+import com.vmware.admiral.request.RequestBrokerBulkService.RequestBrokerBulkState;
+import com.vmware.admiral.request.RequestBrokerBulkService.RequestItem;
+import com.vmware.admiral.request.RequestBrokerService.RequestBrokerState;
+import com.vmware.xenon.common.FactoryService;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.OperationJoin;
+import com.vmware.xenon.common.Service;
+import com.vmware.xenon.common.UriUtils;
+
+/**
+ * Factory service implementing {@link FactoryService} used to submit many requests in one POST.
+ * The requests are created with the {@link RequestBrokerFactoryService} in batches of
+ * {@link RequestBrokerBulkService#BATCH_SIZE} and the result of each is recorded in the created
+ * {@link RequestBrokerBulkService} document.
+ */
+public class RequestBrokerBulkFactoryService extends FactoryService {
+
+    public static final String SELF_LINK = ManagementUriParts.REQUESTS_BULK;
+
+    public static final int MAX_REQUESTS_COUNT = Integer.getInteger(
+            "com.vmware.admiral.request.bulk.max.requests", 1000);
+
+    public RequestBrokerBulkFactoryService() {
+        super(RequestBrokerBulkState.class);
+        super.toggleOption(ServiceOption.PERSISTENCE, true);
+        super.toggleOption(ServiceOption.REPLICATION, true);
+        super.toggleOption(ServiceOption.INSTRUMENTATION, true);
+    }
+
+    @Override
+    public Service createServiceInstance() throws Throwable {
+        return new RequestBrokerBulkService();
+    }
+
+    @Override
+    public void handlePost(Operation post) {
+        if (post.isSynchronize()) {
+            post.complete();
+            return;
+        }
+
+        if (!post.hasBody()) {
+            post.fail(new IllegalArgumentException("body is required"));
+            return;
+        }
+
+        RequestBrokerBulkState body = post.getBody(RequestBrokerBulkState.class);
+        if (body.requests == null || body.requests.isEmpty()) {
+            post.fail(new IllegalArgumentException("'requests' is required."));
+            return;
+        }
+        if (body.requests.size() > MAX_REQUESTS_COUNT) {
+            post.fail(new IllegalArgumentException(String.format(
+                    "At most %d requests can be submitted at once.", MAX_REQUESTS_COUNT)));
+            return;
+        }
+
+        if (body.groupResourcePlacementLink == null) {
+            submitRequests(post, body);
+            return;
+        }
+
+        // the placement and its tenant are shared by the requests
+        sendRequest(Operation.createGet(this, body.groupResourcePlacementLink)
+                .setCompletion((o, e) -> {
+                    if (e != null) {
+                        logWarning("Failure retrieving group placement %s: %s",
+                                body.groupResourcePlacementLink, e.getMessage());
+                        post.fail(e);
+                        return;
+                    }
+                    if (body.tenantLinks == null) {
+                        body.tenantLinks = o.getBody(GroupResourcePlacementState.class)
+                                .tenantLinks;
+                    }
+                    submitRequests(post, body);
+                }));
+    }
+
+    private void submitRequests(Operation post, RequestBrokerBulkState body) {
+        body.items = new ArrayList<>(body.requests.size());
+        for (RequestBrokerState request : body.requests) {
+            if (request.tenantLinks == null) {
+                request.tenantLinks = body.tenantLinks;
+            }
+            if (request.groupResourcePlacementLink == null) {
+                request.groupResourcePlacementLink = body.groupResourcePlacementLink;
+            }
+            if (request.documentSelfLink == null) {
+                request.documentSelfLink = UUID.randomUUID().toString();
+            }
+
+            RequestItem item = new RequestItem();
+            item.requestLink = UriUtils.buildUriPath(RequestBrokerFactoryService.SELF_LINK,
+                    UriUtils.getLastPathSegment(request.documentSelfLink));
+            body.items.add(item);
+        }
+
+        submitBatch(post, body, 0);
+    }
+
+    private void submitBatch(Operation post, RequestBrokerBulkState body, int from) {
+        if (from >= body.requests.size()) {
+            logInfo("Submitted %d requests, %d rejected", body.acceptedCount,
+                    body.rejectedCount);
+            body.requests = null;
+            post.setBody(body).complete();
+            return;
+        }
+
+        int to = Math.min(from + RequestBrokerBulkService.BATCH_SIZE, body.requests.size());
+        Map<Long, RequestItem> itemsByOperationId = new HashMap<>();
+        List<Operation> posts = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            Operation op = Operation.createPost(this, RequestBrokerFactoryService.SELF_LINK)
+                    .setBody(body.requests.get(i));
+            itemsByOperationId.put(op.getId(), body.items.get(i));
+            posts.add(op);
+        }
+
+        OperationJoin.create(posts).setCompletion((ops, failures) -> {
+            for (Operation o : ops.values()) {
+                RequestItem item = itemsByOperationId.get(o.getId());
+                item.statusCode = o.getStatusCode();
+
+                Throwable e = failures != null ? failures.get(o.getId()) : null;
+                if (e != null) {
+                    if (item.statusCode < Operation.STATUS_CODE_FAILURE_THRESHOLD) {
+                        item.statusCode = Operation.STATUS_CODE_INTERNAL_ERROR;
+                    }
+                    item.failureMessage = e.getMessage();
+                    body.rejectedCount++;
+                    continue;
+                }
+
+                RequestBrokerState request = o.getBody(RequestBrokerState.class);
+                item.requestTrackerLink = request.requestTrackerLink;
+                item.queuePosition = request.queuePosition;
+                body.acceptedCount++;
+            }
+            submitBatch(post, body, to);
+        }).sendWith(this);
+    }
+}
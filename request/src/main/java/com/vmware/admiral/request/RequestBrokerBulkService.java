@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) 2016 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.request;
+
+import static com.vmware.xenon.common.ServiceDocumentDescription.PropertyIndexingOption.STORE_ONLY;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.vmware.admiral.request.RequestBrokerService.RequestBrokerState;
+import com.vmware.admiral.request.RequestStatusService.RequestStatus;
+import com.vmware.admiral.service.common.MultiTenantDocument;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.OperationJoin;
+import com.vmware.xenon.common.StatefulService;
+import com.vmware.xenon.common.TaskState.TaskStage;
+import com.vmware.xenon.common.Utils;
+
+/**
+ * Aggregate tracker of the requests submitted together to the
+ * {@link RequestBrokerBulkFactoryService}. The document is written once, when the requests are
+ * submitted. The progress of the requests is not stored but collected from their
+ * {@link RequestStatus} documents on GET.
+ */
+public class RequestBrokerBulkService extends StatefulService {
+
+    public static final int BATCH_SIZE = Integer.getInteger(
+            "com.vmware.admiral.request.bulk.batch.size", 50);
+
+    private static final long EXPIRATION_MICROS = TimeUnit.MINUTES.toMicros(Long.getLong(
+            "com.vmware.admiral.request.bulk.expiration.mins",
+            TimeUnit.DAYS.toMinutes(7)));
+
+    public static class RequestBrokerBulkState extends MultiTenantDocument {
+
+        /**
+         * The requests to submit. The tenant links and the group placement of the bulk are used
+         * for the requests without their own. Not stored once submitted.
+         */
+        @PropertyOptions(indexing = STORE_ONLY)
+        public List<RequestBrokerState> requests;
+
+        /**
+         * (Optional) The group placement shared by the requests. The placement is retrieved once
+         * and the requests are reserved in it without querying the placements each.
+         */
+        public String groupResourcePlacementLink;
+
+        /** The result of the submission of each request, in the order of the requests. */
+        @PropertyOptions(indexing = STORE_ONLY)
+        public List<RequestItem> items;
+
+        /** The number of requests created. */
+        public long acceptedCount;
+
+        /** The number of requests failed to be created, e.g. not admitted. */
+        public long rejectedCount;
+
+        /** The number of finished requests. Collected on GET, not stored. */
+        public Long finishedCount;
+
+        /** The number of failed requests. Collected on GET, not stored. */
+        public Long failedCount;
+
+        /** The average progress (0-100%) of the created requests. Collected on GET, not stored. */
+        public Integer progress;
+    }
+
+    public static class RequestItem {
+        /** The link of the request broker task. */
+        public String requestLink;
+
+        /** The link of the request status of the request, null if the request is not created. */
+        public String requestTrackerLink;
+
+        /** The status code of the request creation. */
+        public int statusCode;
+
+        /** The failure message of the request creation. */
+        public String failureMessage;
+
+        /** The position of the request in the admission queue when submitted. */
+        public Long queuePosition;
+
+        /** The stage of the request. Collected on GET, not stored. */
+        public TaskStage stage;
+
+        /** The progress of the request. Collected on GET, not stored. */
+        public Integer progress;
+    }
+
+    public RequestBrokerBulkService() {
+        super(RequestBrokerBulkState.class);
+        super.toggleOption(ServiceOption.PERSISTENCE, true);
+        super.toggleOption(ServiceOption.REPLICATION, true);
+        super.toggleOption(ServiceOption.OWNER_SELECTION, true);
+        super.toggleOption(ServiceOption.INSTRUMENTATION, true);
+    }
+
+    @Override
+    public void handleCreate(Operation post) {
+        RequestBrokerBulkState body = post.getBody(RequestBrokerBulkState.class);
+        body.documentExpirationTimeMicros = Utils.getNowMicrosUtc() + EXPIRATION_MICROS;
+        post.complete();
+    }
+
+    @Override
+    public void handleGet(Operation get) {
+        RequestBrokerBulkState state = Utils.clone(getState(get));
+
+        List<RequestItem> trackedItems = new ArrayList<>();
+        if (state.items != null) {
+            for (RequestItem item : state.items) {
+                if (item.requestTrackerLink != null) {
+                    trackedItems.add(item);
+                }
+            }
+        }
+
+        collectStatus(get, state, trackedItems, 0);
+    }
+
+    /**
+     * Retrieves the request status documents of the items in batches of {@link #BATCH_SIZE} and
+     * completes the GET with the aggregated progress.
+     */
+    private void collectStatus(Operation get, RequestBrokerBulkState state,
+            List<RequestItem> items, int from) {
+        if (from >= items.size()) {
+            aggregate(state, items);
+            get.setBody(state).complete();
+            return;
+        }
+
+        int to = Math.min(from + BATCH_SIZE, items.size());
+        Map<Long, RequestItem> itemsByOperationId = new HashMap<>();
+        List<Operation> gets = new ArrayList<>(to - from);
+        for (RequestItem item : items.subList(from, to)) {
+            Operation op = Operation.createGet(this, item.requestTrackerLink);
+            itemsByOperationId.put(op.getId(), item);
+            gets.add(op);
+        }
+
+        OperationJoin.create(gets).setCompletion((ops, failures) -> {
+            for (Operation o : ops.values()) {
+                if (failures != null && failures.containsKey(o.getId())) {
+                    // e.g. the request status expired
+                    continue;
+                }
+                RequestStatus status = o.getBody(RequestStatus.class);
+                RequestItem item = itemsByOperationId.get(o.getId());
+                item.stage = status.taskInfo != null ? status.taskInfo.stage : null;
+                item.progress = status.progress;
+            }
+            collectStatus(get, state, items, to);
+        }).sendWith(this);
+    }
+
+    private static void aggregate(RequestBrokerBulkState state, List<RequestItem> items) {
+        long finished = 0;
+        long failed = 0;
+        long progress = 0;
+        for (RequestItem item : items) {
+            if (item.stage == TaskStage.FINISHED) {
+                finished++;
+            } else if (item.stage == TaskStage.FAILED || item.stage == TaskStage.CANCELLED) {
+                failed++;
+            }
+            if (item.progress != null) {
+                progress += item.progress;
+            }
+        }
+
+        state.finishedCount = finished;
+        state.failedCount = failed;
+        state.progress = items.isEmpty() ? 0 : (int) (progress / items.size());
+    }
+}
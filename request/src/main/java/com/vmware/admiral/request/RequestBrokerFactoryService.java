@@ -11,14 +11,23 @@
 
 package com.vmware.admiral.request;
 
+import java.util.UUID;
+
 import com.vmware.admiral.common.ManagementUriParts;
+import com.vmware.admiral.request.RequestAdmissionService.AdmissionRequest;
+import com.vmware.admiral.request.RequestAdmissionService.AdmissionResponse;
 import com.vmware.admiral.request.RequestBrokerService.RequestBrokerState;
 import com.vmware.xenon.common.FactoryService;
+import com.vmware.xenon.common.Operation;
 import com.vmware.xenon.common.Service;
+import com.vmware.xenon.common.UriUtils;
+import com.vmware.xenon.common.Utils;
 
 /**
  * Factory service implementing {@link FactoryService} used to create instances of
- * {@link RequestBrokerService}.
+ * {@link RequestBrokerService}. The requests not started by other tasks are admitted by the
+ * {@link RequestAdmissionService} of the node before they are created. A request that fails to be
+ * created releases its admission, see {@link RequestBrokerService#handleCreate(Operation)}.
  */
 public class RequestBrokerFactoryService extends FactoryService {
 
@@ -35,4 +44,68 @@ public class RequestBrokerFactoryService extends FactoryService {
     public Service createServiceInstance() throws Throwable {
         return new RequestBrokerService();
     }
-}
\ No newline at end of file
+
+    @Override
+    public void handlePost(Operation post) {
+        if (post.isSynchronize() || !post.hasBody()) {
+            post.complete();
+            return;
+        }
+
+        RequestBrokerState body = post.getBody(RequestBrokerState.class);
+        if (body.serviceTaskCallback != null && !body.serviceTaskCallback.isEmpty()) {
+            // the requests of other tasks are part of an already admitted request
+            post.complete();
+            return;
+        }
+
+        if (body.documentSelfLink == null) {
+            body.documentSelfLink = UUID.randomUUID().toString();
+            admit(post, body);
+            return;
+        }
+
+        // a request with the link of an existing one is rejected by the factory, don't admit it
+        String requestLink = UriUtils.buildUriPath(getSelfLink(),
+                UriUtils.getLastPathSegment(body.documentSelfLink));
+        sendRequest(Operation.createGet(this, requestLink)
+                .setCompletion((o, e) -> {
+                    if (e == null) {
+                        post.complete();
+                        return;
+                    }
+                    admit(post, body);
+                }));
+    }
+
+    private void admit(Operation post, RequestBrokerState body) {
+        AdmissionRequest request = new AdmissionRequest();
+        request.requestLink = UriUtils.buildUriPath(getSelfLink(),
+                UriUtils.getLastPathSegment(body.documentSelfLink));
+        request.tenantLink = RequestAdmissionService.getTenantLink(body);
+        request.interactive = RequestAdmissionService.isInteractive(body);
+
+        sendRequest(Operation.createPatch(this, RequestAdmissionService.SELF_LINK)
+                .setBody(request)
+                .setCompletion((o, e) -> {
+                    int statusCode = o.getStatusCode();
+                    if (statusCode == RequestAdmissionService.STATUS_CODE_TOO_MANY_REQUESTS) {
+                        post.setStatusCode(statusCode);
+                        post.addResponseHeader(RequestAdmissionService.RETRY_AFTER_HEADER,
+                                String.valueOf(RequestAdmissionService.RETRY_AFTER_SECONDS));
+                        post.fail(e);
+                        return;
+                    }
+                    if (e != null) {
+                        // don't block the requests when the admission is not available
+                        logWarning("Request %s not admitted: %s", request.requestLink,
+                                Utils.toString(e));
+                    } else {
+                        body.queuePosition = o.getBody(AdmissionResponse.class).queuePosition;
+                        body.admissionServiceLink = UriUtils.buildUri(getHost(),
+                                RequestAdmissionService.SELF_LINK).toString();
+                    }
+                    post.setBody(body).complete();
+                }));
+    }
+}
@@ -22,6 +22,7 @@ import static com.vmware.xenon.common.ServiceDocumentDescription.PropertyUsageOp
 import static com.vmware.xenon.common.ServiceDocumentDescription.PropertyUsageOption.SERVICE_USE;
 import static com.vmware.xenon.common.ServiceDocumentDescription.PropertyUsageOption.SINGLE_ASSIGNMENT;
 
+import java.net.URI;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -62,6 +63,7 @@ import com.vmware.admiral.request.ContainerRemovalTaskService.ContainerRemovalTa
 import com.vmware.admiral.request.ContainerVolumeAllocationTaskService.ContainerVolumeAllocationTaskState;
 import com.vmware.admiral.request.ContainerVolumeProvisionTaskService.ContainerVolumeProvisionTaskState;
 import com.vmware.admiral.request.ContainerVolumeRemovalTaskService.ContainerVolumeRemovalTaskState;
+import com.vmware.admiral.request.RequestAdmissionService.AdmissionRequest;
 import com.vmware.admiral.request.RequestBrokerService.RequestBrokerState.SubStage;
 import com.vmware.admiral.request.RequestStatusService.RequestStatus;
 import com.vmware.admiral.request.ReservationRemovalTaskService.ReservationRemovalTaskState;
@@ -92,6 +94,7 @@ import com.vmware.photon.controller.model.resources.ComputeDescriptionService.Co
 import com.vmware.xenon.common.Operation;
 import com.vmware.xenon.common.ServiceDocument;
 import com.vmware.xenon.common.ServiceErrorResponse;
+import com.vmware.xenon.common.TaskState;
 import com.vmware.xenon.common.TaskState.TaskStage;
 import com.vmware.xenon.common.Utils;
 import com.vmware.xenon.services.common.QueryTask;
@@ -111,6 +114,8 @@ public class RequestBrokerService extends
         public static final String PROVISION_RESOURCE_OPERATION = "PROVISION_RESOURCE";
         public static final String REMOVE_RESOURCE_OPERATION = "REMOVE_RESOURCE";
         public static final String CLUSTER_RESOURCE_OPERATION = "CLUSTER_RESOURCE";
+        public static final String FIELD_NAME_QUEUE_POSITION = "queuePosition";
+        public static final String FIELD_NAME_ADMISSION_SERVICE_LINK = "admissionServiceLink";
 
         public static enum SubStage {
             CREATED,
@@ -151,6 +156,19 @@ public class RequestBrokerService extends
 
         @PropertyOptions(usage = { SERVICE_USE, AUTO_MERGE_IF_NOT_NULL }, indexing = STORE_ONLY)
         public String groupResourcePlacementLink;
+
+        /**
+         * Set by the {@link RequestAdmissionService}: the position of the request in the
+         * admission queue when it was submitted, 0 once the request is admitted. Not updated
+         * while the request is queued. Indexed, the queue of a node is restored from the
+         * queued requests.
+         */
+        @PropertyOptions(usage = { SERVICE_USE, AUTO_MERGE_IF_NOT_NULL })
+        public Long queuePosition;
+
+        /** The URI of the admission service of the node that admitted the request. */
+        @PropertyOptions(usage = { SERVICE_USE, SINGLE_ASSIGNMENT })
+        public String admissionServiceLink;
     }
 
     public RequestBrokerService() {
@@ -162,6 +180,23 @@ public class RequestBrokerService extends
         super.transientSubStages = SubStage.TRANSIENT_SUB_STAGES;
     }
 
+    @Override
+    public void handleCreate(Operation post) {
+        if (post.hasBody()) {
+            RequestBrokerState body = post.getBody(RequestBrokerState.class);
+            post.nestCompletion((o, e) -> {
+                if (e != null) {
+                    // the request is not created, free its slot for the queued requests
+                    releaseAdmission(body);
+                    post.fail(e);
+                    return;
+                }
+                post.complete();
+            });
+        }
+        super.handleCreate(post);
+    }
+
     @Override
     protected void validateStateOnStart(RequestBrokerState state) throws IllegalArgumentException {
         if (state.operation == null) {
@@ -198,6 +233,11 @@ public class RequestBrokerService extends
     protected void handleStartedStagePatch(RequestBrokerState state) {
         switch (state.taskSubStage) {
         case CREATED:
+            if (state.queuePosition != null && state.queuePosition > 0) {
+                // started by the admission service
+                logInfo("Request queued at position %d", state.queuePosition);
+                break;
+            }
             if (isProvisionOperation(state)) {
                 if (isCompositeComponentType(state)) {
                     createCompositionTask(state);
@@ -290,8 +330,9 @@ public class RequestBrokerService extends
 
     @Override
     protected TaskStatusState fromTask(TaskServiceDocument<SubStage> state) {
-        TaskStatusState statusTask = super.fromTask(state);
+        RequestStatus statusTask = fromTask(new RequestStatus(), state);
         RequestBrokerState currentState = (RequestBrokerState) state;
+        statusTask.queued = isQueued(currentState);
         if (currentState.resourceLinks == null
                 || currentState.resourceLinks.isEmpty()) {
             return statusTask;
@@ -336,8 +377,16 @@ public class RequestBrokerService extends
         });
     }
 
+    @Override
+    protected void handleFinishedStagePatch(RequestBrokerState state) {
+        releaseAdmission(state);
+        super.handleFinishedStagePatch(state);
+    }
+
     @Override
     protected void handleFailedStagePatch(RequestBrokerState state) {
+        releaseAdmission(state);
+
         EventLogState eventLog = new EventLogState();
         eventLog.description = state.taskInfo.failure.message;
         if (eventLog.description == null) {
@@ -366,6 +415,10 @@ public class RequestBrokerService extends
     @Override
     public void handleDelete(Operation delete) {
         RequestBrokerState state = getState(delete);
+        if (state.taskInfo != null && !TaskState.isFinished(state.taskInfo)
+                && !TaskState.isFailed(state.taskInfo)) {
+            releaseAdmission(state);
+        }
         if (state.requestTrackerLink != null && !state.requestTrackerLink.isEmpty()) {
             sendRequest(Operation.createDelete(this, state.requestTrackerLink)
                     .setBody(new ServiceDocument())
@@ -1462,6 +1515,29 @@ public class RequestBrokerService extends
                         ResourceNamePrefixTaskService.DISPLAY_NAME)));
     }
 
+    private static Boolean isQueued(RequestBrokerState state) {
+        return state.queuePosition != null ? state.queuePosition > 0 : null;
+    }
+
+    private void releaseAdmission(RequestBrokerState state) {
+        if (state.admissionServiceLink == null) {
+            return;
+        }
+
+        AdmissionRequest request = new AdmissionRequest();
+        request.requestLink = getSelfLink();
+        request.release = true;
+        sendRequest(Operation.createPatch(URI.create(state.admissionServiceLink))
+                .setBody(request)
+                .setCompletion((o, e) -> {
+                    if (e != null) {
+                        // released by the admission service once expired
+                        logWarning("Failed to release admission of %s: %s", getSelfLink(),
+                                Utils.toString(e));
+                    }
+                }));
+    }
+
     private boolean createRequestTrackerIfNoneProvided(RequestBrokerState state, Operation op) {
         if (state.requestTrackerLink != null && !state.requestTrackerLink.isEmpty()) {
             logFine("Request tracker link provided: %s", state.requestTrackerLink);
@@ -1469,6 +1545,7 @@ public class RequestBrokerService extends
         }
 
         RequestStatus requestStatus = fromTask(new RequestStatus(), state);
+        requestStatus.queued = isQueued(state);
 
         // add tracked leaf tasks depending on the request type
         if (isProvisionOperation(state)) {
@@ -1523,6 +1600,8 @@ public class RequestBrokerService extends
                 }
             } else if (isClusteringOperation(state)) {
                 requestStatus.addTrackedTasks(ClusteringTaskService.DISPLAY_NAME);
+            } else if (isProvisioningContainerHostsOperation(state)) {
+                requestStatus.addTrackedTasks(ComputeProvisionTaskService.DISPLAY_NAME);
             } else {
                 requestStatus.addTrackedTasks(ContainerOperationTaskService.DISPLAY_NAME);
             }
@@ -57,6 +57,9 @@ public class RequestStatusService extends StatefulService {
         /** Current component in a composition, or null for a non-component phase */
         public String component;
 
+        /** Whether the request waits in the admission queue, false once the request is started */
+        public Boolean queued;
+
         /** collection of expected components in a composition request */
         public List<ResourceNode> components;
 
@@ -100,6 +103,10 @@ public class RequestStatusService extends StatefulService {
             handleUpdateProgress(state, body);
         }
 
+        if (body.queued != null) {
+            state.queued = body.queued;
+        }
+
         if (state.name == null && body.name != null) {
             state.name = body.name;
         }
@@ -43,11 +43,13 @@ import com.vmware.admiral.request.ReservationAllocationTaskService.ReservationAl
 import com.vmware.admiral.request.ReservationTaskService.ReservationTaskState.SubStage;
 import com.vmware.admiral.request.allocation.filter.HostSelectionFilter.HostSelection;
 import com.vmware.admiral.service.common.AbstractTaskStatefulService;
+import com.vmware.admiral.service.common.DocumentCacheService;
 import com.vmware.admiral.service.common.ServiceTaskCallback;
 import com.vmware.admiral.service.common.ServiceTaskCallback.ServiceTaskCallbackResponse;
 import com.vmware.xenon.common.Operation;
 import com.vmware.xenon.common.Service;
 import com.vmware.xenon.common.TaskState.TaskStage;
+import com.vmware.xenon.common.UriUtils;
 import com.vmware.xenon.services.common.QueryTask;
 import com.vmware.xenon.services.common.QueryTask.NumericRange;
 import com.vmware.xenon.services.common.QueryTask.Query;
@@ -127,6 +129,7 @@ public class ReservationTaskService
         super.toggleOption(ServiceOption.OWNER_SELECTION, true);
         super.toggleOption(ServiceOption.INSTRUMENTATION, true);
         super.transientSubStages = SubStage.TRANSIENT_SUB_STAGES;
+        super.setEphemeralSubTasksCheck(true);
     }
 
     @Override
@@ -136,12 +139,16 @@ public class ReservationTaskService
             queryGroupResourcePlacements(state, containerDescription, QUERY_RETRIES_COUNT);
             break;
         case SELECTED:
+            proceedTo(SubStage.PLACEMENT);
+            break;
         case SELECTED_GLOBAL:
-            selectPlacementComputeHosts(state, new HashSet<String>(
-                    state.resourcePoolsPerGroupPlacementLinks.values()));
+            proceedTo(SubStage.PLACEMENT_GLOBAL);
             break;
         case PLACEMENT:
         case PLACEMENT_GLOBAL:
+            // the placement task is not persisted, it's created again when it's lost
+            selectPlacementComputeHosts(state, new HashSet<String>(
+                    state.resourcePoolsPerGroupPlacementLinks.values()));
             break;
         case HOSTS_SELECTED:
         case HOSTS_SELECTED_GLOBAL:
@@ -171,6 +178,18 @@ public class ReservationTaskService
         }
     }
 
+    @Override
+    protected String getEphemeralSubTaskLink(ReservationTaskState state) {
+        switch (state.taskSubStage) {
+        case PLACEMENT:
+        case PLACEMENT_GLOBAL:
+            return UriUtils.buildUriPath(PlacementHostSelectionTaskService.FACTORY_LINK,
+                    getPlacementTaskId(state));
+        default:
+            return null;
+        }
+    }
+
     @Override
     protected void customStateValidationAndMerge(Operation patch,
             ReservationTaskState patchBody, ReservationTaskState currentState) {
@@ -420,13 +439,16 @@ public class ReservationTaskService
                 && state.taskSubStage.ordinal() >= SubStage.QUERYING_GLOBAL.ordinal();
     }
 
+    private String getPlacementTaskId(ReservationTaskState state) {
+        return getSelfId() + "-reservation" + (isGlobal(state) ? "-global" : "");
+    }
+
     private void selectPlacementComputeHosts(ReservationTaskState state,
             Set<String> resourcePools) {
 
         // create placement selection tasks
         PlacementHostSelectionTaskState placementTask = new PlacementHostSelectionTaskState();
-        placementTask.documentSelfLink = getSelfId() + "-reservation"
-                + (isGlobal(state) ? "-global" : "");
+        placementTask.documentSelfLink = getPlacementTaskId(state);
         placementTask.resourceDescriptionLink = state.resourceDescriptionLink;
         placementTask.resourcePoolLinks = new ArrayList<>(resourcePools);
         placementTask.resourceCount = state.resourceCount;
@@ -445,9 +467,7 @@ public class ReservationTaskService
                 .setCompletion((o, e) -> {
                     if (e != null) {
                         failTask("Failure creating placement task", e);
-                        return;
                     }
-                    proceedTo(isGlobal(state) ? SubStage.PLACEMENT_GLOBAL : SubStage.PLACEMENT);
                 }));
     }
 
@@ -539,16 +559,10 @@ public class ReservationTaskService
             callbackFunction.accept(containerDescription);
             return;
         }
-        sendRequest(Operation.createGet(this, resourceDescriptionLink)
-                .setCompletion((o, e) -> {
-                    if (e != null) {
-                        failTask("Failure retrieving description state", e);
-                        return;
-                    }
-
-                    ContainerDescription desc = o.getBody(ContainerDescription.class);
+        DocumentCacheService.getDocumentState(this, resourceDescriptionLink,
+                ContainerDescription.class, (desc) -> {
                     this.containerDescription = desc;
                     callbackFunction.accept(desc);
-                }));
+                }, (e) -> failTask("Failure retrieving description state", e));
     }
 }
@@ -28,7 +28,8 @@ import com.vmware.admiral.common.util.QueryUtil;
 import com.vmware.admiral.common.util.ServiceDocumentQuery;
 import com.vmware.admiral.service.common.AbstractTaskStatefulService;
 import com.vmware.admiral.service.common.DefaultSubStage;
-import com.vmware.admiral.service.common.ResourceNamePrefixService.NamePrefixRequest;
+import com.vmware.admiral.service.common.ResourceNamePrefixLeaseService;
+import com.vmware.admiral.service.common.ResourceNamePrefixLeaseService.NamePrefixLeaseRequest;
 import com.vmware.admiral.service.common.ResourceNamePrefixService.NamePrefixResponse;
 import com.vmware.admiral.service.common.ResourceNamePrefixService.ResourceNamePrefixState;
 import com.vmware.admiral.service.common.ServiceTaskCallback.ServiceTaskCallbackResponse;
@@ -63,6 +64,8 @@ public class ResourceNamePrefixTaskService
 
     public ResourceNamePrefixTaskService() {
         super(ResourceNamePrefixTaskState.class, DefaultSubStage.class, DISPLAY_NAME);
+        // re-created by the allocation task when restarted
+        setEphemeral(true);
     }
 
     @Override
@@ -134,11 +137,14 @@ public class ResourceNamePrefixTaskService
     private void requestResourceNamePrefix(ResourceNamePrefixTaskState state,
             String resourceNamePrefixLink, Iterator<String> iterator, boolean globalSearch) {
 
-        NamePrefixRequest namePrefixRequest = new NamePrefixRequest();
+        // the names are generated by the local node from a range of numbers leased from the
+        // prefix document, rather than updating the shared document for every request
+        NamePrefixLeaseRequest namePrefixRequest = new NamePrefixLeaseRequest();
+        namePrefixRequest.resourceNamePrefixLink = resourceNamePrefixLink;
         namePrefixRequest.resourceCount = state.resourceCount;
 
         sendRequest(Operation
-                .createPatch(this, resourceNamePrefixLink)
+                .createPatch(this, ResourceNamePrefixLeaseService.SELF_LINK)
                 .setBody(namePrefixRequest)
                 .setCompletion(
                         (o, e) -> {
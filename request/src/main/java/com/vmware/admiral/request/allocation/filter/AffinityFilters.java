@@ -110,6 +110,8 @@ public final class AffinityFilters {
         filters.add(new DependsOnAffinityHostFilter(desc));
         filters.add(new NamedVolumeAffinityHostFilter(host, desc));
 
+        // host preference, should be last since it only scores the remaining hosts
+        filters.add(new ImageLocalityHostFilter(host, desc));
     }
 
     @SuppressWarnings("rawtypes")
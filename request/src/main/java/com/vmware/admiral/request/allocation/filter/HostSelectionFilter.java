@@ -58,6 +58,12 @@ public interface HostSelectionFilter<T> extends AffinityFilter {
         /** Configured location of the key-value store for the overlay networks. */
         public String clusterStore;
 
+        /**
+         * Size in bytes of the requested image when it is already present on the host. Among
+         * hosts with the same resourceCount, hosts with bigger local images are preferred.
+         */
+        public Long localImageSize;
+
         public void addDesc(DescName descName) {
             if (descName == null) {
                 return;
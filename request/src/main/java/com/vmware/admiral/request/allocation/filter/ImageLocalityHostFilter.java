@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2016 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.request.allocation.filter;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.logging.Level;
+
+import com.vmware.admiral.common.util.QueryUtil;
+import com.vmware.admiral.common.util.ServiceDocumentQuery;
+import com.vmware.admiral.compute.container.ContainerDescriptionService.ContainerDescription;
+import com.vmware.admiral.compute.container.HostImageInventoryService.HostImage;
+import com.vmware.admiral.compute.container.HostImageInventoryService.HostImageInventoryState;
+import com.vmware.admiral.request.PlacementHostSelectionTaskService.PlacementHostSelectionTaskState;
+import com.vmware.xenon.common.ServiceHost;
+import com.vmware.xenon.common.Utils;
+import com.vmware.xenon.services.common.QueryTask;
+
+/**
+ * A filter implementing {@link HostSelectionFilter} aimed to prefer the docker hosts that already
+ * have the image of the {@link ContainerDescription}, so the container can be started without
+ * pulling the image first. The filter does not remove any hosts. It sets
+ * {@link HostSelection#localImageSize} for the hosts where the image is present. Among the hosts
+ * with the same {@link HostSelection#resourceCount}, the hosts with the biggest local images are
+ * selected first. Images smaller than
+ * {@link #MIN_LOCAL_IMAGE_SIZE_BYTES} are ignored since pulling them is cheap and preferring their
+ * hosts would only skew the distribution of the containers.
+ */
+public class ImageLocalityHostFilter
+        implements HostSelectionFilter<PlacementHostSelectionTaskState> {
+    public static final long MIN_LOCAL_IMAGE_SIZE_BYTES = Long.getLong(
+            "com.vmware.admiral.request.placement.image.locality.min.size.bytes",
+            10 * 1024 * 1024);
+
+    private final ServiceHost host;
+    private final String image;
+
+    public ImageLocalityHostFilter(ServiceHost host, ContainerDescription desc) {
+        this.host = host;
+        this.image = desc.image;
+    }
+
+    @Override
+    public void filter(PlacementHostSelectionTaskState state,
+            Map<String, HostSelection> hostSelectionMap, HostSelectionFilterCompletion callback) {
+
+        if (!isActive()) {
+            callback.complete(hostSelectionMap, null);
+            return;
+        }
+
+        QueryTask q = QueryUtil.buildQuery(HostImageInventoryState.class, false);
+        QueryUtil.addListValueClause(q, HostImageInventoryState.FIELD_NAME_HOST_LINK,
+                hostSelectionMap.keySet());
+        QueryUtil.addExpandOption(q);
+
+        new ServiceDocumentQuery<>(host, HostImageInventoryState.class).query(q, (r) -> {
+            if (r.hasException()) {
+                // the image locality is only a preference, don't fail the placement
+                host.log(Level.WARNING, "Error querying for host image inventories: %s",
+                        Utils.toString(r.getException()));
+                callback.complete(hostSelectionMap, null);
+            } else if (r.hasResult()) {
+                HostImageInventoryState inventory = r.getResult();
+                HostSelection hostSelection = hostSelectionMap.get(inventory.hostLink);
+                HostImage localImage = inventory.findImage(image);
+                if (hostSelection != null && localImage != null && localImage.size != null
+                        && localImage.size >= MIN_LOCAL_IMAGE_SIZE_BYTES) {
+                    hostSelection.localImageSize = localImage.size;
+                }
+            } else {
+                callback.complete(hostSelectionMap, null);
+            }
+        });
+    }
+
+    @Override
+    public boolean isActive() {
+        return image != null && !image.isEmpty();
+    }
+
+    @Override
+    public Map<String, AffinityConstraint> getAffinityConstraints() {
+        return Collections.emptyMap();
+    }
+}
@@ -118,6 +118,16 @@ public class CompositionTaskService
         super.toggleOption(ServiceOption.OWNER_SELECTION, true);
         super.toggleOption(ServiceOption.INSTRUMENTATION, true);
         super.transientSubStages = SubStage.TRANSIENT_SUB_STAGES;
+        super.setEphemeralSubTasksCheck(true);
+    }
+
+    @Override
+    protected String getEphemeralSubTaskLink(CompositionTaskState state) {
+        if (state.taskSubStage == SubStage.CONTEXT_PREPARED) {
+            return UriUtils.buildUriPath(ResourceNamePrefixTaskService.FACTORY_LINK,
+                    getSelfId());
+        }
+        return null;
     }
 
     @Override
@@ -185,6 +185,16 @@ public class ComputeAllocationTaskService
         super.toggleOption(ServiceOption.OWNER_SELECTION, true);
         super.toggleOption(ServiceOption.INSTRUMENTATION, true);
         super.toggleOption(ServiceOption.IDEMPOTENT_POST, true);
+        super.setEphemeralSubTasksCheck(true);
+    }
+
+    @Override
+    protected String getEphemeralSubTaskLink(ComputeAllocationTaskState state) {
+        if (state.taskSubStage == SubStage.RESOURCES_NAMES) {
+            return UriUtils.buildUriPath(ResourceNamePrefixTaskService.FACTORY_LINK,
+                    getSelfId());
+        }
+        return null;
     }
 
     @Override
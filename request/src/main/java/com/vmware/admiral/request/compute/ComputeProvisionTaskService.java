@@ -22,8 +22,10 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
@@ -39,6 +41,7 @@ import com.vmware.admiral.compute.ContainerHostService.ContainerHostSpec;
 import com.vmware.admiral.request.compute.ComputeAllocationTaskService.ComputeAllocationTaskState;
 import com.vmware.admiral.request.compute.ComputeProvisionTaskService.ComputeProvisionTaskState.SubStage;
 import com.vmware.admiral.service.common.AbstractTaskStatefulService;
+import com.vmware.admiral.service.common.TaskServiceDocument;
 import com.vmware.photon.controller.model.adapterapi.ResourceOperationResponse;
 import com.vmware.photon.controller.model.resources.ComputeService.ComputeState;
 import com.vmware.photon.controller.model.resources.DiskService;
@@ -62,12 +65,33 @@ import com.vmware.xenon.services.common.ServiceUriPaths;
 public class ComputeProvisionTaskService extends
         AbstractTaskStatefulService<ComputeProvisionTaskService.ComputeProvisionTaskState, ComputeProvisionTaskService.ComputeProvisionTaskState.SubStage> {
 
-    private static final int WAIT_CONNECTION_RETRY_COUNT = 10;
-
     public static final String FACTORY_LINK = ManagementUriParts.REQUEST_COMPUTE_PROVISION_TASKS;
 
     public static final String DISPLAY_NAME = "Compute Provision";
 
+    /** The number of container hosts validated and registered in parallel. */
+    public static final int BOOTSTRAP_MAX_IN_FLIGHT = Integer.getInteger(
+            "com.vmware.admiral.request.compute.bootstrap.max.inflight", 10);
+
+    /** The number of retries of each bootstrap step of a container host. */
+    public static final int BOOTSTRAP_RETRIES_COUNT = Integer.getInteger(
+            "com.vmware.admiral.request.compute.bootstrap.retries", 10);
+
+    /** The delay before the first retry of a bootstrap step, doubled on each next retry. */
+    public static final long BOOTSTRAP_RETRY_DELAY_MILLIS = Long.getLong(
+            "com.vmware.admiral.request.compute.bootstrap.retry.delay.millis",
+            TimeUnit.SECONDS.toMillis(1));
+
+    /** The maximum delay between the retries of a bootstrap step. */
+    public static final long BOOTSTRAP_MAX_RETRY_DELAY_MILLIS = Long.getLong(
+            "com.vmware.admiral.request.compute.bootstrap.max.retry.delay.millis",
+            TimeUnit.SECONDS.toMillis(30));
+
+    // the progress of the bootstrap, reported to the request tracker without patching the task
+    private final AtomicInteger hostsBootstrapped = new AtomicInteger();
+    private final AtomicInteger reportedProgress = new AtomicInteger();
+    private volatile int hostsToBootstrap;
+
     public static class ComputeProvisionTaskState
             extends
             com.vmware.admiral.service.common.TaskServiceDocument<ComputeProvisionTaskState.SubStage> {
@@ -77,11 +101,12 @@ public class ComputeProvisionTaskService extends
             CUSTOMIZED_COMPUTE,
             PROVISIONING_COMPUTE,
             PROVISIONING_COMPUTE_COMPLETED,
+            BOOTSTRAPPING_HOSTS,
             COMPLETED,
             ERROR;
 
             static final Set<SubStage> TRANSIENT_SUB_STAGES = new HashSet<>(
-                    Arrays.asList(PROVISIONING_COMPUTE));
+                    Arrays.asList(PROVISIONING_COMPUTE, BOOTSTRAPPING_HOSTS));
         }
 
         /** (Required) Links to already allocated resources that are going to be provisioned. */
@@ -112,6 +137,9 @@ public class ComputeProvisionTaskService extends
         case PROVISIONING_COMPUTE:
             break;
         case PROVISIONING_COMPUTE_COMPLETED:
+            proceedTo(SubStage.BOOTSTRAPPING_HOSTS);
+            break;
+        case BOOTSTRAPPING_HOSTS:
             queryForProvisionedResources(state);
             break;
         case COMPLETED:
@@ -125,6 +153,18 @@ public class ComputeProvisionTaskService extends
         }
     }
 
+    @Override
+    protected TaskStatusState fromTask(TaskServiceDocument<SubStage> state) {
+        TaskStatusState statusTask = super.fromTask(state);
+        int total = hostsToBootstrap;
+        if (state.taskSubStage == SubStage.BOOTSTRAPPING_HOSTS && total > 0) {
+            // the bootstrapped hosts make up the progress up to the next sub stage
+            int stageProgress = 100 / (SubStage.values().length - 2);
+            statusTask.progress += stageProgress * hostsBootstrapped.get() / total;
+        }
+        return statusTask;
+    }
+
     private void customizeCompute(ComputeProvisionTaskState state) {
 
         OperationJoin.JoinedCompletionHandler getComputeCompletion = (opsGetComputes,
@@ -319,82 +359,125 @@ public class ComputeProvisionTaskService extends
                         complete();
                         return;
                     }
-                    validateConnectionsAndRegisterContainerHost(state,
+                    bootstrapContainerHosts(state,
                             task.results.documents.values().stream()
                                     .map(json -> Utils.fromJson(json, ComputeState.class))
                                     .collect(Collectors.toList()));
                 }));
     }
 
-    private void validateConnectionsAndRegisterContainerHost(ComputeProvisionTaskState state,
+    /**
+     * Validates the connections to the provisioned container hosts and registers them, keeping up
+     * to {@link #BOOTSTRAP_MAX_IN_FLIGHT} hosts in progress. No more hosts are bootstrapped once a
+     * host fails.
+     */
+    private void bootstrapContainerHosts(ComputeProvisionTaskState state,
             List<ComputeState> computes) {
-        URI specValidateUri = UriUtils.buildUri(getHost(), ContainerHostService.SELF_LINK,
-                ManagementUriParts.REQUEST_PARAM_VALIDATE_OPERATION_NAME);
-        URI specUri = UriUtils.buildUri(getHost(), ContainerHostService.SELF_LINK);
-        AtomicInteger remaining = new AtomicInteger(computes.size());
+        hostsToBootstrap = computes.size();
+        hostsBootstrapped.set(0);
+        reportedProgress.set(0);
+
+        Queue<ComputeState> pending = new ConcurrentLinkedQueue<>(computes);
         AtomicReference<Throwable> error = new AtomicReference<>();
-        for (ComputeState computeState : computes) {
-            if (computeState.address == null) {
-                if (DeploymentProfileConfig.getInstance().isTest()) {
-                    computeState.address = "127.0.0.1";
+        int inFlight = Math.min(Math.max(BOOTSTRAP_MAX_IN_FLIGHT, 1), computes.size());
+        logInfo("Bootstrapping %d container hosts, %d in parallel", computes.size(), inFlight);
+        for (int i = 0; i < inFlight; i++) {
+            bootstrapNextContainerHost(state, pending, error);
+        }
+    }
+
+    private void bootstrapNextContainerHost(ComputeProvisionTaskState state,
+            Queue<ComputeState> pending, AtomicReference<Throwable> error) {
+        if (error.get() != null) {
+            return;
+        }
+        ComputeState computeState = pending.poll();
+        if (computeState == null) {
+            return;
+        }
+
+        bootstrapContainerHost(computeState, (ex) -> {
+            if (ex != null) {
+                if (error.compareAndSet(null, ex)) {
+                    failTask("Failed registering container host", ex);
                 }
+                return;
             }
-            ContainerHostSpec spec = new ContainerHostSpec();
-            spec.hostState = computeState;
-            spec.acceptCertificate = true;
-            waitUntilConnectionValid(specValidateUri, spec, 0, (ex) -> {
-                if (error.get() != null) {
-                    return;
-                }
 
-                if (ex != null) {
-                    error.set(ex);
-                    logWarning("Failed to validate container host connection: %s",
-                            Utils.toString(ex));
-                    failTask("Failed registering container host", error.get());
-                    return;
-                }
+            int bootstrapped = hostsBootstrapped.incrementAndGet();
+            if (bootstrapped == hostsToBootstrap) {
+                complete();
+                return;
+            }
+            reportBootstrapProgress(state);
+            bootstrapNextContainerHost(state, pending, error);
+        });
+    }
 
-                spec.acceptHostAddress = true;
-                registerContainerHost(state, specUri, remaining, spec, error);
-            });
+    private void bootstrapContainerHost(ComputeState computeState, Consumer<Throwable> callback) {
+        URI specValidateUri = UriUtils.buildUri(getHost(), ContainerHostService.SELF_LINK,
+                ManagementUriParts.REQUEST_PARAM_VALIDATE_OPERATION_NAME);
+        URI specUri = UriUtils.buildUri(getHost(), ContainerHostService.SELF_LINK);
+
+        if (computeState.address == null) {
+            if (DeploymentProfileConfig.getInstance().isTest()) {
+                computeState.address = "127.0.0.1";
+            }
         }
+        ContainerHostSpec spec = new ContainerHostSpec();
+        spec.hostState = computeState;
+        spec.acceptCertificate = true;
+        putWithRetry(specValidateUri, spec, 0, (ex) -> {
+            if (ex != null) {
+                logWarning("Failed to validate container host connection: %s",
+                        Utils.toString(ex));
+                callback.accept(ex);
+                return;
+            }
+
+            spec.acceptHostAddress = true;
+            putWithRetry(specUri, spec, 0, callback);
+        });
     }
 
-    private void registerContainerHost(ComputeProvisionTaskState state, URI specUri,
-            AtomicInteger remaining, ContainerHostSpec spec, AtomicReference<Throwable> error) {
+    private void putWithRetry(URI uri, ContainerHostSpec spec, int retryCount,
+            Consumer<Throwable> callback) {
 
-        Operation.createPut(specUri).setBody(spec).setCompletion((op, er) -> {
-            if (error.get() != null) {
+        Operation.createPut(uri).setBody(spec).setCompletion((op, er) -> {
+            if (er == null) {
+                callback.accept(null);
                 return;
             }
-            if (er != null) {
-                error.set(er);
-                failTask("Failed registering container host", er);
+            if (retryCount > 0 && ContainerHostService.CONTAINER_HOST_ALREADY_EXISTS_MESSAGE
+                    .equals(er.getMessage())) {
+                // registered by a previous attempt that failed afterwards
+                callback.accept(null);
                 return;
             }
-            if (remaining.decrementAndGet() == 0) {
-                complete();
+            if (retryCount >= BOOTSTRAP_RETRIES_COUNT) {
+                callback.accept(er);
+                return;
             }
-        }).sendWith(this);
 
+            long delayMillis = Math.min(BOOTSTRAP_RETRY_DELAY_MILLIS << Math.min(retryCount, 20),
+                    BOOTSTRAP_MAX_RETRY_DELAY_MILLIS);
+            logWarning("Bootstrap of container host %s failed, retry %d of %d in %d ms: %s",
+                    spec.hostState.documentSelfLink, retryCount + 1, BOOTSTRAP_RETRIES_COUNT,
+                    delayMillis, Utils.toString(er));
+            getHost().schedule(() -> putWithRetry(uri, spec, retryCount + 1, callback),
+                    delayMillis, TimeUnit.MILLISECONDS);
+        }).sendWith(this);
     }
 
-    private void waitUntilConnectionValid(URI specValidateUri, ContainerHostSpec spec,
-            int retryCount, Consumer<Throwable> callback) {
-
-        Operation.createPut(specValidateUri).setBody(spec).setCompletion((op, er) -> {
-            if (er != null) {
-                logSevere(er);
-                if (retryCount > WAIT_CONNECTION_RETRY_COUNT) {
-                    callback.accept(er);
-                } else {
-                    getHost().schedule(() -> waitUntilConnectionValid(specValidateUri, spec,
-                            retryCount + 1, callback), 10, TimeUnit.SECONDS);
-                }
-            } else {
-                callback.accept(null);
-            }
-        }).sendWith(this);
+    /**
+     * Updates the request tracker with the bootstrap progress, once per percent to limit the
+     * number of updates for many hosts.
+     */
+    private void reportBootstrapProgress(ComputeProvisionTaskState state) {
+        int progress = fromTask(state).progress;
+        int reported = reportedProgress.get();
+        if (progress > reported && reportedProgress.compareAndSet(reported, progress)) {
+            updateRequestTracker(state);
+        }
     }
 }
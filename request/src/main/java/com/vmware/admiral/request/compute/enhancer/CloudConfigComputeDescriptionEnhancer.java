@@ -28,23 +28,29 @@ public class CloudConfigComputeDescriptionEnhancer implements ComputeDescription
     @Override
     public void enhance(EnhanceContext context, ComputeDescription cd,
             BiConsumer<ComputeDescription, Throwable> callback) {
-        String fileContent = getCustomProperty(cd,
-                ComputeConstants.COMPUTE_CONFIG_CONTENT_PROP_NAME);
+        String fileContent;
+        boolean supportDocker;
+        synchronized (cd) {
+            fileContent = getCustomProperty(cd,
+                    ComputeConstants.COMPUTE_CONFIG_CONTENT_PROP_NAME);
+            supportDocker = enableContainerHost(cd.customProperties);
+        }
         if (fileContent == null) {
-            boolean supportDocker = enableContainerHost(cd.customProperties);
             String imageType = context.imageType;
             try {
                 fileContent = loadResource(String.format("/%s-content/cloud_config_%s.yml",
                         context.endpointType, supportDocker ? imageType + "_docker" : "base"));
                 if (fileContent != null) {
-                    cd.customProperties.put(ComputeConstants.COMPUTE_CONFIG_CONTENT_PROP_NAME,
-                            fileContent);
+                    synchronized (cd) {
+                        cd.customProperties.put(
+                                ComputeConstants.COMPUTE_CONFIG_CONTENT_PROP_NAME, fileContent);
+                    }
                 }
             } catch (IOException e) {
 
             }
-            callback.accept(cd, null);
         }
+        callback.accept(cd, null);
     }
 
     private static String loadResource(String fileName) throws IOException {
@@ -11,7 +11,11 @@
 
 package com.vmware.admiral.request.compute.enhancer;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.BiConsumer;
 
 import com.vmware.photon.controller.model.resources.ComputeDescriptionService.ComputeDescription;
@@ -19,21 +23,27 @@ import com.vmware.xenon.common.StatefulService;
 
 /**
  * Composition of all Compute description enhancers used to enhance the ComputeDescription during
- * request.
+ * request. The enhancers are run in groups, one group after the other. The enhancers of a group
+ * touch disjoint fields of the description and are run in parallel, so they update the
+ * description while holding its lock.
  */
 public class ComputeDescriptionEnhancers implements ComputeDescriptionEnhancer {
 
-    private final LinkedList<ComputeDescriptionEnhancer> enhancers;
+    private final List<List<ComputeDescriptionEnhancer>> groups;
 
     private ComputeDescriptionEnhancers() {
-        this.enhancers = new LinkedList<>();
+        this.groups = new ArrayList<>();
     }
 
     private void initialize(StatefulService sender) {
-        this.enhancers.add(new EnvironmentComputeDescriptionEnhancer(sender));
-        this.enhancers.add(new CloudConfigComputeDescriptionEnhancer());
-        this.enhancers.add(new GuestCredentialsComputeDescriptionEnhancer(sender));
-        this.enhancers.add(new ServerCertComputeDescriptionEnhancer(sender));
+        // the guest credentials link and the cloud config content used by the next group
+        this.groups.add(Arrays.asList(
+                new EnvironmentComputeDescriptionEnhancer(sender),
+                new CloudConfigComputeDescriptionEnhancer()));
+        // each replaces its own placeholder in the cloud config content
+        this.groups.add(Arrays.asList(
+                new GuestCredentialsComputeDescriptionEnhancer(sender),
+                new ServerCertComputeDescriptionEnhancer(sender)));
     }
 
     public static ComputeDescriptionEnhancers build(StatefulService sender) {
@@ -45,19 +55,34 @@ public class ComputeDescriptionEnhancers implements ComputeDescriptionEnhancer {
     @Override
     public void enhance(EnhanceContext context, ComputeDescription resource,
             BiConsumer<ComputeDescription, Throwable> callback) {
-        ComputeDescriptionEnhancer enhancer = enhancers.poll();
+        enhance(context, resource, 0, callback);
+    }
 
-        if (enhancer == null) {
+    private void enhance(EnhanceContext context, ComputeDescription resource, int groupIndex,
+            BiConsumer<ComputeDescription, Throwable> callback) {
+        if (groupIndex >= groups.size()) {
             callback.accept(resource, null);
             return;
         }
 
-        enhancer.enhance(context, resource, (cd, t) -> {
-            if (t != null) {
-                callback.accept(cd, t);
-                return;
-            }
-            enhance(context, cd, callback);
-        });
+        List<ComputeDescriptionEnhancer> group = groups.get(groupIndex);
+        AtomicInteger remaining = new AtomicInteger(group.size());
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        for (ComputeDescriptionEnhancer enhancer : group) {
+            enhancer.enhance(context, resource, (cd, t) -> {
+                if (t != null) {
+                    failure.compareAndSet(null, t);
+                }
+                if (remaining.decrementAndGet() != 0) {
+                    return;
+                }
+
+                if (failure.get() != null) {
+                    callback.accept(resource, failure.get());
+                    return;
+                }
+                enhance(context, resource, groupIndex + 1, callback);
+            });
+        }
     }
 }
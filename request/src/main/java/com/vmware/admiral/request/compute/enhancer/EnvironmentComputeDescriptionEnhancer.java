@@ -39,47 +39,54 @@ public class EnvironmentComputeDescriptionEnhancer implements ComputeDescription
                 return;
             }
 
-            applyInstanceType(cd, env);
-
-            if (cd.dataStoreId == null) {
-                cd.dataStoreId = env.getStringMappingValue("placement", "dataStoreId");
+            Throwable failure;
+            synchronized (cd) {
+                failure = applyEnvironment(context, cd, env);
             }
+            callback.accept(cd, failure);
+        });
+    }
 
-            if (cd.authCredentialsLink == null) {
-                cd.authCredentialsLink = env.getStringMappingValue("authentication",
-                        "guestAuthLink");
-            }
-            if (cd.zoneId == null) {
-                cd.zoneId = env.getStringMappingValue("placement", "zoneId");
-            }
-            if (cd.zoneId == null) {
-                cd.zoneId = context.endpointComputeDescription.zoneId;
-            }
+    private Throwable applyEnvironment(EnhanceContext context, ComputeDescription cd,
+            EnvironmentMappingState env) {
+        applyInstanceType(cd, env);
 
-            String absImageId = context.imageType;
-            if (absImageId != null) {
-                String imageId = env.getStringMappingValue("imageType", absImageId);
-                if (imageId == null) {
-                    imageId = absImageId;
-                }
-                try {
-                    URI imageUri = URI.create(imageId);
-                    String scheme = imageUri.getScheme();
-                    if (scheme != null
-                            && (scheme.startsWith("http") || scheme.startsWith("file"))) {
-                        cd.customProperties.put("ova.uri", imageUri.toString());
-                    } else {
-                        cd.customProperties.put(ComputeConstants.CUSTOM_PROP_IMAGE_ID_NAME,
-                                imageId);
-                    }
-                } catch (Throwable t) {
-                    callback.accept(cd, t);
-                    return;
+        if (cd.dataStoreId == null) {
+            cd.dataStoreId = env.getStringMappingValue("placement", "dataStoreId");
+        }
+
+        if (cd.authCredentialsLink == null) {
+            cd.authCredentialsLink = env.getStringMappingValue("authentication",
+                    "guestAuthLink");
+        }
+        if (cd.zoneId == null) {
+            cd.zoneId = env.getStringMappingValue("placement", "zoneId");
+        }
+        if (cd.zoneId == null) {
+            cd.zoneId = context.endpointComputeDescription.zoneId;
+        }
+
+        String absImageId = context.imageType;
+        if (absImageId != null) {
+            String imageId = env.getStringMappingValue("imageType", absImageId);
+            if (imageId == null) {
+                imageId = absImageId;
+            }
+            try {
+                URI imageUri = URI.create(imageId);
+                String scheme = imageUri.getScheme();
+                if (scheme != null
+                        && (scheme.startsWith("http") || scheme.startsWith("file"))) {
+                    cd.customProperties.put("ova.uri", imageUri.toString());
+                } else {
+                    cd.customProperties.put(ComputeConstants.CUSTOM_PROP_IMAGE_ID_NAME,
+                            imageId);
                 }
+            } catch (Throwable t) {
+                return t;
             }
-            callback.accept(cd, null);
-        });
-
+        }
+        return null;
     }
 
     private void applyInstanceType(ComputeDescription cd, EnvironmentMappingState env) {
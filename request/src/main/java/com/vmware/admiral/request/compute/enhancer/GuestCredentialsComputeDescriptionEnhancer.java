@@ -22,6 +22,7 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import com.vmware.admiral.common.AuthCredentialsType;
+import com.vmware.admiral.common.util.KeyPairPool;
 import com.vmware.admiral.common.util.KeyUtil;
 import com.vmware.admiral.compute.ComputeConstants;
 import com.vmware.photon.controller.model.resources.ComputeDescriptionService.ComputeDescription;
@@ -51,28 +52,33 @@ public class GuestCredentialsComputeDescriptionEnhancer implements ComputeDescri
                 callback.accept(cd, t);
                 return;
             }
-            cd.authCredentialsLink = c.documentSelfLink;
-            String fileContent = getCustomProperty(cd,
-                    ComputeConstants.COMPUTE_CONFIG_CONTENT_PROP_NAME);
-            if (fileContent == null) {
-                callback.accept(cd, null);
-                return;
-            }
-
-            Matcher matcher = SSH_KEY_PLACEHOLDER.matcher(fileContent);
-            if (matcher.find()) {
-                String sshKey = getSshKey(cd, c);
-                if (sshKey != null && !sshKey.isEmpty()) {
-                    cd.customProperties.put(ComputeConstants.COMPUTE_CONFIG_CONTENT_PROP_NAME,
-                            matcher.replaceFirst(sshKey));
-                    cd.customProperties.put(ComputeConstants.CUSTOM_PROP_SSH_AUTHORIZED_KEY_NAME,
-                            sshKey);
-                }
+            synchronized (cd) {
+                applyCredentials(cd, c);
             }
             callback.accept(cd, null);
         });
     }
 
+    private void applyCredentials(ComputeDescription cd, AuthCredentialsServiceState c) {
+        cd.authCredentialsLink = c.documentSelfLink;
+        String fileContent = getCustomProperty(cd,
+                ComputeConstants.COMPUTE_CONFIG_CONTENT_PROP_NAME);
+        if (fileContent == null) {
+            return;
+        }
+
+        Matcher matcher = SSH_KEY_PLACEHOLDER.matcher(fileContent);
+        if (matcher.find()) {
+            String sshKey = getSshKey(cd, c);
+            if (sshKey != null && !sshKey.isEmpty()) {
+                cd.customProperties.put(ComputeConstants.COMPUTE_CONFIG_CONTENT_PROP_NAME,
+                        matcher.replaceFirst(sshKey));
+                cd.customProperties.put(ComputeConstants.CUSTOM_PROP_SSH_AUTHORIZED_KEY_NAME,
+                        sshKey);
+            }
+        }
+    }
+
     private String getSshKey(ComputeDescription cd, AuthCredentialsServiceState c) {
         String sshKey = getCustomProperty(cd, ComputeConstants.CUSTOM_PROP_SSH_AUTHORIZED_KEY_NAME);
         if (sshKey == null || sshKey.isEmpty()) {
@@ -85,7 +91,7 @@ public class GuestCredentialsComputeDescriptionEnhancer implements ComputeDescri
     private void createClientCredentialsIfNeeded(ComputeDescription cd,
             BiConsumer<AuthCredentialsServiceState, Throwable> callback) {
         if (cd.authCredentialsLink == null) {
-            KeyPair keyPair = KeyUtil.generateRSAKeyPair();
+            KeyPair keyPair = KeyPairPool.getDefault().take();
 
             AuthCredentialsServiceState credentialsState = new AuthCredentialsServiceState();
             credentialsState.type = AuthCredentialsType.PublicKey.name();
@@ -30,6 +30,7 @@ import com.fasterxml.jackson.dataformat.yaml.YAMLGenerator;
 import com.vmware.admiral.common.ManagementUriParts;
 import com.vmware.admiral.common.util.CertificateUtil;
 import com.vmware.admiral.common.util.CertificateUtil.CertChainKeyPair;
+import com.vmware.admiral.common.util.KeyPairPool;
 import com.vmware.admiral.common.util.KeyUtil;
 import com.vmware.admiral.compute.ComputeConstants;
 import com.vmware.photon.controller.model.resources.ComputeDescriptionService.ComputeDescription;
@@ -62,8 +63,11 @@ public class ServerCertComputeDescriptionEnhancer implements ComputeDescriptionE
     @Override
     public void enhance(EnhanceContext context, ComputeDescription cd,
             BiConsumer<ComputeDescription, Throwable> callback) {
-        String fileContent = getCustomProperty(cd,
-                ComputeConstants.COMPUTE_CONFIG_CONTENT_PROP_NAME);
+        String fileContent;
+        synchronized (cd) {
+            fileContent = getCustomProperty(cd,
+                    ComputeConstants.COMPUTE_CONFIG_CONTENT_PROP_NAME);
+        }
         if (fileContent == null) {
             callback.accept(cd, null);
             return;
@@ -87,12 +91,21 @@ public class ServerCertComputeDescriptionEnhancer implements ComputeDescriptionE
                         }
                         AuthCredentialsServiceState caCred = o
                                 .getBody(AuthCredentialsServiceState.class);
-                        String content = generateAndReplaceServerCerts(matcher, fileContent,
-                                caCred);
-                        cd.customProperties.put(ComputeConstants.COMPUTE_CONFIG_CONTENT_PROP_NAME,
-                                content);
-                        cd.customProperties.put(ComputeConstants.HOST_AUTH_CREDENTIALS_PROP_NAME,
-                                ManagementUriParts.AUTH_CREDENTIALS_CLIENT_LINK);
+                        String serverCerts = generateServerCerts(caCred);
+                        synchronized (cd) {
+                            // the content could be changed by the enhancers run in parallel
+                            String content = getCustomProperty(cd,
+                                    ComputeConstants.COMPUTE_CONFIG_CONTENT_PROP_NAME);
+                            if (serverCerts != null) {
+                                content = CERTS_PLACEHOLDER.matcher(content)
+                                        .replaceFirst(serverCerts);
+                            }
+                            cd.customProperties.put(
+                                    ComputeConstants.COMPUTE_CONFIG_CONTENT_PROP_NAME, content);
+                            cd.customProperties.put(
+                                    ComputeConstants.HOST_AUTH_CREDENTIALS_PROP_NAME,
+                                    ManagementUriParts.AUTH_CREDENTIALS_CLIENT_LINK);
+                        }
                         callback.accept(cd, null);
                     })
                     .sendWith(sender);
@@ -101,13 +114,11 @@ public class ServerCertComputeDescriptionEnhancer implements ComputeDescriptionE
         }
     }
 
-    private String generateAndReplaceServerCerts(Matcher matcher, String fileContent,
-            AuthCredentialsServiceState cred) {
-
+    private String generateServerCerts(AuthCredentialsServiceState cred) {
         KeyPair caKeyPair = CertificateUtil.createKeyPair(cred.privateKey);
         X509Certificate caCertificate = CertificateUtil.createCertificate(cred.publicKey);
         CertChainKeyPair signedForServer = CertificateUtil.generateSigned("computeServer",
-                caCertificate, caKeyPair.getPrivate());
+                caCertificate, caKeyPair.getPrivate(), KeyPairPool.getDefault().take());
         try {
             ArrayList<WriteFiles> list = new ArrayList<>();
             list.add(new WriteFiles("/etc/docker/ca.pem", "0644", cred.publicKey));
@@ -118,15 +129,12 @@ public class ServerCertComputeDescriptionEnhancer implements ComputeDescriptionE
             Map<String, Object> writeFiles = new LinkedHashMap<>();
             writeFiles.put("write_files", list);
 
-            String value = objectMapper.writeValueAsString(writeFiles);
-
-            fileContent = matcher.replaceFirst(value);
-
+            return objectMapper.writeValueAsString(writeFiles);
         } catch (Exception e) {
             sender.logInfo(() -> String.format("Error writing server certs in cloud-init file",
                     Utils.toString(e)));
         }
-        return fileContent;
+        return null;
     }
 
     @SuppressWarnings("unused")
@@ -41,6 +41,7 @@ import com.vmware.admiral.compute.container.PortBinding;
 import com.vmware.admiral.compute.container.ServiceNetwork;
 import com.vmware.admiral.compute.container.SystemContainerDescriptions;
 import com.vmware.admiral.request.ContainerAllocationTaskService.ContainerAllocationTaskState;
+import com.vmware.admiral.request.PlacementHostSelectionTaskService.PlacementHostSelectionTaskState;
 import com.vmware.admiral.request.RequestBrokerService.RequestBrokerState;
 import com.vmware.admiral.request.RequestStatusService.RequestStatus;
 import com.vmware.admiral.request.allocation.filter.HostSelectionFilter.HostSelection;
@@ -53,6 +54,8 @@ import com.vmware.photon.controller.model.resources.ComputeDescriptionService.Co
 import com.vmware.photon.controller.model.resources.ComputeDescriptionService.ComputeDescription.ComputeType;
 import com.vmware.photon.controller.model.resources.ComputeService.ComputeState;
 import com.vmware.xenon.common.Service.Action;
+import com.vmware.xenon.common.TaskState;
+import com.vmware.xenon.common.TaskState.TaskStage;
 import com.vmware.xenon.common.UriUtils;
 
 public class ContainerAllocationTaskServiceTest extends RequestBaseTest {
@@ -502,6 +505,34 @@ public class ContainerAllocationTaskServiceTest extends RequestBaseTest {
         waitForContainerPowerState(PowerState.RUNNING, containerState.documentSelfLink);
     }
 
+    @Test
+    public void testAllocationTaskRestartedAfterResourcesNaming() throws Throwable {
+        // the state of a task started again from the index after a host restart: the name
+        // prefix and the placement tasks are not persisted and were lost with the host
+        ContainerAllocationTaskState allocationTask = createContainerAllocationTask();
+        allocationTask.documentSelfLink = UUID.randomUUID().toString();
+        allocationTask.taskInfo = new TaskState();
+        allocationTask.taskInfo.stage = TaskStage.STARTED;
+        allocationTask.taskSubStage = ContainerAllocationTaskState.SubStage.CONTEXT_PREPARED;
+        allocationTask.descName = containerDesc.name;
+        allocationTask.customProperties.put(RequestUtils.FIELD_NAME_CONTEXT_ID_KEY,
+                allocationTask.documentSelfLink);
+
+        allocationTask = allocate(allocationTask);
+
+        ContainerState containerState = getDocument(ContainerState.class,
+                allocationTask.resourceLinks.iterator().next());
+        assertTrue(containerState.names.get(0).startsWith(containerDesc.name));
+        assertNotNull(containerState.parentLink);
+
+        // the tasks are created again by the restarted task
+        PlacementHostSelectionTaskState placementTask = getDocument(
+                PlacementHostSelectionTaskState.class, UriUtils.buildUriPath(
+                        PlacementHostSelectionTaskService.FACTORY_LINK,
+                        allocationTask.documentSelfLink));
+        assertEquals(TaskStage.FINISHED, placementTask.taskInfo.stage);
+    }
+
     private ContainerAllocationTaskState allocate(ContainerAllocationTaskState allocationTask)
             throws Throwable {
         allocationTask = startAllocationTask(allocationTask);
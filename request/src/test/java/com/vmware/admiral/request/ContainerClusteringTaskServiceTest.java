@@ -23,6 +23,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
@@ -421,6 +422,113 @@ public class ContainerClusteringTaskServiceTest extends RequestBaseTest {
         assertEquals(5, placementState.allocatedInstancesCount);
     }
 
+    @Test
+    public void testContainerClusteringTaskServiceAddContainersInWaves() throws Throwable {
+        for (int i = 0; i < 4; i++) {
+            createDockerHost(createDockerHostDescription(), createResourcePool(),
+                    (long) Integer.MAX_VALUE, true);
+        }
+
+        request = startRequest(request);
+        RequestBrokerState initialState = waitForRequestToComplete(request);
+        assertEquals(3, MockDockerAdapterService.getNumberOfContainers());
+
+        int waveSize = ClusteringTaskService.WAVE_SIZE;
+        setFinalStatic(ClusteringTaskService.class.getDeclaredField("WAVE_SIZE"), 2);
+        try {
+            // 7 new containers, provisioned in 4 waves
+            RequestBrokerState day2OperationClustering = TestRequestStateFactory
+                    .createRequestState();
+            day2OperationClustering.resourceDescriptionLink = initialState.resourceDescriptionLink;
+            day2OperationClustering.tenantLinks = groupPlacementState.tenantLinks;
+            day2OperationClustering.operation = RequestBrokerState.CLUSTER_RESOURCE_OPERATION;
+            day2OperationClustering.resourceCount = 10; // placement size is 10
+            day2OperationClustering.documentDescription = containerDesc.documentDescription;
+            day2OperationClustering.customProperties = initialState.customProperties;
+
+            long startTime = System.nanoTime();
+            day2OperationClustering = startRequest(day2OperationClustering);
+
+            waitFor(() -> MockDockerAdapterService.getNumberOfContainers() > 3);
+            long firstInstanceMillis = TimeUnit.NANOSECONDS
+                    .toMillis(System.nanoTime() - startTime);
+
+            String containerClusteringTaskLink = UriUtils.buildUriPath(
+                    ClusteringTaskService.FACTORY_LINK,
+                    extractId(day2OperationClustering.documentSelfLink));
+            ClusteringTaskState clusteringState = waitForTaskSuccess(
+                    containerClusteringTaskLink, ClusteringTaskState.class);
+            long totalMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+            host.log("First new container after %d ms, all after %d ms", firstInstanceMillis,
+                    totalMillis);
+
+            assertEquals(4, clusteringState.wavesCount);
+            assertEquals(4, clusteringState.wavesCompleted);
+            assertEquals(0, clusteringState.wavesFailed);
+
+            waitForRequestToComplete(day2OperationClustering);
+            assertEquals(10, MockDockerAdapterService.getNumberOfContainers());
+
+            GroupResourcePlacementService.GroupResourcePlacementPoolState placementState =
+                    getDocument(GroupResourcePlacementService.GroupResourcePlacementPoolState.class,
+                            groupPlacementState.documentSelfLink);
+            assertEquals(0, placementState.availableInstancesCount);
+            assertEquals(10, placementState.allocatedInstancesCount);
+        } finally {
+            setFinalStatic(ClusteringTaskService.class.getDeclaredField("WAVE_SIZE"), waveSize);
+        }
+    }
+
+    @Test
+    public void testContainerClusteringTaskServiceWaveFailed() throws Throwable {
+        for (int i = 0; i < 4; i++) {
+            createDockerHost(createDockerHostDescription(), createResourcePool(),
+                    (long) Integer.MAX_VALUE, true);
+        }
+
+        request = startRequest(request);
+        RequestBrokerState initialState = waitForRequestToComplete(request);
+        assertEquals(3, MockDockerAdapterService.getNumberOfContainers());
+
+        int waveSize = ClusteringTaskService.WAVE_SIZE;
+        int wavesInProgress = ClusteringTaskService.WAVES_IN_PROGRESS;
+        setFinalStatic(ClusteringTaskService.class.getDeclaredField("WAVE_SIZE"), 4);
+        setFinalStatic(ClusteringTaskService.class.getDeclaredField("WAVES_IN_PROGRESS"), 1);
+        try {
+            // 16 new containers in 4 waves, only 7 fit in the placement so the second wave fails
+            RequestBrokerState day2OperationClustering = TestRequestStateFactory
+                    .createRequestState();
+            day2OperationClustering.resourceDescriptionLink = initialState.resourceDescriptionLink;
+            day2OperationClustering.tenantLinks = groupPlacementState.tenantLinks;
+            day2OperationClustering.operation = RequestBrokerState.CLUSTER_RESOURCE_OPERATION;
+            day2OperationClustering.resourceCount = 19; // placement size is 10
+            day2OperationClustering.documentDescription = containerDesc.documentDescription;
+            day2OperationClustering.customProperties = initialState.customProperties;
+
+            day2OperationClustering = startRequest(day2OperationClustering);
+
+            String containerClusteringTaskLink = UriUtils.buildUriPath(
+                    ClusteringTaskService.FACTORY_LINK,
+                    extractId(day2OperationClustering.documentSelfLink));
+            ClusteringTaskState clusteringState = waitForTaskError(
+                    containerClusteringTaskLink, ClusteringTaskState.class);
+
+            // no wave is submitted after the failed one
+            assertEquals(4, clusteringState.wavesCount);
+            assertEquals(2, clusteringState.wavesSubmitted);
+            assertEquals(1, clusteringState.wavesCompleted);
+            assertEquals(1, clusteringState.wavesFailed);
+            assertNotNull(clusteringState.taskInfo.failure);
+
+            waitForRequestToFail(day2OperationClustering);
+            assertEquals(7, MockDockerAdapterService.getNumberOfContainers());
+        } finally {
+            setFinalStatic(ClusteringTaskService.class.getDeclaredField("WAVE_SIZE"), waveSize);
+            setFinalStatic(ClusteringTaskService.class.getDeclaredField("WAVES_IN_PROGRESS"),
+                    wavesInProgress);
+        }
+    }
+
     @Test
     public void testContainerClusteringTaskAddContainersServiceInsufficientPlacement()
             throws Throwable {
@@ -21,29 +21,43 @@ import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.Test;
 
+import com.vmware.admiral.adapter.common.AdapterRequest;
 import com.vmware.admiral.adapter.common.ContainerOperationType;
 import com.vmware.admiral.common.util.QueryUtil;
 import com.vmware.admiral.compute.ResourceType;
 import com.vmware.admiral.compute.container.CompositeComponentService.CompositeComponent;
 import com.vmware.admiral.compute.container.CompositeDescriptionService;
 import com.vmware.admiral.compute.container.CompositeDescriptionService.CompositeDescription;
+import com.vmware.admiral.compute.container.ContainerFactoryService;
 import com.vmware.admiral.compute.container.ContainerService.ContainerState;
 import com.vmware.admiral.compute.container.ContainerService.ContainerState.PowerState;
 import com.vmware.admiral.compute.container.GroupResourcePlacementService.GroupResourcePlacementState;
+import com.vmware.admiral.compute.container.maintenance.ContainerStats;
 import com.vmware.admiral.request.ContainerAllocationTaskService.ContainerAllocationTaskState;
 import com.vmware.admiral.request.ContainerOperationTaskService.ContainerOperationTaskState;
 import com.vmware.admiral.request.ContainerRemovalTaskService.ContainerRemovalTaskState;
 import com.vmware.admiral.request.RequestBrokerService.RequestBrokerState;
 import com.vmware.admiral.request.util.TestRequestStateFactory;
 import com.vmware.admiral.request.utils.RequestUtils;
+import com.vmware.admiral.service.common.ServiceTaskCallback;
+import com.vmware.admiral.service.common.ServiceTaskCallback.ServiceTaskCallbackResponse;
 import com.vmware.admiral.service.test.MockDockerAdapterService;
 import com.vmware.photon.controller.model.resources.ComputeService;
 import com.vmware.photon.controller.model.resources.ComputeService.ComputeState;
 import com.vmware.xenon.common.Operation;
 import com.vmware.xenon.common.ServiceDocument;
+import com.vmware.xenon.common.ServiceHost;
+import com.vmware.xenon.common.ServiceStats;
+import com.vmware.xenon.common.ServiceStats.ServiceStat;
+import com.vmware.xenon.common.StatelessService;
 import com.vmware.xenon.common.UriUtils;
 import com.vmware.xenon.common.Utils;
 import com.vmware.xenon.services.common.QueryTask;
@@ -248,6 +262,122 @@ public class ContainerOperationTaskServiceTest extends RequestBaseTest {
         assertEquals(groupResourcePlacement.allocatedInstancesCount, 0);
     }
 
+    @Test
+    public void testStopContainersOnMultipleHosts() throws Throwable {
+        int hostCount = 10;
+        int containerCount = 300;
+
+        PipelineDockerAdapterService adapter = new PipelineDockerAdapterService();
+        host.startService(Operation.createPost(UriUtils.buildUri(host,
+                PipelineDockerAdapterService.SELF_LINK)), adapter);
+        waitForServiceAvailability(PipelineDockerAdapterService.SELF_LINK);
+
+        List<String> containerLinks = createContainersOnHosts(adapter, hostCount,
+                containerCount);
+
+        ContainerOperationTaskState operationTask = new ContainerOperationTaskState();
+        operationTask.operation = ContainerOperationType.STOP.id;
+        operationTask.resourceLinks = new HashSet<>(containerLinks);
+        operationTask.serviceTaskCallback = ServiceTaskCallback.createEmpty();
+
+        long startTime = System.nanoTime();
+        operationTask = doPost(operationTask, ContainerOperationTaskFactoryService.SELF_LINK);
+        waitForTaskSuccess(operationTask.documentSelfLink, ContainerOperationTaskState.class);
+        long duration = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+
+        host.log("Stopped %d containers on %d hosts in %d ms with %d adapter requests, "
+                + "%d at most in parallel", containerCount, hostCount, duration,
+                adapter.completedCount.get(), adapter.maxInProgressCount.get());
+
+        // one adapter request per container, bounded per host but parallel over the hosts
+        assertEquals(containerCount, adapter.requestCount.get());
+        assertEquals(containerCount, adapter.completedCount.get());
+        assertTrue(adapter.maxHostInProgressCount.get()
+                <= ContainerOperationTaskService.HOST_PIPELINE_SIZE);
+        assertTrue(adapter.maxInProgressCount.get()
+                > ContainerOperationTaskService.HOST_PIPELINE_SIZE);
+
+        waitForContainerPowerState(PowerState.STOPPED, containerLinks);
+
+        // a single stats PATCH per container, sent once its host completed
+        int statsPatchCount = 0;
+        for (String containerLink : containerLinks) {
+            ServiceStats stats = getDocument(ServiceStats.class, UriUtils.buildUriPath(
+                    containerLink, ServiceHost.SERVICE_URI_SUFFIX_STATS));
+            ServiceStat stopped = stats.entries.get(ContainerStats.FIELD_NAME_CONTAINER_STOPPED);
+            assertNotNull(containerLink, stopped);
+            assertEquals(1, stopped.latestValue, 0);
+            statsPatchCount += stopped.version;
+        }
+        assertEquals(containerCount, statsPatchCount);
+    }
+
+    @Test
+    public void testStopContainersAfterTaskRestart() throws Throwable {
+        int hostCount = 10;
+        int containerCount = 200;
+
+        PipelineDockerAdapterService adapter = new PipelineDockerAdapterService();
+        host.startService(Operation.createPost(UriUtils.buildUri(host,
+                PipelineDockerAdapterService.SELF_LINK)), adapter);
+        waitForServiceAvailability(PipelineDockerAdapterService.SELF_LINK);
+        // the operations after the first half are lost, as with the node of the task
+        adapter.holdAfter = containerCount / 2;
+
+        List<String> containerLinks = createContainersOnHosts(adapter, hostCount,
+                containerCount);
+
+        ContainerOperationTaskState operationTask = new ContainerOperationTaskState();
+        operationTask.operation = ContainerOperationType.STOP.id;
+        operationTask.resourceLinks = new HashSet<>(containerLinks);
+        operationTask.serviceTaskCallback = ServiceTaskCallback.createEmpty();
+        operationTask = doPost(operationTask, ContainerOperationTaskFactoryService.SELF_LINK);
+        String operationTaskLink = operationTask.documentSelfLink;
+
+        waitFor(() -> adapter.heldCount.get() > 0 && adapter.inProgressCount.get() == 0);
+        ContainerOperationTaskState state = getDocument(ContainerOperationTaskState.class,
+                operationTaskLink);
+        assertEquals(ContainerOperationTaskState.SubStage.INSTANCES_PROCESSING,
+                state.taskSubStage);
+
+        // restart the task from its persisted state, without the operation plan in memory
+        ContainerOperationTaskService service = new ContainerOperationTaskService();
+        service.setSelfLink(operationTaskLink);
+        host.stopService(service);
+        adapter.holdAfter = Integer.MAX_VALUE;
+        host.startService(Operation.createPost(UriUtils.buildUri(host, operationTaskLink))
+                .setBody(state), new ContainerOperationTaskService());
+
+        waitForTaskSuccess(operationTaskLink, ContainerOperationTaskState.class);
+        host.log("Stopped %d containers with %d adapter requests, %d lost with the restart",
+                containerCount, adapter.completedCount.get(), adapter.heldCount.get());
+
+        // the batches in progress are sent again, the completed ones are not
+        assertTrue(adapter.completedCount.get() >= containerCount);
+        assertTrue(adapter.completedCount.get() <= containerCount
+                + hostCount * ContainerOperationTaskService.HOST_PIPELINE_SIZE);
+        waitForContainerPowerState(PowerState.STOPPED, containerLinks);
+    }
+
+    private List<String> createContainersOnHosts(PipelineDockerAdapterService adapter,
+            int hostCount, int containerCount) throws Throwable {
+        List<String> containerLinks = new ArrayList<>(containerCount);
+        for (int i = 0; i < containerCount; i++) {
+            ContainerState container = TestRequestStateFactory.createContainer();
+            container.id = UUID.randomUUID().toString();
+            container.parentLink = UriUtils.buildUriPath(ComputeService.FACTORY_LINK,
+                    "host-" + (i % hostCount));
+            container.descriptionLink = containerDesc.documentSelfLink;
+            container.adapterManagementReference = UriUtils.buildUri(host,
+                    PipelineDockerAdapterService.SELF_LINK);
+            container.powerState = PowerState.RUNNING;
+            container = doPost(container, ContainerFactoryService.SELF_LINK);
+            adapter.hostLinks.put(container.documentSelfLink, container.parentLink);
+            containerLinks.add(container.documentSelfLink);
+        }
+        return containerLinks;
+    }
+
     private Collection<ContainerState> findResources(Class<? extends ServiceDocument> type,
             Collection<String> resourceLinks) throws Throwable {
         QueryTask query = QueryUtil.buildQuery(type, true);
@@ -314,4 +444,62 @@ public class ContainerOperationTaskServiceTest extends RequestBaseTest {
             return true;
         });
     }
-}
\ No newline at end of file
+
+    /**
+     * Stops the containers after a delay, counting the requests in progress overall and per
+     * container host. The requests after a given number are never completed.
+     */
+    private static class PipelineDockerAdapterService extends StatelessService {
+        static final String SELF_LINK = "/test/pipeline-operation-docker-adapter";
+        static final long OPERATION_DELAY_MILLIS = 20;
+
+        final Map<String, String> hostLinks = new ConcurrentHashMap<>();
+        final Map<String, AtomicInteger> inProgressCounts = new ConcurrentHashMap<>();
+        final AtomicInteger inProgressCount = new AtomicInteger();
+        final AtomicInteger maxInProgressCount = new AtomicInteger();
+        final AtomicInteger maxHostInProgressCount = new AtomicInteger();
+        final AtomicInteger requestCount = new AtomicInteger();
+        final AtomicInteger completedCount = new AtomicInteger();
+        final AtomicInteger heldCount = new AtomicInteger();
+        volatile int holdAfter = Integer.MAX_VALUE;
+
+        @Override
+        public void handlePatch(Operation patch) {
+            AdapterRequest request = patch.getBody(AdapterRequest.class);
+            patch.setStatusCode(Operation.STATUS_CODE_ACCEPTED).complete();
+
+            if (!ContainerOperationType.STOP.id.equals(request.operationTypeId)) {
+                return;
+            }
+            if (requestCount.incrementAndGet() > holdAfter) {
+                heldCount.incrementAndGet();
+                return;
+            }
+
+            AtomicInteger hostInProgressCount = inProgressCounts.computeIfAbsent(
+                    hostLinks.get(request.resourceReference.getPath()),
+                    (k) -> new AtomicInteger());
+            maxHostInProgressCount.accumulateAndGet(hostInProgressCount.incrementAndGet(),
+                    Math::max);
+            maxInProgressCount.accumulateAndGet(inProgressCount.incrementAndGet(), Math::max);
+
+            getHost().schedule(() -> {
+                ContainerState containerState = new ContainerState();
+                containerState.powerState = PowerState.STOPPED;
+                sendRequest(Operation.createPatch(request.resourceReference)
+                        .setBody(containerState)
+                        .setCompletion((o, e) -> {
+                            hostInProgressCount.decrementAndGet();
+                            inProgressCount.decrementAndGet();
+                            completedCount.incrementAndGet();
+                            ServiceTaskCallbackResponse response = e == null
+                                    ? request.serviceTaskCallback.getFinishedResponse()
+                                    : request.serviceTaskCallback.getFailedResponse(e);
+                            sendRequest(Operation.createPatch(UriUtils.buildUri(
+                                    request.serviceTaskCallback.serviceSelfLink))
+                                    .setBody(response));
+                        }));
+            }, OPERATION_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+}
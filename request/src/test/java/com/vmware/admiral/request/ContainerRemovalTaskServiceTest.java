@@ -25,10 +25,16 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.Before;
 import org.junit.Test;
 
+import com.vmware.admiral.adapter.common.AdapterRequest;
 import com.vmware.admiral.adapter.common.ContainerOperationType;
 import com.vmware.admiral.compute.ContainerHostService;
 import com.vmware.admiral.compute.ResourceType;
@@ -45,9 +51,13 @@ import com.vmware.admiral.request.ContainerRemovalTaskService.ContainerRemovalTa
 import com.vmware.admiral.request.RequestBrokerService.RequestBrokerState;
 import com.vmware.admiral.request.util.TestRequestStateFactory;
 import com.vmware.admiral.request.utils.RequestUtils;
+import com.vmware.admiral.service.common.ServiceTaskCallback;
 import com.vmware.admiral.service.test.MockDockerAdapterService;
+import com.vmware.photon.controller.model.resources.ComputeService;
 import com.vmware.photon.controller.model.resources.ComputeService.ComputeState;
+import com.vmware.xenon.common.Operation;
 import com.vmware.xenon.common.Service.Action;
+import com.vmware.xenon.common.StatelessService;
 import com.vmware.xenon.common.UriUtils;
 
 public class ContainerRemovalTaskServiceTest extends RequestBaseTest {
@@ -642,6 +652,124 @@ public class ContainerRemovalTaskServiceTest extends RequestBaseTest {
         assertNull(compositeComp);
     }
 
+    @Test
+    public void testRemoveContainersOnMultipleHosts() throws Throwable {
+        int hostCount = 20;
+        int containerCount = 500;
+
+        PipelineDockerAdapterService adapter = new PipelineDockerAdapterService();
+        host.startService(Operation.createPost(UriUtils.buildUri(host,
+                PipelineDockerAdapterService.SELF_LINK)), adapter);
+        waitForServiceAvailability(PipelineDockerAdapterService.SELF_LINK);
+
+        CompositeComponent component = new CompositeComponent();
+        component.name = "test-name";
+        component = doPost(component, CompositeComponentFactoryService.SELF_LINK);
+
+        List<String> containerLinks = createContainersOnHosts(adapter, component, hostCount,
+                containerCount);
+
+        ContainerRemovalTaskState removalTask = new ContainerRemovalTaskState();
+        removalTask.resourceLinks = new HashSet<>(containerLinks);
+        removalTask.serviceTaskCallback = ServiceTaskCallback.createEmpty();
+        removalTask.skipReleaseResourcePlacement = true;
+
+        long startTime = System.nanoTime();
+        removalTask = doPost(removalTask, ContainerRemovalTaskFactoryService.SELF_LINK);
+        waitForTaskSuccess(removalTask.documentSelfLink, ContainerRemovalTaskState.class);
+        long duration = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+
+        host.log("Removed %d containers on %d hosts in %d ms with %d adapter requests, "
+                + "%d at most in parallel", containerCount, hostCount, duration,
+                adapter.removedCount.get(), adapter.maxRemovingCount.get());
+
+        // one adapter request per container, bounded per host but parallel over the hosts
+        assertEquals(containerCount, adapter.removedCount.get());
+        assertTrue(adapter.maxHostRemovingCount.get()
+                <= ContainerRemovalTaskService.HOST_PIPELINE_SIZE);
+        assertTrue(adapter.maxRemovingCount.get()
+                > ContainerRemovalTaskService.HOST_PIPELINE_SIZE);
+
+        assertTrue(findResourceLinks(ContainerState.class, containerLinks).isEmpty());
+
+        // the composite component is removed with its last containers
+        List<String> compositionComponentLinks = new ArrayList<>(1);
+        compositionComponentLinks.add(component.documentSelfLink);
+        waitFor(() -> findResourceLinks(CompositeComponent.class,
+                compositionComponentLinks).isEmpty());
+    }
+
+    @Test
+    public void testRemoveContainersAfterTaskRestart() throws Throwable {
+        int hostCount = 10;
+        int containerCount = 200;
+
+        PipelineDockerAdapterService adapter = new PipelineDockerAdapterService();
+        host.startService(Operation.createPost(UriUtils.buildUri(host,
+                PipelineDockerAdapterService.SELF_LINK)), adapter);
+        waitForServiceAvailability(PipelineDockerAdapterService.SELF_LINK);
+        // the removals after the first half are lost, as with the node of the task
+        adapter.holdAfter = containerCount / 2;
+
+        CompositeComponent component = new CompositeComponent();
+        component.name = "test-name";
+        component = doPost(component, CompositeComponentFactoryService.SELF_LINK);
+        List<String> containerLinks = createContainersOnHosts(adapter, component, hostCount,
+                containerCount);
+
+        ContainerRemovalTaskState removalTask = new ContainerRemovalTaskState();
+        removalTask.resourceLinks = new HashSet<>(containerLinks);
+        removalTask.serviceTaskCallback = ServiceTaskCallback.createEmpty();
+        removalTask.skipReleaseResourcePlacement = true;
+        removalTask = doPost(removalTask, ContainerRemovalTaskFactoryService.SELF_LINK);
+        String removalTaskLink = removalTask.documentSelfLink;
+
+        waitFor(() -> adapter.heldCount.get() > 0 && adapter.removingCount.get() == 0);
+        ContainerRemovalTaskState state = getDocument(ContainerRemovalTaskState.class,
+                removalTaskLink);
+        assertEquals(ContainerRemovalTaskState.SubStage.INSTANCES_REMOVING, state.taskSubStage);
+        long completed = state.hostCompletedCounts.values().stream()
+                .mapToLong(Long::longValue).sum();
+        assertTrue(completed > 0 && completed < containerCount);
+
+        // restart the task from its persisted state, without the removal plan in memory
+        ContainerRemovalTaskService service = new ContainerRemovalTaskService();
+        service.setSelfLink(removalTaskLink);
+        host.stopService(service);
+        adapter.holdAfter = Integer.MAX_VALUE;
+        host.startService(Operation.createPost(UriUtils.buildUri(host, removalTaskLink))
+                .setBody(state), new ContainerRemovalTaskService());
+
+        waitForTaskSuccess(removalTaskLink, ContainerRemovalTaskState.class);
+        host.log("Removed %d containers with %d adapter requests, %d lost with the restart",
+                containerCount, adapter.removedCount.get(), adapter.heldCount.get());
+
+        // the batches in progress are sent again, the completed ones are not
+        assertEquals(new HashSet<>(containerLinks), adapter.removedLinks);
+        assertTrue(adapter.removedCount.get() <= containerCount
+                + hostCount * ContainerRemovalTaskService.HOST_PIPELINE_SIZE);
+        assertTrue(findResourceLinks(ContainerState.class, containerLinks).isEmpty());
+    }
+
+    private List<String> createContainersOnHosts(PipelineDockerAdapterService adapter,
+            CompositeComponent component, int hostCount, int containerCount) throws Throwable {
+        List<String> containerLinks = new ArrayList<>(containerCount);
+        for (int i = 0; i < containerCount; i++) {
+            ContainerState container = TestRequestStateFactory.createContainer();
+            container.id = UUID.randomUUID().toString();
+            container.parentLink = UriUtils.buildUriPath(ComputeService.FACTORY_LINK,
+                    "host-" + (i % hostCount));
+            container.descriptionLink = containerDesc.documentSelfLink;
+            container.adapterManagementReference = UriUtils.buildUri(host,
+                    PipelineDockerAdapterService.SELF_LINK);
+            container.compositeComponentLink = component.documentSelfLink;
+            container = doPost(container, ContainerFactoryService.SELF_LINK);
+            adapter.hostLinks.put(container.documentSelfLink, container.parentLink);
+            containerLinks.add(container.documentSelfLink);
+        }
+        return containerLinks;
+    }
+
     private ContainerState createContainer(CompositeComponent component) throws Throwable {
         ContainerState container = TestRequestStateFactory.createContainer();
         container.descriptionLink = containerDesc.documentSelfLink;
@@ -651,4 +779,54 @@ public class ContainerRemovalTaskServiceTest extends RequestBaseTest {
         container = doPost(container, ContainerFactoryService.SELF_LINK);
         return container;
     }
-}
\ No newline at end of file
+
+    /**
+     * Docker adapter completing the container removals after a delay and recording the number of
+     * removals in progress per host. The removals after a given number are never completed.
+     */
+    private static class PipelineDockerAdapterService extends StatelessService {
+        static final String SELF_LINK = "/test/pipeline-docker-adapter";
+        static final long REMOVAL_DELAY_MILLIS = 20;
+
+        final Map<String, String> hostLinks = new ConcurrentHashMap<>();
+        final Map<String, AtomicInteger> removingCounts = new ConcurrentHashMap<>();
+        final AtomicInteger removingCount = new AtomicInteger();
+        final AtomicInteger maxRemovingCount = new AtomicInteger();
+        final AtomicInteger maxHostRemovingCount = new AtomicInteger();
+        final AtomicInteger removedCount = new AtomicInteger();
+        final AtomicInteger requestCount = new AtomicInteger();
+        final AtomicInteger heldCount = new AtomicInteger();
+        final Set<String> removedLinks = ConcurrentHashMap.newKeySet();
+        volatile int holdAfter = Integer.MAX_VALUE;
+
+        @Override
+        public void handlePatch(Operation patch) {
+            AdapterRequest request = patch.getBody(AdapterRequest.class);
+            patch.setStatusCode(Operation.STATUS_CODE_ACCEPTED).complete();
+
+            if (!ContainerOperationType.DELETE.id.equals(request.operationTypeId)) {
+                return;
+            }
+            if (requestCount.incrementAndGet() > holdAfter) {
+                heldCount.incrementAndGet();
+                return;
+            }
+
+            AtomicInteger hostRemovingCount = removingCounts.computeIfAbsent(
+                    hostLinks.get(request.resourceReference.getPath()),
+                    (k) -> new AtomicInteger());
+            maxHostRemovingCount.accumulateAndGet(hostRemovingCount.incrementAndGet(),
+                    Math::max);
+            maxRemovingCount.accumulateAndGet(removingCount.incrementAndGet(), Math::max);
+
+            getHost().schedule(() -> {
+                hostRemovingCount.decrementAndGet();
+                removingCount.decrementAndGet();
+                removedCount.incrementAndGet();
+                removedLinks.add(request.resourceReference.getPath());
+                sendRequest(Operation.createPatch(this, request.serviceTaskCallback.serviceSelfLink)
+                        .setBody(request.serviceTaskCallback.getFinishedResponse()));
+            }, REMOVAL_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+}
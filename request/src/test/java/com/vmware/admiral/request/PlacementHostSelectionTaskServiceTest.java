@@ -20,6 +20,7 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertThat;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.UUID;
@@ -29,6 +30,10 @@ import java.util.stream.Collectors;
 import org.junit.Before;
 import org.junit.Test;
 
+import com.vmware.admiral.adapter.common.AdapterRequest;
+import com.vmware.admiral.adapter.common.ContainerHostOperationType;
+import com.vmware.admiral.common.util.QueryUtil;
+import com.vmware.admiral.common.util.ServiceDocumentQuery;
 import com.vmware.admiral.compute.ContainerHostService;
 import com.vmware.admiral.compute.ResourceType;
 import com.vmware.admiral.compute.container.CompositeComponentFactoryService;
@@ -37,15 +42,21 @@ import com.vmware.admiral.compute.container.ContainerDescriptionService.Containe
 import com.vmware.admiral.compute.container.ContainerFactoryService;
 import com.vmware.admiral.compute.container.ContainerService.ContainerState;
 import com.vmware.admiral.request.PlacementHostSelectionTaskService.PlacementHostSelectionTaskState;
+import com.vmware.admiral.request.allocation.filter.HostSelectionFilter.HostSelection;
+import com.vmware.admiral.request.allocation.filter.ImageLocalityHostFilter;
 import com.vmware.admiral.request.util.TestRequestStateFactory;
 import com.vmware.admiral.service.common.ServiceTaskCallback;
+import com.vmware.admiral.service.test.MockDockerHostAdapterService;
 import com.vmware.photon.controller.model.resources.ComputeService;
 import com.vmware.photon.controller.model.resources.ComputeService.ComputeState;
 import com.vmware.xenon.common.Operation;
 import com.vmware.xenon.common.Service;
 import com.vmware.xenon.common.Service.Action;
+import com.vmware.xenon.common.TaskState.TaskStage;
 import com.vmware.xenon.common.UriUtils;
 import com.vmware.xenon.common.Utils;
+import com.vmware.xenon.common.test.TestContext;
+import com.vmware.xenon.services.common.QueryTask;
 
 public class PlacementHostSelectionTaskServiceTest extends RequestBaseTest {
     private String contextId;
@@ -309,6 +320,62 @@ public class PlacementHostSelectionTaskServiceTest extends RequestBaseTest {
         }
     }
 
+    @Test
+    public void testHostWithLocalImageShouldBePreferred() throws Throwable {
+        MockDockerHostAdapterService.resetImages();
+        ContainerDescription desc = TestRequestStateFactory.createContainerDescription();
+        desc = storeDescription(desc);
+
+        String hostLink = initialHostLinks.get(1);
+        MockDockerHostAdapterService.addImage(Service.getId(hostLink), "0123456789ab",
+                desc.image, ImageLocalityHostFilter.MIN_LOCAL_IMAGE_SIZE_BYTES * 10);
+        collectHostImages(hostLink);
+
+        try {
+            for (int i = 0; i < 5; i++) {
+                PlacementHostSelectionTaskState placementTask = createHostPlacementTask(
+                        desc.documentSelfLink, resourceCount, false);
+
+                assertEquals(resourceCount, placementTask.hostSelections.size());
+                assertEquals(hostLink, placementTask.hostSelections.get(0).hostLink);
+            }
+        } finally {
+            MockDockerHostAdapterService.resetImages();
+        }
+    }
+
+    @Test
+    public void testLocalImageOnlyBreaksTiesOfResourceCount() {
+        List<HostSelection> hostSelections = new ArrayList<>();
+        hostSelections.add(createHostSelection("host-0", 0, null));
+        hostSelections.add(createHostSelection("host-1", 1, 100L));
+        hostSelections.add(createHostSelection("host-2", 0, 10L));
+        hostSelections.add(createHostSelection("host-3", 1, null));
+        hostSelections.add(createHostSelection("host-4", 0, 100L));
+
+        PlacementHostSelectionTaskService.preferLocalImages(hostSelections);
+
+        // the positions of the hosts with the same resource count don't change
+        assertEquals(Arrays.asList("host-4", "host-1", "host-2", "host-3", "host-0"),
+                hostSelections.stream().map((hs) -> hs.hostLink).collect(Collectors.toList()));
+    }
+
+    @Test
+    public void testPlacementTaskIsNotPersisted() throws Throwable {
+        ContainerDescription desc = TestRequestStateFactory.createContainerDescription();
+        desc = storeDescription(desc);
+
+        PlacementHostSelectionTaskState placementTask = createHostPlacementTask(
+                desc.documentSelfLink, resourceCount, false);
+        assertEquals(resourceCount, placementTask.hostSelections.size());
+
+        // the finished task is still available in memory but nothing is indexed
+        placementTask = getDocument(PlacementHostSelectionTaskState.class,
+                placementTask.documentSelfLink);
+        assertEquals(TaskStage.FINISHED, placementTask.taskInfo.stage);
+        assertEquals(0, countIndexedPlacementTasks());
+    }
+
     private PlacementHostSelectionTaskState createHostPlacementTask(String containerDescLink,
             int resourceCount, boolean expectError) throws Throwable {
         PlacementHostSelectionTaskState placementTask = new PlacementHostSelectionTaskState();
@@ -380,6 +447,49 @@ public class PlacementHostSelectionTaskServiceTest extends RequestBaseTest {
         return container;
     }
 
+    private void collectHostImages(String hostLink) throws Throwable {
+        AdapterRequest request = new AdapterRequest();
+        request.operationTypeId = ContainerHostOperationType.LIST_IMAGES.id;
+        request.serviceTaskCallback = ServiceTaskCallback.createEmpty();
+        request.resourceReference = UriUtils.buildUri(host, hostLink);
+
+        host.testStart(1);
+        host.sendRequest(Operation.createPatch(host, MockDockerHostAdapterService.SELF_LINK)
+                .setBody(request)
+                .setReferer(host.getUri())
+                .setCompletion(host.getCompletion()));
+        host.testWait();
+    }
+
+    private long countIndexedPlacementTasks() {
+        long[] result = new long[] { 0 };
+        TestContext ctx = testCreate(1);
+        QueryTask q = QueryUtil.buildQuery(PlacementHostSelectionTaskState.class, false);
+        QueryUtil.addCountOption(q);
+
+        new ServiceDocumentQuery<PlacementHostSelectionTaskState>(host,
+                PlacementHostSelectionTaskState.class).query(q, (r) -> {
+                    if (r.hasException()) {
+                        ctx.failIteration(r.getException());
+                    } else if (r.hasResult()) {
+                        result[0] = r.getCount();
+                    } else {
+                        ctx.completeIteration();
+                    }
+                });
+        ctx.await();
+        return result[0];
+    }
+
+    private static HostSelection createHostSelection(String hostLink, int resourceCount,
+            Long localImageSize) {
+        HostSelection hostSelection = new HostSelection();
+        hostSelection.hostLink = hostLink;
+        hostSelection.resourceCount = resourceCount;
+        hostSelection.localImageSize = localImageSize;
+        return hostSelection;
+    }
+
     private ContainerDescription storeDescription(ContainerDescription desc) throws Throwable {
         desc.documentSelfLink = UUID.randomUUID().toString();
         desc = doPost(desc, ContainerDescriptionService.FACTORY_LINK);
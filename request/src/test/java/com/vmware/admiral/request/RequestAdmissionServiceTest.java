@@ -0,0 +1,246 @@
+/*
+ * Copyright (c) 2016 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.request;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vmware.admiral.adapter.common.ContainerOperationType;
+import com.vmware.admiral.request.RequestAdmissionService.AdmissionRequest;
+import com.vmware.admiral.request.RequestAdmissionService.AdmissionResponse;
+import com.vmware.admiral.request.RequestAdmissionService.AdmissionStatus;
+import com.vmware.admiral.request.RequestBrokerService.RequestBrokerState;
+import com.vmware.admiral.request.compute.ProvisionContainerHostsTaskService;
+import com.vmware.admiral.request.util.TestRequestStateFactory;
+import com.vmware.admiral.request.utils.RequestUtils;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.UriUtils;
+import com.vmware.xenon.common.test.TestContext;
+
+public class RequestAdmissionServiceTest extends RequestBaseTest {
+    private static final int MAX_ACTIVE_REQUESTS = 3;
+    private static final int MAX_ACTIVE_REQUESTS_PER_TENANT = 1;
+
+    private int maxActiveRequests;
+    private int maxActiveRequestsPerTenant;
+    private long maintenanceIntervalMicros;
+
+    @Override
+    @Before
+    public void setUp() throws Throwable {
+        maxActiveRequests = RequestAdmissionService.MAX_ACTIVE_REQUESTS;
+        maxActiveRequestsPerTenant = RequestAdmissionService.MAX_ACTIVE_REQUESTS_PER_TENANT;
+        maintenanceIntervalMicros = RequestAdmissionService.MAINTENANCE_INTERVAL_MICROS;
+        setAdmissionLimits(MAX_ACTIVE_REQUESTS, MAX_ACTIVE_REQUESTS_PER_TENANT);
+        setMaintenanceInterval(TimeUnit.SECONDS.toMicros(1));
+
+        super.setUp();
+        waitForServiceAvailability(RequestAdmissionService.SELF_LINK);
+    }
+
+    @After
+    public void tearDown() throws Throwable {
+        setAdmissionLimits(maxActiveRequests, maxActiveRequestsPerTenant);
+        setMaintenanceInterval(maintenanceIntervalMicros);
+    }
+
+    @Test
+    public void testRequestsWithoutTenantLimitedByGlobalLimit() throws Throwable {
+        String[] links = new String[MAX_ACTIVE_REQUESTS + 1];
+        for (int i = 0; i < links.length; i++) {
+            links[i] = UriUtils.buildUriPath(RequestBrokerFactoryService.SELF_LINK,
+                    UUID.randomUUID().toString());
+        }
+
+        for (int i = 0; i < MAX_ACTIVE_REQUESTS; i++) {
+            assertEquals(0, admit(links[i], null));
+        }
+        assertEquals(1, admit(links[MAX_ACTIVE_REQUESTS], null));
+
+        // release the queued request first, so that no request is started
+        for (int i = links.length - 1; i >= 0; i--) {
+            release(links[i]);
+        }
+        assertEquals(0, getAdmissionStatus().activeCount);
+    }
+
+    @Test
+    public void testRequestsOfTenantLimitedByTenantLimit() throws Throwable {
+        String tenantLink = "/tenants/" + UUID.randomUUID().toString();
+        String admittedLink = UriUtils.buildUriPath(RequestBrokerFactoryService.SELF_LINK,
+                UUID.randomUUID().toString());
+        String queuedLink = UriUtils.buildUriPath(RequestBrokerFactoryService.SELF_LINK,
+                UUID.randomUUID().toString());
+
+        assertEquals(0, admit(admittedLink, tenantLink));
+        assertEquals(1, admit(queuedLink, tenantLink));
+
+        release(queuedLink);
+        release(admittedLink);
+        assertEquals(0, getAdmissionStatus().activeCount);
+    }
+
+    @Test
+    public void testAdmissionReleasedWhenRequestNotCreated() throws Throwable {
+        RequestBrokerState request = TestRequestStateFactory.createRequestState();
+        request.resourceDescriptionLink = null;
+        request.tenantLinks = Arrays.asList("/tenants/" + UUID.randomUUID().toString());
+
+        TestContext ctx = testCreate(1);
+        host.send(Operation.createPost(UriUtils.buildUri(host,
+                RequestBrokerFactoryService.SELF_LINK))
+                .setBody(request)
+                .setReferer(host.getUri())
+                .setCompletion((o, e) -> {
+                    if (e == null) {
+                        ctx.failIteration(new IllegalStateException(
+                                "Request without description should fail"));
+                        return;
+                    }
+                    ctx.completeIteration();
+                }));
+        ctx.await();
+
+        waitFor(() -> getAdmissionStatus().activeCount == 0);
+    }
+
+    @Test
+    public void testOnlyDayTwoOperationsInteractive() {
+        RequestBrokerState request = TestRequestStateFactory.createRequestState();
+        request.operation = ContainerOperationType.STOP.id;
+        assertTrue(RequestAdmissionService.isInteractive(request));
+        request.operation = RequestBrokerState.REMOVE_RESOURCE_OPERATION;
+        assertTrue(RequestAdmissionService.isInteractive(request));
+
+        request.operation = RequestBrokerState.PROVISION_RESOURCE_OPERATION;
+        assertFalse(RequestAdmissionService.isInteractive(request));
+        request.operation = RequestBrokerState.CLUSTER_RESOURCE_OPERATION;
+        assertFalse(RequestAdmissionService.isInteractive(request));
+        request.operation = ProvisionContainerHostsTaskService.PROVISION_CONTAINER_HOSTS_OPERATITON;
+        assertFalse(RequestAdmissionService.isInteractive(request));
+
+        // a scale in of a cluster
+        request.operation = RequestBrokerState.REMOVE_RESOURCE_OPERATION;
+        request.customProperties = new HashMap<>();
+        request.customProperties.put(RequestUtils.CLUSTERING_OPERATION_CUSTOM_PROP, "true");
+        assertFalse(RequestAdmissionService.isInteractive(request));
+    }
+
+    @Test
+    public void testQueuedRequestStartedAfterRestart() throws Throwable {
+        for (int i = 0; i < MAX_ACTIVE_REQUESTS; i++) {
+            admit(UriUtils.buildUriPath(RequestBrokerFactoryService.SELF_LINK,
+                    UUID.randomUUID().toString()), null);
+        }
+
+        RequestBrokerState request = startRequest(TestRequestStateFactory.createRequestState());
+        assertEquals(1L, request.queuePosition.longValue());
+        assertEquals(RequestBrokerState.SubStage.CREATED,
+                getDocument(RequestBrokerState.class, request.documentSelfLink).taskSubStage);
+
+        // the node restarts, the admissions kept in memory are lost
+        delete(RequestAdmissionService.SELF_LINK);
+        host.startService(Operation.createPost(UriUtils.buildUri(host,
+                RequestAdmissionService.SELF_LINK)), new RequestAdmissionService());
+        waitForServiceAvailability(RequestAdmissionService.SELF_LINK);
+
+        // the queued request is restored from the index and started
+        waitForRequestToComplete(request);
+        RequestBrokerState started = getDocument(RequestBrokerState.class,
+                request.documentSelfLink);
+        assertEquals(0L, started.queuePosition.longValue());
+    }
+
+    @Test
+    public void testStaleQueuedRequestDropped() throws Throwable {
+        String[] links = new String[MAX_ACTIVE_REQUESTS];
+        for (int i = 0; i < links.length; i++) {
+            links[i] = UriUtils.buildUriPath(RequestBrokerFactoryService.SELF_LINK,
+                    UUID.randomUUID().toString());
+            admit(links[i], null);
+        }
+
+        // queued without a persisted request, e.g. deleted on another node
+        assertEquals(1, admit(UriUtils.buildUriPath(RequestBrokerFactoryService.SELF_LINK,
+                UUID.randomUUID().toString()), null));
+        waitFor(() -> getAdmissionStatus().queuedCount == 0);
+
+        for (String link : links) {
+            release(link);
+        }
+        assertEquals(0, getAdmissionStatus().activeCount);
+    }
+
+    private long admit(String requestLink, String tenantLink) throws Throwable {
+        AdmissionRequest request = new AdmissionRequest();
+        request.requestLink = requestLink;
+        request.tenantLink = tenantLink;
+
+        AdmissionResponse[] response = new AdmissionResponse[1];
+        TestContext ctx = testCreate(1);
+        host.send(Operation.createPatch(UriUtils.buildUri(host,
+                RequestAdmissionService.SELF_LINK))
+                .setBody(request)
+                .setReferer(host.getUri())
+                .setCompletion((o, e) -> {
+                    if (e != null) {
+                        ctx.failIteration(e);
+                        return;
+                    }
+                    response[0] = o.getBody(AdmissionResponse.class);
+                    ctx.completeIteration();
+                }));
+        ctx.await();
+        return response[0].queuePosition;
+    }
+
+    private void release(String requestLink) throws Throwable {
+        AdmissionRequest request = new AdmissionRequest();
+        request.requestLink = requestLink;
+        request.release = true;
+
+        TestContext ctx = testCreate(1);
+        host.send(Operation.createPatch(UriUtils.buildUri(host,
+                RequestAdmissionService.SELF_LINK))
+                .setBody(request)
+                .setReferer(host.getUri())
+                .setCompletion(ctx.getCompletion()));
+        ctx.await();
+    }
+
+    private AdmissionStatus getAdmissionStatus() throws Throwable {
+        return getDocument(AdmissionStatus.class, RequestAdmissionService.SELF_LINK);
+    }
+
+    private static void setMaintenanceInterval(long intervalMicros) throws Exception {
+        setFinalStatic(RequestAdmissionService.class
+                .getDeclaredField("MAINTENANCE_INTERVAL_MICROS"), intervalMicros);
+    }
+
+    private static void setAdmissionLimits(int maxActive, int maxActivePerTenant)
+            throws Exception {
+        setFinalStatic(RequestAdmissionService.class.getDeclaredField("MAX_ACTIVE_REQUESTS"),
+                maxActive);
+        setFinalStatic(RequestAdmissionService.class
+                .getDeclaredField("MAX_ACTIVE_REQUESTS_PER_TENANT"), maxActivePerTenant);
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2016 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.request;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vmware.admiral.compute.container.ContainerDescriptionService;
+import com.vmware.admiral.compute.container.ContainerDescriptionService.ContainerDescription;
+import com.vmware.admiral.request.RequestBrokerBulkService.RequestBrokerBulkState;
+import com.vmware.admiral.request.RequestBrokerBulkService.RequestItem;
+import com.vmware.admiral.request.RequestBrokerService.RequestBrokerState;
+import com.vmware.admiral.request.RequestStatusService.RequestStatus;
+import com.vmware.admiral.request.util.TestRequestStateFactory;
+import com.vmware.admiral.service.test.MockDockerAdapterService;
+import com.vmware.photon.controller.model.resources.ComputeDescriptionService.ComputeDescription;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.Service.Action;
+import com.vmware.xenon.common.ServiceHost;
+import com.vmware.xenon.common.ServiceStats;
+import com.vmware.xenon.common.ServiceStats.ServiceStat;
+import com.vmware.xenon.common.TaskState.TaskStage;
+import com.vmware.xenon.common.UriUtils;
+import com.vmware.xenon.services.common.LuceneDocumentIndexService;
+import com.vmware.xenon.services.common.ServiceUriPaths;
+
+public class RequestBrokerBulkServiceTest extends RequestBaseTest {
+    private static final int BULK_REQUESTS_COUNT = 200;
+    private static final int SINGLE_REQUESTS_COUNT = 20;
+    private static final int DOCKER_HOST_COUNT = 5;
+
+    private ContainerDescription containerDesc;
+
+    //should completely override the one in the base class
+    @Override
+    @Before
+    public void setUp() throws Throwable {
+        MockDockerAdapterService.resetContainers();
+        startServices(host);
+        waitForServiceAvailability(RequestBrokerBulkFactoryService.SELF_LINK);
+
+        setUpDockerHostAuthentication();
+        createResourcePool();
+        ComputeDescription dockerHostDesc = createDockerHostDescription();
+        for (int i = 0; i < DOCKER_HOST_COUNT; i++) {
+            createDockerHost(dockerHostDesc, resourcePool, true);
+        }
+        groupPlacementState = createGroupResourcePlacement(resourcePool,
+                BULK_REQUESTS_COUNT + SINGLE_REQUESTS_COUNT);
+
+        ContainerDescription desc = TestRequestStateFactory.createContainerDescription();
+        desc.portBindings = null;
+        containerDesc = doPost(desc, ContainerDescriptionService.FACTORY_LINK);
+    }
+
+    @Test
+    public void testBulkRequest() throws Throwable {
+        // the requests submitted one by one
+        long indexWrites = getIndexedDocumentCount();
+        List<RequestBrokerState> singleRequests = new ArrayList<>();
+        for (int i = 0; i < SINGLE_REQUESTS_COUNT; i++) {
+            RequestBrokerState request = TestRequestStateFactory.createRequestState();
+            request.resourceDescriptionLink = containerDesc.documentSelfLink;
+            request.tenantLinks = groupPlacementState.tenantLinks;
+            singleRequests.add(startRequest(request));
+        }
+        for (RequestBrokerState request : singleRequests) {
+            waitForRequestToComplete(request);
+        }
+        double singleWritesPerRequest = (getIndexedDocumentCount() - indexWrites)
+                / (double) SINGLE_REQUESTS_COUNT;
+
+        // the requests submitted at once
+        RequestBrokerBulkState bulk = new RequestBrokerBulkState();
+        bulk.groupResourcePlacementLink = groupPlacementState.documentSelfLink;
+        bulk.requests = new ArrayList<>();
+        for (int i = 0; i < BULK_REQUESTS_COUNT; i++) {
+            RequestBrokerState request = TestRequestStateFactory.createRequestState();
+            request.resourceDescriptionLink = containerDesc.documentSelfLink;
+            request.tenantLinks = null;
+            bulk.requests.add(request);
+        }
+
+        indexWrites = getIndexedDocumentCount();
+        bulk = doPost(bulk, RequestBrokerBulkFactoryService.SELF_LINK);
+
+        assertNull(bulk.requests);
+        assertEquals(groupPlacementState.tenantLinks, bulk.tenantLinks);
+        assertEquals(BULK_REQUESTS_COUNT, bulk.acceptedCount);
+        assertEquals(0, bulk.rejectedCount);
+        assertEquals(BULK_REQUESTS_COUNT, bulk.items.size());
+
+        Set<String> requestLinks = new HashSet<>();
+        for (RequestItem item : bulk.items) {
+            assertEquals(Operation.STATUS_CODE_OK, item.statusCode);
+            assertNull(item.failureMessage);
+            assertNotNull(item.requestTrackerLink);
+            assertNotNull(item.queuePosition);
+            requestLinks.add(item.requestLink);
+        }
+        assertEquals(BULK_REQUESTS_COUNT, requestLinks.size());
+
+        // the shared tenant and placement are set to the requests
+        RequestItem item = bulk.items.get(0);
+        RequestBrokerState request = getDocument(RequestBrokerState.class, item.requestLink);
+        assertEquals(groupPlacementState.tenantLinks, request.tenantLinks);
+        assertEquals(groupPlacementState.documentSelfLink, request.groupResourcePlacementLink);
+        assertEquals(item.requestTrackerLink, request.requestTrackerLink);
+
+        String bulkLink = bulk.documentSelfLink;
+        waitFor(() -> {
+            RequestBrokerBulkState state = getDocument(RequestBrokerBulkState.class, bulkLink);
+            return state.finishedCount + state.failedCount == BULK_REQUESTS_COUNT;
+        });
+        double bulkWritesPerRequest = (getIndexedDocumentCount() - indexWrites)
+                / (double) BULK_REQUESTS_COUNT;
+
+        bulk = getDocument(RequestBrokerBulkState.class, bulkLink);
+        assertEquals(BULK_REQUESTS_COUNT, bulk.finishedCount.longValue());
+        assertEquals(0, bulk.failedCount.longValue());
+        assertTrue(bulk.progress > 0);
+        for (RequestItem i : bulk.items) {
+            assertEquals(TaskStage.FINISHED, i.stage);
+        }
+
+        RequestStatus status = getDocument(RequestStatus.class, item.requestTrackerLink);
+        assertEquals(TaskStage.FINISHED, status.taskInfo.stage);
+        assertEquals(SINGLE_REQUESTS_COUNT + BULK_REQUESTS_COUNT,
+                MockDockerAdapterService.getNumberOfContainers());
+
+        host.log("Index writes per request: %.1f submitted one by one, %.1f submitted at once",
+                singleWritesPerRequest, bulkWritesPerRequest);
+
+        // the aggregate tracker is written once
+        assertEquals(0, bulk.documentVersion);
+        assertTrue("index writes per request " + bulkWritesPerRequest,
+                bulkWritesPerRequest < singleWritesPerRequest);
+    }
+
+    @Test
+    public void testBulkRequestValidation() throws Throwable {
+        RequestBrokerBulkState bulk = new RequestBrokerBulkState();
+        bulk.requests = new ArrayList<>();
+        URI bulkUri = UriUtils.buildUri(host, RequestBrokerBulkFactoryService.SELF_LINK);
+        doOperation(bulk, bulkUri, true, Action.POST);
+
+        bulk.groupResourcePlacementLink = groupPlacementState.documentSelfLink + "-missing";
+        bulk.requests.add(TestRequestStateFactory.createRequestState());
+        doOperation(bulk, bulkUri, true, Action.POST);
+    }
+
+    private long getIndexedDocumentCount() throws Throwable {
+        ServiceStats stats = getDocument(ServiceStats.class,
+                ServiceUriPaths.CORE_DOCUMENT_INDEX + ServiceHost.SERVICE_URI_SUFFIX_STATS);
+        ServiceStat stat = stats.entries
+                .get(LuceneDocumentIndexService.STAT_NAME_INDEXED_DOCUMENT_COUNT);
+        return stat == null ? 0 : (long) stat.latestValue;
+    }
+}
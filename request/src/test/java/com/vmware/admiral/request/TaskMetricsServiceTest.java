@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2016 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.request;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.vmware.admiral.request.ContainerAllocationTaskService.ContainerAllocationTaskState.SubStage;
+import com.vmware.admiral.request.RequestBrokerService.RequestBrokerState;
+import com.vmware.admiral.request.util.TestRequestStateFactory;
+import com.vmware.admiral.service.common.TaskMetricsService;
+import com.vmware.admiral.service.common.TaskMetricsService.StageMetrics;
+import com.vmware.admiral.service.common.TaskMetricsService.TaskMetrics;
+import com.vmware.xenon.common.TaskState.TaskStage;
+
+public class TaskMetricsServiceTest extends RequestBaseTest {
+    private static final String ALLOCATION_TASK = ContainerAllocationTaskService.class
+            .getSimpleName();
+
+    @Test
+    public void testStageDurationsRecorded() throws Throwable {
+        TaskMetrics before = getDocument(TaskMetrics.class, TaskMetricsService.SELF_LINK);
+
+        long startTime = System.nanoTime();
+        RequestBrokerState request = TestRequestStateFactory.createRequestState();
+        request.resourceDescriptionLink = containerDesc.documentSelfLink;
+        request.tenantLinks = groupPlacementState.tenantLinks;
+        waitForRequestToComplete(startRequest(request));
+        long elapsedMicros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startTime);
+
+        TaskMetrics after = getDocument(TaskMetrics.class, TaskMetricsService.SELF_LINK);
+        Map<String, StageMetrics> stages = after.tasks.get(ALLOCATION_TASK);
+        assertNotNull(stages);
+
+        // each stage the allocation task went through is recorded once
+        String[] expectedStages = new String[] {
+                stageKey(TaskStage.STARTED, SubStage.CREATED),
+                stageKey(TaskStage.STARTED, SubStage.CONTEXT_PREPARED),
+                stageKey(TaskStage.STARTED, SubStage.RESOURCES_NAMED),
+                stageKey(TaskStage.STARTED, SubStage.RESOURCES_LINKS_BUILT) };
+        for (String stage : expectedStages) {
+            assertEquals(stage, getCount(before, stage) + 1, getCount(after, stage));
+        }
+
+        // in the order of the sub stages
+        List<String> keys = new ArrayList<>(stages.keySet());
+        List<Integer> positions = new ArrayList<>();
+        for (String stage : expectedStages) {
+            positions.add(keys.indexOf(stage));
+        }
+        List<Integer> sortedPositions = new ArrayList<>(positions);
+        Collections.sort(sortedPositions);
+        assertEquals(sortedPositions, positions);
+
+        // the recorded durations are within the time the request took
+        long recordedMicros = 0;
+        for (String stage : stages.keySet()) {
+            recordedMicros += getTotalMicros(after, stage) - getTotalMicros(before, stage);
+        }
+        assertTrue("recorded " + recordedMicros + " of " + elapsedMicros,
+                recordedMicros > 0 && recordedMicros <= elapsedMicros);
+
+        for (StageMetrics metrics : stages.values()) {
+            assertTrue(metrics.p50Micros <= metrics.p99Micros);
+            assertTrue(metrics.p99Micros <= metrics.maxMicros);
+        }
+    }
+
+    private static String stageKey(TaskStage stage, Enum<?> subStage) {
+        return stage.name() + ":" + subStage.name();
+    }
+
+    private static long getCount(TaskMetrics metrics, String stage) {
+        StageMetrics stageMetrics = getStageMetrics(metrics, stage);
+        return stageMetrics == null ? 0 : stageMetrics.count;
+    }
+
+    private static long getTotalMicros(TaskMetrics metrics, String stage) {
+        StageMetrics stageMetrics = getStageMetrics(metrics, stage);
+        return stageMetrics == null ? 0 : stageMetrics.count * stageMetrics.meanMicros;
+    }
+
+    private static StageMetrics getStageMetrics(TaskMetrics metrics, String stage) {
+        if (metrics.tasks == null || !metrics.tasks.containsKey(ALLOCATION_TASK)) {
+            return null;
+        }
+        return metrics.tasks.get(ALLOCATION_TASK).get(stage);
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2016 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.request.allocation.filter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.Map;
+import java.util.UUID;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vmware.admiral.adapter.common.AdapterRequest;
+import com.vmware.admiral.adapter.common.ContainerHostOperationType;
+import com.vmware.admiral.compute.container.ContainerDescriptionService;
+import com.vmware.admiral.compute.container.ContainerDescriptionService.ContainerDescription;
+import com.vmware.admiral.compute.container.HostImageInventoryService;
+import com.vmware.admiral.compute.container.HostImageInventoryService.HostImageInventoryState;
+import com.vmware.admiral.request.allocation.filter.HostSelectionFilter.HostSelection;
+import com.vmware.admiral.request.util.TestRequestStateFactory;
+import com.vmware.admiral.service.common.ServiceTaskCallback;
+import com.vmware.admiral.service.test.MockDockerHostAdapterService;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.Service;
+import com.vmware.xenon.common.UriUtils;
+import com.vmware.xenon.common.test.TestContext;
+
+public class ImageLocalityHostFilterTest extends BaseAffinityHostFilterTest {
+    private static final long BIG_IMAGE_SIZE = 500L * 1024 * 1024;
+    private static final long SMALL_IMAGE_SIZE = 1024;
+
+    @Override
+    @Before
+    public void setUp() throws Throwable {
+        super.setUp();
+        MockDockerHostAdapterService.resetImages();
+    }
+
+    @After
+    public void tearDown() {
+        MockDockerHostAdapterService.resetImages();
+    }
+
+    @Test
+    public void testHostsWithTheImageArePreferred() throws Throwable {
+        ContainerDescription desc = createDescription();
+        String hostWithImage = initialHostLinks.get(1);
+        MockDockerHostAdapterService.addImage(Service.getId(hostWithImage),
+                "0123456789ab", desc.image, BIG_IMAGE_SIZE);
+        MockDockerHostAdapterService.addImage(Service.getId(initialHostLinks.get(2)),
+                "ba9876543210", "other/image:1.0", BIG_IMAGE_SIZE);
+        collectImages();
+
+        filter = new ImageLocalityHostFilter(host, desc);
+        Map<String, HostSelection> selected = filter();
+
+        // no hosts are filtered out, only the host with the image is scored
+        assertEquals(initialHostLinks.size(), selected.size());
+        assertEquals(Long.valueOf(BIG_IMAGE_SIZE), selected.get(hostWithImage).localImageSize);
+        assertNull(selected.get(initialHostLinks.get(0)).localImageSize);
+        assertNull(selected.get(initialHostLinks.get(2)).localImageSize);
+    }
+
+    @Test
+    public void testSmallImagesAreIgnored() throws Throwable {
+        ContainerDescription desc = createDescription();
+        MockDockerHostAdapterService.addImage(Service.getId(initialHostLinks.get(0)),
+                "0123456789ab", desc.image, SMALL_IMAGE_SIZE);
+        collectImages();
+
+        filter = new ImageLocalityHostFilter(host, desc);
+        Map<String, HostSelection> selected = filter();
+
+        assertEquals(initialHostLinks.size(), selected.size());
+        for (HostSelection hostSelection : selected.values()) {
+            assertNull(hostSelection.localImageSize);
+        }
+    }
+
+    @Test
+    public void testNoInventoryCollected() throws Throwable {
+        filter = new ImageLocalityHostFilter(host, createDescription());
+        Throwable e = filter(initialHostLinks);
+        assertNull(e);
+    }
+
+    @Test
+    public void testFindImageByCanonicalName() throws Throwable {
+        String hostLink = initialHostLinks.get(0);
+        MockDockerHostAdapterService.addImage(Service.getId(hostLink),
+                "0123456789ab", "busybox:latest", BIG_IMAGE_SIZE);
+        collectImages();
+
+        HostImageInventoryState inventory = getDocument(HostImageInventoryState.class,
+                HostImageInventoryService.getInventoryLink(hostLink));
+        assertEquals(hostLink, inventory.hostLink);
+        assertNotNull(inventory.findImage("busybox"));
+        assertNotNull(inventory.findImage("library/busybox:latest"));
+        assertNotNull(inventory.findImage("registry.hub.docker.com/library/busybox"));
+        assertNotNull(inventory.findImage("sha256:0123456789abcdef0123456789abcdef"));
+        assertNull(inventory.findImage("busybox:1.0"));
+        assertNull(inventory.findImage("myregistry:5000/busybox:latest"));
+    }
+
+    private void collectImages() throws Throwable {
+        TestContext ctx = testCreate(initialHostLinks.size());
+        for (String hostLink : initialHostLinks) {
+            AdapterRequest request = new AdapterRequest();
+            request.operationTypeId = ContainerHostOperationType.LIST_IMAGES.id;
+            request.serviceTaskCallback = ServiceTaskCallback.createEmpty();
+            request.resourceReference = UriUtils.buildUri(host, hostLink);
+            host.send(Operation.createPatch(host, MockDockerHostAdapterService.SELF_LINK)
+                    .setBody(request)
+                    .setReferer(host.getUri())
+                    .setCompletion(ctx.getCompletion()));
+        }
+        ctx.await();
+    }
+
+    private ContainerDescription createDescription() throws Throwable {
+        ContainerDescription desc = TestRequestStateFactory.createContainerDescription();
+        desc.documentSelfLink = UUID.randomUUID().toString();
+        desc = doPost(desc, ContainerDescriptionService.FACTORY_LINK);
+        assertNotNull(desc);
+        addForDeletion(desc);
+        return desc;
+    }
+}
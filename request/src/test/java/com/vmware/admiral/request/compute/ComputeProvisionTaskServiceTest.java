@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2016 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.request.compute;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Queue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.vmware.admiral.common.ManagementUriParts;
+import com.vmware.admiral.compute.ContainerHostService;
+import com.vmware.admiral.compute.ContainerHostService.ContainerHostSpec;
+import com.vmware.admiral.request.RequestBaseTest;
+import com.vmware.admiral.request.RequestStatusFactoryService;
+import com.vmware.admiral.request.RequestStatusService.RequestStatus;
+import com.vmware.admiral.request.compute.ComputeAllocationTaskService.ComputeAllocationTaskState;
+import com.vmware.admiral.request.compute.ComputeProvisionTaskService.ComputeProvisionTaskState;
+import com.vmware.admiral.request.compute.ComputeProvisionTaskService.ComputeProvisionTaskState.SubStage;
+import com.vmware.admiral.request.util.TestRequestStateFactory;
+import com.vmware.photon.controller.model.resources.ComputeService;
+import com.vmware.photon.controller.model.resources.ComputeService.ComputeState;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.StatelessService;
+import com.vmware.xenon.common.TaskState;
+import com.vmware.xenon.common.TaskState.TaskStage;
+
+public class ComputeProvisionTaskServiceTest extends RequestBaseTest {
+    private static final int HOSTS_COUNT = 200;
+    private static final int MAX_IN_FLIGHT = 10;
+
+    @Test
+    public void testBootstrapContainerHosts() throws Throwable {
+        MockContainerHostService hostService = startMockContainerHostService();
+        // hold the registrations after the first half of the hosts
+        hostService.holdAfter = HOSTS_COUNT / 2;
+
+        Set<String> resourceLinks = new HashSet<>();
+        for (int i = 0; i < HOSTS_COUNT; i++) {
+            ComputeState cs = TestRequestStateFactory.createVmGuestComputeState();
+            cs.customProperties.put(
+                    ComputeAllocationTaskState.ENABLE_COMPUTE_CONTAINER_HOST_PROP_NAME, "true");
+            resourceLinks.add(doPost(cs, ComputeService.FACTORY_LINK).documentSelfLink);
+        }
+
+        String taskId = UUID.randomUUID().toString();
+        RequestStatus requestStatus = new RequestStatus();
+        requestStatus.documentSelfLink = taskId;
+        requestStatus.taskInfo = new TaskState();
+        requestStatus.taskInfo.stage = TaskStage.STARTED;
+        requestStatus.progress = 0;
+        requestStatus.addTrackedTasks(ComputeProvisionTaskService.DISPLAY_NAME);
+        requestStatus = doPost(requestStatus, RequestStatusFactoryService.SELF_LINK);
+
+        int maxInFlight = ComputeProvisionTaskService.BOOTSTRAP_MAX_IN_FLIGHT;
+        long retryDelayMillis = ComputeProvisionTaskService.BOOTSTRAP_RETRY_DELAY_MILLIS;
+        setFinalStatic(ComputeProvisionTaskService.class
+                .getDeclaredField("BOOTSTRAP_MAX_IN_FLIGHT"), MAX_IN_FLIGHT);
+        setFinalStatic(ComputeProvisionTaskService.class
+                .getDeclaredField("BOOTSTRAP_RETRY_DELAY_MILLIS"), 10L);
+        try {
+            // start from the provisioned computes
+            ComputeProvisionTaskState provisionTask = new ComputeProvisionTaskState();
+            provisionTask.documentSelfLink = taskId;
+            provisionTask.taskInfo = new TaskState();
+            provisionTask.taskInfo.stage = TaskStage.STARTED;
+            provisionTask.taskSubStage = SubStage.PROVISIONING_COMPUTE_COMPLETED;
+            provisionTask.resourceLinks = resourceLinks;
+            provisionTask.requestTrackerLink = requestStatus.documentSelfLink;
+            provisionTask = doPost(provisionTask, ComputeProvisionTaskService.FACTORY_LINK);
+
+            // the bootstrapped hosts are reported in the request progress
+            String requestStatusLink = requestStatus.documentSelfLink;
+            waitFor(() -> hostService.held.size() == MAX_IN_FLIGHT);
+            waitFor(() -> getDocument(RequestStatus.class, requestStatusLink).progress == 90);
+            assertEquals(HOSTS_COUNT / 2, hostService.registered.size());
+
+            hostService.release();
+            waitForTaskSuccess(provisionTask.documentSelfLink, ComputeProvisionTaskState.class);
+            assertEquals(100, getDocument(RequestStatus.class, requestStatusLink).progress
+                    .intValue());
+        } finally {
+            setFinalStatic(ComputeProvisionTaskService.class
+                    .getDeclaredField("BOOTSTRAP_MAX_IN_FLIGHT"), maxInFlight);
+            setFinalStatic(ComputeProvisionTaskService.class
+                    .getDeclaredField("BOOTSTRAP_RETRY_DELAY_MILLIS"), retryDelayMillis);
+        }
+
+        host.log("Max %d container hosts bootstrapped in parallel", hostService.maxInFlight.get());
+        assertEquals(HOSTS_COUNT, hostService.registered.size());
+        // each host is validated twice, after the failure of the first validation
+        assertEquals(HOSTS_COUNT * 2, hostService.validations.get());
+        assertTrue(hostService.maxInFlight.get() > 1);
+        assertTrue(hostService.maxInFlight.get() <= MAX_IN_FLIGHT);
+    }
+
+    private MockContainerHostService startMockContainerHostService() throws Throwable {
+        ContainerHostService service = new ContainerHostService();
+        service.setSelfLink(ContainerHostService.SELF_LINK);
+        host.stopService(service);
+
+        MockContainerHostService mockService = new MockContainerHostService();
+        host.startServiceAndWait(mockService, ContainerHostService.SELF_LINK, null);
+        return mockService;
+    }
+
+    /**
+     * Validates and registers the container hosts after a delay, failing the first validation of
+     * each host and holding the registrations after a given number of hosts until released.
+     */
+    private static class MockContainerHostService extends StatelessService {
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicInteger maxInFlight = new AtomicInteger();
+        private final AtomicInteger validations = new AtomicInteger();
+        private final AtomicInteger registrations = new AtomicInteger();
+        private final Set<String> failedValidations = ConcurrentHashMap.newKeySet();
+        private final Set<String> registered = ConcurrentHashMap.newKeySet();
+        private final Queue<Operation> held = new ConcurrentLinkedQueue<>();
+        private volatile int holdAfter = Integer.MAX_VALUE;
+
+        @Override
+        public void handlePut(Operation op) {
+            ContainerHostSpec hostSpec = op.getBody(ContainerHostSpec.class);
+            String hostLink = hostSpec.hostState.documentSelfLink;
+            boolean validate = op.getUri().getQuery() != null && op.getUri().getQuery()
+                    .contains(ManagementUriParts.REQUEST_PARAM_VALIDATE_OPERATION_NAME);
+
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            getHost().schedule(() -> {
+                if (validate) {
+                    validations.incrementAndGet();
+                    inFlight.decrementAndGet();
+                    if (failedValidations.add(hostLink)) {
+                        op.fail(new IllegalStateException("Connection refused: " + hostLink));
+                    } else {
+                        op.complete();
+                    }
+                } else if (registrations.incrementAndGet() > holdAfter) {
+                    held.add(op);
+                } else {
+                    registered.add(hostLink);
+                    inFlight.decrementAndGet();
+                    op.complete();
+                }
+            }, 5, TimeUnit.MILLISECONDS);
+        }
+
+        private void release() {
+            holdAfter = Integer.MAX_VALUE;
+            Operation op;
+            while ((op = held.poll()) != null) {
+                registered.add(op.getBody(ContainerHostSpec.class).hostState.documentSelfLink);
+                inFlight.decrementAndGet();
+                op.complete();
+            }
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2016 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.request.compute.enhancer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vmware.admiral.common.ManagementUriParts;
+import com.vmware.admiral.compute.ComputeConstants;
+import com.vmware.admiral.compute.EnvironmentMappingService;
+import com.vmware.admiral.compute.EnvironmentMappingService.EnvironmentMappingState;
+import com.vmware.admiral.compute.PropertyMapping;
+import com.vmware.admiral.request.RequestBaseTest;
+import com.vmware.admiral.request.compute.ComputeAllocationTaskService.ComputeAllocationTaskState;
+import com.vmware.admiral.request.compute.enhancer.Enhancer.EnhanceContext;
+import com.vmware.photon.controller.model.constants.PhotonModelConstants.EndpointType;
+import com.vmware.photon.controller.model.resources.ComputeDescriptionService.ComputeDescription;
+import com.vmware.xenon.common.ServiceDocument;
+import com.vmware.xenon.common.StatefulService;
+import com.vmware.xenon.common.test.TestContext;
+import com.vmware.xenon.services.common.AuthCredentialsService.AuthCredentialsServiceState;
+
+public class ComputeDescriptionEnhancersTest extends RequestBaseTest {
+    private static final int DESCRIPTIONS_COUNT = 100;
+
+    private StatefulService sender;
+    private EnvironmentMappingState env;
+
+    @Override
+    @Before
+    public void setUp() throws Throwable {
+        super.setUp();
+
+        sender = new StatefulService(ServiceDocument.class);
+        host.startServiceAndWait(sender, UUID.randomUUID().toString(), new ServiceDocument());
+
+        // the server certs are signed with the CA created on start
+        assertNotNull(getDocument(AuthCredentialsServiceState.class,
+                ManagementUriParts.AUTH_CREDENTIALS_CA_LINK));
+
+        EnvironmentMappingState ems = new EnvironmentMappingState();
+        ems.endpointType = EndpointType.vsphere.name();
+        ems.name = ems.endpointType;
+        ems.properties = new HashMap<>();
+
+        PropertyMapping imageRefs = new PropertyMapping();
+        imageRefs.mappings = new HashMap<>();
+        imageRefs.mappings.put("coreos", "coreos-image");
+        ems.properties.put("imageType", imageRefs);
+
+        env = doPost(ems, EnvironmentMappingService.FACTORY_LINK);
+        addForDeletion(env);
+    }
+
+    @Test
+    public void testEnhanceComputeDescriptions() throws Throwable {
+        List<ComputeDescription> descriptions = new ArrayList<>();
+        for (int i = 0; i < DESCRIPTIONS_COUNT; i++) {
+            ComputeDescription cd = new ComputeDescription();
+            cd.name = "vm-" + i;
+            cd.customProperties = new HashMap<>();
+            cd.customProperties.put(
+                    ComputeAllocationTaskState.ENABLE_COMPUTE_CONTAINER_HOST_PROP_NAME, "true");
+            descriptions.add(cd);
+        }
+
+        long startTime = System.nanoTime();
+        TestContext ctx = testCreate(DESCRIPTIONS_COUNT);
+        for (ComputeDescription cd : descriptions) {
+            ComputeDescriptionEnhancers.build(sender).enhance(createContext(), cd, (c, t) -> {
+                if (t != null) {
+                    ctx.failIteration(t);
+                    return;
+                }
+                ctx.completeIteration();
+            });
+        }
+        ctx.await();
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+
+        host.log("%d compute descriptions enhanced in %d ms", DESCRIPTIONS_COUNT,
+                elapsedMillis);
+
+        for (ComputeDescription cd : descriptions) {
+            assertNotNull(cd.authCredentialsLink);
+            assertEquals("coreos-image",
+                    cd.customProperties.get(ComputeConstants.CUSTOM_PROP_IMAGE_ID_NAME));
+            assertEquals(ManagementUriParts.AUTH_CREDENTIALS_CLIENT_LINK,
+                    cd.customProperties.get(ComputeConstants.HOST_AUTH_CREDENTIALS_PROP_NAME));
+            assertNotNull(cd.customProperties
+                    .get(ComputeConstants.CUSTOM_PROP_SSH_AUTHORIZED_KEY_NAME));
+
+            // both placeholders are replaced by the enhancers run in parallel
+            String content = cd.customProperties
+                    .get(ComputeConstants.COMPUTE_CONFIG_CONTENT_PROP_NAME);
+            assertNotNull(content);
+            assertFalse(content, content.contains("{{sshAuthorizedKey}}"));
+            assertFalse(content, content.contains("{{serverCerts}}"));
+        }
+    }
+
+    private EnhanceContext createContext() {
+        EnhanceContext context = new EnhanceContext();
+        context.environmentLink = env.documentSelfLink;
+        context.endpointComputeDescription = new ComputeDescription();
+        context.endpointType = EndpointType.vsphere.name();
+        context.imageType = "coreos";
+        return context;
+    }
+}
@@ -26,7 +26,6 @@ import com.vmware.admiral.common.test.BaseTestCase;
 import com.vmware.admiral.common.util.SshServiceUtil;
 import com.vmware.admiral.common.util.SshServiceUtil.GcData;
 import com.vmware.admiral.common.util.SshServiceUtil.ScpResult;
-import com.vmware.admiral.common.util.SshServiceUtil.ScpState;
 import com.vmware.admiral.common.util.SshUtil;
 import com.vmware.admiral.common.util.SshUtil.Result;
 import com.vmware.xenon.common.Operation;
@@ -78,7 +77,7 @@ public class SshServiceUtilIT extends BaseTestCase {
         Assert.assertTrue("Operation failed to complete on time!", handler.done);
         Assert.assertNull("Unexpected failure!", handler.failure);
         Assert.assertEquals("Body should contain STDOUT!", target,
-                handler.op.getBody(ScpState.class).target);
+                handler.op.getBody(ScpResult.class).target);
 
         Result execResult = SshUtil.exec(SSH_HOST, getPasswordCredentials(), "ls " + target);
         Assert.assertEquals("Failed to find uploaded file", 0, execResult.exitCode);
@@ -96,18 +95,15 @@ public class SshServiceUtilIT extends BaseTestCase {
         SshServiceUtil sshServiceUtil = new SshServiceUtil(
                 host);
 
-        DefaultSshOperationResultCompletionHandler handler = new DefaultSshOperationResultCompletionHandler();
-        sshServiceUtil.exec(SSH_HOST, getPasswordCredentials(), "echo Hello", handler,
-                (String s) -> {
-                    return s;
-                }, SshServiceUtil.SSH_OPERATION_TIMEOUT_SHORT, TimeUnit.SECONDS);
-
-        int retryCount = 0;
-        while (sshServiceUtil.gcData.size() < 3 && retryCount < 45) {
-            Thread.sleep(1000);
-            retryCount++;
+        for (int i = 0; i < 3; i++) {
+            DefaultSshOperationResultCompletionHandler handler = new DefaultSshOperationResultCompletionHandler();
+            sshServiceUtil.upload(SSH_HOST, getPasswordCredentials(), "Hello".getBytes(),
+                    "/tmp/test-gc" + i + "-" + System.currentTimeMillis(), handler);
+            handler.join(5, TimeUnit.MINUTES);
+            Assert.assertNull("Unexpected failure!", handler.failure);
+            handler.op.getBody(ScpResult.class).scheduleForGc(sshServiceUtil);
         }
-        Assert.assertTrue("Timed out filling gcData", retryCount < 45);
+
         Assert.assertEquals("Unexpected number of files for gc", 3, sshServiceUtil.gcData.size());
         List<String> files = new ArrayList<>();
         for (GcData data : sshServiceUtil.gcData) {
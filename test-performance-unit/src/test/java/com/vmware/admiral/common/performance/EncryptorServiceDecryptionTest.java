@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2016 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.common.performance;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+import org.junit.Test;
+
+import com.vmware.admiral.common.security.EncryptorService;
+import com.vmware.xenon.common.Utils;
+
+/**
+ * Reports the time of many decryptions of the same string with a new cipher for every
+ * decryption, with the cipher of the thread reused and with the decrypted value cached.
+ */
+public class EncryptorServiceDecryptionTest {
+    private static final int DECRYPTION_COUNT = Integer.getInteger(
+            "test.decryption.performance.count", 1_000_000);
+
+    @Test
+    public void testDecryption() {
+        byte[] key = EncryptorService.generateKey();
+        EncryptorService service = new EncryptorService(key);
+        String plainText = "The quick brown fox jumps over the lazy dog";
+        String encryptedString = service.encrypt(plainText);
+
+        // a new cipher for every decryption
+        long start = System.nanoTime();
+        for (int i = 0; i < DECRYPTION_COUNT; i++) {
+            assertEquals(plainText, new EncryptorService(key).decrypt(encryptedString));
+        }
+        long newCipherMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        // the cipher of the thread reused
+        start = System.nanoTime();
+        for (int i = 0; i < DECRYPTION_COUNT; i++) {
+            assertEquals(plainText, service.decrypt(encryptedString));
+        }
+        long reusedCipherMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        // the decrypted value cached
+        service.setDecryptionCache(100, TimeUnit.MINUTES.toMillis(1));
+        start = System.nanoTime();
+        for (int i = 0; i < DECRYPTION_COUNT; i++) {
+            assertEquals(plainText, service.decrypt(encryptedString));
+        }
+        long cachedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertEquals(1, service.getDecryptionCacheSize());
+
+        Utils.log(getClass(), getClass().getSimpleName(), Level.INFO,
+                "%d decryptions: new cipher %d ms, reused cipher %d ms, cached %d ms",
+                DECRYPTION_COUNT, newCipherMillis, reusedCipherMillis, cachedMillis);
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) 2016 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.common.performance;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.logging.Level;
+
+import org.junit.Test;
+
+import com.vmware.admiral.common.util.LatencyHistogram;
+import com.vmware.xenon.common.Utils;
+
+/**
+ * Reports the time of recording a value in a {@link LatencyHistogram}.
+ */
+public class LatencyHistogramRecordTest {
+    private static final int RECORD_COUNT = Integer.getInteger(
+            "test.histogram.performance.count", 1_000_000);
+
+    @Test
+    public void testRecord() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        // warm up
+        for (int i = 0; i < RECORD_COUNT; i++) {
+            histogram.record(i);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < RECORD_COUNT; i++) {
+            histogram.record(i);
+        }
+        long recordNanos = (System.nanoTime() - start) / RECORD_COUNT;
+        assertEquals(2L * RECORD_COUNT, histogram.getCount());
+
+        Utils.log(getClass(), getClass().getSimpleName(), Level.INFO,
+                "%d records: %d ns per record", RECORD_COUNT, recordNanos);
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2016 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.common.performance;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vmware.admiral.common.test.BaseTestCase;
+import com.vmware.admiral.common.util.ServiceDocumentQuery;
+import com.vmware.admiral.common.util.ServiceDocumentQuery.ServiceDocumentQueryElementResult;
+import com.vmware.admiral.service.common.ConfigurationService.ConfigurationFactoryService;
+import com.vmware.admiral.service.common.ConfigurationService.ConfigurationState;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.UriUtils;
+import com.vmware.xenon.common.test.TestContext;
+
+/**
+ * Reports the time of many single document lookups with a query task and with a GET to the
+ * document, a fifth of them for missing documents.
+ */
+public class ServiceDocumentLookupTest extends BaseTestCase {
+    private static final int LOOKUP_COUNT = Integer.getInteger(
+            "test.lookup.performance.count", 10_000);
+    private static final int LOOKUP_BATCH_SIZE = 500;
+
+    @Before
+    public void setUp() throws Throwable {
+        host.startService(Operation.createPost(UriUtils.buildUri(host,
+                ConfigurationFactoryService.class)), new ConfigurationFactoryService());
+        waitForServiceAvailability(ConfigurationFactoryService.SELF_LINK);
+    }
+
+    @Test
+    public void testLookupDocument() throws Throwable {
+        List<String> links = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            ConfigurationState state = new ConfigurationState();
+            state.key = "lookup-key-" + i;
+            state.value = "lookup-value-" + i;
+            state.documentSelfLink = state.key;
+            links.add(doPost(state, ConfigurationFactoryService.SELF_LINK).documentSelfLink);
+        }
+        for (int i = 0; i < 25; i++) {
+            links.add(UriUtils.buildUriPath(ConfigurationFactoryService.SELF_LINK,
+                    "missing-" + i));
+        }
+
+        ServiceDocumentQuery<ConfigurationState> query = new ServiceDocumentQuery<>(host,
+                ConfigurationState.class);
+
+        AtomicInteger foundByQuery = new AtomicInteger();
+        long queryMillis = runLookups(links, foundByQuery, query::queryDocument);
+
+        AtomicInteger foundByLookup = new AtomicInteger();
+        long lookupMillis = runLookups(links, foundByLookup, query::lookupDocument);
+
+        host.log("%d document lookups: query tasks %d ms, GET %d ms", LOOKUP_COUNT,
+                queryMillis, lookupMillis);
+        assertEquals(foundByQuery.get(), foundByLookup.get());
+    }
+
+    private long runLookups(List<String> links, AtomicInteger found,
+            BiConsumer<String,
+                    Consumer<ServiceDocumentQueryElementResult<ConfigurationState>>> lookup)
+            throws Throwable {
+        long start = System.nanoTime();
+        for (int batch = 0; batch < LOOKUP_COUNT; batch += LOOKUP_BATCH_SIZE) {
+            int batchEnd = Math.min(batch + LOOKUP_BATCH_SIZE, LOOKUP_COUNT);
+            TestContext ctx = testCreate(batchEnd - batch);
+            for (int i = batch; i < batchEnd; i++) {
+                lookup.accept(links.get(i % links.size()), (r) -> {
+                    if (r.hasException()) {
+                        ctx.failIteration(r.getException());
+                        return;
+                    }
+                    if (r.hasResult()) {
+                        found.incrementAndGet();
+                    }
+                    ctx.completeIteration();
+                });
+            }
+            ctx.await();
+        }
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2016 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.request.performance;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vmware.admiral.common.util.QueryUtil;
+import com.vmware.admiral.common.util.ServiceDocumentQuery;
+import com.vmware.admiral.compute.container.ContainerDescriptionService;
+import com.vmware.admiral.compute.container.ContainerDescriptionService.ContainerDescription;
+import com.vmware.admiral.request.PlacementHostSelectionTaskService.PlacementHostSelectionTaskState;
+import com.vmware.admiral.request.RequestBaseTest;
+import com.vmware.admiral.request.RequestBrokerService.RequestBrokerState;
+import com.vmware.admiral.request.ResourceNamePrefixTaskService.ResourceNamePrefixTaskState;
+import com.vmware.admiral.request.util.TestRequestStateFactory;
+import com.vmware.admiral.service.common.TaskServiceDocument;
+import com.vmware.admiral.service.test.MockDockerAdapterService;
+import com.vmware.photon.controller.model.resources.ComputeDescriptionService.ComputeDescription;
+import com.vmware.xenon.common.ServiceHost;
+import com.vmware.xenon.common.ServiceStats;
+import com.vmware.xenon.common.ServiceStats.ServiceStat;
+import com.vmware.xenon.common.test.TestContext;
+import com.vmware.xenon.services.common.LuceneDocumentIndexService;
+import com.vmware.xenon.services.common.QueryTask;
+import com.vmware.xenon.services.common.ServiceUriPaths;
+
+/**
+ * Provisions containers against the mock adapters and reports the number of index writes per
+ * container provisioned. The placement and the name prefix tasks are ephemeral and should not
+ * write to the index.
+ */
+public class EphemeralTasksIndexWritesTest extends RequestBaseTest {
+    private static final int REQUESTS_COUNT = Integer.getInteger(
+            "test.ephemeral.performance.requests.count", 100);
+    private static final int DOCKER_HOST_COUNT = Integer.getInteger(
+            "test.ephemeral.performance.docker.host.count", 5);
+
+    //should completely override the one in the base class
+    @Override
+    @Before
+    public void setUp() throws Throwable {
+        MockDockerAdapterService.resetContainers();
+        startServices(host);
+
+        setUpDockerHostAuthentication();
+        createResourcePool();
+        ComputeDescription dockerHostDesc = createDockerHostDescription();
+        for (int i = 0; i < DOCKER_HOST_COUNT; i++) {
+            createDockerHost(dockerHostDesc, resourcePool, true);
+        }
+        groupPlacementState = createGroupResourcePlacement(resourcePool, REQUESTS_COUNT);
+    }
+
+    @Test
+    public void testIndexWritesPerContainer() throws Throwable {
+        ContainerDescription desc = TestRequestStateFactory.createContainerDescription();
+        desc.portBindings = null;
+        ContainerDescription containerDesc = doPost(desc,
+                ContainerDescriptionService.FACTORY_LINK);
+
+        long indexWrites = getIndexedDocumentCount();
+        List<RequestBrokerState> requests = new ArrayList<>();
+        for (int i = 0; i < REQUESTS_COUNT; i++) {
+            RequestBrokerState request = TestRequestStateFactory.createRequestState();
+            request.resourceDescriptionLink = containerDesc.documentSelfLink;
+            request.tenantLinks = groupPlacementState.tenantLinks;
+            requests.add(startRequest(request));
+        }
+        for (RequestBrokerState request : requests) {
+            waitForRequestToComplete(request);
+        }
+        long writes = getIndexedDocumentCount() - indexWrites;
+
+        host.log("%d containers provisioned with %d index writes, %.1f writes per container",
+                REQUESTS_COUNT, writes, writes / (double) REQUESTS_COUNT);
+
+        assertEquals(REQUESTS_COUNT, MockDockerAdapterService.getNumberOfContainers());
+        assertEquals(0, countIndexedDocuments(PlacementHostSelectionTaskState.class));
+        assertEquals(0, countIndexedDocuments(ResourceNamePrefixTaskState.class));
+    }
+
+    private long getIndexedDocumentCount() throws Throwable {
+        ServiceStats stats = getDocument(ServiceStats.class,
+                ServiceUriPaths.CORE_DOCUMENT_INDEX + ServiceHost.SERVICE_URI_SUFFIX_STATS);
+        ServiceStat stat = stats.entries
+                .get(LuceneDocumentIndexService.STAT_NAME_INDEXED_DOCUMENT_COUNT);
+        return stat == null ? 0 : (long) stat.latestValue;
+    }
+
+    private <T extends TaskServiceDocument<?>> long countIndexedDocuments(Class<T> type) {
+        long[] result = new long[] { 0 };
+        TestContext ctx = testCreate(1);
+        QueryTask q = QueryUtil.buildQuery(type, false);
+        QueryUtil.addCountOption(q);
+
+        new ServiceDocumentQuery<T>(host, type).query(q, (r) -> {
+            if (r.hasException()) {
+                ctx.failIteration(r.getException());
+            } else if (r.hasResult()) {
+                result[0] = r.getCount();
+            } else {
+                ctx.completeIteration();
+            }
+        });
+        ctx.await();
+        return result[0];
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2016 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.request.performance;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vmware.admiral.compute.container.ContainerDescriptionService;
+import com.vmware.admiral.compute.container.ContainerDescriptionService.ContainerDescription;
+import com.vmware.admiral.request.RequestAdmissionService;
+import com.vmware.admiral.request.RequestAdmissionService.AdmissionStatus;
+import com.vmware.admiral.request.RequestBaseTest;
+import com.vmware.admiral.request.RequestBrokerFactoryService;
+import com.vmware.admiral.request.RequestBrokerService.RequestBrokerState;
+import com.vmware.admiral.request.RequestStatusService.RequestStatus;
+import com.vmware.admiral.request.util.TestRequestStateFactory;
+import com.vmware.admiral.service.test.MockDockerAdapterService;
+import com.vmware.photon.controller.model.resources.ComputeDescriptionService.ComputeDescription;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.UriUtils;
+import com.vmware.xenon.common.test.TestContext;
+
+/**
+ * Submits a burst of provisioning requests against the mock adapters and verifies that the
+ * {@link RequestAdmissionService} keeps the number of active requests bounded, queues the
+ * requests over the limit and rejects the ones over the queue size.
+ */
+public class RequestAdmissionLoadTest extends RequestBaseTest {
+    private static final int REQUESTS_COUNT = Integer.getInteger(
+            "test.admission.performance.requests.count", 1000);
+    private static final int MAX_ACTIVE_REQUESTS = Integer.getInteger(
+            "test.admission.performance.max.active", 20);
+    private static final int MAX_QUEUED_REQUESTS = Integer.getInteger(
+            "test.admission.performance.max.queued", 500);
+    private static final int DOCKER_HOST_COUNT = Integer.getInteger(
+            "test.admission.performance.docker.host.count", 10);
+
+    private int maxActiveRequests;
+    private int maxActiveRequestsPerTenant;
+    private int maxQueuedRequests;
+
+    //should completely override the one in the base class
+    @Override
+    @Before
+    public void setUp() throws Throwable {
+        maxActiveRequests = RequestAdmissionService.MAX_ACTIVE_REQUESTS;
+        maxActiveRequestsPerTenant = RequestAdmissionService.MAX_ACTIVE_REQUESTS_PER_TENANT;
+        maxQueuedRequests = RequestAdmissionService.MAX_QUEUED_REQUESTS;
+        setAdmissionLimits(MAX_ACTIVE_REQUESTS, MAX_ACTIVE_REQUESTS, MAX_QUEUED_REQUESTS);
+
+        MockDockerAdapterService.resetContainers();
+        startServices(host);
+        waitForServiceAvailability(RequestAdmissionService.SELF_LINK);
+
+        setUpDockerHostAuthentication();
+        createResourcePool();
+        ComputeDescription dockerHostDesc = createDockerHostDescription();
+        for (int i = 0; i < DOCKER_HOST_COUNT; i++) {
+            createDockerHost(dockerHostDesc, resourcePool, true);
+        }
+        groupPlacementState = createGroupResourcePlacement(resourcePool, REQUESTS_COUNT);
+    }
+
+    @After
+    public void tearDown() throws Throwable {
+        setAdmissionLimits(maxActiveRequests, maxActiveRequestsPerTenant, maxQueuedRequests);
+    }
+
+    @Test
+    public void testRequestsBurst() throws Throwable {
+        ContainerDescription desc = TestRequestStateFactory.createContainerDescription();
+        desc.portBindings = null;
+        ContainerDescription containerDesc = doPost(desc,
+                ContainerDescriptionService.FACTORY_LINK);
+
+        List<RequestBrokerState> accepted = new CopyOnWriteArrayList<>();
+        AtomicInteger rejected = new AtomicInteger();
+
+        long startTime = System.nanoTime();
+        TestContext ctx = testCreate(REQUESTS_COUNT);
+        for (int i = 0; i < REQUESTS_COUNT; i++) {
+            RequestBrokerState request = TestRequestStateFactory.createRequestState();
+            request.resourceDescriptionLink = containerDesc.documentSelfLink;
+            request.tenantLinks = groupPlacementState.tenantLinks;
+
+            host.send(Operation.createPost(UriUtils.buildUri(host,
+                    RequestBrokerFactoryService.SELF_LINK))
+                    .setBody(request)
+                    .setReferer(host.getUri())
+                    .setCompletion((o, e) -> {
+                        if (e == null) {
+                            accepted.add(o.getBody(RequestBrokerState.class));
+                            ctx.completeIteration();
+                        } else if (o.getStatusCode()
+                                == RequestAdmissionService.STATUS_CODE_TOO_MANY_REQUESTS
+                                && o.getResponseHeader(
+                                        RequestAdmissionService.RETRY_AFTER_HEADER) != null) {
+                            rejected.incrementAndGet();
+                            ctx.completeIteration();
+                        } else {
+                            ctx.failIteration(e);
+                        }
+                    }));
+        }
+        ctx.await();
+        long submitMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+
+        long queued = accepted.stream()
+                .filter((r) -> r.queuePosition != null && r.queuePosition > 0).count();
+        host.log("%d requests submitted in %d ms: %d accepted, %d queued, %d rejected",
+                REQUESTS_COUNT, submitMillis, accepted.size(), queued, rejected.get());
+
+        assertEquals(REQUESTS_COUNT, accepted.size() + rejected.get());
+        assertTrue(queued > 0);
+        assertTrue(rejected.get() > 0);
+
+        // the queued requests are visible in the request status
+        RequestBrokerState queuedRequest = accepted.stream()
+                .filter((r) -> r.queuePosition != null && r.queuePosition > 0)
+                .reduce((a, b) -> b).get();
+        RequestStatus queuedStatus = getDocument(RequestStatus.class,
+                queuedRequest.requestTrackerLink);
+        assertNotNull(queuedStatus.queued);
+
+        for (RequestBrokerState request : accepted) {
+            waitForRequestToComplete(request);
+        }
+        long totalMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+        host.log("%d requests completed in %d ms", accepted.size(), totalMillis);
+
+        assertEquals(accepted.size(), MockDockerAdapterService.getNumberOfContainers());
+
+        waitFor(() -> Boolean.FALSE.equals(getDocument(RequestStatus.class,
+                queuedRequest.requestTrackerLink).queued));
+
+        AdmissionStatus status = getDocument(AdmissionStatus.class,
+                RequestAdmissionService.SELF_LINK);
+        assertEquals(0, status.activeCount);
+        assertEquals(0, status.queuedCount);
+        assertTrue("max active " + status.maxActiveCount,
+                status.maxActiveCount <= MAX_ACTIVE_REQUESTS);
+    }
+
+    private static void setAdmissionLimits(int maxActive, int maxActivePerTenant, int maxQueued)
+            throws Exception {
+        setFinalStatic(RequestAdmissionService.class.getDeclaredField("MAX_ACTIVE_REQUESTS"),
+                maxActive);
+        setFinalStatic(RequestAdmissionService.class
+                .getDeclaredField("MAX_ACTIVE_REQUESTS_PER_TENANT"), maxActivePerTenant);
+        setFinalStatic(RequestAdmissionService.class.getDeclaredField("MAX_QUEUED_REQUESTS"),
+                maxQueued);
+    }
+}